@@ -0,0 +1,137 @@
+package de.golfgl.lightblocks.benchmark;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import de.golfgl.lightblocks.model.BenchmarkFixtures;
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.Tetromino;
+import de.golfgl.lightblocks.state.Replay;
+
+/**
+ * Recording a replay, opening it like the replay dialog and the battle mode do, and scrubbing
+ * through it. The replays are recorded from a game that moves, rotates and drops the pieces the way
+ * a player does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReplayBenchmark {
+    @Param({"100", "3000"})
+    public int pieces;
+
+    private String serializedReplay;
+    private Replay replay;
+    private int[] scrubTimes;
+    private int scrubPos;
+
+    @Setup
+    public void setUp() {
+        Replay recorded = new Replay();
+        recordGame(recorded, pieces, 1);
+        serializedReplay = recorded.toString();
+
+        replay = new Replay();
+        replay.fromString(serializedReplay);
+        int maxTime = replay.getLastStep().timeMs;
+        scrubTimes = new int[64];
+        for (int i = 0; i < scrubTimes.length; i++)
+            scrubTimes[i] = MathUtils.random(maxTime);
+    }
+
+    /**
+     * plays the given number of pieces: some moves and rotations at gravity speed, then a drop
+     */
+    static void recordGame(Replay replay, int pieces, long seed) {
+        MathUtils.random.setSeed(seed);
+        Gameboard gameboard = BenchmarkFixtures.newEmptyGameboard();
+        IntArray fullRows = new IntArray();
+        int timeMs = 0;
+        int score = 0;
+        for (int piece = 0; piece < pieces; piece++) {
+            Tetromino tetromino = BenchmarkFixtures.newTetromino(MathUtils.random(Tetromino.TETROMINO_NUMBER - 1),
+                    true);
+            if (!gameboard.isValidPosition(tetromino, tetromino.getPosition(), tetromino.getCurrentRotation()))
+                gameboard = BenchmarkFixtures.newEmptyGameboard();
+            replay.addNextPieceStep(timeMs, gameboard, tetromino);
+
+            for (int rotations = MathUtils.random(3); rotations > 0; rotations--) {
+                timeMs += 100 + MathUtils.random(50);
+                int rotation = tetromino.getCurrentRotation() + 1;
+                if (gameboard.isValidPosition(tetromino, tetromino.getPosition(), rotation)) {
+                    tetromino.setRotation(rotation);
+                    replay.addRotatePieceStep(timeMs, tetromino);
+                }
+            }
+            int direction = MathUtils.randomSign();
+            for (int moves = MathUtils.random(4); moves > 0; moves--) {
+                timeMs += 100 + MathUtils.random(50);
+                if (gameboard.checkPossibleMoveDistance(true, direction, tetromino) != 0) {
+                    tetromino.getPosition().x += direction;
+                    replay.addMovePieceStep(timeMs, true, (byte) direction);
+                }
+            }
+            while (gameboard.checkPossibleMoveDistance(false, -1, tetromino) != 0) {
+                timeMs += 50;
+                tetromino.getPosition().y -= 1;
+                replay.addMovePieceStep(timeMs, false, (byte) -1);
+            }
+
+            Replay.ReplayDropPieceStep dropStep = replay.addDropStep(timeMs, tetromino);
+            gameboard.pinTetromino(tetromino);
+            fullRows.clear();
+            for (int row = 0; row < Gameboard.GAMEBOARD_ALLROWS; row++)
+                if (gameboard.isRowFull(row))
+                    fullRows.add(row);
+            if (fullRows.size > 0)
+                gameboard.clearLines(fullRows);
+            score += 10 + 100 * fullRows.size;
+            dropStep.setScore(score);
+            dropStep.setRemovedLines(fullRows.size);
+        }
+    }
+
+    /**
+     * recording while playing the game, with -prof gc for the allocations of the replay
+     */
+    @Benchmark
+    public Replay record() {
+        Replay recorded = new Replay();
+        recordGame(recorded, pieces, 1);
+        return recorded;
+    }
+
+    /**
+     * what the battle mode does with the opponent's replay
+     */
+    @Benchmark
+    public void openAndSeekToEnd(Blackhole blackhole) {
+        Replay opened = new Replay();
+        opened.fromString(serializedReplay);
+        blackhole.consume(opened.seekToLastStep());
+        blackhole.consume(opened.getCurrentAdditionalInformation());
+        blackhole.consume(opened.getCurrentGameboard());
+    }
+
+    /**
+     * jumping on the timeline of the replay dialog
+     */
+    @Benchmark
+    public void scrub(Blackhole blackhole) {
+        blackhole.consume(replay.seekToTimePos(scrubTimes[scrubPos++ & (scrubTimes.length - 1)]));
+        blackhole.consume(replay.getCurrentAdditionalInformation());
+        blackhole.consume(replay.getCurrentGameboard());
+    }
+}
@@ -0,0 +1,57 @@
+package de.golfgl.lightblocks.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import de.golfgl.lightblocks.model.BenchmarkFixtures;
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.Tetromino;
+import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer;
+
+/**
+ * The AI's search looking further ahead with the preview queue, without a time budget. The
+ * candidates are searched on the common fork-join pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LookaheadBenchmark {
+    @Param({"3", "5"})
+    public int depth;
+
+    @Param({"4", "8"})
+    public int beamWidth;
+
+    private Gameboard gameboard;
+    private Tetromino activePiece;
+    private ArtificialPlayer artificialPlayer;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.initHeadlessApplication();
+        gameboard = BenchmarkFixtures.newMidGameGameboard(1);
+        activePiece = BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_T, true);
+        FixedGameModel model = new FixedGameModel(false,
+                BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_L, true), null,
+                BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_S, true),
+                BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_O, true),
+                BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_I, true));
+        artificialPlayer = new ArtificialPlayer(model, new FixedGameModel(false, null, null));
+        artificialPlayer.setLookahead(depth, beamWidth, 0, ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public ArtificialPlayer onNextPiece() {
+        artificialPlayer.onNextPiece(gameboard, activePiece);
+        return artificialPlayer;
+    }
+}
@@ -0,0 +1,159 @@
+package de.golfgl.lightblocks.benchmark;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.IntArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import de.golfgl.lightblocks.model.BenchmarkFixtures;
+import de.golfgl.lightblocks.model.GameScore;
+import de.golfgl.lightblocks.model.IGameModelListener;
+import de.golfgl.lightblocks.model.ServerMultiplayerModel;
+import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer;
+import de.golfgl.lightblocks.state.InitGameParameters;
+
+/**
+ * A single tick of a server match with an artificial player on both sides, as done by the match
+ * scheduler for every match 60 times a second. Most ticks only move the pieces, every few ticks
+ * a piece is dropped and the AI decides where to put the next one. With the AI pool, the decisions
+ * are made on another thread, like on the server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServerModelTickBenchmark {
+    private static final float TICK_DELTA = 1 / 60f;
+
+    @Param({"0", "1"})
+    public int modeType;
+
+    @Param({"false", "true"})
+    public boolean aiPool;
+
+    private ServerMultiplayerModel gameModel;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.initHeadlessApplication();
+        MathUtils.random.setSeed(1);
+        if (aiPool)
+            pool = new ForkJoinPool(1);
+        startNewGame();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    private void startNewGame() {
+        InitGameParameters gameParams = new InitGameParameters();
+        gameParams.setModeType(modeType);
+        gameParams.setBeginningLevel(0);
+
+        gameModel = new ServerMultiplayerModel();
+        gameModel.startNewGame(gameParams);
+        ServerMultiplayerModel secondGameModel = gameModel.getSecondGameModel();
+        ArtificialPlayer aiPlayer = new ArtificialPlayer(gameModel, secondGameModel);
+        ArtificialPlayer secondAiPlayer = new ArtificialPlayer(secondGameModel, gameModel);
+        aiPlayer.setExecutor(pool);
+        secondAiPlayer.setExecutor(pool);
+        gameModel.setAiPlayer(aiPlayer);
+        secondGameModel.setAiPlayer(secondAiPlayer);
+        gameModel.setUserInterface(new NoOpListener());
+        secondGameModel.setUserInterface(new NoOpListener());
+    }
+
+    @Benchmark
+    public ServerMultiplayerModel update() {
+        // the AIs play until one of them loses, then the next game starts
+        if (gameModel.isGameOver())
+            startNewGame();
+
+        gameModel.update(TICK_DELTA);
+        return gameModel;
+    }
+
+    /**
+     * Stands in for the match's listener, without encoding and sending anything
+     */
+    private static class NoOpListener implements IGameModelListener {
+        @Override
+        public void insertNewBlock(int x, int y, int blockType) {
+        }
+
+        @Override
+        public void moveTetro(long piece, int dx, int dy, int ghostPieceDistance) {
+        }
+
+        @Override
+        public void rotateTetro(long oldPiece, long newPiece, int ghostPieceDistance) {
+        }
+
+        @Override
+        public void clearAndInsertLines(IntArray linesToRemove, boolean special, int[] garbageHolePosition) {
+        }
+
+        @Override
+        public void markAndMoveFreezedLines(boolean playSoundAndMove, IntArray removedLines, IntArray fullLines) {
+        }
+
+        @Override
+        public void setGameOver() {
+        }
+
+        @Override
+        public void showNextTetro(long relativePiece, int blockType) {
+        }
+
+        @Override
+        public void activateNextTetro(long piece, int blockType, int ghostPieceDistance) {
+        }
+
+        @Override
+        public void swapHoldAndActivePiece(long newHoldPiece, long oldActivePiece, long newActivePiece,
+                                           int ghostPieceDistance, int holdBlockType) {
+        }
+
+        @Override
+        public void pinTetromino(long piece) {
+        }
+
+        @Override
+        public void updateScore(GameScore score, int gainedScore) {
+        }
+
+        @Override
+        public void markConflict(int x, int y) {
+        }
+
+        @Override
+        public void showMotivation(MotivationTypes achievement, String extra) {
+        }
+
+        @Override
+        public void showGarbageAmount(int lines) {
+        }
+
+        @Override
+        public void showComboHeight(int comboHeight) {
+        }
+
+        @Override
+        public void emphasizeTimeLabel() {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.golfgl.lightblocks.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import de.golfgl.lightblocks.model.BenchmarkFixtures;
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.Tetromino;
+import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer;
+
+/**
+ * The AI's search for the best place of a new piece, with and without taking the hold piece into
+ * account. The search covers the active and the next piece, so it runs through every drop
+ * position of both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ArtificialPlayerBenchmark {
+    @Param({"false", "true"})
+    public boolean holdAllowed;
+
+    private Gameboard gameboard;
+    private Tetromino activePiece;
+    private ArtificialPlayer artificialPlayer;
+
+    @Setup
+    public void setUp() {
+        BenchmarkFixtures.initHeadlessApplication();
+        gameboard = BenchmarkFixtures.newMidGameGameboard(1);
+        activePiece = BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_T, true);
+        FixedGameModel model = new FixedGameModel(holdAllowed,
+                BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_L, true),
+                BenchmarkFixtures.newTetromino(Tetromino.TETRO_IDX_I, true));
+        artificialPlayer = new ArtificialPlayer(model, new FixedGameModel(false, null, null));
+    }
+
+    @Benchmark
+    public ArtificialPlayer onNextPiece() {
+        artificialPlayer.onNextPiece(gameboard, activePiece);
+        return artificialPlayer;
+    }
+}
@@ -0,0 +1,109 @@
+package de.golfgl.lightblocks.benchmark;
+
+import de.golfgl.lightblocks.input.InputIdentifier;
+import de.golfgl.lightblocks.model.GameScore;
+import de.golfgl.lightblocks.model.Tetromino;
+import de.golfgl.lightblocks.multiplayer.ai.AiAcessibleGameModel;
+
+/**
+ * Game model that always shows the same next, hold and preview pieces and ignores all inputs
+ */
+class FixedGameModel implements AiAcessibleGameModel {
+    private final boolean holdAllowed;
+    private final Tetromino nextPiece;
+    private final Tetromino holdPiece;
+    private final Tetromino[] previewPieces;
+    private final GameScore score = new GameScore();
+
+    FixedGameModel(boolean holdAllowed, Tetromino nextPiece, Tetromino holdPiece, Tetromino... previewPieces) {
+        this.holdAllowed = holdAllowed;
+        this.nextPiece = nextPiece;
+        this.holdPiece = holdPiece;
+        this.previewPieces = previewPieces;
+    }
+
+    @Override
+    public Tetromino getNextTetromino() {
+        return nextPiece;
+    }
+
+    // only the server's copy of the interface has the preview, so no @Override here
+    public Tetromino getPreviewTetromino(int index) {
+        return index < previewPieces.length ? previewPieces[index] : null;
+    }
+
+    @Override
+    public Tetromino getHoldTetromino() {
+        return holdPiece;
+    }
+
+    @Override
+    public boolean isHoldMoveAllowedByModel() {
+        return holdAllowed;
+    }
+
+    @Override
+    public boolean isComboScoreAllowedByModel() {
+        return true;
+    }
+
+    @Override
+    public boolean inputHoldActiveTetromino(InputIdentifier inputId) {
+        return false;
+    }
+
+    @Override
+    public boolean isGameOver() {
+        return false;
+    }
+
+    @Override
+    public void inputSetSoftDropFactor(InputIdentifier inputId, float newVal) {
+    }
+
+    @Override
+    public void inputRotate(InputIdentifier inputId, boolean clockwise) {
+    }
+
+    @Override
+    public boolean inputTimelabelTouched(InputIdentifier inputId) {
+        return false;
+    }
+
+    @Override
+    public void inputStartMoveHorizontal(InputIdentifier inputId, boolean isLeft) {
+    }
+
+    @Override
+    public void inputDoOneHorizontalMove(InputIdentifier inputId, boolean isLeft) {
+    }
+
+    @Override
+    public void inputEndMoveHorizontal(InputIdentifier inputId, boolean isLeft) {
+    }
+
+    @Override
+    public boolean isModernRotation() {
+        return true;
+    }
+
+    @Override
+    public int getLinesToClear() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxBlocksToUse() {
+        return 0;
+    }
+
+    @Override
+    public boolean hasSecondGameboard() {
+        return true;
+    }
+
+    @Override
+    public GameScore getScore() {
+        return score;
+    }
+}
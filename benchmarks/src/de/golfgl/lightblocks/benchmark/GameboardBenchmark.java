@@ -0,0 +1,92 @@
+package de.golfgl.lightblocks.benchmark;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import de.golfgl.lightblocks.model.BenchmarkFixtures;
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.Tetromino;
+
+/**
+ * Collision checks and line operations of the gameboard, done on a board in the middle of a game
+ * for every piece type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GameboardBenchmark {
+    private Gameboard gameboard;
+    private Tetromino[] tetrominos;
+    private final Vector2 testPosition = new Vector2();
+    private final IntArray linesToRemove = new IntArray();
+    private final int[] garbageHoles = {3, 7};
+
+    @Setup
+    public void setUp() {
+        gameboard = BenchmarkFixtures.newMidGameGameboard(1);
+        tetrominos = BenchmarkFixtures.newAllTetrominos(true);
+        // the inserted garbage lines are the ones removed again
+        for (int i = 0; i < garbageHoles.length; i++)
+            linesToRemove.add(i);
+    }
+
+    /**
+     * a column of positions from the spawn point down into the stack, in every rotation
+     */
+    @Benchmark
+    public void isValidPosition(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos) {
+            Vector2 spawn = tetromino.getPosition();
+            for (int rotation = 0; rotation < 4; rotation++) {
+                for (int y = 0; y < Gameboard.GAMEBOARD_NORMALROWS; y += 4) {
+                    testPosition.set(spawn.x, y);
+                    blackhole.consume(gameboard.isValidPosition(tetromino, testPosition, rotation));
+                }
+            }
+        }
+    }
+
+    /**
+     * what the model does after every move and rotation to show the ghost piece
+     */
+    @Benchmark
+    public void getGhostPieceDistance(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos) {
+            for (int horizontalMove = -3; horizontalMove <= 3; horizontalMove++)
+                blackhole.consume(gameboard.getGhostPieceDistance(tetromino, horizontalMove));
+        }
+    }
+
+    /**
+     * auto shift to both walls and a soft drop as far as possible
+     */
+    @Benchmark
+    public void checkPossibleMoveDistance(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos) {
+            blackhole.consume(gameboard.checkPossibleMoveDistance(true, -Gameboard.GAMEBOARD_COLUMNS, tetromino));
+            blackhole.consume(gameboard.checkPossibleMoveDistance(true, Gameboard.GAMEBOARD_COLUMNS, tetromino));
+            blackhole.consume(gameboard.checkPossibleMoveDistance(false, -Gameboard.GAMEBOARD_ALLROWS, tetromino));
+        }
+    }
+
+    /**
+     * receiving two lines of garbage and clearing them again, which leaves the board as it was
+     */
+    @Benchmark
+    public int[][] insertAndClearLines() {
+        gameboard.insertLines(garbageHoles);
+        gameboard.clearLines(linesToRemove);
+        return gameboard.getGameboardSquares();
+    }
+}
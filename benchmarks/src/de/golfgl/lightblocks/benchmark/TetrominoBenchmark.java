@@ -0,0 +1,83 @@
+package de.golfgl.lightblocks.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import de.golfgl.lightblocks.model.BenchmarkFixtures;
+import de.golfgl.lightblocks.model.Tetromino;
+
+/**
+ * Block positions and wall kicks of every piece type, as needed for every move and rotation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TetrominoBenchmark {
+    // super rotation system or the original nintendo rotation system
+    @Param({"true", "false"})
+    public boolean srs;
+
+    private Tetromino[] tetrominos;
+
+    @Setup
+    public void setUp() {
+        tetrominos = BenchmarkFixtures.newAllTetrominos(srs);
+    }
+
+    @Benchmark
+    public void getCurrentBlockPositions(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                tetromino.setRotation(rotation);
+                blackhole.consume(tetromino.getCurrentBlockPositions());
+            }
+        }
+    }
+
+    @Benchmark
+    public void getRelativeBlockPositions(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos)
+            blackhole.consume(tetromino.getRelativeBlockPositions());
+    }
+
+    /**
+     * all four kick tests in both directions from every rotation
+     */
+    @Benchmark
+    public void getWallkickPosition(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                tetromino.setRotation(rotation);
+                for (int i = 0; i <= 3; i++) {
+                    blackhole.consume(tetromino.getWallkickPosition(i, true));
+                    blackhole.consume(tetromino.getWallkickPosition(i, false));
+                }
+            }
+        }
+    }
+
+    /**
+     * the same kick tests with the primitive offsets, as the model does them
+     */
+    @Benchmark
+    public void getWallkickOffset(Blackhole blackhole) {
+        for (Tetromino tetromino : tetrominos) {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                tetromino.setRotation(rotation);
+                for (int i = 0; i < Tetromino.WALLKICK_TEST_COUNT; i++) {
+                    blackhole.consume(tetromino.getWallkickOffsetX(i, true) + tetromino.getWallkickOffsetY(i, true));
+                    blackhole.consume(tetromino.getWallkickOffsetX(i, false) + tetromino.getWallkickOffsetY(i, false));
+                }
+            }
+        }
+    }
+}
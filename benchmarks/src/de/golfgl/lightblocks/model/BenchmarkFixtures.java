@@ -0,0 +1,69 @@
+package de.golfgl.lightblocks.model;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * Creates boards and pieces for the benchmarks. Lives in the model package because the
+ * constructors of Gameboard and Tetromino are not public. Compiled against the core and against
+ * the server copy of the model, so it must only use what both of them have.
+ */
+public class BenchmarkFixtures {
+    // column heights of a typical board in the middle of a game
+    private static final int[] STACK_HEIGHTS = {6, 5, 7, 4, 4, 6, 8, 7, 5, 0};
+
+    /**
+     * the model logs via Gdx.app, so there must be an application
+     */
+    public static synchronized void initHeadlessApplication() {
+        if (Gdx.app != null)
+            return;
+
+        HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+        // the application is only needed for logging, never render
+        config.updatesPerSecond = -1;
+        new HeadlessApplication(new ApplicationAdapter() {
+        }, config);
+        Gdx.app.setLogLevel(Application.LOG_NONE);
+    }
+
+    public static Gameboard newEmptyGameboard() {
+        return new Gameboard();
+    }
+
+    /**
+     * @return a board with a ragged stack and some holes, the same for every seed
+     */
+    public static Gameboard newMidGameGameboard(long seed) {
+        MathUtils.random.setSeed(seed);
+        Gameboard gameboard = new Gameboard();
+        int[][] squares = gameboard.getGameboardSquares();
+        for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
+            for (int y = 0; y < STACK_HEIGHTS[x]; y++) {
+                // every fifth block is left empty to make holes
+                if (MathUtils.random(4) > 0 || y == STACK_HEIGHTS[x] - 1)
+                    squares[y][x] = MathUtils.random(Tetromino.TETROMINO_NUMBER - 1);
+            }
+        }
+        gameboard.updateOccupancy();
+        return gameboard;
+    }
+
+    public static Tetromino newTetromino(int type, boolean srs) {
+        return new Tetromino(type, srs);
+    }
+
+    /**
+     * @return one piece of every type at its spawn position
+     */
+    public static Tetromino[] newAllTetrominos(boolean srs) {
+        Tetromino[] tetrominos = new Tetromino[Tetromino.TETROMINO_NUMBER];
+        for (int i = 0; i < tetrominos.length; i++)
+            tetrominos[i] = new Tetromino(i, srs);
+        return tetrominos;
+    }
+}
@@ -1,6 +1,7 @@
 package de.golfgl.lightblocks.model;
 
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.RandomXS128;
 
 import de.golfgl.lightblocks.state.BestScore;
 import de.golfgl.lightblocks.state.InitGameParameters;
@@ -54,12 +55,6 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
         }
     }
 
-    @Override
-    protected void activeTetrominoDropped() {
-        super.activeTetrominoDropped();
-        modelConnector.syncDrawers();
-    }
-
     @Override
     public void setBestScore(BestScore bestScore) {
         super.setBestScore(bestScore);
@@ -163,8 +158,10 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
      * sent lines and end of game
      */
     private static class ModelConnector {
+        // garbage gaps are drawn independently from the pieces of the same seed
+        private static final long GARBAGE_SEED = 0x6761726261676565L;
+
         private final int modeType;
-        private final TetrominoDrawyer firstDrawer;
         private final TetrominoDrawyer secondDrawer;
         private final int[] garbageGapPos;
         private int secondPlayerWaitingGarbage = 0;
@@ -175,31 +172,17 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
 
         public ModelConnector(int modeType, TetrominoDrawyer drawer) {
             this.modeType = modeType;
-            this.firstDrawer = drawer;
+            long seed = MathUtils.random.nextLong();
+
+            // both players draw the same pieces from the match's seed, so nothing has to be copied between them
+            drawer.setRandomSeed(seed);
             this.secondDrawer = new TetrominoDrawyer();
-            firstDrawer.determineNextTetrominos();
-            secondDrawer.queueNextTetrominos(firstDrawer.getDrawyerQueue().toArray());
+            secondDrawer.setRandomSeed(seed);
 
+            RandomXS128 garbageRandom = new RandomXS128(seed ^ GARBAGE_SEED);
             garbageGapPos = new int[10];
             for (byte i = 0; i < garbageGapPos.length; i++) {
-                garbageGapPos[i] = MathUtils.random(0, Gameboard.GAMEBOARD_COLUMNS - 1);
-            }
-        }
-
-        private void syncDrawers() {
-            if (firstDrawer.drawyer.size < 5 || secondDrawer.drawyer.size < 5) {
-                // time to get the next tetros. We always use the first drawer
-                int offset = firstDrawer.drawyer.size;
-                firstDrawer.determineNextTetrominos();
-                int drawnTetros = firstDrawer.drawyer.size - offset;
-
-                int[] nextTetrominos = new int[drawnTetros];
-
-                for (int i = 0; i < drawnTetros; i++) {
-                    nextTetrominos[i] = firstDrawer.drawyer.get(i + offset);
-                }
-
-                secondDrawer.queueNextTetrominos(nextTetrominos);
+                garbageGapPos[i] = garbageRandom.nextInt(Gameboard.GAMEBOARD_COLUMNS);
             }
         }
 
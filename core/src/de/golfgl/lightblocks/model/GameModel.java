@@ -36,7 +36,7 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
     private static final float REPEAT_START_OFFSET = 0.3f;
     private static final float REPEAT_INTERVAL = 0.05f;
     protected static final float SOFT_DROP_SPEED = 30.0f;
-    private static final float MAX_DROP_SCORE = 2f;
+    static final float MAX_DROP_SCORE = 2f;
     // Speicherhaltung
     public TotalScore totalScore;
     protected LightBlocksGame app;
@@ -190,7 +190,7 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
 
         if (maxDistance > 0) {
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-            uiGameboard.moveTetro(activeTetromino.getCurrentBlockPositions(), 0, -maxDistance,
+            uiGameboard.moveTetro(activeTetromino.getPackedBlockPositions(), 0, -maxDistance,
                     ghostPieceDistance);
             activeTetromino.getPosition().y -= maxDistance;
             activeTetromino.setLastMovementType(0);
@@ -221,7 +221,7 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
         Replay.ReplayStep replayStep = replay.addDropStep(score.getTimeMs(), activeTetromino);
         activeTetrominoWillDrop();
         gameboard.pinTetromino(activeTetromino);
-        uiGameboard.pinTetromino(activeTetromino.getCurrentBlockPositions());
+        uiGameboard.pinTetromino(activeTetromino.getPackedBlockPositions());
         noDropSinceHoldMove = false;
 
         // T-Spin? 1. T, 2. letzte Bewegung ist Drehung, 3. drei Felder um Rotationszentrum sind belegt
@@ -514,7 +514,7 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
 
         if (maxDistance != 0) {
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, maxDistance);
-            uiGameboard.moveTetro(activeTetromino.getCurrentBlockPositions(), maxDistance, 0,
+            uiGameboard.moveTetro(activeTetromino.getPackedBlockPositions(), maxDistance, 0,
                     ghostPieceDistance);
             activeTetromino.getPosition().x += maxDistance;
             activeTetromino.setLastMovementType(0);
@@ -526,9 +526,12 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
         if (maxDistance != distance) {
             int signum = (distance > 0 ? 1 : -1);
 
-            for (Integer[] coord : activeTetromino.getCurrentBlockPositions()) {
-                if (gameboard.isValidCoordinate(coord[0] + signum, coord[1]) == 1)
-                    uiGameboard.markConflict(coord[0] + signum, coord[1]);
+            long piece = activeTetromino.getPackedBlockPositions();
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                int x = PackedPiece.getX(piece, i) + signum;
+                int y = PackedPiece.getY(piece, i);
+                if (gameboard.isValidCoordinate(x, y) == 1)
+                    uiGameboard.markConflict(x, y);
             }
         }
 
@@ -538,30 +541,31 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
     protected void rotate(boolean clockwise) {
         int newRotation = activeTetromino.getCurrentRotation() + (clockwise ? 1 : -1);
 
-        boolean foundValidPosition = gameboard.isValidPosition(activeTetromino, activeTetromino.getPosition(),
-                newRotation);
-        Vector2 wallkickPos = null;
+        final int posX = activeTetromino.getPositionX();
+        final int posY = activeTetromino.getPositionY();
+        boolean foundValidPosition = gameboard.isValidPosition(activeTetromino, posX, posY, newRotation);
+        int wallkickX = 0;
+        int wallkickY = 0;
 
         if (!foundValidPosition && isModernRotation() && activeTetromino.getTetrominoType() != Tetromino.TETRO_IDX_O) {
             // Wallkicks testen
-            for (int i = 0; i <= 3 && !foundValidPosition; i++) {
-                wallkickPos = activeTetromino.getWallkickPosition(i, clockwise);
-                foundValidPosition = gameboard.isValidPosition(activeTetromino, wallkickPos, newRotation);
+            for (int i = 0; i < Tetromino.WALLKICK_TEST_COUNT && !foundValidPosition; i++) {
+                wallkickX = activeTetromino.getWallkickOffsetX(i, clockwise);
+                wallkickY = activeTetromino.getWallkickOffsetY(i, clockwise);
+                foundValidPosition = gameboard.isValidPosition(activeTetromino, posX + wallkickX,
+                        posY + wallkickY, newRotation);
             }
         }
 
         if (foundValidPosition) {
 
-            // Die Position und auch die Einzelteile darin muss geclonet werden, um nicht
-            // durch die Rotation verloren zu gehen
-            Integer[][] oldBlockPositionsNewArray = cloneDoubleIntegerArray(activeTetromino.getCurrentBlockPositions());
+            long oldPiece = activeTetromino.getPackedBlockPositions();
 
-            if (wallkickPos != null)
-                activeTetromino.getPosition().set(wallkickPos);
+            activeTetromino.getPosition().add(wallkickX, wallkickY);
             activeTetromino.setRotation(newRotation);
 
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-            uiGameboard.rotateTetro(oldBlockPositionsNewArray, activeTetromino.getCurrentBlockPositions(),
+            uiGameboard.rotateTetro(oldPiece, activeTetromino.getPackedBlockPositions(),
                     ghostPieceDistance);
             lastMovementMs = score.getTimeMs();
             activeTetromino.incLockDelayCount(1);
@@ -569,15 +573,6 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
         }
     }
 
-    private Integer[][] cloneDoubleIntegerArray(Integer[][] arrayToClone) {
-        Integer[][] clonedArray = new Integer[arrayToClone.length][2];
-        for (int i = 0; i < arrayToClone.length; i++) {
-            clonedArray[i][0] = new Integer(arrayToClone[i][0]);
-            clonedArray[i][1] = new Integer(arrayToClone[i][1]);
-        }
-        return clonedArray;
-    }
-
     /**
      * setzt die Freeze-Zeit auf den angegebenen Wert, wenn er höher als der aktuelle ist.
      */
@@ -597,13 +592,13 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
         if (!isHoldMoveAllowedByModel() || noDropSinceHoldMove || isGameOver)
             return false;
 
-        Integer[][] newHoldPositions = cloneDoubleIntegerArray(activeTetromino.getRelativeBlockPositions());
-        Integer[][] oldActivePositions = cloneDoubleIntegerArray(activeTetromino.getCurrentBlockPositions());
+        long newHoldPiece = activeTetromino.getPackedRelativeBlockPositions();
+        long oldActivePiece = activeTetromino.getPackedBlockPositions();
 
         if (onHoldTetromino < 0) {
             // Der erste durchgeführte Hold
             onHoldTetromino = activeTetromino.getTetrominoType();
-            uiGameboard.swapHoldAndActivePiece(newHoldPositions, oldActivePositions, null, 0,
+            uiGameboard.swapHoldAndActivePiece(newHoldPiece, oldActivePiece, PackedPiece.NONE, 0,
                     onHoldTetromino);
 
             activateNextTetromino();
@@ -614,8 +609,8 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
             onHoldTetromino = tmp.getTetrominoType();
             checkActiveTetroPosBeforeUiInformed();
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-            uiGameboard.swapHoldAndActivePiece(newHoldPositions, oldActivePositions,
-                    activeTetromino.getCurrentBlockPositions(), ghostPieceDistance, onHoldTetromino);
+            uiGameboard.swapHoldAndActivePiece(newHoldPiece, oldActivePiece,
+                    activeTetromino.getPackedBlockPositions(), ghostPieceDistance, onHoldTetromino);
 
             resetMovementsAndCheckActiveTetroPos();
 
@@ -720,9 +715,9 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
      */
     protected void fireUserInterfaceTetrominoSwap() {
         int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-        uiGameboard.activateNextTetro(activeTetromino.getCurrentBlockPositions(), activeTetromino.getTetrominoType(),
+        uiGameboard.activateNextTetro(activeTetromino.getPackedBlockPositions(), activeTetromino.getTetrominoType(),
                 ghostPieceDistance);
-        uiGameboard.showNextTetro(nextTetromino.getRelativeBlockPositions(), nextTetromino.getTetrominoType());
+        uiGameboard.showNextTetro(nextTetromino.getPackedRelativeBlockPositions(), nextTetromino.getTetrominoType());
     }
 
     @Override
@@ -836,8 +831,8 @@ public abstract class GameModel implements Json.Serializable, AiAcessibleGameMod
         // und auch die aktiven Tetrominos
         fireUserInterfaceTetrominoSwap();
         if (this.onHoldTetromino >= 0)
-            uiGameboard.swapHoldAndActivePiece(new Tetromino(onHoldTetromino, isModernRotation()).getRelativeBlockPositions(),
-                    null, null, 0, onHoldTetromino);
+            uiGameboard.swapHoldAndActivePiece(new Tetromino(onHoldTetromino, isModernRotation()).getPackedRelativeBlockPositions(),
+                    PackedPiece.NONE, PackedPiece.NONE, 0, onHoldTetromino);
 
         // Score
         uiGameboard.updateScore(score, 0);
@@ -150,7 +150,7 @@ public class MultiplayerModel extends GameModel {
             uninitializedPlayers.remove(playerRoom.getMyPlayerId());
 
             MultiPlayerObjects.InitGame initGame = new MultiPlayerObjects.InitGame();
-            initGame.firstTetrominos = drawyer.drawyer.toArray();
+            initGame.firstTetrominos = drawyer.getDrawyerQueue().toArray();
             initGame.garbageHolePosition = this.garbageHolePosition;
             playerRoom.sendToAllPlayers(initGame);
             tetrominosSent = initGame.firstTetrominos.length;
@@ -310,8 +310,14 @@ public class MultiplayerModel extends GameModel {
                 Gdx.app.error("Multiplayer", "Drawn tetros received but I am the referee.");
             else {
                 final int[] receivedTetros = ((MultiPlayerObjects.NextTetrosDrawn) o).nextTetrominos;
-                drawyer.queueNextTetrominos(receivedTetros);
-                tetrominosSent += receivedTetros.length;
+                // der Drawyer gehört dem Render-Thread
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        drawyer.queueNextTetrominos(receivedTetros);
+                        tetrominosSent += receivedTetros.length;
+                    }
+                });
             }
         }
 
@@ -346,17 +352,17 @@ public class MultiplayerModel extends GameModel {
         }
     }
 
-    protected void handleInitGame(MultiPlayerObjects.InitGame o) {
+    protected void handleInitGame(final MultiPlayerObjects.InitGame o) {
         if (isInitialized)
             Gdx.app.error("Multiplayer", "InitGame message received but already initialized");
         else {
-            drawyer.queueNextTetrominos(o.firstTetrominos);
             this.garbageHolePosition = o.garbageHolePosition;
 
             // ok, das war das init...
             Gdx.app.postRunnable(new Runnable() {
                 @Override
                 public void run() {
+                    drawyer.queueNextTetrominos(o.firstTetrominos);
                     isInitialized = true;
                     MultiplayerModel.super.initializeActiveAndNextTetromino();
                     // zurückmelden dass fertig initialisiert ist
@@ -435,28 +441,13 @@ public class MultiplayerModel extends GameModel {
 
                     playerRoom.sendToAllPlayers(pig);
 
-                    if (tetrominosSent - maxTetrosAPlayerDrawn <= 10) {
-                        // es wird zeit die nächsten Tetrominos zu ziehen
-                        int offset = drawyer.drawyer.size;
-                        for (int i = 0; i < DRAWYER_PACKAGESIZE; i++)
-                            drawyer.determineNextTetrominos();
-                        int drawnTetros = drawyer.drawyer.size - offset;
-
-                        // auf synchronized drawyer wird verzichtet. es kann nur noch der eigene Render-Thread
-                        // zugreifen,
-                        // und dieser wird nur lesen da ja genug Tetros da sind
-                        MultiPlayerObjects.NextTetrosDrawn nt = new MultiPlayerObjects.NextTetrosDrawn();
-
-                        nt.nextTetrominos = new int[drawnTetros];
-
-                        for (int i = 0; i < drawnTetros; i++) {
-                            nt.nextTetrominos[i] = drawyer.drawyer.get(i + offset);
+                    // der Drawyer gehört dem Render-Thread
+                    Gdx.app.postRunnable(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendNextTetrominosIfNeeded();
                         }
-                        playerRoom.sendToAllPlayers(nt);
-
-                        tetrominosSent += drawnTetros;
-
-                    }
+                    });
                 }
 
                 Gdx.app.postRunnable(new Runnable() {
@@ -470,6 +461,27 @@ public class MultiplayerModel extends GameModel {
         }
     }
 
+    private void sendNextTetrominosIfNeeded() {
+        if (tetrominosSent - maxTetrosAPlayerDrawn <= 10) {
+            // es wird zeit die nächsten Tetrominos zu ziehen
+            int offset = drawyer.getQueuedNum();
+            for (int i = 0; i < DRAWYER_PACKAGESIZE; i++)
+                drawyer.determineNextTetrominos();
+            int drawnTetros = drawyer.getQueuedNum() - offset;
+
+            MultiPlayerObjects.NextTetrosDrawn nt = new MultiPlayerObjects.NextTetrosDrawn();
+
+            nt.nextTetrominos = new int[drawnTetros];
+
+            for (int i = 0; i < drawnTetros; i++) {
+                nt.nextTetrominos[i] = drawyer.peekTetromino(i + offset);
+            }
+            playerRoom.sendToAllPlayers(nt);
+
+            tetrominosSent += drawnTetros;
+        }
+    }
+
     private void handlePlayerGameboard(final MultiPlayerObjects.ChatMessage gameboardInfo) {
         if (playerRoom.isOwner()) {
             playerRoom.sendToAllPlayersExcept(gameboardInfo.playerId, gameboardInfo);
@@ -0,0 +1,490 @@
+package de.golfgl.lightblocks.model;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import de.golfgl.lightblocks.state.Replay;
+
+/**
+ * Replays a {@link Replay} without UI against the rules of the game: every drop is pinned to a
+ * {@link Gameboard} of its own, full rows are cleared and the score is calculated by a
+ * {@link GameScore} the way {@link GameModel} does it, with T-Spins, combos, specials and the
+ * level progression. Every move and rotation of the active piece must be free of the stack, and
+ * every drop must rest on it. Everything that differs from what was recorded is reported as a mismatch.
+ * <p>
+ * The replay does not tell how fast a piece was soft dropped, so the soft drop score can't be
+ * recalculated. Every drop may have gained up to the soft drop score of the rows the piece fell,
+ * the score is only a mismatch beyond that. Marathon scores do not carry their beginning level,
+ * it is derived from the score of the first line clear unless given.
+ * <p>
+ * Only the modes whose scores go to the leaderboards by their line clears are supported. Not
+ * thread-safe, but cheap: use one verifier per thread.
+ */
+public class ReplayVerifier {
+    // the beginning level is derived up to this one, the speed does not rise any more after it
+    private static final int MAX_DERIVED_LEVEL = 29;
+    // a rotation moves the center of the piece by its wall kicks at most, a hold swap places it anew
+    private static final int MAX_ROTATION_SHIFT = 3;
+    // where new pieces and the pieces swapped from the hold are placed, in both rotation systems
+    private static final long[] SPAWN_POSITIONS = new long[Tetromino.TETROMINO_NUMBER * 2];
+
+    static {
+        for (int i = 0; i < SPAWN_POSITIONS.length; i++)
+            SPAWN_POSITIONS[i] = new Tetromino(i % Tetromino.TETROMINO_NUMBER, i >= Tetromino.TETROMINO_NUMBER)
+                    .getPackedBlockPositions();
+    }
+
+    private final int scoringType;
+    private final int beginningLevel;
+    private final boolean holdAllowed;
+    private final float maxSoftDropFactor;
+    private final boolean emptyStartBoard;
+    private final IntArray fullRows = new IntArray(Tetromino.TETROMINO_BLOCKCOUNT);
+    private final Array<Mismatch> mismatches = new Array<>();
+    private GameScore score;
+    private Gameboard gameboard;
+    private boolean levelKnown;
+    private int verifiedDrops;
+
+    private ReplayVerifier(int scoringType, int beginningLevel, boolean holdAllowed, float maxSoftDropFactor,
+                           boolean emptyStartBoard) {
+        this.scoringType = scoringType;
+        this.beginningLevel = beginningLevel;
+        this.holdAllowed = holdAllowed;
+        this.maxSoftDropFactor = maxSoftDropFactor;
+        this.emptyStartBoard = emptyStartBoard;
+    }
+
+    /**
+     * @param beginningLevel the level the game began with, negative to derive it from the replay
+     * @return verifier for replays of the given mode, or null if the mode is not supported
+     */
+    public static ReplayVerifier forGameMode(String gameModelId, int beginningLevel) {
+        if (gameModelId == null)
+            return null;
+
+        if (gameModelId.equalsIgnoreCase(MarathonModel.MODEL_MARATHON_NORMAL_ID)
+                || gameModelId.equalsIgnoreCase(MarathonModel.MODEL_MARATHON_GRAVITY_ID))
+            return new ReplayVerifier(GameScore.TYPE_NORMAL, beginningLevel, true, GameModel.MAX_DROP_SCORE, true);
+        if (gameModelId.equalsIgnoreCase(RetroMarathonModel.MODEL_MARATHON_RETRO89))
+            // no hold and no hard drop in retro mode
+            return new ReplayVerifier(GameScore.TYPE_RETRO89, beginningLevel, false, GameModel.FACTOR_SOFT_DROP,
+                    true);
+        // the level does not count for these scores. Practice may begin with a prepared board
+        if (gameModelId.equalsIgnoreCase(PracticeModel.MODEL_PRACTICE_ID))
+            return new ReplayVerifier(GameScore.TYPE_PRACTICE, 0, true, GameModel.MAX_DROP_SCORE, false);
+        if (gameModelId.equalsIgnoreCase(SprintModel.MODEL_SPRINT_ID))
+            return new ReplayVerifier(GameScore.TYPE_SPRINT, 0, true, GameModel.MAX_DROP_SCORE, true);
+
+        return null;
+    }
+
+    /**
+     * replays the given replay from its first step
+     *
+     * @return the mismatches found, empty if the replay follows the rules. Valid until the next replay is verified
+     */
+    public Array<Mismatch> verify(Replay replay) {
+        mismatches.clear();
+        verifiedDrops = 0;
+        score = new GameScore();
+        score.setScoringType(scoringType);
+        score.setStartingLevel(Math.max(beginningLevel, 0));
+        levelKnown = beginningLevel >= 0 || scoringType != GameScore.TYPE_NORMAL
+                && scoringType != GameScore.TYPE_RETRO89;
+        gameboard = null;
+
+        long activePiece = PackedPiece.NONE;
+        boolean activePieceDropped = true;
+        boolean lastMoveWasRotation = false;
+        int fallenRows = 0;
+        int blockNum = 0;
+
+        for (Replay.ReplayStep step = replay.seekToFirstStep(); step != null; step = replay.seekToNextStep()) {
+            if (step.isNextPieceStep()) {
+                checkGameboard(replay.getCurrentGameboard(), blockNum, step.timeMs);
+                // a new piece without a drop before is the active piece going to the hold
+                if (!activePieceDropped)
+                    hold(blockNum, step.timeMs);
+                activePiece = toPackedPiece(step.getActivePiecePosition());
+                activePieceDropped = false;
+                lastMoveWasRotation = false;
+                fallenRows = 0;
+                blockNum++;
+                checkSpawnedPiece(activePiece, true, blockNum, step.timeMs);
+            } else if (step.isDropStep()) {
+                if (gameboard == null)
+                    gameboard = new Gameboard();
+                long droppedPiece = toPackedPiece(step.getActivePiecePosition());
+                int fall = activePiece == PackedPiece.NONE ? -1
+                        : PackedPiece.getY(activePiece, 0) - PackedPiece.getY(droppedPiece, 0);
+                // the last fall before the drop is not recorded as a move. The rows it passed must be free,
+                // the one it rests in is checked with the drop
+                if (fall < 0 || PackedPiece.move(activePiece, 0, -fall) != droppedPiece
+                        || fall > 1 && !isPathFree(activePiece, 0, -(fall - 1))) {
+                    mismatches.add(new Mismatch(MismatchType.piecePosition, blockNum, step.timeMs, 0, 0));
+                    // how far the piece fell is unknown now, don't report its score as well
+                    fall = Gameboard.GAMEBOARD_ALLROWS;
+                }
+                verifyDrop((Replay.ReplayDropPieceStep) step, droppedPiece, blockNum,
+                        lastMoveWasRotation && fall == 0, fallenRows + fall);
+                activePiece = PackedPiece.NONE;
+                activePieceDropped = true;
+            } else if (step.getMoveX() != 0) {
+                checkMove(activePiece, step.getMoveX(), 0, blockNum, step.timeMs);
+                activePiece = PackedPiece.move(activePiece, step.getMoveX(), 0);
+                lastMoveWasRotation = false;
+            } else if (step.getMoveY() != 0) {
+                checkMove(activePiece, 0, -step.getMoveY(), blockNum, step.timeMs);
+                activePiece = PackedPiece.move(activePiece, 0, -step.getMoveY());
+                fallenRows += step.getMoveY();
+                lastMoveWasRotation = false;
+            } else if (step.hasActivePiecePosition()) {
+                long rotatedPiece = toPackedPiece(step.getActivePiecePosition());
+                if (isSwappedPiece(activePiece, rotatedPiece)) {
+                    // the active piece was swapped with the hold piece. It may not fit when the game
+                    // is over by that
+                    hold(blockNum, step.timeMs);
+                    checkSpawnedPiece(rotatedPiece, false, blockNum, step.timeMs);
+                    lastMoveWasRotation = false;
+                    fallenRows = 0;
+                } else {
+                    // wall kicks may jump, so only the rotated position is checked
+                    if (activePiece != PackedPiece.NONE && !fitsOnGameboard(rotatedPiece))
+                        mismatches.add(new Mismatch(MismatchType.piecePosition, blockNum, step.timeMs, 0, 0));
+                    lastMoveWasRotation = true;
+                }
+                activePiece = rotatedPiece;
+            }
+        }
+
+        return mismatches;
+    }
+
+    /**
+     * @return drops verified by the last call of {@link #verify(Replay)}
+     */
+    public int getVerifiedDrops() {
+        return verifiedDrops;
+    }
+
+    /**
+     * @return the score after the last drop verified, as recorded
+     */
+    public int getScore() {
+        return score != null ? score.getScore() : 0;
+    }
+
+    /**
+     * @return lines cleared by the drops verified
+     */
+    public int getClearedLines() {
+        return score != null ? score.getClearedLines() : 0;
+    }
+
+    private void verifyDrop(Replay.ReplayDropPieceStep step, long droppedPiece, int blockNum, boolean rotatedLast,
+                            int fallenRows) {
+        verifiedDrops++;
+        int recordedScore = step.getScore();
+
+        if (!fitsOnGameboard(droppedPiece)) {
+            mismatches.add(new Mismatch(MismatchType.piecePosition, blockNum, step.timeMs, 0, 0));
+            score.addBonusScore(recordedScore - score.getScore());
+            return;
+        }
+        // GameModel pins a piece only when it can't fall any further
+        if (fitsOnGameboard(PackedPiece.move(droppedPiece, 0, -1)))
+            mismatches.add(new Mismatch(MismatchType.piecePosition, blockNum, step.timeMs, 0, 0));
+
+        // only the occupancy is compared, so the type of the piece does not matter
+        gameboard.pinTetromino(droppedPiece, Gameboard.SQUARE_GARBAGE);
+        boolean tSpin = rotatedLast && isTSpin(droppedPiece);
+
+        fullRows.clear();
+        for (int i = 0; i < Gameboard.GAMEBOARD_ALLROWS; i++) {
+            if (gameboard.isRowFull(i))
+                fullRows.add(i);
+        }
+        int removedLines = fullRows.size;
+        if (step.getRemovedLines() >= 0 && step.getRemovedLines() != removedLines)
+            mismatches.add(new Mismatch(MismatchType.removedLines, blockNum, step.timeMs, removedLines,
+                    step.getRemovedLines()));
+
+        if (!levelKnown && (removedLines > 0 || tSpin && scoringType != GameScore.TYPE_RETRO89)) {
+            score.setStartingLevel(deriveBeginningLevel(recordedScore - score.getScore(), removedLines, tSpin));
+            levelKnown = true;
+        }
+
+        // same order as in GameModel.dropActiveTetromino and removeFullAndInsertLines
+        if (removedLines > 0) {
+            gameboard.clearLines(fullRows);
+            score.incClearedLines(removedLines, removedLines == 4 || removedLines >= 2 && tSpin, tSpin);
+        } else if (tSpin)
+            score.addTSpinBonus();
+        score.setComboCounter(removedLines > 0);
+        score.flushScore();
+
+        int lowestScore = score.getScore();
+        int highestScore = lowestScore + (int) (fallenRows * maxSoftDropFactor);
+        if (recordedScore < lowestScore || recordedScore > highestScore)
+            mismatches.add(new Mismatch(MismatchType.score, blockNum, step.timeMs, lowestScore, recordedScore,
+                    highestScore));
+
+        // go on from the score recorded, so a mismatch is reported only once
+        score.addBonusScore(recordedScore - lowestScore);
+    }
+
+    /**
+     * @return the beginning level whose line clear score fits the score gained, leaving the least for soft drops
+     */
+    private int deriveBeginningLevel(int gainedScore, int removedLines, boolean tSpin) {
+        int levelScore = removedLines > 0 ? score.getClearedLinesScore(removedLines,
+                tSpin && scoringType != GameScore.TYPE_RETRO89) : 150;
+        return Math.max(0, Math.min(gainedScore / levelScore - 1, MAX_DERIVED_LEVEL));
+    }
+
+    private void hold(int blockNum, int timeMs) {
+        if (!holdAllowed)
+            mismatches.add(new Mismatch(MismatchType.hold, blockNum, timeMs, 0, 0));
+        score.redrawOnHold();
+    }
+
+    /**
+     * a new piece, or one swapped from the hold, must be placed where the game places them. A new
+     * piece must fit, else the game was over before
+     */
+    private void checkSpawnedPiece(long piece, boolean mustFit, int blockNum, int timeMs) {
+        boolean spawnPosition = false;
+        for (int i = 0; i < SPAWN_POSITIONS.length && !spawnPosition; i++)
+            spawnPosition = SPAWN_POSITIONS[i] == piece;
+
+        if (!spawnPosition || mustFit && !fitsOnGameboard(piece))
+            mismatches.add(new Mismatch(MismatchType.piecePosition, blockNum, timeMs, 0, 0));
+    }
+
+    /**
+     * a move must not pass through the stack, every row or column on its way is checked
+     */
+    private void checkMove(long piece, int moveX, int moveY, int blockNum, int timeMs) {
+        if (piece != PackedPiece.NONE && !isPathFree(piece, moveX, moveY))
+            mismatches.add(new Mismatch(MismatchType.piecePosition, blockNum, timeMs, 0, 0));
+    }
+
+    private boolean isPathFree(long piece, int moveX, int moveY) {
+        int distance = Math.max(Math.abs(moveX), Math.abs(moveY));
+        for (int i = 1; i <= distance; i++) {
+            if (!fitsOnGameboard(PackedPiece.move(piece, moveX * i / distance, moveY * i / distance)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * the gameboard recorded with the next piece must be the one left by the drops before. The first
+     * one must be empty unless the mode begins with a prepared board, then it is taken as it is. After
+     * a mismatch the verification goes on with the recorded one
+     */
+    private void checkGameboard(byte[] recordedGameboard, int blockNum, int timeMs) {
+        if (gameboard == null && emptyStartBoard)
+            gameboard = new Gameboard();
+
+        if (gameboard != null) {
+            int differentRows = 0;
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+                if (gameboard.getRowOccupancy(y) != getRowOccupancy(recordedGameboard, y))
+                    differentRows++;
+            }
+            if (differentRows == 0)
+                return;
+
+            mismatches.add(new Mismatch(MismatchType.gameboard, blockNum, timeMs, 0, differentRows));
+        }
+
+        int[][] squares = new int[Gameboard.GAMEBOARD_ALLROWS][Gameboard.GAMEBOARD_COLUMNS];
+        for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+            for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+                squares[y][x] = recordedGameboard != null ? recordedGameboard[y * Gameboard.GAMEBOARD_COLUMNS + x]
+                        : Gameboard.SQUARE_EMPTY;
+        }
+        gameboard = Gameboard.initFromArray(squares);
+    }
+
+    private static int getRowOccupancy(byte[] recordedGameboard, int y) {
+        int occupancy = 0;
+        for (int x = 0; recordedGameboard != null && x < Gameboard.GAMEBOARD_COLUMNS; x++) {
+            if (recordedGameboard[y * Gameboard.GAMEBOARD_COLUMNS + x] != Gameboard.SQUARE_EMPTY)
+                occupancy |= 1 << x;
+        }
+        return occupancy;
+    }
+
+    private boolean fitsOnGameboard(long piece) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            if (gameboard.isValidCoordinate(PackedPiece.getX(piece, i), PackedPiece.getY(piece, i)) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * T-Spin: a T whose rotation center has three of its four diagonal neighbours occupied, see
+     * GameModel.dropActiveTetromino. The piece is already pinned
+     */
+    private boolean isTSpin(long piece) {
+        int center = getTCenter(piece);
+        if (center < 0)
+            return false;
+
+        int x = PackedPiece.getX(piece, center);
+        int y = PackedPiece.getY(piece, center);
+        int occupiedNeighbours = 0;
+        occupiedNeighbours += (gameboard.isValidCoordinate(x + 1, y + 1) != 0 ? 1 : 0);
+        occupiedNeighbours += (gameboard.isValidCoordinate(x - 1, y - 1) != 0 ? 1 : 0);
+        occupiedNeighbours += (gameboard.isValidCoordinate(x - 1, y + 1) != 0 ? 1 : 0);
+        occupiedNeighbours += (gameboard.isValidCoordinate(x + 1, y - 1) != 0 ? 1 : 0);
+        return occupiedNeighbours >= 3;
+    }
+
+    /**
+     * @return the block of a T that touches the three others, which is its rotation center. -1 for other pieces
+     */
+    private static int getTCenter(long piece) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            int touching = 0;
+            for (int j = 0; j < Tetromino.TETROMINO_BLOCKCOUNT; j++) {
+                if (Math.abs(PackedPiece.getX(piece, i) - PackedPiece.getX(piece, j))
+                        + Math.abs(PackedPiece.getY(piece, i) - PackedPiece.getY(piece, j)) == 1)
+                    touching++;
+            }
+            if (touching == 3)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the piece was not rotated but replaced by another one
+     */
+    private static boolean isSwappedPiece(long activePiece, long newPiece) {
+        if (activePiece == PackedPiece.NONE)
+            return false;
+
+        // the same shape swapped near where it is placed anew can't be told from a rotation
+        return getShapeKind(activePiece) != getShapeKind(newPiece)
+                || Math.abs(getSumX(activePiece) - getSumX(newPiece)) > MAX_ROTATION_SHIFT * Tetromino.TETROMINO_BLOCKCOUNT
+                || Math.abs(getSumY(activePiece) - getSumY(newPiece)) > MAX_ROTATION_SHIFT * Tetromino.TETROMINO_BLOCKCOUNT;
+    }
+
+    /**
+     * @return the same value for all rotations of a shape, different ones for different shapes
+     */
+    private static int getShapeKind(long piece) {
+        int kind = Integer.MAX_VALUE;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            long rotated = 0;
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                int x = PackedPiece.getX(piece, i);
+                int y = PackedPiece.getY(piece, i);
+                for (int r = 0; r < rotation; r++) {
+                    int turned = y;
+                    y = -x;
+                    x = turned;
+                }
+                rotated = PackedPiece.setBlock(rotated, i, x, y);
+            }
+            int minX = getMinX(rotated);
+            int minY = getMinY(rotated);
+            int mask = 0;
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+                mask |= 1 << ((PackedPiece.getY(rotated, i) - minY) * Tetromino.TETROMINO_BLOCKCOUNT
+                        + PackedPiece.getX(rotated, i) - minX);
+            kind = Math.min(kind, mask);
+        }
+        return kind;
+    }
+
+    private static int getMinX(long piece) {
+        int minX = Integer.MAX_VALUE;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            minX = Math.min(minX, PackedPiece.getX(piece, i));
+        return minX;
+    }
+
+    /**
+     * @return sum of the block columns, four times the column of the center
+     */
+    private static int getSumX(long piece) {
+        int sumX = 0;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            sumX += PackedPiece.getX(piece, i);
+        return sumX;
+    }
+
+    private static int getSumY(long piece) {
+        int sumY = 0;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            sumY += PackedPiece.getY(piece, i);
+        return sumY;
+    }
+
+    private static int getMinY(long piece) {
+        int minY = Integer.MAX_VALUE;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            minY = Math.min(minY, PackedPiece.getY(piece, i));
+        return minY;
+    }
+
+    private static long toPackedPiece(int[] activePiecePosition) {
+        long piece = 0;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            piece = PackedPiece.setBlock(piece, i, activePiecePosition[i] % Gameboard.GAMEBOARD_COLUMNS,
+                    activePiecePosition[i] / Gameboard.GAMEBOARD_COLUMNS);
+        return piece;
+    }
+
+    public enum MismatchType {
+        piecePosition, removedLines, score, gameboard, hold
+    }
+
+    /**
+     * A step of the replay that does not follow the rules
+     */
+    public static class Mismatch {
+        public final MismatchType type;
+        public final int blockNum;
+        public final int timeMs;
+        public final int expected;
+        public final int recorded;
+        // expected is the lowest value possible, this the highest
+        public final int expectedMax;
+
+        Mismatch(MismatchType type, int blockNum, int timeMs, int expected, int recorded) {
+            this(type, blockNum, timeMs, expected, recorded, expected);
+        }
+
+        Mismatch(MismatchType type, int blockNum, int timeMs, int expected, int recorded, int expectedMax) {
+            this.type = type;
+            this.blockNum = blockNum;
+            this.timeMs = timeMs;
+            this.expected = expected;
+            this.recorded = recorded;
+            this.expectedMax = expectedMax;
+        }
+
+        @Override
+        public String toString() {
+            String where = type + " at block " + blockNum + " (" + timeMs + " ms)";
+            switch (type) {
+                case piecePosition:
+                    return where + ": piece not where its moves led";
+                case hold:
+                    return where + ": hold not allowed";
+                case gameboard:
+                    return where + ": " + recorded + " rows differ";
+                default:
+                    return where + ": " + recorded + " recorded, expected " + expected
+                            + (expectedMax != expected ? " to " + expectedMax : "");
+            }
+        }
+    }
+}
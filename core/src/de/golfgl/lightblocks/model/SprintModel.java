@@ -75,7 +75,7 @@ public class SprintModel extends GameModel {
         drawyer.determineNextTetrominos();
 
         // Im Sprint ist es unerwünscht, mit O, Z oder S zu beginnen... also solange weitermachen bis das nicht mehr so ist
-        int firstTetro = drawyer.getDrawyerQueue().get(0);
+        int firstTetro = drawyer.peekTetromino(0);
         switch (firstTetro) {
             case Tetromino.TETRO_IDX_O:
             case Tetromino.TETRO_IDX_S:
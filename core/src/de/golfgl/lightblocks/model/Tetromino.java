@@ -13,6 +13,8 @@ public class Tetromino {
     public static final int TETROMINO_NUMBER = 7;
     // und jeder besteht aus vier Blöcken
     public static final int TETROMINO_BLOCKCOUNT = 4;
+    // Anzahl der Wallkick-Tests je Rotation
+    public static final int WALLKICK_TEST_COUNT = 4;
 
     public static final int TETRO_IDX_I = 0;
     public static final int TETRO_IDX_T = 1;
@@ -109,8 +111,70 @@ public class Tetromino {
                     {new Vector2(1, 1), new Vector2(2, 1), new Vector2(1, 2), new Vector2(2, 2)}
             }};
 
+    // Die Formen als Tabellen, einmal aus den Templates oben aufgebaut. Eine Form ist ein Tetromino in
+    // einer Rotation und wird über ihren Index angesprochen: ((srs ? 7 : 0) + Typ) * 4 + Rotation.
+    // Typen mit weniger als vier Rotationen wiederholen ihre Rotationen, damit jede Form belegt ist
+    private static final int SHAPE_NUM = 2 * TETROMINO_NUMBER * 4;
+    // Anzahl Rotationen je Typ, Index (srs ? 7 : 0) + Typ
+    private static final int[] ROTATION_COUNT = new int[2 * TETROMINO_NUMBER];
+    // Position der Blöcke relativ zur Position des Tetrominos, Index Form * 4 + Block
+    private static final int[] CELL_X = new int[SHAPE_NUM * TETROMINO_BLOCKCOUNT];
+    private static final int[] CELL_Y = new int[SHAPE_NUM * TETROMINO_BLOCKCOUNT];
+    // belegte Spalten je Zeile der Form, Bit 0 ist die am weitesten links liegende Spalte der Form.
+    // Index Form * 4 + relative Zeile
+    private static final int[] ROW_MASK = new int[SHAPE_NUM * TETROMINO_BLOCKCOUNT];
+    private static final int[] MIN_CELL_X = new int[SHAPE_NUM];
+    private static final int[] MAX_CELL_X = new int[SHAPE_NUM];
+    private static final int[] MIN_CELL_Y = new int[SHAPE_NUM];
+    private static final int[] MAX_CELL_Y = new int[SHAPE_NUM];
+
+    // wiki/SRS: Verschiebung x, y der vier Wallkick-Tests, Index Ausgangsrotation * 2 + (im Uhrzeigersinn ? 1 : 0)
+    private static final int[][] SRS_KICKS_I = {
+            {-1, 0, 2, 0, -1, 2, 2, -1}, {-2, 0, 1, 0, 2, -1, 1, 2},
+            {2, 0, -1, 0, -2, 1, -1, -2}, {-1, 0, 2, 0, -1, 2, 2, -1},
+            {1, 0, -2, 0, 1, -2, -2, 1}, {2, 0, -1, 0, -2, 1, -1, -2},
+            {-2, 0, 1, 0, 2, -1, 1, 2}, {1, 0, -2, 0, 1, -2, -2, 1}};
+    private static final int[][] SRS_KICKS_JLSTZ = {
+            {1, 0, 1, 1, 0, -2, 1, -2}, {-1, 0, -1, 1, 0, -2, -1, -2},
+            {1, 0, 1, -1, 0, 2, 1, 2}, {1, 0, 1, -1, 0, 2, 1, 2},
+            {-1, 0, -1, 1, 0, -2, -1, -2}, {1, 0, 1, 1, 0, -2, 1, -2},
+            {-1, 0, -1, -1, 0, 2, -1, 2}, {-1, 0, -1, -1, 0, 2, -1, 2}};
+
+    static {
+        for (int system = 0; system < 2; system++) {
+            Vector2[][][] templates = system == 0 ? nrsTemplates : srsTemplates;
+            for (int type = 0; type < TETROMINO_NUMBER; type++) {
+                int rotationCount = templates[type].length;
+                ROTATION_COUNT[system * TETROMINO_NUMBER + type] = rotationCount;
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    int shape = (system * TETROMINO_NUMBER + type) * 4 + rotation;
+                    Vector2[] template = templates[type][rotation % rotationCount];
+                    MIN_CELL_X[shape] = Integer.MAX_VALUE;
+                    MIN_CELL_Y[shape] = Integer.MAX_VALUE;
+                    for (int i = 0; i < TETROMINO_BLOCKCOUNT; i++) {
+                        int x = (int) template[i].x;
+                        int y = (int) template[i].y;
+                        CELL_X[shape * TETROMINO_BLOCKCOUNT + i] = x;
+                        CELL_Y[shape * TETROMINO_BLOCKCOUNT + i] = y;
+                        MIN_CELL_X[shape] = Math.min(MIN_CELL_X[shape], x);
+                        MAX_CELL_X[shape] = Math.max(MAX_CELL_X[shape], x);
+                        MIN_CELL_Y[shape] = Math.min(MIN_CELL_Y[shape], y);
+                        MAX_CELL_Y[shape] = Math.max(MAX_CELL_Y[shape], y);
+                    }
+                    for (int i = 0; i < TETROMINO_BLOCKCOUNT; i++)
+                        ROW_MASK[shape * TETROMINO_BLOCKCOUNT + CELL_Y[shape * TETROMINO_BLOCKCOUNT + i]] |=
+                                1 << (CELL_X[shape * TETROMINO_BLOCKCOUNT + i] - MIN_CELL_X[shape]);
+                }
+            }
+        }
+    }
+
     private transient final Vector2[][][] tetrominoTemplates;
     private transient final boolean srs;
+    // erste Form dieses Tetrominos in den Tabellen
+    private transient final int shapeBase;
+    private transient final int rotationCount;
+    private transient final int[][] wallkicks;
 
     private final int tetrominoIndex;
     private final Vector2 position;
@@ -130,6 +194,9 @@ public class Tetromino {
         tetrominoTemplates = srs ? srsTemplates : nrsTemplates;
         this.tetrominoIndex = index;
         this.blockPosition = new Integer[TETROMINO_BLOCKCOUNT][2];
+        shapeBase = ((srs ? TETROMINO_NUMBER : 0) + index) * 4;
+        rotationCount = ROTATION_COUNT[(srs ? TETROMINO_NUMBER : 0) + index];
+        wallkicks = !srs || index == TETRO_IDX_O ? null : index == TETRO_IDX_I ? SRS_KICKS_I : SRS_KICKS_JLSTZ;
 
         // Die Startposition jedes Tetrominos
         this.position = new Vector2(GAMEBOARD_COLUMNS / 2 - 2, GAMEBOARD_NORMALROWS - 2);
@@ -148,10 +215,9 @@ public class Tetromino {
      * Prüft ob die Rotation innerhalb der Arraygrenzen liegt
      */
     private int normalizeRotation(int rotation) {
-        final Vector2[][] thisTetromino = tetrominoTemplates[tetrominoIndex];
         if (rotation < 0)
-            rotation = rotation + thisTetromino.length;
-        rotation = rotation % thisTetromino.length;
+            rotation = rotation + rotationCount;
+        rotation = rotation % rotationCount;
         return rotation;
     }
 
@@ -167,6 +233,64 @@ public class Tetromino {
         return position;
     }
 
+    public int getPositionX() {
+        return (int) position.x;
+    }
+
+    public int getPositionY() {
+        return (int) position.y;
+    }
+
+    /**
+     * @return Index der Form dieses Tetrominos in der übergebenen Rotation, für die statischen Zugriffe
+     * auf die Formtabellen wie {@link #getCellX(int, int)}
+     */
+    public int getShape(int rotation) {
+        return shapeBase + normalizeRotation(rotation);
+    }
+
+    public int getCurrentShape() {
+        return shapeBase + currentRotation;
+    }
+
+    /**
+     * @return x-Position des Blocks relativ zur Position des Tetrominos
+     */
+    public static int getCellX(int shape, int block) {
+        return CELL_X[shape * TETROMINO_BLOCKCOUNT + block];
+    }
+
+    /**
+     * @return y-Position des Blocks relativ zur Position des Tetrominos
+     */
+    public static int getCellY(int shape, int block) {
+        return CELL_Y[shape * TETROMINO_BLOCKCOUNT + block];
+    }
+
+    public static int getMinCellX(int shape) {
+        return MIN_CELL_X[shape];
+    }
+
+    public static int getMaxCellX(int shape) {
+        return MAX_CELL_X[shape];
+    }
+
+    public static int getMinCellY(int shape) {
+        return MIN_CELL_Y[shape];
+    }
+
+    public static int getMaxCellY(int shape) {
+        return MAX_CELL_Y[shape];
+    }
+
+    /**
+     * @param row Zeile relativ zur Position des Tetrominos, 0 bis 3
+     * @return belegte Spalten der Zeile, Bit 0 ist die Spalte {@link #getMinCellX(int)}
+     */
+    public static int getRowMask(int shape, int row) {
+        return ROW_MASK[shape * TETROMINO_BLOCKCOUNT + row];
+    }
+
     public int getTetrominoType() {
         return tetrominoIndex;
     }
@@ -186,12 +310,22 @@ public class Tetromino {
         return getBlockPositions(new Vector2(0, 0), 0);
     }
 
+    /**
+     * @return die Blöcke an ihrer Position auf dem Spielbrett, siehe {@link PackedPiece}
+     */
+    public long getPackedBlockPositions() {
+        return PackedPiece.of(getCurrentShape(), getPositionX(), getPositionY());
+    }
+
+    public long getPackedRelativeBlockPositions() {
+        return PackedPiece.of(shapeBase, 0, 0);
+    }
+
     protected Integer[][] getBlockPositions(Vector2 position, int rotation) {
-        int i = 0;
-        for (Vector2 v : getRotationVectors(rotation)) {
-            blockPosition[i][0] = ((int) v.x + (int) position.x);
-            blockPosition[i][1] = ((int) v.y + (int) position.y);
-            i++;
+        int shape = getShape(rotation);
+        for (int i = 0; i < TETROMINO_BLOCKCOUNT; i++) {
+            blockPosition[i][0] = getCellX(shape, i) + (int) position.x;
+            blockPosition[i][1] = getCellY(shape, i) + (int) position.y;
         }
         return blockPosition;
 
@@ -225,149 +359,27 @@ public class Tetromino {
     }
 
     public Vector2 getWallkickPosition(int i, boolean clockwise) {
-        if (!srs || getTetrominoType() == TETRO_IDX_O)
+        if (wallkicks == null)
             return getPosition();
 
-        wallkickPos.set(getPosition());
+        wallkickPos.set(position.x + getWallkickOffsetX(i, clockwise), position.y + getWallkickOffsetY(i, clockwise));
+        return wallkickPos;
+    }
 
-        if (getTetrominoType() == TETRO_IDX_I) {
-            switch (i) {
-                case 0:
-                    if (currentRotation == 0 && clockwise || currentRotation == 3 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 2;
-                    }
-                    if (currentRotation == 1 && !clockwise || currentRotation == 2 && clockwise) {
-                        wallkickPos.x = wallkickPos.x + 2;
-                    }
-                    if (currentRotation == 1 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                    }
-                    if (currentRotation == 3 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                    }
-                    break;
-                case 1:
-                    if (currentRotation == 0 && clockwise || currentRotation == 3 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                    }
-                    if (currentRotation == 1 && !clockwise || currentRotation == 2 && clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                    }
-                    if (currentRotation == 1 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 2;
-                    }
-                    if (currentRotation == 3 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 2;
-                    }
-                    break;
-                case 2:
-                    if (currentRotation == 0 && clockwise || currentRotation == 3 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 2;
-                        wallkickPos.y = wallkickPos.y - 1;
-                    }
-                    if (currentRotation == 1 && !clockwise || currentRotation == 2 && clockwise) {
-                        wallkickPos.x = wallkickPos.x - 2;
-                        wallkickPos.y = wallkickPos.y + 1;
-                    }
-                    if (currentRotation == 1 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                        wallkickPos.y = wallkickPos.y + 2;
-                    }
-                    if (currentRotation == 3 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                        wallkickPos.y = wallkickPos.y - 2;
-                    }
-                    break;
-                case 3:
-                    if (currentRotation == 0 && clockwise || currentRotation == 3 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                        wallkickPos.y = wallkickPos.y + 2;
-                    }
-                    if (currentRotation == 1 && !clockwise || currentRotation == 2 && clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                        wallkickPos.y = wallkickPos.y - 2;
-                    }
-                    if (currentRotation == 1 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 2;
-                        wallkickPos.y = wallkickPos.y - 1;
-                    }
-                    if (currentRotation == 3 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 2;
-                        wallkickPos.y = wallkickPos.y + 1;
-                    }
-                    break;
-            }
-        } else {
-            // J, L, S, T, Z
-            switch (i) {
-                case 0:
-                    if (currentRotation == 0 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                    }
-                    if (currentRotation == 1) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                    }
-                    if (currentRotation == 2 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                    }
-                    if (currentRotation == 3) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                    }
-                    break;
-                case 1:
-                    if (currentRotation == 0 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                        wallkickPos.y = wallkickPos.y + 1;
-                    }
-                    if (currentRotation == 1) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                        wallkickPos.y = wallkickPos.y - 1;
-                    }
-                    if (currentRotation == 2 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                        wallkickPos.y = wallkickPos.y + 1;
-                    }
-                    if (currentRotation == 3) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                        wallkickPos.y = wallkickPos.y - 1;
-                    }
-                    break;
-                case 2:
-                    if (currentRotation == 0 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.y = wallkickPos.y - 2;
-                    }
-                    if (currentRotation == 1) {
-                        wallkickPos.y = wallkickPos.y + 2;
-                    }
-                    if (currentRotation == 2 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.y = wallkickPos.y - 2;
-                    }
-                    if (currentRotation == 3) {
-                        wallkickPos.y = wallkickPos.y + 2;
-                    }
-                    break;
-                case 3:
-                    if (currentRotation == 0 && clockwise || currentRotation == 2 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                        wallkickPos.y = wallkickPos.y - 2;
-                    }
-                    if (currentRotation == 1) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                        wallkickPos.y = wallkickPos.y + 2;
-                    }
-                    if (currentRotation == 2 && clockwise || currentRotation == 0 && !clockwise) {
-                        wallkickPos.x = wallkickPos.x + 1;
-                        wallkickPos.y = wallkickPos.y - 2;
-                    }
-                    if (currentRotation == 3) {
-                        wallkickPos.x = wallkickPos.x - 1;
-                        wallkickPos.y = wallkickPos.y + 2;
-                    }
-                    break;
-            }
-        }
+    /**
+     * @return Verschiebung in x-Richtung des Wallkick-Tests i bei Rotation aus der aktuellen Rotation,
+     * 0 wenn es keine Wallkicks gibt (NRS und O)
+     */
+    public int getWallkickOffsetX(int i, boolean clockwise) {
+        if (wallkicks == null || i < 0 || i >= WALLKICK_TEST_COUNT)
+            return 0;
+        return wallkicks[currentRotation * 2 + (clockwise ? 1 : 0)][i * 2];
+    }
 
-        return wallkickPos;
+    public int getWallkickOffsetY(int i, boolean clockwise) {
+        if (wallkicks == null || i < 0 || i >= WALLKICK_TEST_COUNT)
+            return 0;
+        return wallkicks[currentRotation * 2 + (clockwise ? 1 : 0)][i * 2 + 1];
     }
 
     public void incLockDelayCount(int count) {
@@ -0,0 +1,160 @@
+package de.golfgl.lightblocks.multiplayer;
+
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.PackedPiece;
+import de.golfgl.lightblocks.model.Tetromino;
+
+/**
+ * Client side of the dedicated server's binary frame protocol for in-game events, see the server's
+ * BinaryProtocol class for the format. Reading is done on plain byte arrays to keep it usable on
+ * all platforms.
+ */
+public class BinaryProtocol {
+    public static final int VERSION = 2;
+
+    public static final int FLAG_OPPONENT = 0x80;
+
+    // server to client: in-game events
+    public static final byte EVT_MOVE = 1;
+    public static final byte EVT_ROTATE = 2;
+    public static final byte EVT_ACTIVATE_NEXT = 3;
+    public static final byte EVT_NEXT = 4;
+    public static final byte EVT_HOLD = 5;
+    public static final byte EVT_CLEAR = 6;
+    public static final byte EVT_CONFLICT = 7;
+    public static final byte EVT_GARBAGE = 8;
+    public static final byte EVT_PIN = 9;
+    public static final byte EVT_GAME_OVER = 10;
+    public static final byte EVT_SCORE = 11;
+    public static final byte EVT_MOTIVATION = 12;
+    public static final byte EVT_BATCH = 13;
+    public static final byte EVT_RESYNC = 14;
+
+    // client to server: inputs, one byte each
+    public static final byte IN_START_MOVE_LEFT = 1;
+    public static final byte IN_START_MOVE_RIGHT = 2;
+    public static final byte IN_STOP_MOVE = 3;
+    public static final byte IN_HOLD = 4;
+    public static final byte IN_ROTATE_RIGHT = 5;
+    public static final byte IN_ROTATE_LEFT = 6;
+    public static final byte IN_DROP_NONE = 7;
+    public static final byte IN_DROP_SOFT = 8;
+    public static final byte IN_DROP_HARD = 9;
+    // followed by a flags byte and the hash of the last matching state, see RESYNC_ flags
+    public static final byte IN_RESYNC = 10;
+
+    // flags of resync request and event
+    public static final int RESYNC_OPPONENT = 1;
+    public static final int RESYNC_DELTA = 2;
+
+    // the text protocol's in game messages, indexed by input opcode
+    private static final String[] IN_GAME_MESSAGES = {null, "SML", "SMR", "SMH", "HAT", "ROR", "ROL",
+            "DRN", "DRS", "DRH"};
+
+    public static String inputToText(byte input) {
+        return IN_GAME_MESSAGES[input];
+    }
+
+    /**
+     * @return frame requesting the state of a gameboard, see the server's BinaryProtocol class
+     */
+    public static byte[] resyncRequest(boolean opponent, boolean hasBase, int baseHash) {
+        int flags = (opponent ? RESYNC_OPPONENT : 0) | (hasBase ? RESYNC_DELTA : 0);
+        return new byte[]{IN_RESYNC, (byte) flags, (byte) (baseHash >>> 24), (byte) (baseHash >>> 16),
+                (byte) (baseHash >>> 8), (byte) baseHash};
+    }
+
+    /**
+     * Reads the fields of a received frame in order
+     */
+    public static class FrameReader {
+        private byte[] frame;
+        private int pos;
+        private int limit;
+
+        public FrameReader reset(byte[] frame) {
+            this.frame = frame;
+            pos = 0;
+            limit = frame.length;
+            return this;
+        }
+
+        /**
+         * @return true if there is something left to read before the limit
+         */
+        public boolean hasRemaining() {
+            return pos < limit;
+        }
+
+        /**
+         * sets the end of the current event, for optional fields at the end of an event
+         */
+        public void setLimit(int limit) {
+            this.limit = Math.min(limit, frame.length);
+        }
+
+        public int getPosition() {
+            return pos;
+        }
+
+        public void setPosition(int pos) {
+            this.pos = pos;
+        }
+
+        public int readByte() {
+            if (pos >= frame.length)
+                throw new IllegalArgumentException("Frame too short");
+            return frame[pos++] & 0xFF;
+        }
+
+        public int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * reads four bytes, big endian
+         */
+        public int readInt() {
+            int value = readByte() << 24;
+            value |= readByte() << 16;
+            value |= readByte() << 8;
+            return value | readByte();
+        }
+
+        public int readSignedVarInt() {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * reads a piece, one byte per block
+         *
+         * @return the piece's blocks, see {@link PackedPiece}
+         */
+        public long readPiece() {
+            long piece = 0;
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                int packed = readByte();
+                piece = PackedPiece.setBlock(piece, i, packed % Gameboard.GAMEBOARD_COLUMNS,
+                        packed / Gameboard.GAMEBOARD_COLUMNS);
+            }
+            return piece;
+        }
+
+        public String readString() {
+            int length = readVarInt();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++)
+                chars[i] = (char) readByte();
+            return new String(chars);
+        }
+    }
+}
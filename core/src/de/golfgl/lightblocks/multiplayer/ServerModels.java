@@ -7,5 +7,6 @@ public class ServerModels {
         public String owner;
         public String description;
         public boolean authRequired;
+        public int binaryProtocol;
     }
 }
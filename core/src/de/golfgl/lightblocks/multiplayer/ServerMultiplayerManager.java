@@ -18,6 +18,12 @@ public class ServerMultiplayerManager {
     public static final String ID_MATCHINFO = "MCH";
     private static final long SECONDS_TIMEOUT = 3000L;
     private final LightBlocksGame app;
+    // preallocated single byte frames for the binary protocol, indexed by input opcode
+    private final byte[][] inputFrames = new byte[][]{null,
+            {BinaryProtocol.IN_START_MOVE_LEFT}, {BinaryProtocol.IN_START_MOVE_RIGHT},
+            {BinaryProtocol.IN_STOP_MOVE}, {BinaryProtocol.IN_HOLD},
+            {BinaryProtocol.IN_ROTATE_RIGHT}, {BinaryProtocol.IN_ROTATE_LEFT},
+            {BinaryProtocol.IN_DROP_NONE}, {BinaryProtocol.IN_DROP_SOFT}, {BinaryProtocol.IN_DROP_HARD}};
 
     private WebSocket socket;
     private long startTimePing;
@@ -29,6 +35,8 @@ public class ServerMultiplayerManager {
     private ServerMultiplayerModel gameModel;
     private long lastQueueProcessedMs;
     private long lastMessageSendMs;
+    // binary protocol version used with the server, 0 for the text protocol
+    private int binaryProtocol;
 
     public ServerMultiplayerManager(LightBlocksGame app) {
         this.app = app;
@@ -105,6 +113,10 @@ public class ServerMultiplayerManager {
                 playerInfo.addChild("authToken", new JsonValue(app.backendManager.getToken()));
             }
         }
+        binaryProtocol = Math.min(serverInfo.binaryProtocol, BinaryProtocol.VERSION);
+        if (binaryProtocol > 0) {
+            playerInfo.addChild("binaryProtocol", new JsonValue(BinaryProtocol.VERSION));
+        }
 
         socket.send(ID_PLAYERINFO + playerInfo.toJson(JsonWriter.OutputType.json));
         lastMessageSendMs = TimeUtils.millis();
@@ -142,6 +154,7 @@ public class ServerMultiplayerManager {
         serverInfo.owner = jsonValue.getString("owner", null);
         serverInfo.description = jsonValue.getString("description", null);
         serverInfo.version = jsonValue.getInt("version");
+        serverInfo.binaryProtocol = jsonValue.getInt("binaryProtocol", 0);
 
         state = PlayState.LOBBY;
         doPing();
@@ -151,13 +164,42 @@ public class ServerMultiplayerManager {
         return pingMs;
     }
 
-    public void doSendGameMessage(String message) {
+    /**
+     * @param input one of the input opcodes defined in {@link BinaryProtocol}
+     */
+    public void doSendGameInput(byte input) {
         if (state == PlayState.IN_GAME) {
-            socket.send("IGM" + message);
+            if (binaryProtocol > 0)
+                socket.send(inputFrames[input]);
+            else
+                socket.send("IGM" + BinaryProtocol.inputToText(input));
+            lastMessageSendMs = TimeUtils.millis();
+        }
+    }
+
+    /**
+     * requests the server to send the state of a gameboard that drifted apart, only possible with
+     * binary protocol version 2
+     *
+     * @param hasBase  true if the gameboard matched the server's one at a pin before
+     * @param baseHash state hash of that pin, the server sends the changes since then
+     */
+    public void doRequestResync(boolean opponent, boolean hasBase, int baseHash) {
+        if (state == PlayState.IN_GAME && binaryProtocol >= 2) {
+            socket.send(BinaryProtocol.resyncRequest(opponent, hasBase, baseHash));
             lastMessageSendMs = TimeUtils.millis();
         }
     }
 
+    private void queueGameMessage(Object packet) {
+        gameModel.queueMessage(packet);
+
+        if (TimeUtils.timeSinceMillis(lastQueueProcessedMs) > SECONDS_TIMEOUT) {
+            socket.close(WebSocketCloseCode.AWAY, "Timeout");
+            gameModel.clearMessageQueue();
+        }
+    }
+
     public enum PlayState {CONNECTING, LOBBY, IN_GAME, CLOSED}
 
     private class SocketListener implements WebSocketListener {
@@ -194,13 +236,7 @@ public class ServerMultiplayerManager {
                     handleServerInfo(packet.substring(ID_SERVERINFO.length()));
                     return true;
                 } else if (gameModel != null) {
-                    gameModel.queueMessage(packet);
-
-                    if (TimeUtils.timeSinceMillis(lastQueueProcessedMs) > SECONDS_TIMEOUT) {
-                        socket.close(WebSocketCloseCode.AWAY, "Timeout");
-                        gameModel.clearMessageQueue();
-                    }
-
+                    queueGameMessage(packet);
                     return true;
                 }
                 Gdx.app.error("Server", "Unhandled message message: " + packet);
@@ -213,7 +249,17 @@ public class ServerMultiplayerManager {
 
         @Override
         public boolean onMessage(WebSocket webSocket, byte[] packet) {
-            return false;
+            try {
+                if (gameModel != null) {
+                    queueGameMessage(packet);
+                    return true;
+                }
+                Gdx.app.error("Server", "Unhandled binary message");
+            } catch (Throwable t) {
+                Gdx.app.error("Server", "Error handling binary message", t);
+            }
+
+            return true;
         }
 
         @Override
@@ -16,6 +16,7 @@ import de.golfgl.lightblocks.model.GameModel;
 import de.golfgl.lightblocks.model.GameScore;
 import de.golfgl.lightblocks.model.Gameboard;
 import de.golfgl.lightblocks.model.IGameModelListener;
+import de.golfgl.lightblocks.model.PackedPiece;
 import de.golfgl.lightblocks.model.Tetromino;
 import de.golfgl.lightblocks.screen.PlayScreen;
 import de.golfgl.lightblocks.state.InitGameParameters;
@@ -24,17 +25,23 @@ public class ServerMultiplayerModel extends GameModel {
     public static final String MODEL_ID = "serverMultiplayer";
     public static final String MSG_ID_PIN_TETRO = "PIN";
     public static final String MSG_ID_CLR_INS = "CLR";
-    private final Queue<String> messageQueue = new Queue<>();
+    private final Queue<Object> messageQueue = new Queue<>();
+    private final BinaryProtocol.FrameReader frameReader = new BinaryProtocol.FrameReader();
     private final ServerMultiplayerModel secondModel;
     private ServerMultiplayerManager serverMultiplayerManager;
     private ServerScore serverScore;
     private String nickName;
-    private Integer[][] activePiecePos;
+    private long activePiece = PackedPiece.NONE;
     private boolean gameOver;
     private boolean isFirst;
     private boolean isModern;
     private boolean isClosed;
     private Gameboard gameboard;
+    // the gameboard at the last pin with the server's state hash, the base of a resync
+    private final int[][] pinnedGameboard = new int[Gameboard.GAMEBOARD_ALLROWS][Gameboard.GAMEBOARD_COLUMNS];
+    private int pinnedHash;
+    private boolean hasPinnedGameboard;
+    private boolean resyncRequested;
     private boolean criticalFill;
     private boolean achTurnaroundSent;
     private boolean filledOver85Perc;
@@ -92,7 +99,7 @@ public class ServerMultiplayerModel extends GameModel {
     public void update(float delta) {
         synchronized (messageQueue) {
             while (messageQueue.notEmpty()) {
-                String packet = messageQueue.removeFirst();
+                Object packet = messageQueue.removeFirst();
                 try {
                     boolean processed = processMessage(packet);
                     if (!processed) {
@@ -161,15 +168,14 @@ public class ServerMultiplayerModel extends GameModel {
         final int dx = Integer.parseInt(sdx);
         final int dy = Integer.parseInt(sdy);
 
-        if (!gameOver) {
-            uiGameboard.moveTetro(ServerMultiplayerModel.this.activePiecePos, dx, dy, ghostPieceDistance);
+        doTetroMoved(dx, dy, ghostPieceDistance);
+    }
 
-            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
-                ServerMultiplayerModel.this.activePiecePos[i][0] += dx;
-                ServerMultiplayerModel.this.activePiecePos[i][1] += dy;
-            }
+    private void doTetroMoved(int dx, int dy, int ghostPieceDistance) {
+        if (!gameOver) {
+            uiGameboard.moveTetro(activePiece, dx, dy, ghostPieceDistance);
+            activePiece = PackedPiece.move(activePiece, dx, dy);
         }
-
     }
 
     /**
@@ -189,17 +195,18 @@ public class ServerMultiplayerModel extends GameModel {
 
     @Override
     public void inputStartMoveHorizontal(InputIdentifier inputId, boolean isLeft) {
-        serverMultiplayerManager.doSendGameMessage("SM" + (isLeft ? "L" : "R"));
+        serverMultiplayerManager.doSendGameInput(isLeft ? BinaryProtocol.IN_START_MOVE_LEFT
+                : BinaryProtocol.IN_START_MOVE_RIGHT);
     }
 
     @Override
     public void inputEndMoveHorizontal(InputIdentifier inputId, boolean isLeft) {
-        serverMultiplayerManager.doSendGameMessage("SMH");
+        serverMultiplayerManager.doSendGameInput(BinaryProtocol.IN_STOP_MOVE);
     }
 
     @Override
     public boolean inputHoldActiveTetromino(InputIdentifier inputId) {
-        serverMultiplayerManager.doSendGameMessage("HAT");
+        serverMultiplayerManager.doSendGameInput(BinaryProtocol.IN_HOLD);
         return false;
     }
 
@@ -210,17 +217,18 @@ public class ServerMultiplayerModel extends GameModel {
 
     @Override
     public void inputRotate(InputIdentifier inputId, boolean clockwise) {
-        serverMultiplayerManager.doSendGameMessage(clockwise ? "ROR" : "ROL");
+        serverMultiplayerManager.doSendGameInput(clockwise ? BinaryProtocol.IN_ROTATE_RIGHT
+                : BinaryProtocol.IN_ROTATE_LEFT);
     }
 
     @Override
     public void inputSetSoftDropFactor(InputIdentifier inputId, float newVal) {
         if (MathUtils.isEqual(GameModel.FACTOR_NO_DROP, newVal))
-            serverMultiplayerManager.doSendGameMessage("DRN");
+            serverMultiplayerManager.doSendGameInput(BinaryProtocol.IN_DROP_NONE);
         else if (MathUtils.isEqual(GameModel.FACTOR_SOFT_DROP, newVal))
-            serverMultiplayerManager.doSendGameMessage("DRS");
+            serverMultiplayerManager.doSendGameInput(BinaryProtocol.IN_DROP_SOFT);
         else if (MathUtils.isEqual(GameModel.FACTOR_HARD_DROP, newVal))
-            serverMultiplayerManager.doSendGameMessage("DRH");
+            serverMultiplayerManager.doSendGameInput(BinaryProtocol.IN_DROP_HARD);
     }
 
     private void parsePlayerInformation(JsonValue playerJson) {
@@ -257,8 +265,10 @@ public class ServerMultiplayerModel extends GameModel {
             }
         }
         this.gameboard = Gameboard.initFromArray(gameboard);
+        hasPinnedGameboard = false;
+        resyncRequested = false;
 
-        ServerMultiplayerModel.this.activePiecePos = activePiecePos;
+        this.activePiece = PackedPiece.of(activePiecePos);
         uiGameboard.mergeFullInformation(gameboard, activePiecePos, activePieceType, nextPiecePos, nextPieceType,
                 holdPiecePos, holdPieceType, nickName);
         if (gameOver && isFirst) {
@@ -281,9 +291,13 @@ public class ServerMultiplayerModel extends GameModel {
         final String strGhostDis = parseUntilNext(payload, pos, "-");
         final int ghostPieceDistance = Integer.parseInt(strGhostDis);
 
+        doRotateTetro(PackedPiece.of(boardBlockPositions), ghostPieceDistance);
+    }
+
+    private void doRotateTetro(long piece, int ghostPieceDistance) {
         if (!gameOver) {
-            uiGameboard.rotateTetro(ServerMultiplayerModel.this.activePiecePos, boardBlockPositions, ghostPieceDistance);
-            ServerMultiplayerModel.this.activePiecePos = boardBlockPositions;
+            uiGameboard.rotateTetro(activePiece, piece, ghostPieceDistance);
+            activePiece = piece;
         }
     }
 
@@ -304,8 +318,11 @@ public class ServerMultiplayerModel extends GameModel {
             gapPos = new IntArray();
         }
 
+        doClearInsert(linesToRemove, isSpecial, gapPos.toArray());
+    }
+
+    private void doClearInsert(IntArray linesToRemove, boolean isSpecial, int[] garbageHolePosition) {
         if (!gameOver) {
-            int[] garbageHolePosition = gapPos.toArray();
             uiGameboard.clearAndInsertLines(linesToRemove, isSpecial, garbageHolePosition);
             gameboard.clearLines(linesToRemove);
             gameboard.insertLines(garbageHolePosition);
@@ -325,11 +342,15 @@ public class ServerMultiplayerModel extends GameModel {
     }
 
     private void handleGameOver(String payload) {
+        final String wonString = parseUntilNext(payload, 1, "-");
+        doGameOver(wonString.equals("1"));
+    }
+
+    private void doGameOver(boolean won) {
         gameOver = true;
         if (isFirst) {
-            final String wonString = parseUntilNext(payload, 1, "-");
             playScreen.setMusicGameOver();
-            GaHelper.endGameEvent(app.gameAnalytics, this, wonString.equals("1"));
+            GaHelper.endGameEvent(app.gameAnalytics, this, won);
         }
     }
 
@@ -340,10 +361,13 @@ public class ServerMultiplayerModel extends GameModel {
         final String blockTypeString = parseUntilNext(payload, pos, "-");
         final int blockType = Integer.parseInt(blockTypeString);
 
+        doNextTetro(PackedPiece.of(boardBlockPositions), blockType);
+    }
+
+    private void doNextTetro(long relativePiece, int blockType) {
         if (!gameOver) {
-            uiGameboard.showNextTetro(boardBlockPositions, blockType);
+            uiGameboard.showNextTetro(relativePiece, blockType);
         }
-
     }
 
     private void handleActivateNextTetro(final String payload) {
@@ -354,9 +378,13 @@ public class ServerMultiplayerModel extends GameModel {
         final String strGhostDis = parseUntilNext(payload, pos + strBlockType.length() + 1, "-");
         final int ghostPieceDistance = Integer.parseInt(strGhostDis);
 
+        doActivateNextTetro(PackedPiece.of(boardBlockPositions), blockType, ghostPieceDistance);
+    }
+
+    private void doActivateNextTetro(long piece, int blockType, int ghostPieceDistance) {
         if (!gameOver) {
-            ServerMultiplayerModel.this.activePiecePos = boardBlockPositions;
-            uiGameboard.activateNextTetro(boardBlockPositions, blockType, ghostPieceDistance);
+            activePiece = piece;
+            uiGameboard.activateNextTetro(piece, blockType, ghostPieceDistance);
         }
     }
 
@@ -394,19 +422,22 @@ public class ServerMultiplayerModel extends GameModel {
             activePiecePos = null;
         }
 
+        doSwapHoldAndActive(PackedPiece.of(holdPiecePos), ghostPieceDistance, PackedPiece.of(activePiecePos));
+    }
+
+    private void doSwapHoldAndActive(long holdPiece, int ghostPieceDistance, long newActivePiece) {
         if (!gameOver) {
-            uiGameboard.swapHoldAndActivePiece(holdPiecePos, ServerMultiplayerModel.this.activePiecePos, activePiecePos,
-                    ghostPieceDistance, 0);
-            ServerMultiplayerModel.this.activePiecePos = activePiecePos;
+            uiGameboard.swapHoldAndActivePiece(holdPiece, activePiece, newActivePiece, ghostPieceDistance, 0);
+            activePiece = newActivePiece;
         }
     }
 
     private void handlePinTetro() {
         if (!gameOver) {
-            uiGameboard.pinTetromino(ServerMultiplayerModel.this.activePiecePos);
-            gameboard.pinTetromino(activePiecePos, Gameboard.SQUARE_GARBAGE);
+            uiGameboard.pinTetromino(activePiece);
+            gameboard.pinTetromino(activePiece, Gameboard.SQUARE_GARBAGE);
 
-            ServerMultiplayerModel.this.activePiecePos = null;
+            activePiece = PackedPiece.NONE;
             serverScore.incDrawnTetrominos();
             updateFillLevelAmounts();
 
@@ -420,10 +451,101 @@ public class ServerMultiplayerModel extends GameModel {
 
     }
 
+    /**
+     * compares the gameboard after a pin with the server's one and requests a resync if they differ
+     */
+    private void checkStateHash(int serverHash) {
+        if (gameOver || resyncRequested)
+            return;
+
+        if (gameboard.getStateHash() == serverHash) {
+            int[][] squares = gameboard.getGameboardSquares();
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++)
+                System.arraycopy(squares[y], 0, pinnedGameboard[y], 0, Gameboard.GAMEBOARD_COLUMNS);
+            pinnedHash = serverHash;
+            hasPinnedGameboard = true;
+        } else {
+            Gdx.app.log("ServerMultiplayer", "Gameboard drifted apart from server, requesting resync");
+            resyncRequested = true;
+            serverMultiplayerManager.doRequestResync(!isFirst, hasPinnedGameboard, pinnedHash);
+        }
+    }
+
+    private void doResync(BinaryProtocol.FrameReader reader) {
+        boolean delta = (reader.readByte() & BinaryProtocol.RESYNC_DELTA) != 0;
+        int hash = reader.readInt();
+
+        // changed rows are applied to the gameboard at the pin the server was told
+        final int[][] squares = new int[Gameboard.GAMEBOARD_ALLROWS][Gameboard.GAMEBOARD_COLUMNS];
+        for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++)
+            for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+                squares[y][x] = delta ? pinnedGameboard[y][x] : Gameboard.SQUARE_EMPTY;
+        int rowNum = reader.readByte();
+        for (int i = 0; i < rowNum; i++) {
+            int y = reader.readByte();
+            for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+                squares[y][x] = reader.readByte() - 1;
+        }
+
+        long newActivePiece = PackedPiece.NONE;
+        int activePieceType = 0;
+        if (reader.readByte() != 0) {
+            newActivePiece = reader.readPiece();
+            activePieceType = reader.readByte();
+        }
+        long nextPiece = PackedPiece.NONE;
+        int nextPieceType = 0;
+        if (reader.readByte() != 0) {
+            nextPiece = reader.readPiece();
+            nextPieceType = reader.readByte();
+        }
+        long holdPiece = PackedPiece.NONE;
+        int holdPieceType = 0;
+        if (reader.readByte() != 0) {
+            holdPiece = reader.readPiece();
+            holdPieceType = reader.readByte();
+        }
+        int score = reader.readVarInt();
+        int level = reader.readVarInt();
+        int lines = reader.readVarInt();
+
+        // a delta to a base already dropped by a full match information is of no use anymore
+        if (gameOver || delta && !hasPinnedGameboard)
+            return;
+
+        gameboard = Gameboard.initFromArray(squares);
+        activePiece = newActivePiece;
+        serverScore.setScoreInformation(score, level, lines);
+        uiGameboard.mergeFullInformation(squares, toBlockPositions(newActivePiece), activePieceType,
+                toBlockPositions(nextPiece), nextPieceType, toBlockPositions(holdPiece), holdPieceType, nickName);
+        resyncRequested = false;
+        if (gameboard.getStateHash() != hash)
+            Gdx.app.error("ServerMultiplayer", "Gameboard differs from server after resync");
+        updateFillLevelAmounts();
+    }
+
+    private static Integer[][] toBlockPositions(long piece) {
+        if (piece == PackedPiece.NONE)
+            return null;
+
+        Integer[][] blockPositions = new Integer[Tetromino.TETROMINO_BLOCKCOUNT][2];
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            blockPositions[i][0] = PackedPiece.getX(piece, i);
+            blockPositions[i][1] = PackedPiece.getY(piece, i);
+        }
+        return blockPositions;
+    }
+
     private void handleScore(final String payload) {
+        JsonValue scoreJson = new JsonReader().parse(payload);
+        // {"score":0,"level":0,"lines":0}
+        doScore(scoreJson.getInt("score", 0), scoreJson.getInt("level", 0), scoreJson.getInt("lines", 0));
+    }
+
+    private void doScore(int score, int level, int lines) {
         if (!gameOver) {
             int removedLinesBefore = serverScore.lines;
-            int gainedScore = serverScore.setScoreInformation(new JsonReader().parse(payload));
+            int gainedScore = serverScore.setScoreInformation(score, level, lines);
             uiGameboard.updateScore(serverScore, gainedScore);
 
             if (isFirst && !gameOver) {
@@ -454,7 +576,10 @@ public class ServerMultiplayerModel extends GameModel {
         uiGameboard.showGarbageAmount(gbgAmount);
     }
 
-    public void queueMessage(String packet) {
+    /**
+     * @param packet a text message as String or a binary frame as byte[]
+     */
+    public void queueMessage(Object packet) {
         synchronized (messageQueue) {
             messageQueue.addLast(packet);
         }
@@ -466,6 +591,125 @@ public class ServerMultiplayerModel extends GameModel {
         }
     }
 
+    private boolean processMessage(Object packet) {
+        if (packet instanceof byte[])
+            return processBinaryMessage((byte[]) packet);
+        else
+            return processMessage((String) packet);
+    }
+
+    private boolean processBinaryMessage(byte[] frame) {
+        BinaryProtocol.FrameReader reader = frameReader.reset(frame);
+        if (frame.length == 0 || frame[0] != BinaryProtocol.EVT_BATCH)
+            return processBinaryEvent(reader);
+
+        // batch of events: length prefixed, every event is processed even if one is not understood
+        boolean handled = true;
+        reader.readByte();
+        while (reader.hasRemaining()) {
+            int length = reader.readVarInt();
+            int nextEventPos = reader.getPosition() + length;
+            reader.setLimit(nextEventPos);
+            handled = processBinaryEvent(reader) && handled;
+            reader.setLimit(frame.length);
+            reader.setPosition(nextEventPos);
+        }
+        return handled;
+    }
+
+    private boolean processBinaryEvent(BinaryProtocol.FrameReader reader) {
+        int eventType = reader.readByte();
+        boolean other = (eventType & BinaryProtocol.FLAG_OPPONENT) != 0;
+        eventType = eventType & ~BinaryProtocol.FLAG_OPPONENT;
+
+        if (!other) {
+            return processModelEvent(eventType, reader);
+        } else {
+            boolean handled = secondModel.processModelEvent(eventType, reader);
+            if (handled && (eventType == BinaryProtocol.EVT_PIN || eventType == BinaryProtocol.EVT_CLEAR
+                    || eventType == BinaryProtocol.EVT_RESYNC)) {
+                updateFillLevelAmounts();
+            }
+            return handled;
+        }
+    }
+
+    private boolean processModelEvent(int eventType, BinaryProtocol.FrameReader reader) {
+        switch (eventType) {
+            case BinaryProtocol.EVT_MOVE: {
+                int dx = reader.readSignedVarInt();
+                int dy = reader.readSignedVarInt();
+                doTetroMoved(dx, dy, reader.readVarInt());
+                return true;
+            }
+            case BinaryProtocol.EVT_ROTATE: {
+                long piece = reader.readPiece();
+                doRotateTetro(piece, reader.readVarInt());
+                return true;
+            }
+            case BinaryProtocol.EVT_CLEAR: {
+                int linesNum = reader.readVarInt();
+                IntArray linesToRemove = new IntArray(linesNum);
+                for (int i = 0; i < linesNum; i++)
+                    linesToRemove.add(reader.readByte());
+                boolean isSpecial = reader.readByte() != 0;
+                int[] garbageHolePosition = new int[reader.readVarInt()];
+                for (int i = 0; i < garbageHolePosition.length; i++)
+                    garbageHolePosition[i] = reader.readByte();
+                doClearInsert(linesToRemove, isSpecial, garbageHolePosition);
+                return true;
+            }
+            case BinaryProtocol.EVT_GAME_OVER:
+                doGameOver(reader.readByte() != 0);
+                return true;
+            case BinaryProtocol.EVT_NEXT: {
+                long relativePiece = reader.readPiece();
+                doNextTetro(relativePiece, reader.readByte());
+                return true;
+            }
+            case BinaryProtocol.EVT_ACTIVATE_NEXT: {
+                long piece = reader.readPiece();
+                int blockType = reader.readByte();
+                doActivateNextTetro(piece, blockType, reader.readVarInt());
+                return true;
+            }
+            case BinaryProtocol.EVT_HOLD: {
+                long holdPiece = reader.readPiece();
+                int ghostPieceDistance = reader.readVarInt();
+                long newActivePiece = reader.readByte() != 0 ? reader.readPiece() : PackedPiece.NONE;
+                doSwapHoldAndActive(holdPiece, ghostPieceDistance, newActivePiece);
+                return true;
+            }
+            case BinaryProtocol.EVT_PIN:
+                handlePinTetro();
+                // since protocol version 2
+                if (reader.hasRemaining())
+                    checkStateHash(reader.readInt());
+                return true;
+            case BinaryProtocol.EVT_RESYNC:
+                doResync(reader);
+                return true;
+            case BinaryProtocol.EVT_SCORE: {
+                int score = reader.readVarInt();
+                int level = reader.readVarInt();
+                doScore(score, level, reader.readVarInt());
+                return true;
+            }
+            case BinaryProtocol.EVT_CONFLICT: {
+                int x = reader.readByte();
+                uiGameboard.markConflict(x, reader.readByte());
+                return true;
+            }
+            case BinaryProtocol.EVT_MOTIVATION:
+                uiGameboard.showMotivation(IGameModelListener.MotivationTypes.freeText, reader.readString());
+                return true;
+            case BinaryProtocol.EVT_GARBAGE:
+                uiGameboard.showGarbageAmount(reader.readVarInt());
+                return true;
+        }
+        return false;
+    }
+
     private boolean processMessage(String packet) {
         Gdx.app.log("ServerMultiplayer", "Process message " + packet);
         if (packet.startsWith(ServerMultiplayerManager.ID_MATCHINFO)) {
@@ -581,11 +825,15 @@ public class ServerMultiplayerModel extends GameModel {
 
         public int setScoreInformation(JsonValue scoreJson) {
             // {"score":0,"level":0,"lines":0}
-            int newScore = scoreJson.getInt("score", 0);
+            return setScoreInformation(scoreJson.getInt("score", 0), scoreJson.getInt("level", 0),
+                    scoreJson.getInt("lines", 0));
+        }
+
+        public int setScoreInformation(int newScore, int level, int lines) {
             int gainedScore = Math.max(0, newScore - score);
             score = newScore;
-            level = scoreJson.getInt("level", 0);
-            lines = scoreJson.getInt("lines", 0);
+            this.level = level;
+            this.lines = lines;
             return gainedScore;
         }
 
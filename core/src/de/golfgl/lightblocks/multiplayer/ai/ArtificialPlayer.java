@@ -1,11 +1,13 @@
 package de.golfgl.lightblocks.multiplayer.ai;
 
+import com.badlogic.gdx.Application;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.Queue;
 
+import java.util.Arrays;
+
 import de.golfgl.lightblocks.model.GameModel;
 import de.golfgl.lightblocks.model.Gameboard;
 import de.golfgl.lightblocks.model.Tetromino;
@@ -19,7 +21,22 @@ public class ArtificialPlayer {
     private final AiAcessibleGameModel aiGameModel;
     private final AiAcessibleGameModel opponentGameModel;
 
-    private final Vector2 tempPos = new Vector2();
+    // pos weight 0123454321 => 1.0, 1.07, 1.14, ...
+    // the more the column is centered, the more it is avoided drop pieces
+    private static final float[] POS_WEIGHTS = new float[Gameboard.GAMEBOARD_COLUMNS];
+    // log2 of the number of blocks above a hole
+    private static final float[] LOG2 = new float[Gameboard.GAMEBOARD_ALLROWS + 1];
+
+    static {
+        for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+            POS_WEIGHTS[x] = 1f + Math.abs(Math.abs(x - (Gameboard.GAMEBOARD_COLUMNS / 2f)) - Gameboard.GAMEBOARD_COLUMNS / 2f) / 15f;
+        for (int i = 1; i < LOG2.length; i++)
+            LOG2[i] = MathUtils.log2(i);
+    }
+
+    private final AiGameboard aiGameboard = new AiGameboard();
+    private final EvaluationCache evaluationCache = new EvaluationCache(EvaluationCache.DEFAULT_CAPACITY);
+    private final Array<Tetromino> nextPieces = new Array<>(2);
     private final Queue<Movement> movementArrayList = new Queue<>();
     private final Queue<Movement> holdArrayList = new Queue<>();
     private final float heightFactor;
@@ -52,11 +69,12 @@ public class ArtificialPlayer {
 
         Tetromino nextPiece = aiGameModel.getNextTetromino();
 
-        Array<Tetromino> nextPieces = new Array<>();
+        nextPieces.clear();
         nextPieces.add(activePiece);
         nextPieces.add(nextPiece);
 
-        bestScore = checkAllRotationsAndDropPlaces(new AiGameboard(gameboard), nextPieces, 0, bestScore, movementArrayList);
+        aiGameboard.set(gameboard);
+        bestScore = checkAllRotationsAndDropPlaces(aiGameboard, nextPieces, 0, bestScore, movementArrayList);
 
         if (aiGameModel.isHoldMoveAllowedByModel()) {
             // compare found best movement with hold piece
@@ -68,10 +86,12 @@ public class ArtificialPlayer {
             }
             nextPieces.add(nextPiece);
 
-            float holdMoveScore = checkAllRotationsAndDropPlaces(new AiGameboard(gameboard), nextPieces, 0, bestScore, holdArrayList);
+            // the search leaves the board as it was, no need to set it again
+            float holdMoveScore = checkAllRotationsAndDropPlaces(aiGameboard, nextPieces, 0, bestScore, holdArrayList);
 
             if (holdMoveScore > bestScore) {
-                Gdx.app.log("AI", "Hold the piece");
+                if (Gdx.app.getLogLevel() >= Application.LOG_INFO)
+                    Gdx.app.log("AI", "Hold the piece");
                 movementArrayList.clear();
                 movementArrayList.addFirst(Movement.HOLD);
                 while (holdArrayList.notEmpty())
@@ -81,44 +101,58 @@ public class ArtificialPlayer {
         slowDown = .2f;
     }
 
+    /**
+     * Tries every rotation and drop place of the piece at the given depth. The pieces are pinned
+     * to the board and removed again after evaluation, so the board is the same afterwards and
+     * nothing is allocated.
+     */
     private float checkAllRotationsAndDropPlaces(AiGameboard gameboard, Array<Tetromino> nextPieces, int depth, float overallBestScore, Queue<Movement> movementArrayList) {
         Tetromino activePiece = nextPieces.get(depth);
         int bestRotation = 0;
         int bestHorizontalMove = 0;
         float bestScore = Float.NEGATIVE_INFINITY;
+        int[] blockX = gameboard.getBlockX(depth);
+        int[] blockY = gameboard.getBlockY(depth);
+        int pieceX = activePiece.getPositionX();
+        int pieceY = activePiece.getPositionY();
 
         // check all rotations and all drop places
         for (int rotation = 0; rotation < 4; rotation++) {
             if (activePiece.hasRotation(rotation)) {
+                int shape = activePiece.getShape(rotation);
+
                 for (int horizontalMove = -Gameboard.GAMEBOARD_COLUMNS; horizontalMove <= Gameboard.GAMEBOARD_COLUMNS; horizontalMove++) {
-                    AiGameboard aiGameboard = new AiGameboard(gameboard);
-                    int dropVerticalMove = -1;
+                    boolean insideColumns = true;
+                    for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                        blockX[i] = Tetromino.getCellX(shape, i) + pieceX + horizontalMove;
+                        blockY[i] = Tetromino.getCellY(shape, i) + pieceY;
+                        insideColumns = insideColumns && blockX[i] >= 0 && blockX[i] < Gameboard.GAMEBOARD_COLUMNS;
+                    }
 
-                    for (int verticalMove = 0; verticalMove <= Gameboard.GAMEBOARD_ALLROWS &&
-                            dropVerticalMove + 1 == verticalMove; verticalMove++) {
-                        tempPos.set(activePiece.getPosition().x + horizontalMove,
-                                activePiece.getPosition().y - verticalMove);
-                        if (aiGameboard.isValidPosition(activePiece, tempPos, rotation)) {
-                            dropVerticalMove = verticalMove;
+                    int dropVerticalMove = -1;
+                    if (insideColumns) {
+                        for (int verticalMove = 0; verticalMove <= Gameboard.GAMEBOARD_ALLROWS &&
+                                dropVerticalMove + 1 == verticalMove; verticalMove++) {
+                            if (gameboard.isValidPosition(blockX, blockY, verticalMove)) {
+                                dropVerticalMove = verticalMove;
+                            }
                         }
                     }
 
                     if (dropVerticalMove >= 0) {
                         // we have found the drop position for the current rotation
                         // and pretend to pin the tetromino here
-                        for (Vector2 coord : activePiece.getRotationVectors(rotation)) {
-                            int x = (int) activePiece.getPosition().x + (int) coord.x + horizontalMove;
-                            int y = (int) activePiece.getPosition().y + (int) coord.y - dropVerticalMove;
-                            aiGameboard.setPosition(x, y, true);
-                        }
+                        gameboard.pin(blockX, blockY, dropVerticalMove);
 
                         float score;
                         if (depth == nextPieces.size - 1) {
-                            score = calculateScoreOfPosition(aiGameboard);
+                            score = calculateScoreOfPosition(gameboard);
                         } else {
-                            score = checkAllRotationsAndDropPlaces(aiGameboard, nextPieces, depth + 1, 0, null);
+                            score = checkAllRotationsAndDropPlaces(gameboard, nextPieces, depth + 1, 0, null);
                         }
 
+                        gameboard.unpin(blockX, blockY, dropVerticalMove);
+
                         if (score > bestScore ||
                                 // if we found an equal score, use it to prevent a left-hang
                                 MathUtils.isEqual(score, bestScore) && MathUtils.randomBoolean()
@@ -137,7 +171,8 @@ public class ArtificialPlayer {
 
         // now we found the best position, add the necessary movements to the queue
         if (movementArrayList != null && bestScore > overallBestScore) {
-            Gdx.app.log("AI", "Move: h " + bestHorizontalMove + ", rotate " + bestRotation);
+            if (Gdx.app.getLogLevel() >= Application.LOG_INFO)
+                Gdx.app.log("AI", "Move: h " + bestHorizontalMove + ", rotate " + bestRotation);
             movementArrayList.clear();
 
             switch (bestRotation) {
@@ -177,9 +212,21 @@ public class ArtificialPlayer {
             completedLinesVal = Math.max(0, (completedLines - 1) * (completedLines - 1));
         }
 
-        float aggregatedHeight = aggregateWeightedHeight(gameboard);
-        float countHoles = countHoles(gameboard);
-        int bumpiness = computeBumpiness(gameboard);
+        float aggregatedHeight;
+        float countHoles;
+        int bumpiness;
+        int cacheEntry = evaluationCache.lookup(gameboard.clearedRows);
+        if (cacheEntry >= 0) {
+            aggregatedHeight = evaluationCache.getAggregatedHeight(cacheEntry);
+            countHoles = evaluationCache.getHoles(cacheEntry);
+            bumpiness = evaluationCache.getBumpiness(cacheEntry);
+        } else {
+            gameboard.computeColumnHeights();
+            aggregatedHeight = aggregateWeightedHeight(gameboard);
+            countHoles = countHoles(gameboard);
+            bumpiness = computeBumpiness(gameboard);
+            evaluationCache.store(~cacheEntry, aggregatedHeight, countHoles, bumpiness);
+        }
 
         return -heightFactor * aggregatedHeight + completeLinesFactor * completedLinesVal - holesFactor * countHoles - bumpinessFactor * bumpiness;
     }
@@ -205,14 +252,15 @@ public class ArtificialPlayer {
         for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
             // multiply holes with the number of blocks above the holes
             // this takes into account that it is more difficult to fill them the more to clear there is
+            // above the column's highest block there are no holes
             int numFull = 0;
+            int columnBit = 1 << x;
 
-            for (int y = Gameboard.GAMEBOARD_ALLROWS - 1; y >= 0; y--) {
-                if (gameboard.isPositionFull(x, y))
+            for (int y = gameboard.getColumnHeight(x) - 1; y >= 0; y--) {
+                if (gameboard.isClearedRowFull(y, columnBit))
                     numFull++;
-
-                if (!gameboard.isPositionFull(x, y) && numFull > 0)
-                    holes = holes + 1 + (MathUtils.log2(numFull));
+                else
+                    holes = holes + 1 + LOG2[numFull];
             }
         }
 
@@ -234,12 +282,9 @@ public class ArtificialPlayer {
         float aggregateHeight = 0;
 
         for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
-            // pos weight 0123454321 => 1.0, 1.07, 1.14, ...
-            // the more the column is centered, the more it is avoided drop pieces
-            float posWeight = 1f + Math.abs(Math.abs(x - (Gameboard.GAMEBOARD_COLUMNS / 2f)) - Gameboard.GAMEBOARD_COLUMNS / 2f) / 15f;
             int y = gameboard.getColumnHeight(x);
 
-            aggregateHeight = aggregateHeight + y * posWeight;
+            aggregateHeight = aggregateHeight + y * POS_WEIGHTS[x];
         }
 
         return aggregateHeight;
@@ -284,92 +329,124 @@ public class ArtificialPlayer {
 
     enum Movement {MOVE_LEFT, MOVE_RIGHT, ROTATE_LEFT, ROTATE_RIGHT, DROP, HOLD}
 
+    /**
+     * Occupancy of the board as one bit per column and row, like the occupancy plane of
+     * {@link Gameboard}. The search pins and removes pieces in place. Full lines are only cleared
+     * on a copy made for evaluation, the column heights are computed from that copy.
+     */
     static class AiGameboard {
-        final boolean[][] fullSquares = new boolean[Gameboard.GAMEBOARD_ALLROWS][Gameboard.GAMEBOARD_COLUMNS];
-
-        AiGameboard(Gameboard gameboard) {
-            int[][] gameboardSquares = gameboard.getGameboardSquares();
-            for (int i = 0; i < Gameboard.GAMEBOARD_ALLROWS; i++) {
-                for (int j = 0; j < Gameboard.GAMEBOARD_COLUMNS; j++) {
-                    fullSquares[i][j] = gameboardSquares[i][j] != Gameboard.SQUARE_EMPTY;
-                }
-            }
+        final int[] rows = new int[Gameboard.GAMEBOARD_ALLROWS];
+        // the rows without full lines of the last clearFullLines() call, and their column heights
+        final int[] clearedRows = new int[Gameboard.GAMEBOARD_ALLROWS];
+        private final int[] columnHeights = new int[Gameboard.GAMEBOARD_COLUMNS];
+        // block coordinates of the piece tested at each search depth
+        private int[][] blockX = new int[0][];
+        private int[][] blockY = new int[0][];
+
+        void set(Gameboard gameboard) {
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++)
+                rows[y] = gameboard.getRowOccupancy(y);
         }
 
-        AiGameboard(AiGameboard gameboard) {
-            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
-                for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
-                    fullSquares[y][x] = gameboard.isPositionFull(x, y);
-                }
-            }
+        int[] getBlockX(int depth) {
+            ensureDepth(depth);
+            return blockX[depth];
         }
 
-        boolean isPositionFull(int x, int y) {
-            return fullSquares[y][x];
+        int[] getBlockY(int depth) {
+            ensureDepth(depth);
+            return blockY[depth];
         }
 
-        boolean isValidCoordinate(int x, int y) {
-            if (x < 0 || x >= Gameboard.GAMEBOARD_COLUMNS) {
-                return false;
-            }
-
-            if (y < 0 || y >= Gameboard.GAMEBOARD_ALLROWS) {
-                return false;
+        private void ensureDepth(int depth) {
+            if (depth < blockX.length)
+                return;
+
+            int[][] newBlockX = new int[depth + 1][];
+            int[][] newBlockY = new int[depth + 1][];
+            System.arraycopy(blockX, 0, newBlockX, 0, blockX.length);
+            System.arraycopy(blockY, 0, newBlockY, 0, blockY.length);
+            for (int i = blockX.length; i <= depth; i++) {
+                newBlockX[i] = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+                newBlockY[i] = new int[Tetromino.TETROMINO_BLOCKCOUNT];
             }
-
-            return (!isPositionFull(x, y));
+            blockX = newBlockX;
+            blockY = newBlockY;
         }
 
-        public boolean isValidPosition(Tetromino tetromino, Vector2 testPosition, int testRotation) {
-            for (Vector2 v : tetromino.getRotationVectors(testRotation)) {
-                int posX = ((int) v.x + (int) testPosition.x);
-                int posY = ((int) v.y + (int) testPosition.y);
-
-                if (!isValidCoordinate(posX, posY)) {
+        /**
+         * @param blockX columns of the blocks, must be on the board
+         * @param blockY rows of the blocks before moving down
+         */
+        boolean isValidPosition(int[] blockX, int[] blockY, int verticalMove) {
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                int y = blockY[i] - verticalMove;
+                if (y < 0 || y >= Gameboard.GAMEBOARD_ALLROWS || (rows[y] & (1 << blockX[i])) != 0)
                     return false;
-                }
             }
 
             return true;
         }
 
-        void setPosition(int x, int y, boolean full) {
-            fullSquares[y][x] = full;
+        void pin(int[] blockX, int[] blockY, int verticalMove) {
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+                rows[blockY[i] - verticalMove] |= 1 << blockX[i];
+        }
+
+        /**
+         * removes a piece pinned before, the blocks were free before pinning
+         */
+        void unpin(int[] blockX, int[] blockY, int verticalMove) {
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+                rows[blockY[i] - verticalMove] &= ~(1 << blockX[i]);
         }
 
+        /**
+         * copies the board without its full lines for evaluation
+         *
+         * @return number of full lines
+         */
         int clearFullLines() {
             int fullLines = 0;
-            for (int y = Gameboard.GAMEBOARD_ALLROWS - 1; y >= 0; y--) {
-                boolean hasBlank = false;
-                for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS && !hasBlank; x++) {
-                    if (!isPositionFull(x, y))
-                        hasBlank = true;
-                }
-                if (!hasBlank) {
+            int clearedY = 0;
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+                if (rows[y] == Gameboard.ROW_FULL)
                     fullLines++;
+                else
+                    clearedRows[clearedY++] = rows[y];
+            }
+            while (clearedY < Gameboard.GAMEBOARD_ALLROWS)
+                clearedRows[clearedY++] = 0;
 
-                    // move everything down
-                    for (int y2 = y; y2 < Gameboard.GAMEBOARD_ALLROWS; y2++) {
-                        for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
-                            if (y2 < Gameboard.GAMEBOARD_ALLROWS - 1) {
-                                fullSquares[y2][x] = fullSquares[y2 + 1][x];
-                            } else {
-                                fullSquares[y2][x] = false;
+            return fullLines;
+        }
 
-                            }
-                        }
-                    }
+        /**
+         * computes the column heights of the rows of the last clearFullLines() call
+         */
+        void computeColumnHeights() {
+            // from top to bottom, the first row a column is seen in is its height
+            Arrays.fill(columnHeights, 0);
+            int columnsSeen = 0;
+            for (int y = Gameboard.GAMEBOARD_ALLROWS - 1; y >= 0 && columnsSeen != Gameboard.ROW_FULL; y--) {
+                int newColumns = clearedRows[y] & ~columnsSeen;
+                columnsSeen |= newColumns;
+                while (newColumns != 0) {
+                    columnHeights[Integer.numberOfTrailingZeros(newColumns)] = y + 1;
+                    newColumns &= newColumns - 1;
                 }
             }
+        }
 
-            return fullLines;
+        /**
+         * @return height of the column after clearing full lines
+         */
+        int getColumnHeight(int x) {
+            return columnHeights[x];
         }
 
-        public int getColumnHeight(int x) {
-            int y = Gameboard.GAMEBOARD_ALLROWS;
-            while (y > 0 && !isPositionFull(x, y - 1))
-                y--;
-            return y;
+        boolean isClearedRowFull(int y, int columnBit) {
+            return (clearedRows[y] & columnBit) != 0;
         }
     }
 }
@@ -0,0 +1,117 @@
+package de.golfgl.lightblocks.multiplayer.ai;
+
+import de.golfgl.lightblocks.model.Gameboard;
+
+/**
+ * Bounded cache of board evaluations of {@link ArtificialPlayer}, keyed by the occupancy of the
+ * board after clearing full lines. Many placement sequences lead to the same board, and the
+ * evaluation only depends on the board.
+ * <p>
+ * The cache is two-way set associative: a board's hash selects a set of two entries, a new board
+ * replaces the entry of its set used least recently. The rows are stored as key, so there are no
+ * false hits.
+ * <p>
+ * Only the raw dimensions are cached, not the weighted score.
+ */
+public class EvaluationCache {
+    public static final int DEFAULT_CAPACITY = 1 << 12;
+
+    // three rows of ten bits packed in each int
+    private static final int ROWS_PER_KEY = 3;
+    private static final int KEY_INTS = (Gameboard.GAMEBOARD_ALLROWS + ROWS_PER_KEY - 1) / ROWS_PER_KEY;
+
+    private final int setMask;
+    private final int[] keys;
+    private final boolean[] used;
+    // per set: the entry (0 or 1) to replace next
+    private final byte[] replaceNext;
+    private final float[] aggregatedHeights;
+    private final float[] holes;
+    private final int[] bumpiness;
+    private final int[] packedRows = new int[KEY_INTS];
+
+    private long lookups;
+    private long hits;
+
+    /**
+     * @param capacity number of boards, rounded up to a power of two
+     */
+    public EvaluationCache(int capacity) {
+        int entries = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        setMask = entries / 2 - 1;
+        keys = new int[entries * KEY_INTS];
+        used = new boolean[entries];
+        replaceNext = new byte[entries / 2];
+        aggregatedHeights = new float[entries];
+        holes = new float[entries];
+        bumpiness = new int[entries];
+    }
+
+    /**
+     * @return the entry of the board, or the complement (~entry) of the entry to store its
+     * evaluation in if not cached
+     */
+    int lookup(int[] rows) {
+        int hash = 0;
+        for (int i = 0; i < KEY_INTS; i++) {
+            int packed = 0;
+            for (int row = i * ROWS_PER_KEY; row < Math.min((i + 1) * ROWS_PER_KEY, Gameboard.GAMEBOARD_ALLROWS); row++)
+                packed = (packed << Gameboard.GAMEBOARD_COLUMNS) | rows[row];
+            packedRows[i] = packed;
+            hash = hash * 0x9E3779B1 + packed;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+
+        lookups++;
+        int set = hash & setMask;
+        for (int way = 0; way < 2; way++) {
+            int entry = set * 2 + way;
+            if (used[entry] && keyEquals(entry)) {
+                hits++;
+                replaceNext[set] = (byte) (1 - way);
+                return entry;
+            }
+        }
+
+        return ~(set * 2 + replaceNext[set]);
+    }
+
+    private boolean keyEquals(int entry) {
+        int offset = entry * KEY_INTS;
+        for (int i = 0; i < KEY_INTS; i++) {
+            if (keys[offset + i] != packedRows[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * stores the evaluation of the board given to the last {@link #lookup(int[])}
+     */
+    void store(int entry, float aggregatedHeight, float holes, int bumpiness) {
+        System.arraycopy(packedRows, 0, keys, entry * KEY_INTS, KEY_INTS);
+        used[entry] = true;
+        replaceNext[entry / 2] = (byte) (1 - (entry & 1));
+        this.aggregatedHeights[entry] = aggregatedHeight;
+        this.holes[entry] = holes;
+        this.bumpiness[entry] = bumpiness;
+    }
+
+    float getAggregatedHeight(int entry) {
+        return aggregatedHeights[entry];
+    }
+
+    float getHoles(int entry) {
+        return holes[entry];
+    }
+
+    int getBumpiness(int entry) {
+        return bumpiness[entry];
+    }
+
+    public float getHitRate() {
+        return lookups > 0 ? (float) hits / lookups : 0;
+    }
+}
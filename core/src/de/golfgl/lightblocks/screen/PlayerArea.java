@@ -15,7 +15,6 @@ import com.badlogic.gdx.scenes.scene2d.ui.Image;
 import com.badlogic.gdx.scenes.scene2d.ui.Label;
 import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.Align;
-import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Scaling;
 import com.badlogic.gdx.utils.Timer;
@@ -31,6 +30,7 @@ import de.golfgl.lightblocks.model.GameModel;
 import de.golfgl.lightblocks.model.GameScore;
 import de.golfgl.lightblocks.model.Gameboard;
 import de.golfgl.lightblocks.model.IGameModelListener;
+import de.golfgl.lightblocks.model.PackedPiece;
 import de.golfgl.lightblocks.model.Tetromino;
 import de.golfgl.lightblocks.scene2d.BlockActor;
 import de.golfgl.lightblocks.scene2d.BlockGroup;
@@ -62,6 +62,8 @@ public class PlayerArea extends Group implements IGameModelListener {
     private final BlockActor[][] blockMatrix;
     private final BlockActor[] nextTetro;
     private final BlockActor[] holdTetro;
+    // the blocks of the active piece while it is moved, reused for every move
+    private final BlockActor[] movingBlocks;
     private final MotivationLabel motivatorLabel;
     private final LightBlocksGame app;
     private final PlayScreen playScreen;
@@ -119,6 +121,7 @@ public class PlayerArea extends Group implements IGameModelListener {
         blockMatrix = new BlockActor[Gameboard.GAMEBOARD_COLUMNS][Gameboard.GAMEBOARD_ALLROWS];
         nextTetro = new BlockActor[Tetromino.TETROMINO_BLOCKCOUNT];
         holdTetro = new BlockActor[Tetromino.TETROMINO_BLOCKCOUNT];
+        movingBlocks = new BlockActor[Tetromino.TETROMINO_BLOCKCOUNT];
 
         // Block group holds all blocks, it is the main gameboard
         blockGroup = new BlockGroup(app, true);
@@ -259,8 +262,8 @@ public class PlayerArea extends Group implements IGameModelListener {
             }
         }
 
-        // add active piece
-        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+        // add active piece, there is none when the game is over
+        for (int i = 0; activePiecePos != null && i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
             int x = activePiecePos[i][0];
             int y = activePiecePos[i][1];
             insertNewBlock(x, y, activePieceType);
@@ -270,9 +273,10 @@ public class PlayerArea extends Group implements IGameModelListener {
             }
         }
 
-        showNextTetro(nextPiecePos, nextPieceType);
+        if (nextPiecePos != null)
+            showNextTetro(PackedPiece.of(nextPiecePos), nextPieceType);
         if (holdPiecePos != null) {
-            swapHoldAndActivePiece(holdPiecePos, null, null, 0, holdPieceType);
+            swapHoldAndActivePiece(PackedPiece.of(holdPiecePos), PackedPiece.NONE, PackedPiece.NONE, 0, holdPieceType);
         }
 
         gameType.setText(gameTypeLabel);
@@ -293,19 +297,20 @@ public class PlayerArea extends Group implements IGameModelListener {
     }
 
     @Override
-    public void moveTetro(Integer[][] v, int dx, int dy, int ghostPieceDistance) {
+    public void moveTetro(long piece, int dx, int dy, int ghostPieceDistance) {
         if (dx != 0 && app.localPrefs.isPlaySounds() && app.theme.horizontalMoveSound != null)
             app.theme.horizontalMoveSound.play(volumeFactor);
 
         if (dx != 0 || dy != 0) {
             // remove every block from gameboard at first...
-            Array<BlockActor> blocks = removeBlockActorsFromMatrix(v);
+            removeBlockActorsFromMatrix(piece);
 
             //... and then put them back
-            for (int i = 0; i < v.length; i++) {
-                BlockActor block = blocks.get(i);
-                int x = v[i][0];
-                int y = v[i][1];
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                BlockActor block = movingBlocks[i];
+                movingBlocks[i] = null;
+                int x = PackedPiece.getX(piece, i);
+                int y = PackedPiece.getY(piece, i);
                 block.setMoveAction(Actions.moveTo((x + dx) * BlockActor.blockWidth, (y + dy) * BlockActor
                         .blockWidth, DURATION_TETRO_MOVE));
                 blockMatrix[x + dx][y + dy] = block;
@@ -314,32 +319,35 @@ public class PlayerArea extends Group implements IGameModelListener {
         }
     }
 
-    private Array<BlockActor> removeBlockActorsFromMatrix(Integer[][] v) {
-        Array<BlockActor> blocks = new Array<>(v.length);
-
-        for (Integer[] xy : v) {
-            if (blockMatrix[xy[0]][xy[1]] == null)
-                Gdx.app.error("BLOCKS", "Block null at " + xy[0].toString() + " " + xy[1].toString());
+    /**
+     * takes the piece's blocks from the matrix into movingBlocks
+     */
+    private void removeBlockActorsFromMatrix(long piece) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            int x = PackedPiece.getX(piece, i);
+            int y = PackedPiece.getY(piece, i);
+            if (blockMatrix[x][y] == null)
+                Gdx.app.error("BLOCKS", "Block null at " + x + " " + y);
 
-            blocks.add(blockMatrix[xy[0]][xy[1]]);
-            blockMatrix[xy[0]][xy[1]] = null;
+            movingBlocks[i] = blockMatrix[x][y];
+            blockMatrix[x][y] = null;
         }
-        return blocks;
     }
 
     @Override
-    public void rotateTetro(Integer[][] vOld, Integer[][] vNew, int ghostPieceDistance) {
+    public void rotateTetro(long oldPiece, long newPiece, int ghostPieceDistance) {
         if (app.localPrefs.isPlaySounds() && app.theme.rotateSound != null)
             app.theme.rotateSound.play(volumeFactor);
 
         // remove every block from gameboard at first...
-        Array<BlockActor> blocks = removeBlockActorsFromMatrix(vOld);
+        removeBlockActorsFromMatrix(oldPiece);
 
         //... and then put them back
-        for (int i = 0; i < vOld.length; i++) {
-            BlockActor block = blocks.get(i);
-            int newx = vNew[i][0];
-            int newy = vNew[i][1];
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            BlockActor block = movingBlocks[i];
+            movingBlocks[i] = null;
+            int newx = PackedPiece.getX(newPiece, i);
+            int newy = PackedPiece.getY(newPiece, i);
             block.setMoveAction(Actions.moveTo((newx) * BlockActor.blockWidth, (newy) * BlockActor.blockWidth, 1 /
                     20f));
             blockMatrix[newx][newy] = block;
@@ -620,7 +628,7 @@ public class PlayerArea extends Group implements IGameModelListener {
     }
 
     @Override
-    public void showNextTetro(Integer[][] relativeBlockPositions, int blockType) {
+    public void showNextTetro(long relativePiece, int blockType) {
         // the next tetromino is set. It will be displayed on top right of the gameboard.
         // For the incoming animation it will get added to the group at lowest position, so that it does
         // not overlays the game board blocks
@@ -633,8 +641,8 @@ public class PlayerArea extends Group implements IGameModelListener {
             nextTetro[i].setPosition((i == 0 || i == 2) ? -BlockActor.blockWidth : LightBlocksGame.nativeGameWidth +
                             BlockActor.blockWidth,
                     (i >= 2) ? 0 : LightBlocksGame.nativeGameHeight);
-            nextTetro[i].setMoveAction(Actions.moveTo(offsetX + relativeBlockPositions[i][0] * BlockActor.blockWidth,
-                    offsetY + relativeBlockPositions[i][1] * BlockActor.blockWidth, .5f, Interpolation.fade));
+            nextTetro[i].setMoveAction(Actions.moveTo(offsetX + PackedPiece.getX(relativePiece, i) * BlockActor.blockWidth,
+                    offsetY + PackedPiece.getY(relativePiece, i) * BlockActor.blockWidth, .5f, Interpolation.fade));
             nextTetro[i].addAction(Actions.alpha(app.theme.nextPieceAlpha, .5f, Interpolation.fade));
             nextTetro[i].getColor().a = 0;
 
@@ -652,13 +660,13 @@ public class PlayerArea extends Group implements IGameModelListener {
     }
 
     @Override
-    public void activateNextTetro(Integer[][] boardBlockPositions, int blockType, int ghostPieceDistance) {
+    public void activateNextTetro(long piece, int blockType, int ghostPieceDistance) {
         for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
             // move the already instantiated block to the correct position
             BlockActor block = nextTetro[i];
 
-            final int x = boardBlockPositions[i][0];
-            final int y = boardBlockPositions[i][1];
+            final int x = PackedPiece.getX(piece, i);
+            final int y = PackedPiece.getY(piece, i);
 
             if (block == null) {
                 // null at game start, animations make no sense then. So just insert right at the
@@ -680,8 +688,8 @@ public class PlayerArea extends Group implements IGameModelListener {
     }
 
     @Override
-    public void swapHoldAndActivePiece(Integer[][] newHoldPiecePositions, Integer[][] oldActivePiecePositions,
-                                       Integer[][] newActivePiecePositions, int ghostPieceDistance, int holdBlockType) {
+    public void swapHoldAndActivePiece(long newHoldPiece, long oldActivePiece, long newActivePiece,
+                                       int ghostPieceDistance, int holdBlockType) {
         float offsetX;
         float offsetY = getNextPieceYPos();
 
@@ -696,9 +704,9 @@ public class PlayerArea extends Group implements IGameModelListener {
             oldHoldTetro[i] = holdTetro[i];
 
             float fadeOutDuration;
-            if (oldActivePiecePositions != null) {
-                final int oldX = oldActivePiecePositions[i][0];
-                final int oldY = oldActivePiecePositions[i][1];
+            if (oldActivePiece != PackedPiece.NONE) {
+                final int oldX = PackedPiece.getX(oldActivePiece, i);
+                final int oldY = PackedPiece.getY(oldActivePiece, i);
 
                 holdTetro[i] = blockMatrix[oldX][oldY];
                 blockMatrix[oldX][oldY] = null;
@@ -710,17 +718,17 @@ public class PlayerArea extends Group implements IGameModelListener {
                 fadeOutDuration = 0f;
             }
 
-            holdTetro[i].setMoveAction(Actions.moveTo(offsetX + newHoldPiecePositions[i][0] * BlockActor.blockWidth,
-                    offsetY + newHoldPiecePositions[i][1] * BlockActor.blockWidth, .1f, Interpolation.fade));
+            holdTetro[i].setMoveAction(Actions.moveTo(offsetX + PackedPiece.getX(newHoldPiece, i) * BlockActor.blockWidth,
+                    offsetY + PackedPiece.getY(newHoldPiece, i) * BlockActor.blockWidth, .1f, Interpolation.fade));
             holdTetro[i].addAction(Actions.alpha(app.theme.nextPieceAlpha, fadeOutDuration, Interpolation.fade));
             holdTetro[i].setEnlightened(false);
         }
 
         // pull the hold tetromino
         for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
-            if (newActivePiecePositions != null) {
-                final int newX = newActivePiecePositions[i][0];
-                final int newY = newActivePiecePositions[i][1];
+            if (newActivePiece != PackedPiece.NONE) {
+                final int newX = PackedPiece.getX(newActivePiece, i);
+                final int newY = PackedPiece.getY(newActivePiece, i);
                 blockMatrix[newX][newY] = oldHoldTetro[i];
                 oldHoldTetro[i].addAction(Actions.fadeIn(.1f));
                 oldHoldTetro[i].setMoveAction(Actions.moveTo(newX * BlockActor.blockWidth, newY * BlockActor.blockWidth,
@@ -770,14 +778,14 @@ public class PlayerArea extends Group implements IGameModelListener {
     }
 
     @Override
-    public void pinTetromino(Integer[][] currentBlockPositions) {
+    public void pinTetromino(long piece) {
         if (app.localPrefs.isPlaySounds() && app.theme.dropSound != null)
             app.theme.dropSound.play(volumeFactor);
 
         playScreen.inputAdapter.vibrate(VibrationType.DROP, gameModel.getFixedInputId());
 
-        for (Integer[] vAfterMove : currentBlockPositions) {
-            BlockActor activePieceBlock = blockMatrix[vAfterMove[0]][vAfterMove[1]];
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            BlockActor activePieceBlock = blockMatrix[PackedPiece.getX(piece, i)][PackedPiece.getY(piece, i)];
             activePieceBlock.setEnlightened(false);
         }
     }
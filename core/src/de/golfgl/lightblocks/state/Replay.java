@@ -1,14 +1,26 @@
 package de.golfgl.lightblocks.state;
 
-import com.badlogic.gdx.utils.StringBuilder;
-
-import java.util.ArrayList;
-import java.util.LinkedList;
+import com.badlogic.gdx.utils.Base64Coder;
+import com.badlogic.gdx.utils.IntArray;
 
 import de.golfgl.lightblocks.model.Gameboard;
 import de.golfgl.lightblocks.model.Tetromino;
 
 /**
+ * Replays are written in the binary format of {@link ReplayStream} (version 2). Longer replays are
+ * deflated, and the bytes are Base64 encoded so the replay stays a string for the backend and the
+ * saved games. Replays in the old text format (version 1) can still be read.
+ * <p>
+ * Recorded steps are kept in a {@link ReplayStepLog}, so recording them during the game does not
+ * allocate. Replays read in the binary format are decoded lazily by a {@link ReplayStream}, and
+ * only decoded completely if steps are added. {@link ReplayStep}s are views of the steps, created
+ * when a step is read. The views of the recently read steps are kept, so reading the same step
+ * again returns the same object.
+ * <p>
+ * For playback, seeking, the current gameboard, score and {@link AdditionalInformation} are found
+ * by binary search in the index of gameboard and drop steps. A gameboard is rebuilt from its
+ * keyframe. The cleared lines up to a gameboard are summed up lazily as far as they were needed.
+ * <p>
  * Created by Benjamin Schulte on 31.10.2018.
  */
 
@@ -21,15 +33,39 @@ public class Replay {
     private static final char SEP_DEFAULT = ':';
     private static final char SEP_MAJOR = '#';
     private static final String KEY_VERSION = "1";
-    private LinkedList<ReplayStep> replaySteps;
-    private ArrayList<ReplayStep> arraySteps;
-    private ArrayList<AdditionalInformation> arrayAdditional;
+    private static final String KEY_VERSION_BINARY = "2";
+    // first byte of the binary format
+    private static final int FORMAT_DEFLATED = 1;
+    // smaller replays hardly get smaller
+    private static final int MIN_SIZE_TO_DEFLATE = 64;
+    // a few times the longest replay string the backend takes (see BackendScore), so a small replay
+    // inflating to gigabytes is rejected before it runs out of memory
+    static final int MAX_INFLATED_SIZE = 4 * 4900000;
+    private static final int OP_NEXT_PIECE = ReplayStream.OP_NEXT_PIECE;
+    private static final int OP_DROP_PIECE = ReplayStream.OP_DROP_PIECE;
+    private static final int OP_ROTATE_PIECE = ReplayStream.OP_ROTATE_PIECE;
+    private static final int OP_HORIZONTAL_MOVE = ReplayStream.OP_HORIZONTAL_MOVE;
+    private static final int OP_VERTICAL_MOVE = ReplayStream.OP_VERTICAL_MOVE;
+    private static final int GAMEBOARD_SQUARES = ReplayStepLog.GAMEBOARD_SQUARES;
+    // a power of two
+    private static final int STEP_VIEW_CACHE_SIZE = 64;
+    private final ReplayStepLog recordedSteps = new ReplayStepLog();
+    private ReplaySteps steps = recordedSteps;
+    // the string read, as long as its steps are read lazily
+    private String readReplay;
+    private final ReplayStep[] stepViews = new ReplayStep[STEP_VIEW_CACHE_SIZE];
+    // wird für jeden Drop wiederverwendet, damit das Aufnehmen nichts alloziert
+    private final ReplayDropPieceStep recordedDropStep = new ReplayDropPieceStep(this);
+    private final byte[] recordedGameboard = new byte[GAMEBOARD_SQUARES];
     private boolean isValid;
+    private boolean replayMode;
     private int currentReplayStepIdx;
-    private int lastGameboardStepIdx;
+    // abgebaute Reihen vor dem jeweiligen Gameboard-Step, nur soweit schon benötigt
+    private final IntArray clearedLinesAtGameboard = new IntArray();
+    private int currentGameboardNum = -1;
+    private byte[] currentGameboard;
 
     public Replay() {
-        this.replaySteps = new LinkedList<ReplayStep>();
         isValid = true;
     }
 
@@ -42,92 +78,172 @@ public class Replay {
         return lastChar;
     }
 
+    /**
+     * @return number of full rows with the active piece pinned to the gameboard
+     */
+    private static int countFullRows(byte[] gameboard, int[] activePiecePos) {
+        int fullRows = 0;
+        for (int row = 0; row < Gameboard.GAMEBOARD_ALLROWS; row++) {
+            boolean rowIsFull = true;
+            for (int col = 0; col < Gameboard.GAMEBOARD_COLUMNS && rowIsFull; col++) {
+                int pos = row * Gameboard.GAMEBOARD_COLUMNS + col;
+                boolean colIsFul = gameboard[pos] != Gameboard.SQUARE_EMPTY;
+                if (!colIsFul)
+                    for (int i = 0; i < activePiecePos.length; i++) {
+                        if (activePiecePos[i] == pos)
+                            colIsFul = true;
+                    }
+
+                rowIsFull = rowIsFull && colIsFul;
+            }
+            if (rowIsFull)
+                fullRows++;
+        }
+        return fullRows;
+    }
+
+    private static int packActivePiecePos(Tetromino activeTetromino) {
+        int shape = activeTetromino.getCurrentShape();
+        int packed = 0;
+        for (int blockNum = 0; blockNum < Tetromino.TETROMINO_BLOCKCOUNT; blockNum++) {
+            int pos = activeTetromino.getPositionX() + Tetromino.getCellX(shape, blockNum) + Gameboard.GAMEBOARD_COLUMNS
+                    * (activeTetromino.getPositionY() + Tetromino.getCellY(shape, blockNum));
+            packed |= (pos & 0xFF) << (blockNum << 3);
+        }
+        return packed;
+    }
+
     /**
      * verlässt den Replay-Mode
      */
     private void setChanged() {
-        arraySteps = null;
+        replayMode = false;
+    }
+
+    private void clearSteps() {
+        recordedSteps.clear();
+        steps = recordedSteps;
+        readReplay = null;
+        for (int i = 0; i < stepViews.length; i++)
+            stepViews[i] = null;
     }
 
     /**
-     * setzt den Replay-Mode: Umkopieren in Array, setzen der aktuellen Position
+     * setzt den Replay-Mode: Setzen der aktuellen Position
      */
     private void setReplayMode() {
-        if (arraySteps == null) {
-            arraySteps = new ArrayList<ReplayStep>(replaySteps);
-
+        if (!replayMode) {
             if (!isValid())
-                arraySteps.clear();
-
-            calcAdditionalInformation();
+                clearSteps();
 
+            replayMode = true;
+            clearedLinesAtGameboard.clear();
+            currentGameboardNum = -1;
+            currentGameboard = null;
             currentReplayStepIdx = -1;
-            lastGameboardStepIdx = arraySteps.size() + 1;
         }
     }
 
     /**
-     * Berechnet die Infos, die nicht explizit im Replay stehen
+     * @return the view of the step, the same object as long as it is in the cache
      */
-    private void calcAdditionalInformation() {
-        int numBlocks = 0;
-        int cleared = 0;
-        byte[] gameboard = null;
-        arrayAdditional = new ArrayList<>(arraySteps.size());
-
-        // einmal von vorn nach hinten...
-        for (int step = 0; step < arraySteps.size(); step++) {
-            ReplayStep currentStep = arraySteps.get(step);
-            AdditionalInformation add = new AdditionalInformation();
-            arrayAdditional.add(add);
-
-            if (currentStep instanceof ReplayGameboardStep)
-                gameboard = ((ReplayGameboardStep) currentStep).gameboard;
-
-            // gezogene Blöcke
-            if (currentStep.isNextPieceStep())
-                numBlocks++;
-
-            // abgebaute Reihen
-            if (currentStep.isDropStep()) {
-                if (currentStep.getRemovedLines() >= 0)
-                    cleared = cleared + currentStep.getRemovedLines();
-                else {
-                    int[] activePiecePos = currentStep.getActivePiecePosition();
-                    for (int row = 0; row < Gameboard.GAMEBOARD_ALLROWS; row++) {
-                        boolean rowIsFull = true;
-                        for (int col = 0; col < Gameboard.GAMEBOARD_COLUMNS && rowIsFull; col++) {
-                            int pos = row * Gameboard.GAMEBOARD_COLUMNS + col;
-                            boolean colIsFul = gameboard[pos] != Gameboard.SQUARE_EMPTY;
-                            if (!colIsFul)
-                                for (int i = 0; i < activePiecePos.length; i++) {
-                                    if (activePiecePos[i] == pos)
-                                        colIsFul = true;
-                                }
-
-                            rowIsFull = rowIsFull && colIsFul;
-                        }
-                        if (rowIsFull)
-                            cleared++;
-                    }
-                }
+    private ReplayStep getStepView(int stepIdx) {
+        if (stepIdx < 0 || stepIdx >= steps.size())
+            return null;
+
+        int slot = stepIdx & (STEP_VIEW_CACHE_SIZE - 1);
+        ReplayStep view = stepViews[slot];
+        if (view == null || view.stepIdx != stepIdx) {
+            switch (steps.getType(stepIdx)) {
+                case OP_NEXT_PIECE:
+                    view = new ReplayNextPieceStep();
+                    break;
+                case OP_DROP_PIECE:
+                    ReplayDropPieceStep dropStep = new ReplayDropPieceStep(this);
+                    dropStep.dropNum = ReplaySteps.countUpTo(steps.getDropSteps(), stepIdx) - 1;
+                    view = dropStep;
+                    break;
+                case OP_ROTATE_PIECE:
+                    view = new RotateActivePieceStep();
+                    break;
+                case OP_HORIZONTAL_MOVE:
+                    view = new HorizontalMovePieceStep();
+                    break;
+                default:
+                    view = new VerticalMovePieceStep();
             }
+            view.set(stepIdx, steps.getTime(stepIdx), steps.getValue(stepIdx));
+            stepViews[slot] = view;
+        }
+        return view;
+    }
 
-            add.blockNum = numBlocks;
-            add.clearedLines = cleared;
+    /**
+     * @return the steps to add to or change, steps read lazily are decoded completely for that
+     */
+    private ReplayStepLog getRecordedSteps() {
+        if (steps != recordedSteps) {
+            ((ReplayStream) steps).readAll(recordedSteps);
+            steps = recordedSteps;
+            readReplay = null;
         }
+        return recordedSteps;
+    }
 
-        // und nochmal zurück!
-        int[] nextPiece = null;
-        for (int i = arraySteps.size() - 1; i >= 0; i--) {
-            AdditionalInformation currAdd = arrayAdditional.get(i);
-            ReplayStep currentStep = arraySteps.get(i);
+    private boolean hasActivePiecePosition(int stepIdx) {
+        int type = steps.getType(stepIdx);
+        return type != OP_HORIZONTAL_MOVE && type != OP_VERTICAL_MOVE;
+    }
 
-            currAdd.nextPiece = nextPiece;
+    /**
+     * @return the gameboard, a new array unless it is the one returned before
+     */
+    private byte[] getGameboard(int gameboardNum) {
+        if (gameboardNum != currentGameboardNum) {
+            currentGameboard = new byte[GAMEBOARD_SQUARES];
+            steps.readGameboard(gameboardNum, currentGameboard);
+            currentGameboardNum = gameboardNum;
+        }
+        return currentGameboard;
+    }
+
+    /**
+     * @param gameboardNum gameboard before the drops, needed for drops without removed lines
+     * @return lines removed by the drops from step fromIdx up to step toIdx, both inclusive
+     */
+    private int sumRemovedLines(int fromIdx, int toIdx, int gameboardNum) {
+        IntArray dropSteps = steps.getDropSteps();
+        int removedLines = 0;
+        int[] activePiecePos = null;
+        for (int drop = ReplaySteps.countUpTo(dropSteps, fromIdx - 1); drop < dropSteps.size
+                && dropSteps.get(drop) <= toIdx; drop++) {
+            if (steps.getDropRemovedLines(drop) >= 0)
+                removedLines += steps.getDropRemovedLines(drop);
+            else if (gameboardNum >= 0) {
+                // Replays alter Versionen haben die abgebauten Reihen nicht gespeichert
+                if (activePiecePos == null)
+                    activePiecePos = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+                ReplayStepLog.unpackPosition(steps.getValue(dropSteps.get(drop)), activePiecePos);
+                removedLines += countFullRows(getGameboard(gameboardNum), activePiecePos);
+            }
+        }
+        return removedLines;
+    }
 
-            if (currentStep.isNextPieceStep())
-                nextPiece = currentStep.getActivePiecePosition();
+    /**
+     * @return lines cleared before the given gameboard step, summed up from the last one known
+     */
+    private int getClearedLinesAtGameboard(int gameboardNum) {
+        IntArray gameboardSteps = steps.getGameboardSteps();
+        while (clearedLinesAtGameboard.size <= gameboardNum) {
+            int known = clearedLinesAtGameboard.size;
+            if (known == 0)
+                clearedLinesAtGameboard.add(sumRemovedLines(0, gameboardSteps.get(0), -1));
+            else
+                clearedLinesAtGameboard.add(clearedLinesAtGameboard.get(known - 1)
+                        + sumRemovedLines(gameboardSteps.get(known - 1), gameboardSteps.get(known), known - 1));
         }
+        return clearedLinesAtGameboard.get(gameboardNum);
     }
 
     public ReplayStep seekToFirstStep() {
@@ -139,7 +255,7 @@ public class Replay {
 
     public ReplayStep seekToLastStep() {
         setReplayMode();
-        currentReplayStepIdx = arraySteps.size() - 1;
+        currentReplayStepIdx = steps.size() - 1;
         return getCurrentStep();
     }
 
@@ -154,11 +270,15 @@ public class Replay {
     public ReplayStep seekToNextStep() {
         setReplayMode();
 
-        currentReplayStepIdx = Math.min(currentReplayStepIdx + 1, arraySteps.size());
+        currentReplayStepIdx = Math.min(currentReplayStepIdx + 1, steps.size());
 
         return getCurrentStep();
     }
 
+    /**
+     * seeks to the step with an active piece position next to the given time, searching in the
+     * direction of the time from the current step
+     */
     public ReplayStep seekToTimePos(int timeMs) {
         setReplayMode();
 
@@ -177,73 +297,72 @@ public class Replay {
     }
 
     private ReplayStep seekForwardToTimePos(int timeMs) {
-        while (getCurrentStep() != null && (getCurrentStep().timeMs < timeMs || !getCurrentStep()
-                .hasActivePiecePosition()))
-            seekToNextStep();
+        int stepIdx = Math.max(currentReplayStepIdx, steps.findFirstStepAtTime(timeMs));
+        while (stepIdx < steps.size() && !hasActivePiecePosition(stepIdx))
+            stepIdx++;
+        currentReplayStepIdx = stepIdx;
         return getCurrentStep();
     }
 
     private ReplayStep seekBackwardToTimePos(int timeMs) {
-        while (getCurrentStep() != null && (getCurrentStep().timeMs > timeMs || !getCurrentStep()
-                .hasActivePiecePosition()))
-            seekToPreviousStep();
+        int stepIdx = Math.min(currentReplayStepIdx, steps.findFirstStepAtTime(timeMs + 1) - 1);
+        while (stepIdx > 0 && !hasActivePiecePosition(stepIdx))
+            stepIdx--;
+        currentReplayStepIdx = Math.max(stepIdx, 0);
         return getCurrentStep();
     }
 
     public ReplayStep getLastStep() {
         setReplayMode();
-        if (arraySteps.size() > 0)
-            return arraySteps.get(arraySteps.size() - 1);
-        else
-            return null;
+        return getStepView(steps.size() - 1);
     }
 
     public ReplayStep getCurrentStep() {
         setReplayMode();
-
-        if (currentReplayStepIdx >= 0 && currentReplayStepIdx < arraySteps.size()) {
-            ReplayStep replayStep = arraySteps.get(currentReplayStepIdx);
-            if (replayStep instanceof ReplayGameboardStep)
-                lastGameboardStepIdx = currentReplayStepIdx;
-            else if (lastGameboardStepIdx > currentReplayStepIdx) {
-                lastGameboardStepIdx = currentReplayStepIdx;
-                while (lastGameboardStepIdx >= 0 && !(arraySteps.get(lastGameboardStepIdx) instanceof
-                        ReplayGameboardStep)) {
-                    lastGameboardStepIdx--;
-                }
-            }
-
-            return replayStep;
-        } else
-            return null;
+        return getStepView(currentReplayStepIdx);
     }
 
     public AdditionalInformation getCurrentAdditionalInformation() {
         setReplayMode();
-        if (currentReplayStepIdx >= 0 && currentReplayStepIdx < arraySteps.size())
-            return arrayAdditional.get(currentReplayStepIdx);
-        else
+        if (currentReplayStepIdx < 0 || currentReplayStepIdx >= steps.size())
             return null;
+
+        IntArray gameboardSteps = steps.getGameboardSteps();
+        AdditionalInformation add = new AdditionalInformation();
+        int gameboardNum = ReplaySteps.countUpTo(gameboardSteps, currentReplayStepIdx);
+        add.blockNum = gameboardNum;
+
+        // vom letzten Gameboard aus die abgebauten Reihen bestimmen
+        if (gameboardNum == 0)
+            add.clearedLines = sumRemovedLines(0, currentReplayStepIdx, -1);
+        else
+            add.clearedLines = getClearedLinesAtGameboard(gameboardNum - 1) + sumRemovedLines(
+                    gameboardSteps.get(gameboardNum - 1), currentReplayStepIdx, gameboardNum - 1);
+
+        if (gameboardNum < gameboardSteps.size) {
+            add.nextPiece = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+            ReplayStepLog.unpackPosition(steps.getValue(gameboardSteps.get(gameboardNum)), add.nextPiece);
+        }
+
+        return add;
     }
 
     public byte[] getCurrentGameboard() {
         setReplayMode();
 
-        if (lastGameboardStepIdx >= 0 && lastGameboardStepIdx < arraySteps.size())
-            return ((ReplayGameboardStep) arraySteps.get(lastGameboardStepIdx)).gameboard;
+        int gameboardNum = ReplaySteps.countUpTo(steps.getGameboardSteps(), Math.min(currentReplayStepIdx, steps.size() - 1));
+        if (gameboardNum > 0)
+            return getGameboard(gameboardNum - 1);
         else
             return null;
     }
 
     public int getCurrentScore() {
         setReplayMode();
-        int scoreStep = Math.min(currentReplayStepIdx, arraySteps.size() - 1);
-        while (scoreStep > 0) {
-            ReplayStep replayStep = arraySteps.get(scoreStep);
-            if (replayStep.isDropStep())
-                return ((ReplayDropPieceStep) replayStep).score;
-            scoreStep--;
-        }
+        IntArray dropSteps = steps.getDropSteps();
+        int dropNum = ReplaySteps.countUpTo(dropSteps, Math.min(currentReplayStepIdx, steps.size() - 1));
+        if (dropNum > 0 && dropSteps.get(dropNum - 1) > 0)
+            return steps.getDropScore(dropNum - 1);
 
         return 0;
     }
@@ -252,53 +371,51 @@ public class Replay {
         return isValid;
     }
 
+    /**
+     * @return the added step to set its score and removed lines. It is reused for the next drop step
+     */
     public ReplayDropPieceStep addDropStep(int timeMs, Tetromino activeTetromino) {
-        ReplayDropPieceStep currStep = new ReplayDropPieceStep();
-        currStep.timeMs = timeMs;
-
         // das Aktive Piece speichern
-        currStep.saveActivePiecePos(activeTetromino);
-
-        replaySteps.add(currStep);
+        int activePiecePos = packActivePiecePos(activeTetromino);
+        recordedDropStep.dropNum = getRecordedSteps().addDrop(OP_DROP_PIECE, timeMs, activePiecePos);
+        recordedDropStep.set(recordedSteps.size() - 1, timeMs, activePiecePos);
         setChanged();
 
-        return currStep;
+        return recordedDropStep;
     }
 
     public void addNextPieceStep(int timeMs, Gameboard gameboard, Tetromino activeTetromino) {
-        ReplayNextPieceStep currStep = new ReplayNextPieceStep();
-        currStep.timeMs = timeMs;
-        currStep.saveGameboard(gameboard);
-        currStep.saveActivePiecePos(activeTetromino);
-        replaySteps.add(currStep);
+        int[][] gameboardSquares = gameboard.getGameboardSquares();
+        for (int row = 0; row < Gameboard.GAMEBOARD_ALLROWS; row++) {
+            for (int column = 0; column < Gameboard.GAMEBOARD_COLUMNS; column++) {
+                recordedGameboard[row * Gameboard.GAMEBOARD_COLUMNS + column] = (byte) gameboardSquares[row][column];
+            }
+        }
+        getRecordedSteps().addGameboard(OP_NEXT_PIECE, timeMs, packActivePiecePos(activeTetromino), recordedGameboard);
         setChanged();
     }
 
     public void addRotatePieceStep(int timeMs, Tetromino activeTetroMino) {
-        RotateActivePieceStep currStep = new RotateActivePieceStep();
-        currStep.timeMs = timeMs;
-        currStep.saveActivePiecePos(activeTetroMino);
-        replaySteps.add(currStep);
+        getRecordedSteps().add(OP_ROTATE_PIECE, timeMs, packActivePiecePos(activeTetroMino));
         setChanged();
     }
 
     public void addMovePieceStep(int timeMs, boolean horizontal, byte distance) {
-        MovePieceStep currStep;
-        if (horizontal)
-            currStep = new HorizontalMovePieceStep();
-        else
-            currStep = new VerticalMovePieceStep();
-        currStep.timeMs = timeMs;
-        currStep.moveDistance = distance;
-        replaySteps.add(currStep);
+        getRecordedSteps().add(horizontal ? OP_HORIZONTAL_MOVE : OP_VERTICAL_MOVE, timeMs, distance);
         setChanged();
     }
 
     public ReplayStep getLastAddedStep() {
-        if (arraySteps != null || replaySteps == null || replaySteps.isEmpty())
+        if (replayMode || steps.size() == 0)
             return null;
 
-        return replaySteps.getLast();
+        int stepIdx = steps.size() - 1;
+        if (steps.getType(stepIdx) != OP_DROP_PIECE)
+            return getStepView(stepIdx);
+
+        recordedDropStep.dropNum = steps.getDropSteps().size - 1;
+        recordedDropStep.set(stepIdx, steps.getTime(stepIdx), steps.getValue(stepIdx));
+        return recordedDropStep;
     }
 
     @Override
@@ -306,20 +423,29 @@ public class Replay {
         if (!isValid)
             return "NV#";
 
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(KEY_VERSION);
-        stringBuilder.append(SEP_MAJOR);
-        int lastTimeStamp = 0;
-        for (ReplayStep step : replaySteps) {
-            step.appendTo(stringBuilder, lastTimeStamp);
-            stringBuilder.append(SEP_MAJOR);
-            lastTimeStamp = step.timeMs;
+        // an unchanged replay is written as it was read
+        if (readReplay != null)
+            return readReplay;
+
+        ReplayBuffer out = ReplayStream.write(recordedSteps);
+
+        int format = 0;
+        if (out.getSize() >= MIN_SIZE_TO_DEFLATE) {
+            ReplayBuffer deflated = ReplayDeflate.deflate(out.getBytes(), out.getSize());
+            if (deflated.getSize() < out.getSize()) {
+                out = deflated;
+                format = FORMAT_DEFLATED;
+            }
         }
-        return stringBuilder.toString();
+
+        ReplayBuffer replay = new ReplayBuffer(out.getSize() + 1);
+        replay.writeByte(format);
+        replay.writeBytes(out.getBytes(), 0, out.getSize());
+        return KEY_VERSION_BINARY + SEP_MAJOR + new String(Base64Coder.encode(replay.getBytes(), replay.getSize()));
     }
 
     public boolean fromString(String toParse) {
-        replaySteps.clear();
+        clearSteps();
         isValid = false;
         setChanged();
 
@@ -329,68 +455,137 @@ public class Replay {
         int currentPos = findEndSeperator(0, toParse.length() - 1, toParse, SEP_MAJOR);
 
         String versionCode = toParse.substring(0, currentPos);
-        if (!versionCode.equals(KEY_VERSION))
+        if (versionCode.equals(KEY_VERSION_BINARY))
+            isValid = fromBinaryString(toParse, currentPos + 1);
+        else if (versionCode.equals(KEY_VERSION))
+            isValid = fromTextString(toParse, currentPos + 1);
+
+        if (!isValid)
+            clearSteps();
+
+        return isValid;
+    }
+
+    private boolean fromBinaryString(String toParse, int currentPos) {
+        byte[] bytes;
+        try {
+            bytes = Base64Coder.decode(toParse.substring(currentPos));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        try {
+            if (bytes.length == 0)
+                return false;
+
+            int format = bytes[0];
+            if (format == FORMAT_DEFLATED) {
+                ReplayBuffer inflated = ReplayDeflate.inflate(bytes, 1, bytes.length - 1, MAX_INFLATED_SIZE);
+                steps = new ReplayStream(inflated.getBytes(), 0, inflated.getSize());
+            } else if (format == 0)
+                steps = new ReplayStream(bytes, 1, bytes.length - 1);
+            else
+                return false;
+        } catch (IllegalArgumentException e) {
             return false;
+        }
+
+        readReplay = toParse;
+        return true;
+    }
 
-        currentPos++;
+    private boolean fromTextString(String toParse, int currentPos) {
         int lastTimeStamp = 0;
+        int[] activePiecePos = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        byte[] gameboard = new byte[GAMEBOARD_SQUARES];
 
         while (toParse != null && currentPos < toParse.length()) {
             char type = toParse.charAt(currentPos);
 
-            ReplayStep step;
-            switch (type) {
-                case KEY_DROP_PIECE:
-                    ReplayDropPieceStep dropStep = new ReplayDropPieceStep();
-                    step = dropStep;
-                    break;
-                case KEY_ROTATE_PIECE:
-                    step = new RotateActivePieceStep();
-                    break;
-                case KEY_NEXT_PIECE:
-                    step = new ReplayNextPieceStep();
-                    break;
-                case KEY_HORIZONTAL_MOVE:
-                    step = new HorizontalMovePieceStep();
-                    break;
-                case KEY_VERTICAL_MOVE:
-                    step = new VerticalMovePieceStep();
-                    break;
-                default:
-                    return false;
-            }
+            if (type != KEY_DROP_PIECE && type != KEY_ROTATE_PIECE && type != KEY_NEXT_PIECE
+                    && type != KEY_HORIZONTAL_MOVE && type != KEY_VERTICAL_MOVE)
+                return false;
 
             currentPos++;
 
             int nextMajorSep = findEndSeperator(currentPos, toParse.length() - 1, toParse, SEP_MAJOR);
 
-            step.fromString(currentPos, toParse, nextMajorSep, lastTimeStamp);
-            replaySteps.add(step);
-            lastTimeStamp = step.timeMs;
+            int timeSeperator = findEndSeperator(currentPos, nextMajorSep, toParse, SEP_DEFAULT);
+            int timeMs = lastTimeStamp + Integer.parseInt(toParse.substring(currentPos, timeSeperator), 16);
+            currentPos = timeSeperator + 1;
+
+            if (type == KEY_HORIZONTAL_MOVE || type == KEY_VERTICAL_MOVE)
+                recordedSteps.add(type == KEY_HORIZONTAL_MOVE ? OP_HORIZONTAL_MOVE : OP_VERTICAL_MOVE, timeMs,
+                        Integer.parseInt(toParse.substring(currentPos, nextMajorSep)));
+            else {
+                for (int i = 0; i < activePiecePos.length; i++) {
+                    activePiecePos[i] = Integer.parseInt(toParse.substring(currentPos, currentPos + 2), 16);
+                    currentPos += 2;
+                }
+                int packedPos = ReplayStepLog.packPosition(activePiecePos);
+
+                if (type == KEY_NEXT_PIECE) {
+                    parseTextGameboard(toParse, currentPos, nextMajorSep, gameboard);
+                    getRecordedSteps().addGameboard(OP_NEXT_PIECE, timeMs, packedPos, gameboard);
+                } else if (type == KEY_DROP_PIECE)
+                    parseTextDrop(toParse, currentPos, nextMajorSep, recordedSteps.addDrop(OP_DROP_PIECE, timeMs, packedPos));
+                else
+                    getRecordedSteps().add(OP_ROTATE_PIECE, timeMs, packedPos);
+            }
+            lastTimeStamp = timeMs;
 
             currentPos = nextMajorSep + 1;
         }
 
-        isValid = true;
-        return isValid;
+        return true;
+    }
+
+    private static void parseTextGameboard(String toParse, int currentPos, int maxPos, byte[] gameboard) {
+        if (toParse.charAt(currentPos) == SEP_DEFAULT)
+            currentPos += 1;
+
+        ReplayStepLog.fillEmpty(gameboard);
+
+        int i = 0;
+        int endSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
+        while (currentPos <= Math.min(maxPos, endSeperator) && i < gameboard.length) {
+            char gameBoardChar = toParse.charAt(currentPos);
+            if (gameBoardChar != SEP_DEFAULT && gameBoardChar != SEP_MAJOR) {
+                gameboard[i] = (byte) Gameboard.gameboardCharToSquare(gameBoardChar);
+                currentPos++;
+                i++;
+            } else
+                i = gameboard.length;
+        }
+    }
+
+    private void parseTextDrop(String toParse, int currentPos, int maxPos, int dropNum) {
+        if (toParse.charAt(currentPos) == SEP_DEFAULT)
+            currentPos += 1;
+        int endSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
+        recordedSteps.setDropScore(dropNum, Integer.parseInt(toParse.substring(currentPos, endSeperator), 16));
+        currentPos = endSeperator;
+        if (toParse.charAt(currentPos) == SEP_DEFAULT)
+            currentPos += 1;
+        if (currentPos < maxPos) {
+            endSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
+            recordedSteps.setDropRemovedLines(dropNum, Integer.parseInt(toParse.substring(currentPos, endSeperator), 16));
+        }
     }
 
     /**
-     * Beliebiger Step, nur mit Timestamp
+     * Beliebiger Step, nur mit Timestamp. Sicht auf einen Step im {@link ReplayStepLog}
      */
     public static abstract class ReplayStep {
         public int timeMs;
+        int stepIdx;
 
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            stringBuilder.append(Integer.toHexString(timeMs - lastTimeStamp));
-            stringBuilder.append(SEP_DEFAULT);
-        }
-
-        public int fromString(int currentPos, String toParse, int maxPos, int lastTimeStamp) {
-            int timeSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
-            timeMs = lastTimeStamp + Integer.parseInt(toParse.substring(currentPos, timeSeperator), 16);
-            currentPos = timeSeperator + 1;
-            return currentPos;
+        /**
+         * @param value the value of the step in the log
+         */
+        void set(int stepIdx, int timeMs, int value) {
+            this.stepIdx = stepIdx;
+            this.timeMs = timeMs;
         }
 
         public int getMoveX() {
@@ -438,37 +633,14 @@ public class Replay {
      * Step mit Positionierung aktiver Block
      */
     private abstract static class ReplayActivePieceStep extends ReplayStep {
-        public int[] activePiecePosition;
-
-        public void saveActivePiecePos(Tetromino activeTetromino) {
-            activePiecePosition = new int[Tetromino.TETROMINO_BLOCKCOUNT];
-            Integer[][] currentBlockPositions = activeTetromino.getCurrentBlockPositions();
-            for (byte blockNum = 0; blockNum < Tetromino.TETROMINO_BLOCKCOUNT; blockNum++) {
-                activePiecePosition[blockNum] = currentBlockPositions[blockNum][0] +
-                        Gameboard.GAMEBOARD_COLUMNS * currentBlockPositions[blockNum][1];
-            }
-        }
+        private int[] activePiecePosition;
 
         @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            super.appendTo(stringBuilder, lastTimeStamp);
-            for (int i = 0; i < activePiecePosition.length; i++) {
-                String str = Integer.toHexString(activePiecePosition[i]);
-                if (str.length() < 2)
-                    stringBuilder.append('0');
-                stringBuilder.append(str);
-            }
-        }
-
-        @Override
-        public int fromString(int currentPos, String toParse, int maxPos, int lastTimeStamp) {
-            currentPos = super.fromString(currentPos, toParse, maxPos, lastTimeStamp);
-            activePiecePosition = new int[Tetromino.TETROMINO_BLOCKCOUNT];
-            for (int i = 0; i < activePiecePosition.length; i++) {
-                activePiecePosition[i] = Integer.parseInt(toParse.substring(currentPos, currentPos + 2), 16);
-                currentPos += 2;
-            }
-            return currentPos;
+        void set(int stepIdx, int timeMs, int value) {
+            super.set(stepIdx, timeMs, value);
+            if (activePiecePosition == null)
+                activePiecePosition = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+            ReplayStepLog.unpackPosition(value, activePiecePosition);
         }
 
         @Override
@@ -478,70 +650,9 @@ public class Replay {
     }
 
     /**
-     * Step mit Positionierung aktiver Block und vollem Spielfeld
+     * Nächstes Tetromino gezogen, mit vollem Spielfeld
      */
-    private abstract static class ReplayGameboardStep extends ReplayActivePieceStep {
-        public byte[] gameboard;
-
-        public void saveGameboard(Gameboard gameboard) {
-            int[][] gameboardSquares = gameboard.getGameboardSquares();
-            this.gameboard = new byte[Gameboard.GAMEBOARD_ALLROWS * Gameboard.GAMEBOARD_COLUMNS];
-            for (byte row = 0; row < Gameboard.GAMEBOARD_ALLROWS; row++) {
-                for (byte column = 0; column < Gameboard.GAMEBOARD_COLUMNS; column++) {
-                    this.gameboard[row * Gameboard.GAMEBOARD_COLUMNS + column] = (byte) gameboardSquares[row][column];
-                }
-            }
-        }
-
-        @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            super.appendTo(stringBuilder, lastTimeStamp);
-            stringBuilder.append(SEP_DEFAULT);
-            int lastBlockFound = -1;
-            for (int i = 0; i < gameboard.length; i++)
-                if (gameboard[i] != Gameboard.SQUARE_EMPTY)
-                    lastBlockFound = i;
-
-            for (int i = 0; i <= lastBlockFound; i++) {
-                stringBuilder.append(Gameboard.gameboardSquareToChar(gameboard[i]));
-            }
-        }
-
-        @Override
-        public int fromString(int currentPos, String toParse, int maxPos, int lastTimeStamp) {
-            currentPos = super.fromString(currentPos, toParse, maxPos, lastTimeStamp);
-            if (toParse.charAt(currentPos) == SEP_DEFAULT)
-                currentPos += 1;
-
-            gameboard = new byte[Gameboard.GAMEBOARD_ALLROWS * Gameboard.GAMEBOARD_COLUMNS];
-            for (int i = 0; i < gameboard.length; i++)
-                gameboard[i] = Gameboard.SQUARE_EMPTY;
-
-            int i = 0;
-            int endSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
-            while (currentPos <= Math.min(maxPos, endSeperator) && i < gameboard.length) {
-                char gameBoardChar = toParse.charAt(currentPos);
-                if (gameBoardChar != SEP_DEFAULT && gameBoardChar != SEP_MAJOR) {
-                    gameboard[i] = (byte) Gameboard.gameboardCharToSquare(gameBoardChar);
-                    currentPos++;
-                    i++;
-                } else
-                    i = gameboard.length;
-            }
-            return currentPos;
-        }
-    }
-
-    /**
-     * Nächstes Tetromino gezogen
-     */
-    private static class ReplayNextPieceStep extends ReplayGameboardStep {
-        @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            stringBuilder.append(KEY_NEXT_PIECE);
-            super.appendTo(stringBuilder, lastTimeStamp);
-        }
-
+    private static class ReplayNextPieceStep extends ReplayActivePieceStep {
         @Override
         public boolean isNextPieceStep() {
             return true;
@@ -552,38 +663,11 @@ public class Replay {
      * Tetromino abgelegt, neuer Score ermittelt
      */
     public static class ReplayDropPieceStep extends ReplayActivePieceStep {
-        public int score;
-        public int removedLines = -1;
-
-        @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            stringBuilder.append(KEY_DROP_PIECE);
-            super.appendTo(stringBuilder, lastTimeStamp);
-            stringBuilder.append(SEP_DEFAULT);
-            stringBuilder.append(Integer.toHexString(score));
-            if (removedLines >= 0) {
-                stringBuilder.append(SEP_DEFAULT);
-                stringBuilder.append(Integer.toHexString(removedLines));
-            }
-        }
-
-        @Override
-        public int fromString(int currentPos, String toParse, int maxPos, int lastTimeStamp) {
-            currentPos = super.fromString(currentPos, toParse, maxPos, lastTimeStamp);
-            if (toParse.charAt(currentPos) == SEP_DEFAULT)
-                currentPos += 1;
-            int endSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
-            score = Integer.parseInt(toParse.substring(currentPos, endSeperator), 16);
-            currentPos = endSeperator;
-            if (toParse.charAt(currentPos) == SEP_DEFAULT)
-                currentPos += 1;
-            if (currentPos < maxPos) {
-                endSeperator = findEndSeperator(currentPos, maxPos, toParse, SEP_DEFAULT);
-                removedLines = Integer.parseInt(toParse.substring(currentPos, endSeperator), 16);
-                currentPos = endSeperator;
-            }
+        private final Replay replay;
+        private int dropNum;
 
-            return currentPos;
+        private ReplayDropPieceStep(Replay replay) {
+            this.replay = replay;
         }
 
         @Override
@@ -591,19 +675,26 @@ public class Replay {
             return true;
         }
 
+        public int getScore() {
+            return replay.steps.getDropScore(dropNum);
+        }
+
         @Override
         public void setScore(int score) {
-            this.score = score;
+            replay.getRecordedSteps().setDropScore(dropNum, score);
         }
 
+        /**
+         * @return removed lines, negative if the replay was recorded without them
+         */
         @Override
         public int getRemovedLines() {
-            return removedLines;
+            return replay.steps.getDropRemovedLines(dropNum);
         }
 
         @Override
         public void setRemovedLines(int removedLines) {
-            this.removedLines = removedLines;
+            replay.getRecordedSteps().setDropRemovedLines(dropNum, removedLines);
         }
     }
 
@@ -611,40 +702,22 @@ public class Replay {
      * Tetromino gedreht
      */
     private static class RotateActivePieceStep extends ReplayActivePieceStep {
-        @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            stringBuilder.append(KEY_ROTATE_PIECE);
-            super.appendTo(stringBuilder, lastTimeStamp);
-        }
     }
 
     /**
      * Bewegung ohne Drehung
      */
     private abstract static class MovePieceStep extends ReplayStep {
-        public int moveDistance;
+        int moveDistance;
 
         @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            super.appendTo(stringBuilder, lastTimeStamp);
-            stringBuilder.append(moveDistance);
-        }
-
-        @Override
-        public int fromString(int currentPos, String toParse, int maxPos, int lastTimeStamp) {
-            currentPos = super.fromString(currentPos, toParse, maxPos, lastTimeStamp);
-            moveDistance = Integer.parseInt(toParse.substring(currentPos, maxPos));
-            return maxPos;
+        void set(int stepIdx, int timeMs, int value) {
+            super.set(stepIdx, timeMs, value);
+            moveDistance = value;
         }
     }
 
     private static class HorizontalMovePieceStep extends MovePieceStep {
-        @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            stringBuilder.append(KEY_HORIZONTAL_MOVE);
-            super.appendTo(stringBuilder, lastTimeStamp);
-        }
-
         @Override
         public int getMoveX() {
             return moveDistance;
@@ -652,12 +725,6 @@ public class Replay {
     }
 
     private static class VerticalMovePieceStep extends MovePieceStep {
-        @Override
-        public void appendTo(StringBuilder stringBuilder, int lastTimeStamp) {
-            stringBuilder.append(KEY_VERTICAL_MOVE);
-            super.appendTo(stringBuilder, lastTimeStamp);
-        }
-
         @Override
         public int getMoveY() {
             return moveDistance;
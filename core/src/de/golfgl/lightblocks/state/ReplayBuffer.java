@@ -0,0 +1,115 @@
+package de.golfgl.lightblocks.state;
+
+/**
+ * Bytes of the binary replay format: grows while writing, reads varints the same way
+ * {@link de.golfgl.lightblocks.multiplayer.BinaryProtocol} does.
+ */
+class ReplayBuffer {
+    private byte[] bytes;
+    private int size;
+    private int position;
+
+    ReplayBuffer(int capacity) {
+        bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * reads the given bytes, they are not copied
+     */
+    ReplayBuffer(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        position = offset;
+        size = offset + length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > bytes.length) {
+            byte[] newBytes = new byte[Math.max(bytes.length * 2, size + additional)];
+            System.arraycopy(bytes, 0, newBytes, 0, size);
+            bytes = newBytes;
+        }
+    }
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    void writeBytes(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * unsigned LEB128, seven bits per byte
+     */
+    void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    /**
+     * zigzag encoded, so small negative values stay short
+     */
+    void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    boolean hasRemaining() {
+        return position < size;
+    }
+
+    /**
+     * @return the next byte without reading it
+     */
+    int peekByte() {
+        if (position >= size)
+            throw new IllegalArgumentException("Replay data truncated");
+        return bytes[position] & 0xFF;
+    }
+
+    int readByte() {
+        if (position >= size)
+            throw new IllegalArgumentException("Replay data truncated");
+        return bytes[position++] & 0xFF;
+    }
+
+    int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint in replay data");
+    }
+
+    int readSignedVarInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #getSize()}
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return position of the next byte to read in the backing array
+     */
+    int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,623 @@
+package de.golfgl.lightblocks.state;
+
+/**
+ * Raw deflate (RFC 1951) for the binary replays. java.util.zip is not available on the web, so
+ * this is done here: compressing writes a single block with the fixed or with its own Huffman
+ * codes, inflating handles everything other deflate implementations write.
+ */
+class ReplayDeflate {
+    private static final int MAX_BITS = 15;
+    private static final int WINDOW_SIZE = 32768;
+    private static final int MIN_MATCH = 3;
+    private static final int MAX_MATCH = 258;
+    private static final int HASH_BITS = 13;
+    // longer chains hardly find better matches in replays, but cost time
+    private static final int MAX_CHAIN = 64;
+    private static final int END_OF_BLOCK = 256;
+    private static final int LENGTH_CODES = 286;
+    private static final int DIST_CODES = 30;
+    private static final int MAX_CODE_LENGTH_BITS = 7;
+    // tokens of the LZ77 pass: literals as they are, matches flagged with their length and distance
+    private static final int TOKEN_MATCH = 1 << 30;
+
+    private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258};
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+    private static final int[] DIST_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577};
+    private static final int[] DIST_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+    // order of the code length code lengths in a dynamic block
+    private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13,
+            2, 14, 1, 15};
+
+    private static Huffman fixedLengthCodes;
+    private static Huffman fixedDistCodes;
+
+    /**
+     * @return the compressed bytes as a single block
+     */
+    static ReplayBuffer deflate(byte[] data, int length) {
+        int[] tokens = new int[length + 1];
+        int tokenCount = findMatches(data, length, tokens);
+        tokens[tokenCount++] = END_OF_BLOCK;
+
+        int[] lengthFreq = new int[LENGTH_CODES];
+        int[] distFreq = new int[DIST_CODES];
+        for (int i = 0; i < tokenCount; i++) {
+            int token = tokens[i];
+            if ((token & TOKEN_MATCH) != 0) {
+                lengthFreq[257 + findLengthSymbol(getTokenLength(token))]++;
+                distFreq[findDistSymbol(getTokenDist(token))]++;
+            } else
+                lengthFreq[token]++;
+        }
+
+        BitWriter dynamicOut = new BitWriter(length / 2);
+        dynamicOut.writeBits(1, 1);
+        dynamicOut.writeBits(2, 2);
+        int[] lengthLengths = buildCodeLengths(lengthFreq, MAX_BITS);
+        int[] distLengths = buildCodeLengths(distFreq, MAX_BITS);
+        // there must be a distance code, even if there are no matches
+        boolean hasDistCode = false;
+        for (int i = 0; i < distLengths.length; i++)
+            hasDistCode = hasDistCode || distLengths[i] != 0;
+        if (!hasDistCode)
+            distLengths[0] = 1;
+        writeDynamicHeader(dynamicOut, lengthLengths, distLengths);
+        writeTokens(dynamicOut, tokens, tokenCount, buildCodes(lengthLengths), lengthLengths,
+                buildCodes(distLengths), distLengths);
+        ReplayBuffer dynamicBlock = dynamicOut.finish();
+
+        // short data does not pay for the codes in the header
+        if (dynamicBlock.getSize() < length / 4)
+            return dynamicBlock;
+
+        BitWriter fixedOut = new BitWriter(length / 2);
+        fixedOut.writeBits(1, 1);
+        fixedOut.writeBits(1, 2);
+        int[] fixedLengths = getFixedLengths();
+        int[] fixedDistLengths = new int[DIST_CODES];
+        for (int i = 0; i < fixedDistLengths.length; i++)
+            fixedDistLengths[i] = 5;
+        writeTokens(fixedOut, tokens, tokenCount, buildCodes(fixedLengths), fixedLengths,
+                buildCodes(fixedDistLengths), fixedDistLengths);
+        ReplayBuffer fixedBlock = fixedOut.finish();
+
+        return fixedBlock.getSize() < dynamicBlock.getSize() ? fixedBlock : dynamicBlock;
+    }
+
+    /**
+     * LZ77 with hash chains, takes the longest match found
+     *
+     * @return number of tokens written
+     */
+    private static int findMatches(byte[] data, int length, int[] tokens) {
+        int tokenCount = 0;
+        int[] head = new int[1 << HASH_BITS];
+        int[] prev = new int[Math.max(1, Math.min(length, WINDOW_SIZE))];
+        for (int i = 0; i < head.length; i++)
+            head[i] = -1;
+
+        int pos = 0;
+        while (pos < length) {
+            int matchLength = 0;
+            int matchDist = 0;
+
+            if (pos + MIN_MATCH <= length) {
+                int candidate = head[hash(data, pos)];
+                int maxLength = Math.min(MAX_MATCH, length - pos);
+                for (int chain = 0; chain < MAX_CHAIN && candidate >= 0 && pos - candidate <= WINDOW_SIZE;
+                     chain++) {
+                    int l = 0;
+                    while (l < maxLength && data[candidate + l] == data[pos + l])
+                        l++;
+                    if (l > matchLength) {
+                        matchLength = l;
+                        matchDist = pos - candidate;
+                        if (l == maxLength)
+                            break;
+                    }
+                    int next = prev[candidate % prev.length];
+                    // the slot may already be reused by a newer position
+                    candidate = next < candidate ? next : -1;
+                }
+            }
+
+            int advance;
+            if (matchLength >= MIN_MATCH) {
+                tokens[tokenCount++] = TOKEN_MATCH | (matchLength << 16) | matchDist;
+                advance = matchLength;
+            } else {
+                tokens[tokenCount++] = data[pos] & 0xFF;
+                advance = 1;
+            }
+
+            for (int i = 0; i < advance; i++, pos++) {
+                if (pos + MIN_MATCH <= length) {
+                    int hash = hash(data, pos);
+                    prev[pos % prev.length] = head[hash];
+                    head[hash] = pos;
+                }
+            }
+        }
+        return tokenCount;
+    }
+
+    private static int getTokenLength(int token) {
+        return (token >>> 16) & 0x1FF;
+    }
+
+    private static int getTokenDist(int token) {
+        return token & 0xFFFF;
+    }
+
+    private static void writeTokens(BitWriter out, int[] tokens, int tokenCount, int[] lengthCodes,
+                                    int[] lengthLengths, int[] distCodes, int[] distLengths) {
+        for (int i = 0; i < tokenCount; i++) {
+            int token = tokens[i];
+            if ((token & TOKEN_MATCH) != 0) {
+                int length = getTokenLength(token);
+                int symbol = findLengthSymbol(length);
+                out.writeCode(lengthCodes[257 + symbol], lengthLengths[257 + symbol]);
+                out.writeBits(length - LENGTH_BASE[symbol], LENGTH_EXTRA[symbol]);
+
+                int dist = getTokenDist(token);
+                symbol = findDistSymbol(dist);
+                out.writeCode(distCodes[symbol], distLengths[symbol]);
+                out.writeBits(dist - DIST_BASE[symbol], DIST_EXTRA[symbol]);
+            } else
+                out.writeCode(lengthCodes[token], lengthLengths[token]);
+        }
+    }
+
+    private static void writeDynamicHeader(BitWriter out, int[] lengthLengths, int[] distLengths) {
+        int lengthCount = LENGTH_CODES;
+        while (lengthCount > 257 && lengthLengths[lengthCount - 1] == 0)
+            lengthCount--;
+        int distCount = DIST_CODES;
+        while (distCount > 1 && distLengths[distCount - 1] == 0)
+            distCount--;
+
+        int[] lengths = new int[lengthCount + distCount];
+        System.arraycopy(lengthLengths, 0, lengths, 0, lengthCount);
+        System.arraycopy(distLengths, 0, lengths, lengthCount, distCount);
+
+        // run length encoded code lengths: symbol in the lower, repeat count in the upper bits
+        int[] runs = new int[lengths.length];
+        int runCount = 0;
+        int[] codeLengthFreq = new int[CODE_LENGTH_ORDER.length];
+        int pos = 0;
+        while (pos < lengths.length) {
+            int length = lengths[pos];
+            int repeat = 1;
+            while (pos + repeat < lengths.length && lengths[pos + repeat] == length)
+                repeat++;
+
+            int symbol;
+            if (length == 0 && repeat >= 11) {
+                repeat = Math.min(repeat, 138);
+                symbol = 18;
+            } else if (length == 0 && repeat >= 3) {
+                symbol = 17;
+            } else if (length != 0 && pos > 0 && lengths[pos - 1] == length && repeat >= 3) {
+                repeat = Math.min(repeat, 6);
+                symbol = 16;
+            } else {
+                repeat = 1;
+                symbol = length;
+            }
+
+            runs[runCount++] = symbol | (repeat << 8);
+            codeLengthFreq[symbol]++;
+            pos += repeat;
+        }
+
+        int[] codeLengthLengths = buildCodeLengths(codeLengthFreq, MAX_CODE_LENGTH_BITS);
+        int[] codeLengthCodes = buildCodes(codeLengthLengths);
+        int codeLengthCount = CODE_LENGTH_ORDER.length;
+        while (codeLengthCount > 4 && codeLengthLengths[CODE_LENGTH_ORDER[codeLengthCount - 1]] == 0)
+            codeLengthCount--;
+
+        out.writeBits(lengthCount - 257, 5);
+        out.writeBits(distCount - 1, 5);
+        out.writeBits(codeLengthCount - 4, 4);
+        for (int i = 0; i < codeLengthCount; i++)
+            out.writeBits(codeLengthLengths[CODE_LENGTH_ORDER[i]], 3);
+
+        for (int i = 0; i < runCount; i++) {
+            int symbol = runs[i] & 0xFF;
+            int repeat = runs[i] >>> 8;
+            out.writeCode(codeLengthCodes[symbol], codeLengthLengths[symbol]);
+            if (symbol == 16)
+                out.writeBits(repeat - 3, 2);
+            else if (symbol == 17)
+                out.writeBits(repeat - 3, 3);
+            else if (symbol == 18)
+                out.writeBits(repeat - 11, 7);
+        }
+    }
+
+    /**
+     * @return Huffman code lengths for the frequencies, none longer than maxBits
+     */
+    private static int[] buildCodeLengths(int[] freq, int maxBits) {
+        int n = freq.length;
+        int[] lengths = new int[n];
+        int[] weight = new int[2 * n];
+        int[] parent = new int[2 * n];
+        int[] leaves = new int[n];
+
+        int leafCount = 0;
+        for (int i = 0; i < n; i++)
+            if (freq[i] > 0) {
+                weight[i] = freq[i];
+                leaves[leafCount++] = i;
+            }
+
+        if (leafCount == 0)
+            return lengths;
+        if (leafCount == 1) {
+            lengths[leaves[0]] = 1;
+            return lengths;
+        }
+
+        while (true) {
+            // leaves sorted by weight, few symbols so sorting by insertion is fine
+            for (int i = 1; i < leafCount; i++) {
+                int leaf = leaves[i];
+                int j = i - 1;
+                while (j >= 0 && weight[leaves[j]] > weight[leaf]) {
+                    leaves[j + 1] = leaves[j];
+                    j--;
+                }
+                leaves[j + 1] = leaf;
+            }
+
+            // two queues: the sorted leaves and the inner nodes in the order they are created
+            int nextLeaf = 0;
+            int nextInner = n;
+            int innerEnd = n;
+            while (innerEnd - n < leafCount - 1) {
+                int[] smallest = new int[2];
+                for (int k = 0; k < 2; k++) {
+                    if (nextLeaf < leafCount && (nextInner >= innerEnd
+                            || weight[leaves[nextLeaf]] <= weight[nextInner]))
+                        smallest[k] = leaves[nextLeaf++];
+                    else
+                        smallest[k] = nextInner++;
+                }
+                weight[innerEnd] = weight[smallest[0]] + weight[smallest[1]];
+                parent[smallest[0]] = innerEnd;
+                parent[smallest[1]] = innerEnd;
+                innerEnd++;
+            }
+
+            // the root is the last inner node, depths follow from the parents created after their children
+            int root = innerEnd - 1;
+            int[] depth = new int[2 * n];
+            int maxDepth = 0;
+            for (int node = root - 1; node >= n; node--)
+                depth[node] = depth[parent[node]] + 1;
+            for (int i = 0; i < leafCount; i++) {
+                int leaf = leaves[i];
+                lengths[leaf] = depth[parent[leaf]] + 1;
+                maxDepth = Math.max(maxDepth, lengths[leaf]);
+            }
+
+            if (maxDepth <= maxBits)
+                return lengths;
+
+            // too deep: flatten the frequencies and try again
+            for (int i = 0; i < leafCount; i++)
+                weight[leaves[i]] = (weight[leaves[i]] + 1) / 2;
+        }
+    }
+
+    /**
+     * @return the canonical codes for the lengths
+     */
+    private static int[] buildCodes(int[] lengths) {
+        int[] count = new int[MAX_BITS + 1];
+        for (int i = 0; i < lengths.length; i++)
+            count[lengths[i]]++;
+        count[0] = 0;
+
+        int[] nextCode = new int[MAX_BITS + 1];
+        int code = 0;
+        for (int len = 1; len <= MAX_BITS; len++) {
+            code = (code + count[len - 1]) << 1;
+            nextCode[len] = code;
+        }
+
+        int[] codes = new int[lengths.length];
+        for (int i = 0; i < lengths.length; i++)
+            if (lengths[i] != 0)
+                codes[i] = nextCode[lengths[i]]++;
+        return codes;
+    }
+
+    private static int[] getFixedLengths() {
+        int[] lengths = new int[288];
+        for (int i = 0; i < lengths.length; i++)
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        return lengths;
+    }
+
+    private static int hash(byte[] data, int pos) {
+        int h = ((data[pos] & 0xFF) << 16) | ((data[pos + 1] & 0xFF) << 8) | (data[pos + 2] & 0xFF);
+        return (h * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private static int findLengthSymbol(int length) {
+        int symbol = LENGTH_BASE.length - 1;
+        while (LENGTH_BASE[symbol] > length)
+            symbol--;
+        return symbol;
+    }
+
+    private static int findDistSymbol(int dist) {
+        int symbol = DIST_BASE.length - 1;
+        while (DIST_BASE[symbol] > dist)
+            symbol--;
+        return symbol;
+    }
+
+    /**
+     * @param maxSize the inflated size allowed. Deflate expands up to about 1000 times, so the size of
+     *                the data alone does not limit the memory needed
+     * @throws IllegalArgumentException if the data is no valid deflate stream, or inflates to more
+     *                                  than maxSize bytes
+     */
+    static ReplayBuffer inflate(byte[] data, int offset, int length, int maxSize) {
+        BitReader in = new BitReader(data, offset, offset + length);
+        ReplayBuffer out = new ReplayBuffer(Math.min(length * 3, maxSize));
+
+        boolean lastBlock;
+        do {
+            lastBlock = in.readBits(1) == 1;
+            int type = in.readBits(2);
+            switch (type) {
+                case 0:
+                    in.readStored(out, maxSize);
+                    break;
+                case 1:
+                    initFixedCodes();
+                    inflateCodes(in, out, fixedLengthCodes, fixedDistCodes, maxSize);
+                    break;
+                case 2:
+                    inflateDynamic(in, out, maxSize);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid deflate block type");
+            }
+        } while (!lastBlock);
+
+        return out;
+    }
+
+    private static synchronized void initFixedCodes() {
+        if (fixedLengthCodes != null)
+            return;
+
+        int[] lengths = getFixedLengths();
+        Huffman lengthCodes = new Huffman(lengths, 0, lengths.length);
+
+        for (int i = 0; i < 30; i++)
+            lengths[i] = 5;
+        fixedDistCodes = new Huffman(lengths, 0, 30);
+        fixedLengthCodes = lengthCodes;
+    }
+
+    private static void inflateDynamic(BitReader in, ReplayBuffer out, int maxSize) {
+        int lengthCount = in.readBits(5) + 257;
+        int distCount = in.readBits(5) + 1;
+        int codeLengthCount = in.readBits(4) + 4;
+        if (lengthCount > 286 || distCount > 30)
+            throw new IllegalArgumentException("Too many deflate codes");
+
+        int[] lengths = new int[lengthCount + distCount];
+        for (int i = 0; i < codeLengthCount; i++)
+            lengths[CODE_LENGTH_ORDER[i]] = in.readBits(3);
+        Huffman codeLengthCodes = new Huffman(lengths, 0, CODE_LENGTH_ORDER.length);
+
+        for (int i = 0; i < CODE_LENGTH_ORDER.length; i++)
+            lengths[i] = 0;
+
+        int index = 0;
+        while (index < lengths.length) {
+            int symbol = codeLengthCodes.decode(in);
+            if (symbol < 16) {
+                lengths[index++] = symbol;
+                continue;
+            }
+
+            int repeatedLength = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (index == 0)
+                    throw new IllegalArgumentException("No code length to repeat");
+                repeatedLength = lengths[index - 1];
+                repeat = 3 + in.readBits(2);
+            } else if (symbol == 17)
+                repeat = 3 + in.readBits(3);
+            else
+                repeat = 11 + in.readBits(7);
+
+            if (index + repeat > lengths.length)
+                throw new IllegalArgumentException("Too many code lengths");
+            for (; repeat > 0; repeat--)
+                lengths[index++] = repeatedLength;
+        }
+
+        if (lengths[END_OF_BLOCK] == 0)
+            throw new IllegalArgumentException("No end of block code");
+
+        inflateCodes(in, out, new Huffman(lengths, 0, lengthCount),
+                new Huffman(lengths, lengthCount, distCount), maxSize);
+    }
+
+    private static void inflateCodes(BitReader in, ReplayBuffer out, Huffman lengthCodes, Huffman distCodes,
+                                     int maxSize) {
+        while (true) {
+            int symbol = lengthCodes.decode(in);
+            if (symbol < END_OF_BLOCK) {
+                checkInflatedSize(out, 1, maxSize);
+                out.writeByte(symbol);
+            } else if (symbol == END_OF_BLOCK)
+                return;
+            else {
+                symbol -= 257;
+                if (symbol >= LENGTH_BASE.length)
+                    throw new IllegalArgumentException("Invalid deflate length");
+                int length = LENGTH_BASE[symbol] + in.readBits(LENGTH_EXTRA[symbol]);
+
+                symbol = distCodes.decode(in);
+                if (symbol >= DIST_BASE.length)
+                    throw new IllegalArgumentException("Invalid deflate distance");
+                int dist = DIST_BASE[symbol] + in.readBits(DIST_EXTRA[symbol]);
+                if (dist > out.getSize())
+                    throw new IllegalArgumentException("Deflate distance too far back");
+                checkInflatedSize(out, length, maxSize);
+
+                // byte by byte, the copy may overlap what it writes
+                for (int i = 0; i < length; i++)
+                    out.writeByte(out.getBytes()[out.getSize() - dist]);
+            }
+        }
+    }
+
+    private static void checkInflatedSize(ReplayBuffer out, int additional, int maxSize) {
+        if (out.getSize() + additional > maxSize)
+            throw new IllegalArgumentException("Deflate data inflates to more than " + maxSize + " bytes");
+    }
+
+    /**
+     * canonical Huffman code, decoded bit by bit
+     */
+    private static class Huffman {
+        private final int[] count = new int[MAX_BITS + 1];
+        private final int[] symbol;
+
+        Huffman(int[] lengths, int offset, int n) {
+            symbol = new int[n];
+            for (int i = 0; i < n; i++)
+                count[lengths[offset + i]]++;
+
+            int left = 1;
+            for (int len = 1; len <= MAX_BITS; len++) {
+                left = (left << 1) - count[len];
+                if (left < 0)
+                    throw new IllegalArgumentException("Over-subscribed Huffman code");
+            }
+
+            int[] offs = new int[MAX_BITS + 1];
+            for (int len = 1; len < MAX_BITS; len++)
+                offs[len + 1] = offs[len] + count[len];
+            for (int i = 0; i < n; i++)
+                if (lengths[offset + i] != 0)
+                    symbol[offs[lengths[offset + i]]++] = i;
+        }
+
+        int decode(BitReader in) {
+            int code = 0;
+            int first = 0;
+            int index = 0;
+            for (int len = 1; len <= MAX_BITS; len++) {
+                code |= in.readBits(1);
+                int countLen = count[len];
+                if (code - countLen < first)
+                    return symbol[index + (code - first)];
+                index += countLen;
+                first = (first + countLen) << 1;
+                code <<= 1;
+            }
+            throw new IllegalArgumentException("Invalid Huffman code");
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+        private int bitBuffer;
+        private int bitCount;
+
+        BitReader(byte[] data, int pos, int end) {
+            this.data = data;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int readBits(int n) {
+            while (bitCount < n) {
+                if (pos >= end)
+                    throw new IllegalArgumentException("Deflate data truncated");
+                bitBuffer |= (data[pos++] & 0xFF) << bitCount;
+                bitCount += 8;
+            }
+            int value = bitBuffer & ((1 << n) - 1);
+            bitBuffer >>>= n;
+            bitCount -= n;
+            return value;
+        }
+
+        void readStored(ReplayBuffer out, int maxSize) {
+            // stored blocks start at a byte boundary
+            bitBuffer = 0;
+            bitCount = 0;
+            if (pos + 4 > end)
+                throw new IllegalArgumentException("Deflate data truncated");
+            int length = (data[pos] & 0xFF) | ((data[pos + 1] & 0xFF) << 8);
+            int lengthComplement = (data[pos + 2] & 0xFF) | ((data[pos + 3] & 0xFF) << 8);
+            pos += 4;
+            if (length != (~lengthComplement & 0xFFFF) || pos + length > end)
+                throw new IllegalArgumentException("Invalid stored deflate block");
+            checkInflatedSize(out, length, maxSize);
+            out.writeBytes(data, pos, length);
+            pos += length;
+        }
+    }
+
+    private static class BitWriter {
+        private final ReplayBuffer out;
+        private int bitBuffer;
+        private int bitCount;
+
+        BitWriter(int capacity) {
+            out = new ReplayBuffer(capacity);
+        }
+
+        /**
+         * writes the value's lowest bits, lowest bit first
+         */
+        void writeBits(int value, int n) {
+            bitBuffer |= value << bitCount;
+            bitCount += n;
+            while (bitCount >= 8) {
+                out.writeByte(bitBuffer);
+                bitBuffer >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        /**
+         * writes a Huffman code, highest bit first
+         */
+        void writeCode(int code, int length) {
+            int reversed = 0;
+            for (int i = 0; i < length; i++) {
+                reversed = (reversed << 1) | (code & 1);
+                code >>>= 1;
+            }
+            writeBits(reversed, length);
+        }
+
+        ReplayBuffer finish() {
+            if (bitCount > 0)
+                out.writeByte(bitBuffer);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.golfgl.lightblocks.state;
+
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.IntArray;
+
+import de.golfgl.lightblocks.model.Gameboard;
+
+/**
+ * The steps of a {@link Replay} as primitive arrays, so recording a step does not allocate anything
+ * once the arrays have grown: time, type and one value per step. The value is the piece position
+ * with one square index per byte, or the distance of a move. Drop steps have their score and removed
+ * lines in arrays of their own. Gameboards are logged as the squares changed since the gameboard
+ * before, every {@link #KEYFRAME_INTERVAL}th one as the squares changed from the empty gameboard.
+ */
+class ReplayStepLog extends ReplaySteps {
+    static final int KEYFRAME_INTERVAL = 32;
+    static final int GAMEBOARD_SQUARES = Gameboard.GAMEBOARD_ALLROWS * Gameboard.GAMEBOARD_COLUMNS;
+    private static final int NO_REMOVED_LINES = -1;
+
+    private int size;
+    private int[] times = new int[64];
+    private byte[] types = new byte[64];
+    private int[] values = new int[64];
+    // square index and square of every change, the changes of a gameboard end at boardDiffEnds
+    private final ByteArray boardDiffs = new ByteArray();
+    private final IntArray boardDiffEnds = new IntArray();
+    private final byte[] lastGameboard = new byte[GAMEBOARD_SQUARES];
+
+    static int packPosition(int[] position) {
+        int packed = 0;
+        for (int i = 0; i < position.length; i++)
+            packed |= (position[i] & 0xFF) << (i << 3);
+        return packed;
+    }
+
+    static void unpackPosition(int packed, int[] position) {
+        for (int i = 0; i < position.length; i++)
+            position[i] = (packed >>> (i << 3)) & 0xFF;
+    }
+
+    static void fillEmpty(byte[] gameboard) {
+        for (int i = 0; i < gameboard.length; i++)
+            gameboard[i] = Gameboard.SQUARE_EMPTY;
+    }
+
+    void clear() {
+        size = 0;
+        gameboardSteps.clear();
+        dropSteps.clear();
+        dropScores.clear();
+        dropRemovedLines.clear();
+        boardDiffs.clear();
+        boardDiffEnds.clear();
+    }
+
+    /**
+     * @return index of the added step
+     */
+    int add(int type, int timeMs, int value) {
+        if (size == times.length) {
+            int capacity = size * 2;
+            int[] newTimes = new int[capacity];
+            System.arraycopy(times, 0, newTimes, 0, size);
+            times = newTimes;
+            byte[] newTypes = new byte[capacity];
+            System.arraycopy(types, 0, newTypes, 0, size);
+            types = newTypes;
+            int[] newValues = new int[capacity];
+            System.arraycopy(values, 0, newValues, 0, size);
+            values = newValues;
+        }
+        times[size] = timeMs;
+        types[size] = (byte) type;
+        values[size] = value;
+        return size++;
+    }
+
+    /**
+     * @return number of the added drop, for {@link #setDropScore(int, int)} and {@link #setDropRemovedLines(int, int)}
+     */
+    int addDrop(int type, int timeMs, int packedPosition) {
+        dropSteps.add(add(type, timeMs, packedPosition));
+        dropScores.add(0);
+        dropRemovedLines.add(NO_REMOVED_LINES);
+        return dropSteps.size - 1;
+    }
+
+    /**
+     * @param gameboard squares of the gameboard, row by row. Not kept
+     */
+    void addGameboard(int type, int timeMs, int packedPosition, byte[] gameboard) {
+        if (gameboardSteps.size % KEYFRAME_INTERVAL == 0)
+            fillEmpty(lastGameboard);
+
+        for (int i = 0; i < GAMEBOARD_SQUARES; i++)
+            if (gameboard[i] != lastGameboard[i]) {
+                boardDiffs.add((byte) i, gameboard[i]);
+                lastGameboard[i] = gameboard[i];
+            }
+        boardDiffEnds.add(boardDiffs.size);
+        gameboardSteps.add(add(type, timeMs, packedPosition));
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int getTime(int idx) {
+        return times[idx];
+    }
+
+    @Override
+    int getType(int idx) {
+        return types[idx];
+    }
+
+    @Override
+    int getValue(int idx) {
+        return values[idx];
+    }
+
+    /**
+     * fills the given array with the gameboard, starting from its keyframe
+     */
+    @Override
+    void readGameboard(int gameboardNum, byte[] gameboard) {
+        for (int num = gameboardNum - gameboardNum % KEYFRAME_INTERVAL; num <= gameboardNum; num++)
+            nextGameboard(num, gameboard);
+    }
+
+    /**
+     * turns the gameboard before into the given one, for reading the gameboards one after another
+     */
+    void nextGameboard(int gameboardNum, byte[] gameboard) {
+        if (gameboardNum % KEYFRAME_INTERVAL == 0)
+            fillEmpty(gameboard);
+
+        byte[] diffs = boardDiffs.items;
+        for (int i = gameboardNum > 0 ? boardDiffEnds.get(gameboardNum - 1) : 0; i < boardDiffEnds.get(gameboardNum); i += 2)
+            gameboard[diffs[i] & 0xFF] = diffs[i + 1];
+    }
+}
@@ -0,0 +1,91 @@
+package de.golfgl.lightblocks.state;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * The steps of a {@link Replay} by their index: recorded into a {@link ReplayStepLog}, or read
+ * lazily from a {@link ReplayStream}. Either way, the index of the gameboard and the drop steps and
+ * the drops' scores and removed lines are always at hand.
+ */
+abstract class ReplaySteps {
+    // step indices of the gameboards and the drops, ascending
+    final IntArray gameboardSteps = new IntArray();
+    final IntArray dropSteps = new IntArray();
+    final IntArray dropScores = new IntArray();
+    final IntArray dropRemovedLines = new IntArray();
+
+    /**
+     * @return number of values in the sorted array that are lower or equal to the given one
+     */
+    static int countUpTo(IntArray sorted, int value) {
+        int low = 0;
+        int high = sorted.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted.get(mid) <= value)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    abstract int size();
+
+    abstract int getTime(int idx);
+
+    abstract int getType(int idx);
+
+    /**
+     * @return piece position with one square index per byte, or distance of a move
+     */
+    abstract int getValue(int idx);
+
+    /**
+     * fills the given array with the gameboard
+     */
+    abstract void readGameboard(int gameboardNum, byte[] gameboard);
+
+    /**
+     * @return index of the first step at or after the given time
+     */
+    int findFirstStepAtTime(int timeMs) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(mid) < timeMs)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    IntArray getGameboardSteps() {
+        return gameboardSteps;
+    }
+
+    IntArray getDropSteps() {
+        return dropSteps;
+    }
+
+    int getDropScore(int dropNum) {
+        return dropScores.get(dropNum);
+    }
+
+    void setDropScore(int dropNum, int score) {
+        dropScores.set(dropNum, score);
+    }
+
+    /**
+     * @return lines removed by the drop, negative if not recorded
+     */
+    int getDropRemovedLines(int dropNum) {
+        return dropRemovedLines.get(dropNum);
+    }
+
+    void setDropRemovedLines(int dropNum, int removedLines) {
+        dropRemovedLines.set(dropNum, removedLines);
+    }
+}
@@ -0,0 +1,484 @@
+package de.golfgl.lightblocks.state;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.Tetromino;
+
+/**
+ * Steps of a replay in the binary format (version 2): every step is an opcode byte followed by its
+ * time as a zigzag varint delta to the step before. Piece positions are one byte per block, or
+ * only the first block if the piece has the same shape as in the step before. Gameboards are
+ * stored as runs of changed squares relative to the gameboard before, with the piece dropped
+ * since then already pinned. Every {@link ReplayStepLog#KEYFRAME_INTERVAL}th gameboard is a keyframe
+ * that does not depend on anything written before.
+ * <p>
+ * Read steps are not decoded as a whole. The keyframes split them into segments, and a first pass
+ * only keeps where the segments start and the index of the gameboard and drop steps. The steps of
+ * a segment are decoded when they are accessed, and only the last few decoded segments are kept.
+ * So a replay needs not much more memory than its bytes, even a marathon of several hours.
+ */
+class ReplayStream extends ReplaySteps {
+    static final int OP_NEXT_PIECE = 1;
+    static final int OP_DROP_PIECE = 2;
+    static final int OP_ROTATE_PIECE = 3;
+    static final int OP_HORIZONTAL_MOVE = 4;
+    static final int OP_VERTICAL_MOVE = 5;
+    private static final int OP_TYPE_MASK = 0x07;
+    // the piece has the same shape as in the step before, only its first block is written
+    private static final int FLAG_SAME_SHAPE = 0x08;
+    // next piece steps: keyframe, drop steps: removed lines follow
+    private static final int FLAG_KEYFRAME = 0x10;
+    private static final int FLAG_REMOVED_LINES = 0x10;
+    // move steps hold their zigzag encoded distance in the upper bits, this value means a varint follows
+    private static final int MOVE_DISTANCE_FOLLOWS = 0x1F;
+    private static final int KEYFRAME_INTERVAL = ReplayStepLog.KEYFRAME_INTERVAL;
+    private static final int GAMEBOARD_SQUARES = ReplayStepLog.GAMEBOARD_SQUARES;
+    // consecutive segments are in different slots
+    private static final int SEGMENT_CACHE_SIZE = 4;
+
+    private final byte[] data;
+    private final int start;
+    private final int end;
+    private int size;
+    // first step, its time and its position in the data for every segment
+    private final IntArray segmentFirstSteps = new IntArray();
+    private final IntArray segmentFirstTimes = new IntArray();
+    private final IntArray segmentOffsets = new IntArray();
+    private final ReplayStepLog[] decodedSegments = new ReplayStepLog[SEGMENT_CACHE_SIZE];
+    private final int[] decodedSegmentNums = new int[SEGMENT_CACHE_SIZE];
+
+    /**
+     * indexes the steps, the data is not copied
+     *
+     * @throws IllegalArgumentException if the data is not a valid replay
+     */
+    ReplayStream(byte[] data, int offset, int length) {
+        this.data = data;
+        start = offset;
+        end = offset + length;
+
+        // every segment is decoded once to build the index, but not kept
+        ReplayStepLog segment = new ReplayStepLog();
+        ReplayBuffer in = new ReplayBuffer(data, offset, length);
+        while (in.hasRemaining()) {
+            segmentOffsets.add(in.getPosition());
+            segmentFirstSteps.add(size);
+            segment.clear();
+            readSteps(in, new BinaryState(), segment, true);
+            segmentFirstTimes.add(segment.getTime(0));
+
+            for (int i = 0; i < segment.gameboardSteps.size; i++)
+                gameboardSteps.add(size + segment.gameboardSteps.get(i));
+            for (int i = 0; i < segment.dropSteps.size; i++)
+                dropSteps.add(size + segment.dropSteps.get(i));
+            dropScores.addAll(segment.dropScores);
+            dropRemovedLines.addAll(segment.dropRemovedLines);
+            size += segment.size();
+        }
+
+        for (int i = 0; i < SEGMENT_CACHE_SIZE; i++)
+            decodedSegmentNums[i] = -1;
+        // the last segment is needed first for the length of the replay
+        if (segmentOffsets.size > 0) {
+            int lastSegmentNum = segmentOffsets.size - 1;
+            decodedSegments[lastSegmentNum % SEGMENT_CACHE_SIZE] = segment;
+            decodedSegmentNums[lastSegmentNum % SEGMENT_CACHE_SIZE] = lastSegmentNum;
+        }
+    }
+
+    private static int toZigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int fromZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static boolean isKeyframe(int opcode) {
+        return (opcode & OP_TYPE_MASK) == OP_NEXT_PIECE && (opcode & FLAG_KEYFRAME) != 0;
+    }
+
+    /**
+     * reads steps into the log until the data ends
+     *
+     * @param stopAtKeyframe also stop before a keyframe that is not the first step read
+     */
+    private static void readSteps(ReplayBuffer in, BinaryState state, ReplayStepLog steps, boolean stopAtKeyframe) {
+        int[] activePiecePos = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        byte[] gameboard = new byte[GAMEBOARD_SQUARES];
+        int firstStep = steps.size();
+
+        while (in.hasRemaining()) {
+            if (stopAtKeyframe && steps.size() > firstStep && isKeyframe(in.peekByte()))
+                return;
+
+            int opcode = in.readByte();
+            int type = opcode & OP_TYPE_MASK;
+            if (type < OP_NEXT_PIECE || type > OP_VERTICAL_MOVE)
+                throw new IllegalArgumentException("Unknown replay step " + type);
+            if (isKeyframe(opcode))
+                state.resetForKeyframe();
+
+            int timeMs = state.lastTimeStamp + in.readSignedVarInt();
+            if (type == OP_HORIZONTAL_MOVE || type == OP_VERTICAL_MOVE) {
+                int zigZagDistance = opcode >>> 3;
+                steps.add(type, timeMs, zigZagDistance == MOVE_DISTANCE_FOLLOWS ? in.readSignedVarInt()
+                        : fromZigZag(zigZagDistance));
+            } else {
+                state.readActivePiecePos(in, opcode, activePiecePos);
+                int packedPos = ReplayStepLog.packPosition(activePiecePos);
+                if (type == OP_NEXT_PIECE) {
+                    state.readGameboard(in, gameboard);
+                    steps.addGameboard(type, timeMs, packedPos, gameboard);
+                } else if (type == OP_DROP_PIECE) {
+                    int score = state.lastScore + in.readSignedVarInt();
+                    state.lastScore = score;
+                    state.setDropPosition(activePiecePos);
+                    int dropNum = steps.addDrop(type, timeMs, packedPos);
+                    steps.setDropScore(dropNum, score);
+                    if ((opcode & FLAG_REMOVED_LINES) != 0)
+                        steps.setDropRemovedLines(dropNum, in.readVarInt());
+                } else
+                    steps.add(type, timeMs, packedPos);
+            }
+            state.lastTimeStamp = timeMs;
+        }
+    }
+
+    static ReplayBuffer write(ReplayStepLog steps) {
+        ReplayBuffer out = new ReplayBuffer(steps.size() * 4);
+        BinaryState state = new BinaryState();
+        int[] activePiecePos = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        byte[] gameboard = new byte[GAMEBOARD_SQUARES];
+        int gameboardNum = 0;
+        int dropNum = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            int type = steps.getType(i);
+            int value = steps.getValue(i);
+            if (type == OP_NEXT_PIECE && (!state.hasGameboard || state.gameboardsSinceKeyframe >= KEYFRAME_INTERVAL))
+                state.resetForKeyframe();
+
+            if (type == OP_HORIZONTAL_MOVE || type == OP_VERTICAL_MOVE) {
+                // short distances fit in the opcode
+                out.writeByte(type | Math.min(toZigZag(value), MOVE_DISTANCE_FOLLOWS) << 3);
+                out.writeSignedVarInt(steps.getTime(i) - state.lastTimeStamp);
+                if (toZigZag(value) >= MOVE_DISTANCE_FOLLOWS)
+                    out.writeSignedVarInt(value);
+            } else {
+                ReplayStepLog.unpackPosition(value, activePiecePos);
+                int opcode = type | (state.hasSameShape(activePiecePos) ? FLAG_SAME_SHAPE : 0);
+                // the state was reset for a keyframe before
+                if (type == OP_NEXT_PIECE && state.gameboardsSinceKeyframe == 0)
+                    opcode |= FLAG_KEYFRAME;
+                if (type == OP_DROP_PIECE && steps.getDropRemovedLines(dropNum) >= 0)
+                    opcode |= FLAG_REMOVED_LINES;
+                out.writeByte(opcode);
+                out.writeSignedVarInt(steps.getTime(i) - state.lastTimeStamp);
+                state.writeActivePiecePos(out, activePiecePos);
+
+                if (type == OP_NEXT_PIECE) {
+                    steps.nextGameboard(gameboardNum, gameboard);
+                    gameboardNum++;
+                    state.writeGameboard(out, gameboard);
+                } else if (type == OP_DROP_PIECE) {
+                    int score = steps.getDropScore(dropNum);
+                    out.writeSignedVarInt(score - state.lastScore);
+                    state.lastScore = score;
+                    state.setDropPosition(activePiecePos);
+                    if (steps.getDropRemovedLines(dropNum) >= 0)
+                        out.writeVarInt(steps.getDropRemovedLines(dropNum));
+                    dropNum++;
+                }
+            }
+            state.lastTimeStamp = steps.getTime(i);
+        }
+        return out;
+    }
+
+    /**
+     * decodes all steps into the log, to continue recording
+     */
+    void readAll(ReplayStepLog steps) {
+        readSteps(new ReplayBuffer(data, start, end - start), new BinaryState(), steps, false);
+    }
+
+    private int getSegmentNum(int stepIdx) {
+        return countUpTo(segmentFirstSteps, stepIdx) - 1;
+    }
+
+    private ReplayStepLog getSegment(int segmentNum) {
+        int slot = segmentNum % SEGMENT_CACHE_SIZE;
+        if (decodedSegmentNums[slot] != segmentNum) {
+            if (decodedSegments[slot] == null)
+                decodedSegments[slot] = new ReplayStepLog();
+            else
+                decodedSegments[slot].clear();
+
+            int segmentOffset = segmentOffsets.get(segmentNum);
+            int segmentEnd = segmentNum + 1 < segmentOffsets.size ? segmentOffsets.get(segmentNum + 1) : end;
+            readSteps(new ReplayBuffer(data, segmentOffset, segmentEnd - segmentOffset), new BinaryState(),
+                    decodedSegments[slot], false);
+            decodedSegmentNums[slot] = segmentNum;
+        }
+        return decodedSegments[slot];
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    int getTime(int idx) {
+        int segmentNum = getSegmentNum(idx);
+        return getSegment(segmentNum).getTime(idx - segmentFirstSteps.get(segmentNum));
+    }
+
+    @Override
+    int getType(int idx) {
+        int segmentNum = getSegmentNum(idx);
+        return getSegment(segmentNum).getType(idx - segmentFirstSteps.get(segmentNum));
+    }
+
+    @Override
+    int getValue(int idx) {
+        int segmentNum = getSegmentNum(idx);
+        return getSegment(segmentNum).getValue(idx - segmentFirstSteps.get(segmentNum));
+    }
+
+    @Override
+    void readGameboard(int gameboardNum, byte[] gameboard) {
+        int segmentNum = getSegmentNum(gameboardSteps.get(gameboardNum));
+        int gameboardsBefore = countUpTo(gameboardSteps, segmentFirstSteps.get(segmentNum) - 1);
+        getSegment(segmentNum).readGameboard(gameboardNum - gameboardsBefore, gameboard);
+    }
+
+    /**
+     * only decodes the segment the time is in
+     */
+    @Override
+    int findFirstStepAtTime(int timeMs) {
+        int segmentNum = countUpTo(segmentFirstTimes, timeMs - 1) - 1;
+        if (segmentNum < 0)
+            return 0;
+
+        return segmentFirstSteps.get(segmentNum) + getSegment(segmentNum).findFirstStepAtTime(timeMs);
+    }
+
+    /**
+     * what the binary format refers to while writing or reading the steps one after another
+     */
+    private static class BinaryState {
+        int lastTimeStamp;
+        int lastScore;
+        // positions of the blocks relative to the first one
+        final int[] lastShape = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        boolean hasShape;
+        final byte[] lastGameboard = new byte[GAMEBOARD_SQUARES];
+        boolean hasGameboard;
+        // the piece dropped since the last gameboard
+        final int[] lastDropPosition = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        boolean hasDropPosition;
+        int gameboardsSinceKeyframe;
+        private final byte[] predicted = new byte[GAMEBOARD_SQUARES];
+
+        /**
+         * a keyframe is written and read as if it was the first step
+         */
+        void resetForKeyframe() {
+            lastTimeStamp = 0;
+            lastScore = 0;
+            hasShape = false;
+            ReplayStepLog.fillEmpty(lastGameboard);
+            hasGameboard = true;
+            hasDropPosition = false;
+            gameboardsSinceKeyframe = 0;
+        }
+
+        void setDropPosition(int[] activePiecePos) {
+            System.arraycopy(activePiecePos, 0, lastDropPosition, 0, lastDropPosition.length);
+            hasDropPosition = true;
+        }
+
+        boolean hasSameShape(int[] activePiecePos) {
+            if (!hasShape)
+                return false;
+
+            for (int i = 1; i < activePiecePos.length; i++)
+                if (activePiecePos[i] - activePiecePos[0] != lastShape[i])
+                    return false;
+
+            return true;
+        }
+
+        private void setShape(int[] activePiecePos) {
+            for (int i = 1; i < lastShape.length; i++)
+                lastShape[i] = activePiecePos[i] - activePiecePos[0];
+            hasShape = true;
+        }
+
+        void writeActivePiecePos(ReplayBuffer out, int[] activePiecePos) {
+            boolean sameShape = hasSameShape(activePiecePos);
+            out.writeByte(activePiecePos[0]);
+            if (!sameShape) {
+                // the other blocks are at most three rows and columns away from the first one
+                for (int i = 1; i < activePiecePos.length; i++)
+                    out.writeByte(activePiecePos[i] - activePiecePos[0]);
+                setShape(activePiecePos);
+            }
+        }
+
+        void readActivePiecePos(ReplayBuffer in, int opcode, int[] activePiecePos) {
+            activePiecePos[0] = in.readByte();
+            if ((opcode & FLAG_SAME_SHAPE) != 0) {
+                if (!hasShape)
+                    throw new IllegalArgumentException("No shape to refer to");
+                for (int i = 1; i < activePiecePos.length; i++)
+                    activePiecePos[i] = activePiecePos[0] + lastShape[i];
+            } else {
+                for (int i = 1; i < activePiecePos.length; i++)
+                    activePiecePos[i] = activePiecePos[0] + (byte) in.readByte();
+                setShape(activePiecePos);
+            }
+        }
+
+        /**
+         * writes the squares differing from the gameboard before as runs: squares to skip, length of
+         * the run and the squares of the run. Runs are joined if only a few squares are between them.
+         * If a piece was dropped since the gameboard before, the runs refer to the gameboard predicted
+         * from it and only the square of the dropped piece is written in addition.
+         */
+        void writeGameboard(ReplayBuffer out, byte[] gameboard) {
+            byte[] before = lastGameboard;
+            if (hasDropPosition) {
+                int droppedSquare = findDroppedSquare(gameboard);
+                out.writeByte(droppedSquare + 1);
+                before = predictGameboard(droppedSquare);
+            }
+
+            // first pass counts the runs, second one writes them
+            int runCount = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                if (pass == 1)
+                    out.writeVarInt(runCount);
+
+                int lastRunEnd = 0;
+                int pos = 0;
+                while (pos < gameboard.length) {
+                    if (gameboard[pos] == before[pos]) {
+                        pos++;
+                        continue;
+                    }
+
+                    int runEnd = pos + 1;
+                    for (int i = runEnd; i < gameboard.length && i - runEnd < 3; i++)
+                        if (gameboard[i] != before[i])
+                            runEnd = i + 1;
+
+                    if (pass == 0)
+                        runCount++;
+                    else {
+                        out.writeVarInt(pos - lastRunEnd);
+                        out.writeVarInt(runEnd - pos);
+                        for (int i = pos; i < runEnd; i++)
+                            out.writeByte(gameboard[i] + 1);
+                    }
+                    lastRunEnd = runEnd;
+                    pos = runEnd;
+                }
+            }
+
+            setGameboard(gameboard);
+        }
+
+        void readGameboard(ReplayBuffer in, byte[] gameboard) {
+            if (!hasGameboard)
+                throw new IllegalArgumentException("No gameboard to refer to");
+
+            System.arraycopy(hasDropPosition ? predictGameboard(in.readByte() - 1) : lastGameboard, 0,
+                    gameboard, 0, gameboard.length);
+            int runCount = in.readVarInt();
+            int pos = 0;
+            for (int run = 0; run < runCount; run++) {
+                pos += in.readVarInt();
+                int runEnd = pos + in.readVarInt();
+                if (pos < 0 || runEnd > gameboard.length || runEnd < pos)
+                    throw new IllegalArgumentException("Gameboard run out of bounds");
+                for (; pos < runEnd; pos++)
+                    gameboard[pos] = (byte) (in.readByte() - 1);
+            }
+
+            setGameboard(gameboard);
+        }
+
+        private void setGameboard(byte[] gameboard) {
+            System.arraycopy(gameboard, 0, lastGameboard, 0, lastGameboard.length);
+            hasDropPosition = false;
+            gameboardsSinceKeyframe++;
+        }
+
+        /**
+         * @return the gameboard before with the dropped piece pinned and full rows removed
+         */
+        private byte[] predictGameboard(int square) {
+            System.arraycopy(lastGameboard, 0, predicted, 0, predicted.length);
+            for (int i = 0; i < lastDropPosition.length; i++)
+                if (lastDropPosition[i] >= 0 && lastDropPosition[i] < predicted.length)
+                    predicted[lastDropPosition[i]] = (byte) square;
+
+            int targetRow = 0;
+            for (int row = 0; row < Gameboard.GAMEBOARD_ALLROWS; row++) {
+                boolean rowIsFull = true;
+                for (int col = 0; col < Gameboard.GAMEBOARD_COLUMNS && rowIsFull; col++)
+                    rowIsFull = predicted[row * Gameboard.GAMEBOARD_COLUMNS + col] != Gameboard.SQUARE_EMPTY;
+
+                if (!rowIsFull) {
+                    if (targetRow != row)
+                        System.arraycopy(predicted, row * Gameboard.GAMEBOARD_COLUMNS, predicted,
+                                targetRow * Gameboard.GAMEBOARD_COLUMNS, Gameboard.GAMEBOARD_COLUMNS);
+                    targetRow++;
+                }
+            }
+            for (int i = targetRow * Gameboard.GAMEBOARD_COLUMNS; i < predicted.length; i++)
+                predicted[i] = Gameboard.SQUARE_EMPTY;
+
+            return predicted;
+        }
+
+        /**
+         * @return the square the dropped piece left on the gameboard, empty if all of its rows were removed
+         */
+        private int findDroppedSquare(byte[] gameboard) {
+            for (int i = 0; i < lastDropPosition.length; i++) {
+                int pos = lastDropPosition[i];
+                if (pos < 0 || pos >= gameboard.length)
+                    continue;
+
+                // the rows removed below move the square down
+                int row = pos / Gameboard.GAMEBOARD_COLUMNS;
+                int removedBelow = 0;
+                for (int r = 0; r < row; r++)
+                    if (isRowFullAfterDrop(r))
+                        removedBelow++;
+                if (!isRowFullAfterDrop(row))
+                    return gameboard[pos - removedBelow * Gameboard.GAMEBOARD_COLUMNS];
+            }
+            return Gameboard.SQUARE_EMPTY;
+        }
+
+        private boolean isRowFullAfterDrop(int row) {
+            for (int col = 0; col < Gameboard.GAMEBOARD_COLUMNS; col++) {
+                int pos = row * Gameboard.GAMEBOARD_COLUMNS + col;
+                if (lastGameboard[pos] != Gameboard.SQUARE_EMPTY)
+                    continue;
+                boolean isDropped = false;
+                for (int i = 0; i < lastDropPosition.length; i++)
+                    isDropped = isDropped || lastDropPosition[i] == pos;
+                if (!isDropped)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
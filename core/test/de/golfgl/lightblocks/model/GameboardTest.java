@@ -0,0 +1,201 @@
+package de.golfgl.lightblocks.model;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * The gameboard keeps a bit mask per row besides its squares. The tests play the same pins, line
+ * clears and garbage inserts on a plain square array and compare every query with it.
+ */
+public class GameboardTest {
+    private static final int ROWS = Gameboard.GAMEBOARD_ALLROWS;
+    private static final int COLUMNS = Gameboard.GAMEBOARD_COLUMNS;
+
+    @Test
+    public void testClearNonAdjacentLines() {
+        int[][] squares = emptySquares();
+
+        // rows 0, 2 and 5 full, rows 1, 3 and 4 with a single square marking them
+        for (int y = 0; y <= 5; y++) {
+            for (int x = 0; x < COLUMNS; x++) {
+                if (y == 0 || y == 2 || y == 5 || x == y)
+                    squares[y][x] = Gameboard.SQUARE_GARBAGE;
+            }
+        }
+        Gameboard gameboard = Gameboard.initFromArray(squares);
+        assertSameBoard(squares, gameboard);
+        Assert.assertTrue(gameboard.isRowFull(0));
+        Assert.assertFalse(gameboard.isRowFull(1));
+
+        IntArray fullRows = new IntArray();
+        fullRows.addAll(0, 2, 5);
+        gameboard.clearLines(fullRows);
+        clearLines(squares, fullRows);
+        assertSameBoard(squares, gameboard);
+        Assert.assertEquals(1 << 1, gameboard.getRowOccupancy(0));
+        Assert.assertEquals(1 << 3, gameboard.getRowOccupancy(1));
+        Assert.assertEquals(1 << 4, gameboard.getRowOccupancy(2));
+        Assert.assertEquals(0, gameboard.getRowOccupancy(ROWS - 1));
+    }
+
+    @Test
+    public void testInsertGarbageUpToTheTopRow() {
+        Gameboard gameboard = new Gameboard();
+        int[][] squares = emptySquares();
+        pin(gameboard, squares, Tetromino.TETRO_IDX_T, 4, 0);
+
+        // the T is pushed up to the top row, the rows pushed out above are lost
+        int[] holePosition = new int[ROWS - 2];
+        for (int i = 0; i < holePosition.length; i++)
+            holePosition[i] = i % COLUMNS;
+        gameboard.insertLines(holePosition);
+        insertLines(squares, holePosition);
+        assertSameBoard(squares, gameboard);
+        Assert.assertNotEquals(0, gameboard.getRowOccupancy(ROWS - 1));
+
+        holePosition = new int[]{0, COLUMNS - 1};
+        gameboard.insertLines(holePosition);
+        insertLines(squares, holePosition);
+        assertSameBoard(squares, gameboard);
+        Assert.assertEquals(Gameboard.ROW_FULL & ~1, gameboard.getRowOccupancy(1));
+        Assert.assertEquals(Gameboard.ROW_FULL & ~(1 << (COLUMNS - 1)), gameboard.getRowOccupancy(0));
+    }
+
+    @Test
+    public void testMixedPinClearAndInsert() {
+        Random random = new Random(1903);
+        Gameboard gameboard = new Gameboard();
+        int[][] squares = emptySquares();
+
+        for (int step = 0; step < 2000; step++) {
+            int action = random.nextInt(10);
+            if (action < 7) {
+                // dort absetzen, wo er von oben hinfällt
+                Tetromino tetromino = new Tetromino(random.nextInt(Tetromino.TETROMINO_NUMBER), true);
+                tetromino.setRotation(random.nextInt(4));
+                int x = random.nextInt(COLUMNS);
+                int y = ROWS - 1 - Tetromino.getMaxCellY(tetromino.getCurrentShape());
+                if (!isValidPosition(squares, tetromino, x, y, tetromino.getCurrentRotation()))
+                    continue;
+                while (isValidPosition(squares, tetromino, x, y - 1, tetromino.getCurrentRotation()))
+                    y--;
+                pin(gameboard, squares, tetromino, x, y);
+            } else if (action < 9) {
+                int[] holePosition = new int[1 + random.nextInt(4)];
+                for (int i = 0; i < holePosition.length; i++)
+                    holePosition[i] = random.nextInt(COLUMNS);
+                gameboard.insertLines(holePosition);
+                insertLines(squares, holePosition);
+            } else {
+                // fill random rows so there is something to clear
+                for (int y = random.nextInt(3); y < ROWS; y = y + 1 + random.nextInt(4)) {
+                    for (int x = 0; x < COLUMNS; x++)
+                        squares[y][x] = Gameboard.SQUARE_GARBAGE;
+                }
+                gameboard = Gameboard.initFromArray(squares);
+            }
+
+            IntArray fullRows = new IntArray();
+            for (int y = 0; y < ROWS; y++) {
+                if (gameboard.isRowFull(y))
+                    fullRows.add(y);
+            }
+            if (fullRows.size > 0) {
+                gameboard.clearLines(fullRows);
+                clearLines(squares, fullRows);
+            }
+
+            assertSameBoard(squares, gameboard);
+            assertSameValidPositions(squares, gameboard, random);
+        }
+    }
+
+    private static int[][] emptySquares() {
+        int[][] squares = new int[ROWS][COLUMNS];
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLUMNS; x++)
+                squares[y][x] = Gameboard.SQUARE_EMPTY;
+        }
+        return squares;
+    }
+
+    private static void pin(Gameboard gameboard, int[][] squares, int type, int x, int y) {
+        pin(gameboard, squares, new Tetromino(type, true), x, y);
+    }
+
+    private static void pin(Gameboard gameboard, int[][] squares, Tetromino tetromino, int x, int y) {
+        tetromino.getPosition().set(x, y);
+        gameboard.pinTetromino(tetromino);
+        final int shape = tetromino.getCurrentShape();
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            squares[y + Tetromino.getCellY(shape, i)][x + Tetromino.getCellX(shape, i)] = tetromino.getTetrominoType();
+    }
+
+    private static void clearLines(int[][] squares, IntArray linesToRemove) {
+        for (int i = linesToRemove.size - 1; i >= 0; i--) {
+            for (int y = linesToRemove.get(i); y < ROWS; y++) {
+                for (int x = 0; x < COLUMNS; x++)
+                    squares[y][x] = y < ROWS - 1 ? squares[y + 1][x] : Gameboard.SQUARE_EMPTY;
+            }
+        }
+    }
+
+    private static void insertLines(int[][] squares, int[] holePosition) {
+        final int numberOfLines = holePosition.length;
+        for (int y = ROWS - 1; y >= 0; y--) {
+            for (int x = 0; x < COLUMNS; x++) {
+                if (y >= numberOfLines)
+                    squares[y][x] = squares[y - numberOfLines][x];
+                else
+                    squares[y][x] = x == holePosition[numberOfLines - 1 - y] ? Gameboard.SQUARE_EMPTY
+                            : Gameboard.SQUARE_GARBAGE;
+            }
+        }
+    }
+
+    private static boolean isValidPosition(int[][] squares, Tetromino tetromino, int posX, int posY, int rotation) {
+        final int shape = tetromino.getShape(rotation);
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            int x = posX + Tetromino.getCellX(shape, i);
+            int y = posY + Tetromino.getCellY(shape, i);
+            if (x < 0 || x >= COLUMNS || y < 0 || y >= ROWS || squares[y][x] != Gameboard.SQUARE_EMPTY)
+                return false;
+        }
+        return true;
+    }
+
+    private static void assertSameBoard(int[][] squares, Gameboard gameboard) {
+        int hash = 1;
+        for (int y = 0; y < ROWS; y++) {
+            int occupancy = 0;
+            for (int x = 0; x < COLUMNS; x++) {
+                Assert.assertEquals("square " + x + "/" + y, squares[y][x], gameboard.getGameboardSquares()[y][x]);
+                Assert.assertEquals(squares[y][x] == Gameboard.SQUARE_EMPTY ? 0 : 1, gameboard.isValidCoordinate(x, y));
+                if (squares[y][x] != Gameboard.SQUARE_EMPTY)
+                    occupancy |= 1 << x;
+            }
+            Assert.assertEquals("row " + y, occupancy, gameboard.getRowOccupancy(y));
+            Assert.assertEquals(occupancy == Gameboard.ROW_FULL, gameboard.isRowFull(y));
+            hash = 31 * hash + occupancy;
+        }
+        Assert.assertEquals(hash, gameboard.getStateHash());
+    }
+
+    private static void assertSameValidPositions(int[][] squares, Gameboard gameboard, Random random) {
+        for (int type = 0; type < Tetromino.TETROMINO_NUMBER; type++) {
+            Tetromino tetromino = new Tetromino(type, true);
+            int rotation = random.nextInt(4);
+            // auch Positionen außerhalb des Bretts
+            for (int y = -2; y <= ROWS; y++) {
+                for (int x = -2; x <= COLUMNS; x++) {
+                    Assert.assertEquals(isValidPosition(squares, tetromino, x, y, rotation),
+                            gameboard.isValidPosition(tetromino, x, y, rotation));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package de.golfgl.lightblocks.model;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.golfgl.lightblocks.state.Replay;
+
+public class ReplayVerifierTest {
+    private static final String MARATHON = MarathonModel.MODEL_MARATHON_NORMAL_ID;
+    private static final String PRACTICE = PracticeModel.MODEL_PRACTICE_ID;
+    // the O spawns in rows 18 and 19
+    private static final int O_FALL = 18;
+
+    @Test
+    public void testReplayFollowingTheRules() {
+        // a single line cleared at level 0 is worth 40, and the O fell 18 rows
+        ReplayVerifier verifier = ReplayVerifier.forGameMode(MARATHON, 0);
+        Assert.assertEquals(0, verifier.verify(recordLineClear(40, 1)).size);
+        Assert.assertEquals(0, verifier.verify(recordLineClear(40 + O_FALL * 2, 1)).size);
+        Assert.assertEquals(3, verifier.getVerifiedDrops());
+        Assert.assertEquals(1, verifier.getClearedLines());
+    }
+
+    @Test
+    public void testMismatchesAreFlagged() {
+        ReplayVerifier verifier = ReplayVerifier.forGameMode(MARATHON, 0);
+
+        Array<ReplayVerifier.Mismatch> mismatches = verifier.verify(recordLineClear(40 + O_FALL * 2 + 1, 1));
+        Assert.assertEquals(1, mismatches.size);
+        Assert.assertEquals(ReplayVerifier.MismatchType.score, mismatches.get(0).type);
+        Assert.assertEquals(40, mismatches.get(0).expected);
+        Assert.assertEquals(40 + O_FALL * 2, mismatches.get(0).expectedMax);
+
+        mismatches = verifier.verify(recordLineClear(40, 2));
+        Assert.assertEquals(1, mismatches.size);
+        Assert.assertEquals(ReplayVerifier.MismatchType.removedLines, mismatches.get(0).type);
+    }
+
+    @Test
+    public void testBeginningLevelIsDerived() {
+        // level 5 scores a single line six times
+        Assert.assertEquals(0, ReplayVerifier.forGameMode(MARATHON, -1).verify(recordLineClear(240, 1)).size);
+        Assert.assertEquals(0, ReplayVerifier.forGameMode(MARATHON, 5).verify(recordLineClear(240, 1)).size);
+        Assert.assertEquals(1, ReplayVerifier.forGameMode(MARATHON, 0).verify(recordLineClear(240, 1)).size);
+        Assert.assertNull(ReplayVerifier.forGameMode(ModernFreezeModel.MODEL_ID, -1));
+    }
+
+    @Test
+    public void testFloatingDropIsFlagged() {
+        ReplayRecorder recorder = new ReplayRecorder(new Gameboard());
+        recorder.nextPiece(Tetromino.TETRO_IDX_O);
+        recorder.piece.getPosition().y -= 5;
+        recorder.replay.addDropStep(recorder.timeMs += 100, recorder.piece).setScore(0);
+
+        assertPiecePositionMismatch(ReplayVerifier.forGameMode(MARATHON, 0).verify(recorder.read()), 1, 200);
+    }
+
+    @Test
+    public void testMovesThroughTheStackAreFlagged() {
+        // row 3 is filled except at the right, the O falls through it
+        ReplayRecorder recorder = new ReplayRecorder(prepareGameboard(0, 7, 3, 3));
+        recorder.nextPiece(Tetromino.TETRO_IDX_O);
+        recorder.move(false, O_FALL);
+        recorder.drop(0, 0);
+        assertPiecePositionMismatch(ReplayVerifier.forGameMode(PRACTICE, 0).verify(recorder.read()), 1, 200);
+
+        // the same fall, but not recorded before the drop
+        recorder = new ReplayRecorder(prepareGameboard(0, 7, 3, 3));
+        recorder.nextPiece(Tetromino.TETRO_IDX_O);
+        recorder.piece.getPosition().y -= O_FALL;
+        recorder.replay.addDropStep(recorder.timeMs += 100, recorder.piece).setScore(0);
+        assertPiecePositionMismatch(ReplayVerifier.forGameMode(PRACTICE, 0).verify(recorder.read()), 1, 200);
+
+        // column 2 is filled up to row 15, the O passes it at the bottom
+        recorder = new ReplayRecorder(prepareGameboard(2, 2, 0, 15));
+        recorder.nextPiece(Tetromino.TETRO_IDX_O);
+        recorder.move(false, O_FALL);
+        recorder.move(true, -4);
+        recorder.drop(0, 0);
+        assertPiecePositionMismatch(ReplayVerifier.forGameMode(PRACTICE, 0).verify(recorder.read()), 1, 300);
+
+        // a rotation into the stack, without a wall kick that would find a free position
+        Tetromino rotated = new Tetromino(Tetromino.TETRO_IDX_T, false);
+        rotated.setRotation(1);
+        long rotatedPiece = rotated.getPackedBlockPositions();
+        long spawnedPiece = new Tetromino(Tetromino.TETRO_IDX_T, false).getPackedBlockPositions();
+        int blockedX = 0;
+        int blockedY = 0;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            if (!containsBlock(spawnedPiece, PackedPiece.getX(rotatedPiece, i), PackedPiece.getY(rotatedPiece, i))) {
+                blockedX = PackedPiece.getX(rotatedPiece, i);
+                blockedY = PackedPiece.getY(rotatedPiece, i);
+            }
+        }
+        recorder = new ReplayRecorder(prepareGameboard(blockedX, blockedX, blockedY, blockedY));
+        recorder.nextPiece(Tetromino.TETRO_IDX_T);
+        recorder.piece.setRotation(1);
+        recorder.replay.addRotatePieceStep(recorder.timeMs += 100, recorder.piece);
+        assertPiecePositionMismatch(ReplayVerifier.forGameMode(PRACTICE, 0).verify(recorder.read()), 1, 200);
+    }
+
+    @Test
+    public void testPiecesSpawnWhereTheGamePlacesThem() {
+        ReplayRecorder recorder = new ReplayRecorder(new Gameboard());
+        recorder.piece = new Tetromino(Tetromino.TETRO_IDX_O, false);
+        recorder.piece.getPosition().y = 0;
+        recorder.replay.addNextPieceStep(recorder.timeMs += 100, recorder.gameboard, recorder.piece);
+        recorder.drop(0, 0);
+
+        assertPiecePositionMismatch(ReplayVerifier.forGameMode(MARATHON, 0).verify(recorder.read()), 1, 100);
+    }
+
+    @Test
+    public void testPreparedFirstGameboard() {
+        // an I dropped into the gap of a prepared lowest row
+        ReplayRecorder recorder = new ReplayRecorder(prepareGameboard(0, 5, 0, 0));
+        recorder.nextPiece(Tetromino.TETRO_IDX_I);
+        recorder.move(true, 3);
+        recorder.drop(40, 1);
+        Replay replay = recorder.read();
+
+        Assert.assertEquals(0, ReplayVerifier.forGameMode(PRACTICE, 0).verify(replay).size);
+
+        // the other modes begin with an empty board
+        Array<ReplayVerifier.Mismatch> mismatches = ReplayVerifier.forGameMode(MARATHON, 0).verify(replay);
+        Assert.assertEquals(1, mismatches.size);
+        Assert.assertEquals(ReplayVerifier.MismatchType.gameboard, mismatches.get(0).type);
+        Assert.assertEquals(1, mismatches.get(0).recorded);
+        Assert.assertEquals(1, ReplayVerifier.forGameMode(SprintModel.MODEL_SPRINT_ID, 0).verify(replay).size);
+        Assert.assertEquals(1, ReplayVerifier.forGameMode(RetroMarathonModel.MODEL_MARATHON_RETRO89, 0)
+                .verify(replay).size);
+    }
+
+    /**
+     * two I and an O fill the lowest row of an empty board, the O clears it
+     */
+    private static Replay recordLineClear(int score, int removedLines) {
+        ReplayRecorder recorder = new ReplayRecorder(new Gameboard());
+        recorder.nextPiece(Tetromino.TETRO_IDX_I);
+        recorder.move(true, -3);
+        recorder.drop(0, 0);
+        recorder.nextPiece(Tetromino.TETRO_IDX_I);
+        recorder.move(true, 1);
+        recorder.drop(0, 0);
+        recorder.nextPiece(Tetromino.TETRO_IDX_O);
+        recorder.move(true, 4);
+        recorder.drop(score, removedLines);
+        recorder.nextPiece(Tetromino.TETRO_IDX_T);
+        return recorder.read();
+    }
+
+    private static Gameboard prepareGameboard(int fromX, int toX, int fromY, int toY) {
+        int[][] squares = new int[Gameboard.GAMEBOARD_ALLROWS][Gameboard.GAMEBOARD_COLUMNS];
+        for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+            for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+                squares[y][x] = x >= fromX && x <= toX && y >= fromY && y <= toY ? Gameboard.SQUARE_GARBAGE
+                        : Gameboard.SQUARE_EMPTY;
+        }
+        return Gameboard.initFromArray(squares);
+    }
+
+    private static boolean containsBlock(long piece, int x, int y) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            if (PackedPiece.getX(piece, i) == x && PackedPiece.getY(piece, i) == y)
+                return true;
+        }
+        return false;
+    }
+
+    private static void assertPiecePositionMismatch(Array<ReplayVerifier.Mismatch> mismatches, int blockNum,
+                                                    int timeMs) {
+        Assert.assertEquals(mismatches.toString(), 1, mismatches.size);
+        Assert.assertEquals(ReplayVerifier.MismatchType.piecePosition, mismatches.get(0).type);
+        Assert.assertEquals(blockNum, mismatches.get(0).blockNum);
+        Assert.assertEquals(timeMs, mismatches.get(0).timeMs);
+    }
+
+    /**
+     * records the steps of pieces the way GameModel does, every 100 ms one
+     */
+    private static class ReplayRecorder {
+        final Replay replay = new Replay();
+        final Gameboard gameboard;
+        Tetromino piece;
+        int timeMs;
+
+        ReplayRecorder(Gameboard gameboard) {
+            this.gameboard = gameboard;
+        }
+
+        void nextPiece(int type) {
+            piece = new Tetromino(type, false);
+            replay.addNextPieceStep(timeMs += 100, gameboard, piece);
+        }
+
+        void move(boolean horizontal, int distance) {
+            if (horizontal)
+                piece.getPosition().x += distance;
+            else
+                piece.getPosition().y -= distance;
+            replay.addMovePieceStep(timeMs += 100, horizontal, (byte) distance);
+        }
+
+        /**
+         * the piece falls as far as it can and is pinned, the full rows are cleared
+         */
+        void drop(int score, int removedLines) {
+            piece.getPosition().y -= gameboard.getGhostPieceDistance(piece, 0);
+            Replay.ReplayStep dropStep = replay.addDropStep(timeMs += 100, piece);
+            dropStep.setScore(score);
+            dropStep.setRemovedLines(removedLines);
+
+            gameboard.pinTetromino(piece);
+            IntArray fullRows = new IntArray();
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+                if (gameboard.isRowFull(y))
+                    fullRows.add(y);
+            }
+            gameboard.clearLines(fullRows);
+        }
+
+        Replay read() {
+            Replay readReplay = new Replay();
+            readReplay.fromString(replay.toString());
+            return readReplay;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.golfgl.lightblocks.model;
+
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Both players of a multiplayer match draw from their own drawyer seeded the same, see
+ * AbstractMultiplayerModel.ModelConnector. They must stay in lockstep however far one of them
+ * queued ahead.
+ */
+public class TetrominoDrawyerTest {
+    private static final long SEED = 4711;
+
+    @Test
+    public void testSameSeedDrawsSameSequence() {
+        TetrominoDrawyer firstDrawyer = new TetrominoDrawyer();
+        TetrominoDrawyer secondDrawyer = new TetrominoDrawyer();
+        firstDrawyer.setRandomSeed(SEED);
+        secondDrawyer.setRandomSeed(SEED);
+
+        // the first drawyer queues ten bags ahead, so its ring buffer of 32 grows twice
+        for (int i = 0; i < 10; i++)
+            firstDrawyer.determineNextTetrominos();
+        Assert.assertEquals(70, firstDrawyer.getQueuedNum());
+
+        // the second one draws on demand with its head wrapping around, and both refill along the way
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals("piece " + i, firstDrawyer.drawTetromino(), secondDrawyer.drawTetromino());
+            if (i % 3 == 0)
+                firstDrawyer.determineNextTetrominos();
+        }
+
+        // and every bag holds all seven pieces
+        TetrominoDrawyer drawyer = new TetrominoDrawyer();
+        drawyer.setRandomSeed(SEED);
+        for (int bag = 0; bag < 20; bag++) {
+            int drawn = 0;
+            for (int i = 0; i < Tetromino.TETROMINO_NUMBER; i++)
+                drawn |= 1 << drawyer.drawTetromino();
+            Assert.assertEquals((1 << Tetromino.TETROMINO_NUMBER) - 1, drawn);
+        }
+    }
+
+    @Test
+    public void testOnDrawyerRoundTrip() {
+        TetrominoDrawyer drawyer = new TetrominoDrawyer();
+        drawyer.setRandomSeed(SEED);
+        for (int i = 0; i < 6; i++)
+            drawyer.determineNextTetrominos();
+        // head in the middle of the buffer
+        for (int i = 0; i < 17; i++)
+            drawyer.drawTetromino();
+
+        Json json = new Json();
+        String jsonString = json.toJson(drawyer);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < drawyer.getQueuedNum(); i++)
+            expected.append((char) ('A' + drawyer.peekTetromino(i)));
+        Assert.assertEquals(expected.toString(), new JsonReader().parse(jsonString).getString("onDrawyer"));
+
+        TetrominoDrawyer readDrawyer = new TetrominoDrawyer();
+        readDrawyer.read(json, new JsonReader().parse(jsonString));
+        Assert.assertEquals(drawyer.getDrawyerQueue(), readDrawyer.getDrawyerQueue());
+        Assert.assertEquals(jsonString, json.toJson(readDrawyer));
+
+        while (drawyer.getQueuedNum() > 0)
+            Assert.assertEquals(drawyer.drawTetromino(), readDrawyer.drawTetromino());
+    }
+}
@@ -0,0 +1,192 @@
+package de.golfgl.lightblocks.state;
+
+import com.badlogic.gdx.utils.Base64Coder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ReplayTest {
+    // five pieces in the text format of version 1
+    private static final String TEXT_REPLAY = "1#N0:c1c2c3cc:#R10:b8c2c3cc#H22:1#H20:1#H20:1#G0:-18#D0:0711121b:17" +
+            "#N0:c2c3cbcc:       B         BB        B#R20:b8c2c3cd#H10:-1#R20:b7b8c0c1#H10:-1#R1e3:b5bfc0ca#G0:-1" +
+            "#G40:-1#G41:-1#G40:-1#G40:-1#G41:-1#G41:-1#G40:-1#G40:-1#G41:-1#G41:-1#G40:-1#G40:-1#G40:-1#G40:-1" +
+            "#G40:-1#G40:-1#G40:-1#D40:010b0c16:21:0#N0:c1c2c3cb: E     B   EE    BB   E    B#R10:b8c2cccd#G30:-1" +
+            "#G40:-1#G40:-1#G40:-1#G41:-1#G40:-1#G40:-1#G40:-1#G42:-1#G41:-1#G32:-1#G40:-1#G40:-1#G40:-1#G41:-1" +
+            "#G41:-1#G40:-1#G40:-1#D40:040e1819:39:0#N0:c2c3cccd: E  D  B   EE D  BB   E DD B#H21:1#R10:c3c4cdce" +
+            "#H20:1#G0:-16#D0:24252e2f:5f:0#N0:c1c2c3cc: E  D  B   EE D  BB   E DD B        GG        GG#H20:1" +
+            "#H70:1#H20:1#G0:-14#D0:38393a43:6a#";
+
+    @Test
+    public void testTextReplayIsRead() {
+        Replay replay = new Replay();
+        Assert.assertTrue(replay.fromString(TEXT_REPLAY));
+
+        Replay.ReplayStep lastStep = replay.seekToLastStep();
+        Assert.assertTrue(lastStep.isDropStep());
+        Assert.assertEquals(0x6a, replay.getCurrentScore());
+        Assert.assertEquals(5, replay.getCurrentAdditionalInformation().blockNum);
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        Replay textReplay = new Replay();
+        textReplay.fromString(TEXT_REPLAY);
+
+        String binary = textReplay.toString();
+        Assert.assertTrue(binary.startsWith("2#"));
+        Assert.assertTrue(binary.length() < TEXT_REPLAY.length() / 2);
+
+        Replay binaryReplay = new Replay();
+        Assert.assertTrue(binaryReplay.fromString(binary));
+        assertSameSteps(textReplay, binaryReplay);
+        Assert.assertEquals(binary, binaryReplay.toString());
+    }
+
+    @Test
+    public void testLongReplayIsDeflated() {
+        // every few pieces the gameboard is a keyframe, so the replay must be longer than that
+        StringBuilder text = new StringBuilder(TEXT_REPLAY);
+        for (int i = 0; i < 40; i++)
+            text.append(TEXT_REPLAY.substring(2));
+
+        Replay textReplay = new Replay();
+        Assert.assertTrue(textReplay.fromString(text.toString()));
+
+        String binary = textReplay.toString();
+        Assert.assertTrue(binary.length() < text.length() / 10);
+
+        Replay binaryReplay = new Replay();
+        Assert.assertTrue(binaryReplay.fromString(binary));
+        assertSameSteps(textReplay, binaryReplay);
+    }
+
+    @Test
+    public void testLazilyReadReplaySeeks() {
+        // long enough for several keyframes, so the binary replay is decoded in segments
+        StringBuilder text = new StringBuilder(TEXT_REPLAY);
+        for (int i = 0; i < 40; i++)
+            text.append(TEXT_REPLAY.substring(2));
+
+        Replay textReplay = new Replay();
+        textReplay.fromString(text.toString());
+        Replay binaryReplay = new Replay();
+        binaryReplay.fromString(textReplay.toString());
+
+        int maxTime = textReplay.getLastStep().timeMs;
+        Assert.assertEquals(maxTime, binaryReplay.getLastStep().timeMs);
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            int timeMs = random.nextInt(maxTime);
+            Replay.ReplayStep expectedStep = textReplay.seekToTimePos(timeMs);
+            Replay.ReplayStep actualStep = binaryReplay.seekToTimePos(timeMs);
+            Assert.assertEquals(expectedStep.timeMs, actualStep.timeMs);
+            Assert.assertArrayEquals(expectedStep.getActivePiecePosition(), actualStep.getActivePiecePosition());
+            Assert.assertSame(actualStep, binaryReplay.getCurrentStep());
+            Assert.assertEquals(textReplay.getCurrentScore(), binaryReplay.getCurrentScore());
+            Assert.assertArrayEquals(textReplay.getCurrentGameboard(), binaryReplay.getCurrentGameboard());
+            Assert.assertEquals(textReplay.getCurrentAdditionalInformation().clearedLines,
+                    binaryReplay.getCurrentAdditionalInformation().clearedLines);
+        }
+    }
+
+    @Test
+    public void testReadReplayCanBeChanged() {
+        Replay textReplay = new Replay();
+        textReplay.fromString(TEXT_REPLAY);
+        String binary = textReplay.toString();
+
+        Replay replay = new Replay();
+        replay.fromString(binary);
+        Replay.ReplayStep lastAddedStep = replay.getLastAddedStep();
+        Assert.assertTrue(lastAddedStep.isDropStep());
+        lastAddedStep.setScore(0x70);
+        Assert.assertNotEquals(binary, replay.toString());
+
+        Replay changedReplay = new Replay();
+        changedReplay.fromString(replay.toString());
+        changedReplay.seekToLastStep();
+        Assert.assertEquals(0x70, changedReplay.getCurrentScore());
+    }
+
+    @Test
+    public void testInvalidReplaysAreRejected() {
+        Replay replay = new Replay();
+        for (String invalid : new String[]{null, "", "NV#", "3#abc", "2#", "2#!!!", "2#Ef8=", "2#EQU="}) {
+            Assert.assertFalse(invalid, replay.fromString(invalid));
+            Assert.assertFalse(invalid, replay.isValid());
+        }
+
+        // a deflate bomb: some kilobytes of zeros inflating beyond the limit
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] zeros = new byte[1 << 20];
+        byte[] bomb = new byte[1 << 16];
+        // format byte: deflated
+        bomb[0] = 1;
+        int bombSize = 1;
+        for (int inflatedSize = 0; inflatedSize <= Replay.MAX_INFLATED_SIZE; inflatedSize += zeros.length) {
+            deflater.setInput(zeros);
+            while (!deflater.needsInput())
+                bombSize += deflater.deflate(bomb, bombSize, bomb.length - bombSize);
+        }
+        deflater.finish();
+        while (!deflater.finished())
+            bombSize += deflater.deflate(bomb, bombSize, bomb.length - bombSize);
+        String bombReplay = "2#" + new String(Base64Coder.encode(Arrays.copyOf(bomb, bombSize)));
+        Assert.assertFalse(replay.fromString(bombReplay));
+        Assert.assertFalse(replay.isValid());
+    }
+
+    @Test
+    public void testDeflateMatchesJavaUtilZip() throws Exception {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            byte[] data = new byte[random.nextInt(20000)];
+            for (int i = 0; i < data.length; i++)
+                // repetitions for the matches, few distinct bytes for the Huffman codes
+                data[i] = i > 100 && random.nextInt(3) == 0 ? data[i - 1 - random.nextInt(100)]
+                        : (byte) random.nextInt(1 + round * 5);
+
+            ReplayBuffer deflated = ReplayDeflate.deflate(data, data.length);
+            Inflater inflater = new Inflater(true);
+            // the inflater needs one byte more to finish
+            inflater.setInput(Arrays.copyOf(deflated.getBytes(), deflated.getSize() + 1));
+            byte[] inflated = new byte[data.length];
+            Assert.assertEquals(data.length, inflater.inflate(inflated));
+            Assert.assertTrue(inflater.finished());
+            Assert.assertArrayEquals(data, inflated);
+
+            Deflater deflater = new Deflater(round % 10, true);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] javaDeflated = new byte[data.length * 2 + 100];
+            int javaDeflatedLength = deflater.deflate(javaDeflated);
+            ReplayBuffer reinflated = ReplayDeflate.inflate(javaDeflated, 0, javaDeflatedLength, data.length);
+            Assert.assertArrayEquals(data, Arrays.copyOf(reinflated.getBytes(), reinflated.getSize()));
+        }
+    }
+
+    private static void assertSameSteps(Replay expected, Replay actual) {
+        Replay.ReplayStep expectedStep = expected.seekToFirstStep();
+        Replay.ReplayStep actualStep = actual.seekToFirstStep();
+        while (expectedStep != null) {
+            Assert.assertNotNull(actualStep);
+            Assert.assertEquals(expectedStep.getClass(), actualStep.getClass());
+            Assert.assertEquals(expectedStep.timeMs, actualStep.timeMs);
+            Assert.assertEquals(expectedStep.getMoveX(), actualStep.getMoveX());
+            Assert.assertEquals(expectedStep.getMoveY(), actualStep.getMoveY());
+            Assert.assertArrayEquals(expectedStep.getActivePiecePosition(), actualStep.getActivePiecePosition());
+            Assert.assertEquals(expectedStep.getRemovedLines(), actualStep.getRemovedLines());
+            Assert.assertEquals(expected.getCurrentScore(), actual.getCurrentScore());
+            Assert.assertArrayEquals(expected.getCurrentGameboard(), actual.getCurrentGameboard());
+
+            expectedStep = expected.seekToNextStep();
+            actualStep = actual.seekToNextStep();
+        }
+        Assert.assertNull(actualStep);
+    }
+}
@@ -0,0 +1,287 @@
+package de.golfgl.lightblocks.loadgen;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import de.golfgl.lightblocks.server.BinaryProtocol;
+
+/**
+ * A single simulated player. Does the handshake like the game client, then plays every active piece
+ * the way the server's ArtificialPlayer does: decide on a target rotation and column, rotate and
+ * move there one input at a time, then hard drop.
+ * <p>
+ * Round trip times are measured from sending an input to receiving its echo: MOV for a move, ROT
+ * for a rotation and ANT of the next piece for a hard drop.
+ * <p>
+ * A spectator bot only watches the match the server chose for it and keeps the connection alive.
+ */
+public class BotClient extends WebSocketClient {
+    // the text protocol's in game messages, indexed by input opcode
+    private static final String[] IN_GAME_MESSAGES = {null, "IGMSML", "IGMSMR", "IGMSMH", "IGMHAT",
+            "IGMROR", "IGMROL", "IGMDRN", "IGMDRS", "IGMDRH"};
+    // a piece needs at most 3 rotations, 5 moves of two inputs each and the drop
+    private static final int MAX_STEPS = 16;
+    // the game client sends a keep alive packet after this time without other messages
+    private static final long KEEP_ALIVE_INTERVAL_NS = 1500000000L;
+
+    private final LoadGenerator generator;
+    private final int id;
+    private final boolean binary;
+    private final boolean spectator;
+    private final Random random;
+    private final byte[][] inputFrames = new byte[IN_GAME_MESSAGES.length][];
+
+    private long connectStartNs;
+    private long pinSentNs;
+    private volatile boolean opened;
+    private volatile boolean matched;
+    private volatile boolean closed;
+    // inputs are ignored by the server while the countdown before a game is shown
+    private volatile boolean preparing;
+
+    // planned inputs for the current piece, guarded by this
+    private final byte[] steps = new byte[MAX_STEPS];
+    private int stepNum;
+    private int stepIndex;
+    private long nextStepNs;
+    private long lastSentNs;
+
+    // send times of inputs waiting for their echo, 0 if none
+    private volatile long pendingMoveNs;
+    private volatile long pendingRotateNs;
+    private volatile long pendingDropNs;
+
+    public BotClient(LoadGenerator generator, URI serverUri, int id, boolean binary, boolean spectator) {
+        super(serverUri);
+        this.generator = generator;
+        this.id = id;
+        // spectators are only served with the binary protocol
+        this.binary = binary || spectator;
+        this.spectator = spectator;
+        this.random = new Random(id);
+        for (byte input = 1; input < inputFrames.length; input++)
+            inputFrames[input] = new byte[]{input};
+    }
+
+    public void startConnecting() {
+        connectStartNs = System.nanoTime();
+        connect();
+    }
+
+    public boolean isOpened() {
+        return opened;
+    }
+
+    public boolean isMatched() {
+        return matched;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isSpectator() {
+        return spectator;
+    }
+
+    @Override
+    public void onOpen(ServerHandshake handshake) {
+        opened = true;
+        generator.connectLatency.record(System.nanoTime() - connectStartNs);
+        generator.onBotConnected();
+    }
+
+    @Override
+    public void onMessage(String message) {
+        generator.recordReceived(message.length());
+
+        if (message.startsWith("HSH")) {
+            sendPlayerInfo();
+        } else if (message.startsWith("MCH")) {
+            if (!matched) {
+                matched = true;
+                generator.matchmakingLatency.record(System.nanoTime() - pinSentNs);
+                generator.onBotMatched(this);
+            }
+            if (!spectator)
+                planNextPiece();
+        } else if (message.startsWith("YMSG")) {
+            boolean wasPreparing = preparing;
+            preparing = message.startsWith("YMSGPrepare to play");
+            if (wasPreparing && !preparing)
+                planNextPiece();
+        } else if (message.startsWith("YMOV")) {
+            onEcho(BinaryProtocol.EVT_MOVE);
+        } else if (message.startsWith("YROT")) {
+            onEcho(BinaryProtocol.EVT_ROTATE);
+        } else if (message.startsWith("YANT")) {
+            onEcho(BinaryProtocol.EVT_ACTIVATE_NEXT);
+        }
+    }
+
+    @Override
+    public void onMessage(ByteBuffer frame) {
+        generator.recordReceived(frame.remaining());
+
+        if (!frame.hasRemaining())
+            return;
+
+        if (frame.get(frame.position()) != BinaryProtocol.EVT_BATCH) {
+            onEcho(frame.get());
+            return;
+        }
+
+        frame.get();
+        while (frame.hasRemaining()) {
+            int length = readVarInt(frame);
+            int nextEvent = frame.position() + length;
+            onEcho(frame.get());
+            frame.position(nextEvent);
+        }
+    }
+
+    private static int readVarInt(ByteBuffer frame) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = frame.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private void onEcho(int eventType) {
+        // events concerning the opponent's board don't tell anything about our inputs
+        if (spectator || (eventType & BinaryProtocol.FLAG_OPPONENT) != 0)
+            return;
+
+        long now = System.nanoTime();
+        switch (eventType) {
+            case BinaryProtocol.EVT_MOVE:
+                long moveSent = pendingMoveNs;
+                if (moveSent != 0) {
+                    pendingMoveNs = 0;
+                    generator.moveRtt.record(now - moveSent);
+                }
+                break;
+            case BinaryProtocol.EVT_ROTATE:
+                long rotateSent = pendingRotateNs;
+                if (rotateSent != 0) {
+                    pendingRotateNs = 0;
+                    generator.rotateRtt.record(now - rotateSent);
+                }
+                break;
+            case BinaryProtocol.EVT_ACTIVATE_NEXT:
+                long dropSent = pendingDropNs;
+                if (dropSent != 0) {
+                    pendingDropNs = 0;
+                    generator.dropRtt.record(now - dropSent);
+                }
+                planNextPiece();
+                break;
+        }
+    }
+
+    private void sendPlayerInfo() {
+        StringBuilder playerInfo = new StringBuilder("PIN{\"nickName\":\"bot").append(id)
+                .append("\",\"userId\":\"loadgen-").append(id).append('"');
+        if (binary)
+            playerInfo.append(",\"binaryProtocol\":").append(BinaryProtocol.VERSION);
+        if (spectator)
+            playerInfo.append(",\"spectate\":true");
+        playerInfo.append('}');
+        pinSentNs = System.nanoTime();
+        send(playerInfo.toString());
+    }
+
+    /**
+     * decides where to put the active piece and plans the inputs to get it there
+     */
+    private synchronized void planNextPiece() {
+        stepNum = 0;
+        stepIndex = 0;
+        // echoes still missing belong to the last piece and won't come anymore
+        pendingMoveNs = 0;
+        pendingRotateNs = 0;
+        pendingDropNs = 0;
+
+        int rotations = random.nextInt(4);
+        for (int i = 0; i < rotations; i++)
+            steps[stepNum++] = BinaryProtocol.IN_ROTATE_RIGHT;
+
+        int moves = random.nextInt(11) - 5;
+        byte moveInput = moves < 0 ? BinaryProtocol.IN_START_MOVE_LEFT : BinaryProtocol.IN_START_MOVE_RIGHT;
+        for (int i = 0; i < Math.abs(moves); i++) {
+            steps[stepNum++] = moveInput;
+            steps[stepNum++] = BinaryProtocol.IN_STOP_MOVE;
+        }
+
+        steps[stepNum++] = BinaryProtocol.IN_DROP_HARD;
+        steps[stepNum++] = BinaryProtocol.IN_DROP_NONE;
+
+        // give the player some time to think about the new piece
+        nextStepNs = System.nanoTime() + generator.inputIntervalNs * 2;
+    }
+
+    /**
+     * sends the next planned input if it is due, called by the generator's ticker thread
+     */
+    public synchronized void tick(long now) {
+        if (!matched || closed || !isOpen())
+            return;
+
+        if (spectator || preparing || stepIndex >= stepNum || now < nextStepNs) {
+            if (now - lastSentNs > KEEP_ALIVE_INTERVAL_NS) {
+                send("");
+                lastSentNs = now;
+            }
+            return;
+        }
+
+        byte input = steps[stepIndex++];
+        switch (input) {
+            case BinaryProtocol.IN_START_MOVE_LEFT:
+            case BinaryProtocol.IN_START_MOVE_RIGHT:
+                pendingMoveNs = now;
+                break;
+            case BinaryProtocol.IN_ROTATE_RIGHT:
+                pendingRotateNs = now;
+                break;
+            case BinaryProtocol.IN_DROP_HARD:
+                pendingDropNs = now;
+                break;
+        }
+
+        if (binary)
+            send(inputFrames[input]);
+        else
+            send(IN_GAME_MESSAGES[input]);
+        generator.recordInputSent();
+        lastSentNs = now;
+
+        // releasing a key follows right after pressing it
+        nextStepNs = input == BinaryProtocol.IN_START_MOVE_LEFT || input == BinaryProtocol.IN_START_MOVE_RIGHT
+                || input == BinaryProtocol.IN_DROP_HARD ? now : now + generator.inputIntervalNs;
+    }
+
+    @Override
+    public void onClose(int code, String reason, boolean remote) {
+        closed = true;
+        generator.onBotClosed(this, code, reason, remote);
+    }
+
+    @Override
+    public void onError(Exception ex) {
+        generator.onBotError(this, ex);
+    }
+
+    public int getId() {
+        return id;
+    }
+}
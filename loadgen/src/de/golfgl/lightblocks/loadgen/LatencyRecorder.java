@@ -0,0 +1,64 @@
+package de.golfgl.lightblocks.loadgen;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects latency samples from many threads without locking. Samples beyond the capacity are
+ * only counted. Percentiles are exact, they are computed by sorting the samples when reporting.
+ */
+public class LatencyRecorder {
+    private final String name;
+    private final long[] samples;
+    private final AtomicInteger sampleNum = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private int lastReportedNum;
+
+    public LatencyRecorder(String name, int capacity) {
+        this.name = name;
+        this.samples = new long[capacity];
+    }
+
+    public void record(long nanos) {
+        int index = sampleNum.getAndIncrement();
+        if (index < samples.length)
+            samples[index] = nanos;
+        else
+            dropped.incrementAndGet();
+    }
+
+    public int getCount() {
+        return Math.min(sampleNum.get(), samples.length) + (int) dropped.get();
+    }
+
+    /**
+     * @return a summary line of the samples recorded since the last call, or over all samples
+     */
+    public String report(boolean sinceLastReport) {
+        int to = Math.min(sampleNum.get(), samples.length);
+        int from = sinceLastReport ? Math.min(lastReportedNum, to) : 0;
+        lastReportedNum = to;
+        return format(name, samples, from, to);
+    }
+
+    static String format(String name, long[] samples, int from, int to) {
+        int count = to - from;
+        if (count <= 0)
+            return String.format("%-12s n=0", name);
+
+        long[] sorted = Arrays.copyOfRange(samples, from, to);
+        Arrays.sort(sorted);
+        return String.format("%-12s n=%-8d p50=%8.2fms p99=%8.2fms max=%8.2fms", name, count,
+                toMs(percentile(sorted, .5)), toMs(percentile(sorted, .99)), toMs(sorted[count - 1]));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / 1000000d;
+    }
+}
@@ -0,0 +1,231 @@
+package de.golfgl.lightblocks.loadgen;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator for LightblocksServer. Opens the configured number of connections to a
+ * server on this machine, lets every connection play as a bot and reports connect and matchmaking
+ * latency, input round trip times and the throughput received from the server.
+ * <p>
+ * Additional spectator connections watch the matches chosen by the server, to measure the fan-out
+ * of the match events.
+ * <p>
+ * Options: --url=ws://localhost:8887 --clients=1000 --spectators=0 --seconds=60 --rampUp=10
+ * --binary=1 --inputInterval=150 --reportInterval=5
+ */
+public class LoadGenerator {
+    private static final int SAMPLE_CAPACITY = 1 << 20;
+    private static final long TICK_INTERVAL_MS = 5;
+
+    final LatencyRecorder connectLatency = new LatencyRecorder("connect", SAMPLE_CAPACITY);
+    final LatencyRecorder matchmakingLatency = new LatencyRecorder("matchmaking", SAMPLE_CAPACITY);
+    final LatencyRecorder moveRtt = new LatencyRecorder("rtt MOV", SAMPLE_CAPACITY);
+    final LatencyRecorder rotateRtt = new LatencyRecorder("rtt ROT", SAMPLE_CAPACITY);
+    final LatencyRecorder dropRtt = new LatencyRecorder("rtt ANT", SAMPLE_CAPACITY);
+    final long inputIntervalNs;
+
+    private final URI serverUri;
+    private final int clientNum;
+    private final int spectatorNum;
+    private final int seconds;
+    private final int rampUpSeconds;
+    private final boolean binary;
+    private final int reportIntervalSeconds;
+    private final BotClient[] bots;
+
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger matched = new AtomicInteger();
+    private final AtomicInteger watching = new AtomicInteger();
+    private final AtomicInteger closedByServer = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong inputsSent = new AtomicLong();
+    private volatile boolean stopping;
+
+    public LoadGenerator(URI serverUri, int clientNum, int spectatorNum, int seconds, int rampUpSeconds,
+                         boolean binary, long inputIntervalMs, int reportIntervalSeconds) {
+        this.serverUri = serverUri;
+        this.clientNum = clientNum;
+        this.spectatorNum = spectatorNum;
+        this.seconds = seconds;
+        this.rampUpSeconds = rampUpSeconds;
+        this.binary = binary;
+        this.inputIntervalNs = TimeUnit.MILLISECONDS.toNanos(inputIntervalMs);
+        this.reportIntervalSeconds = reportIntervalSeconds;
+        this.bots = new BotClient[clientNum + spectatorNum];
+    }
+
+    public static void main(String[] args) throws Exception {
+        URI serverUri = new URI(findString(args, "url", "ws://localhost:8887"));
+        if (!isLocalhost(serverUri)) {
+            System.err.println("Refusing to generate load on " + serverUri.getHost() + ", only localhost is allowed.");
+            System.exit(1);
+        }
+
+        LoadGenerator generator = new LoadGenerator(serverUri,
+                findInt(args, "clients", 1000),
+                Math.max(0, findInt(args, "spectators", 0)),
+                findInt(args, "seconds", 60),
+                findInt(args, "rampUp", 10),
+                findInt(args, "binary", 1) != 0,
+                findInt(args, "inputInterval", 150),
+                findInt(args, "reportInterval", 5));
+        generator.run();
+        System.exit(0);
+    }
+
+    private static boolean isLocalhost(URI uri) {
+        try {
+            return uri.getHost() != null && InetAddress.getByName(uri.getHost()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static String findString(String[] args, String name, String defaultVal) {
+        String retVal = defaultVal;
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) {
+                retVal = arg.substring(name.length() + 3);
+            }
+        }
+        return retVal;
+    }
+
+    private static int findInt(String[] args, String name, int defaultVal) {
+        try {
+            return Integer.parseInt(findString(args, name, String.valueOf(defaultVal)));
+        } catch (NumberFormatException e) {
+            return defaultVal;
+        }
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Generating load on " + serverUri + " with " + clientNum + " clients ("
+                + (binary ? "binary" : "text") + " protocol) and " + spectatorNum + " spectators for "
+                + seconds + " seconds");
+
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                for (BotClient bot : bots) {
+                    if (bot != null)
+                        bot.tick(now);
+                }
+            }
+        }, TICK_INTERVAL_MS, TICK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        long startMs = System.currentTimeMillis();
+        long endMs = startMs + seconds * 1000L;
+        long nextReportMs = startMs + reportIntervalSeconds * 1000L;
+        long lastReportMs = startMs;
+        long lastFrames = 0;
+        long lastBytes = 0;
+        long lastInputs = 0;
+        int started = 0;
+
+        while (System.currentTimeMillis() < endMs) {
+            // ramp up: connect the share of clients due by now, the spectators after the players
+            long elapsedMs = System.currentTimeMillis() - startMs;
+            int botNum = bots.length;
+            int due = rampUpSeconds <= 0 ? botNum
+                    : (int) Math.min(botNum, botNum * elapsedMs / (rampUpSeconds * 1000L) + 1);
+            while (started < due) {
+                BotClient bot = new BotClient(this, serverUri, started, binary, started >= clientNum);
+                bots[started] = bot;
+                bot.startConnecting();
+                started++;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now >= nextReportMs) {
+                double intervalSeconds = (now - lastReportMs) / 1000d;
+                long frames = framesReceived.get();
+                long bytes = bytesReceived.get();
+                long inputs = inputsSent.get();
+                System.out.println(String.format("[%4ds] connected %d, matched %d, watching %d, closed %d, errors %d | "
+                                + "rx %.0f frames/s %.1f KiB/s | tx %.0f inputs/s",
+                        (now - startMs) / 1000, connected.get(), matched.get(), watching.get(), closedByServer.get(),
+                        errors.get(),
+                        (frames - lastFrames) / intervalSeconds, (bytes - lastBytes) / intervalSeconds / 1024,
+                        (inputs - lastInputs) / intervalSeconds));
+                System.out.println("  " + moveRtt.report(true));
+                System.out.println("  " + rotateRtt.report(true));
+                System.out.println("  " + dropRtt.report(true));
+                lastFrames = frames;
+                lastBytes = bytes;
+                lastInputs = inputs;
+                lastReportMs = now;
+                nextReportMs = nextReportMs + reportIntervalSeconds * 1000L;
+            }
+
+            Thread.sleep(20);
+        }
+
+        stopping = true;
+        ticker.shutdownNow();
+        double totalSeconds = (System.currentTimeMillis() - startMs) / 1000d;
+        System.out.println();
+        System.out.println("Summary after " + Math.round(totalSeconds) + " seconds");
+        System.out.println(String.format("  clients %d, connected %d, matched %d, watching %d, closed by server %d, errors %d",
+                started, connected.get(), matched.get(), watching.get(), closedByServer.get(), errors.get()));
+        System.out.println(String.format("  received %d frames (%.0f/s), %.1f KiB (%.1f KiB/s), sent %d inputs (%.0f/s)",
+                framesReceived.get(), framesReceived.get() / totalSeconds,
+                bytesReceived.get() / 1024d, bytesReceived.get() / 1024d / totalSeconds,
+                inputsSent.get(), inputsSent.get() / totalSeconds));
+        System.out.println("  " + connectLatency.report(false));
+        System.out.println("  " + matchmakingLatency.report(false));
+        System.out.println("  " + moveRtt.report(false));
+        System.out.println("  " + rotateRtt.report(false));
+        System.out.println("  " + dropRtt.report(false));
+
+        for (BotClient bot : bots) {
+            if (bot != null)
+                bot.close();
+        }
+    }
+
+    void recordReceived(int bytes) {
+        framesReceived.incrementAndGet();
+        bytesReceived.addAndGet(bytes);
+    }
+
+    void recordInputSent() {
+        inputsSent.incrementAndGet();
+    }
+
+    void onBotConnected() {
+        connected.incrementAndGet();
+    }
+
+    void onBotMatched(BotClient bot) {
+        (bot.isSpectator() ? watching : matched).incrementAndGet();
+    }
+
+    void onBotClosed(BotClient bot, int code, String reason, boolean remote) {
+        if (bot.isMatched())
+            (bot.isSpectator() ? watching : matched).decrementAndGet();
+        if (!stopping && remote) {
+            closedByServer.incrementAndGet();
+            System.out.println("Bot " + bot.getId() + " closed by server: " + code + " " + reason);
+        }
+        if (bot.isOpened())
+            connected.decrementAndGet();
+    }
+
+    void onBotError(BotClient bot, Exception ex) {
+        errors.incrementAndGet();
+        if (!stopping)
+            System.out.println("Bot " + bot.getId() + " error: " + ex);
+    }
+}
@@ -0,0 +1,179 @@
+package de.golfgl.lightblocks.replayverifier;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import de.golfgl.lightblocks.model.ReplayVerifier;
+
+/**
+ * Headless verification of submitted scores by their replays, see {@link ReplayVerifier}. The file
+ * has one score per line: game mode, score and replay string, separated by tabs. The score may be
+ * empty, else it must be the one the replay ends with. The replays of a batch are verified in
+ * parallel on all cores, the file is read batch by batch so it may be bigger than the memory.
+ * Reports throughput, the mismatches by type and the first flagged scores with their mismatches.
+ * Replays failing with an exception are counted and listed apart. Exits with 2 if a score was flagged.
+ * <p>
+ * Options: --file=replays.tsv --threads=4 --batch=1000 --level=-1 (marathon beginning level,
+ * negative to derive it) --show=20 (flagged scores to list)
+ */
+public class ReplayVerification {
+    // a replay breaking the rules once mostly breaks them on and on, the first mismatches tell enough
+    private static final int MAX_SHOWN_MISMATCHES = 5;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final int beginningLevel;
+    private final int showFlagged;
+
+    private final int[] mismatchesByType = new int[ReplayVerifier.MismatchType.values().length];
+    private final List<VerifiedReplay> shownFlagged = new ArrayList<>();
+    private final List<VerifiedReplay> shownErrored = new ArrayList<>();
+    private int replayNum;
+    private int verifiedNum;
+    private int flaggedNum;
+    private int unsupportedNum;
+    private int invalidNum;
+    private int erroredNum;
+    private int differentScoreNum;
+    private long drops;
+    private long nanos;
+
+    public ReplayVerification(int threadNum, int batchSize, int beginningLevel, int showFlagged) {
+        this.pool = new ForkJoinPool(threadNum);
+        this.batchSize = batchSize;
+        this.beginningLevel = beginningLevel;
+        this.showFlagged = showFlagged;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String fileName = findString(args, "file", null);
+        if (fileName == null) {
+            System.err.println("--file needs the file of scores to verify");
+            System.exit(1);
+        }
+
+        int threadNum = findInt(args, "threads", Runtime.getRuntime().availableProcessors());
+        ReplayVerification verification = new ReplayVerification(threadNum,
+                Math.max(1, findInt(args, "batch", 1000)),
+                findInt(args, "level", -1),
+                Math.max(0, findInt(args, "show", 20)));
+        System.out.println("Verifying " + fileName + " in batches of " + verification.batchSize + " on "
+                + threadNum + " threads");
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName),
+                "UTF-8"))) {
+            verification.verify(reader);
+        }
+        verification.report(System.out);
+        verification.pool.shutdown();
+        System.exit(verification.flaggedNum > 0 ? 2 : 0);
+    }
+
+    private static String findString(String[] args, String name, String defaultVal) {
+        String retVal = defaultVal;
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) {
+                retVal = arg.substring(name.length() + 3);
+            }
+        }
+        return retVal;
+    }
+
+    private static int findInt(String[] args, String name, int defaultVal) {
+        try {
+            return Integer.parseInt(findString(args, name, String.valueOf(defaultVal)));
+        } catch (NumberFormatException e) {
+            return defaultVal;
+        }
+    }
+
+    /**
+     * verifies all scores read, batch by batch
+     */
+    public void verify(BufferedReader reader) throws IOException, InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        List<VerifiedReplay> batch = new ArrayList<>(batchSize);
+        int lineNum = 0;
+        String line;
+        do {
+            line = reader.readLine();
+            if (line != null) {
+                lineNum++;
+                if (!line.trim().isEmpty())
+                    batch.add(new VerifiedReplay(lineNum, line, beginningLevel));
+            }
+
+            if (batch.size() == batchSize || line == null && !batch.isEmpty()) {
+                for (Future<VerifiedReplay> replay : pool.invokeAll(batch))
+                    add(replay.get());
+                batch.clear();
+            }
+        } while (line != null);
+        nanos = System.nanoTime() - start;
+    }
+
+    private void add(VerifiedReplay replay) {
+        replayNum++;
+        if (replay.error != null) {
+            erroredNum++;
+            if (shownErrored.size() < showFlagged)
+                shownErrored.add(replay);
+            return;
+        }
+        if (!replay.valid) {
+            invalidNum++;
+            return;
+        }
+        if (!replay.supported) {
+            unsupportedNum++;
+            return;
+        }
+
+        verifiedNum++;
+        drops = drops + replay.drops;
+        for (ReplayVerifier.Mismatch mismatch : replay.mismatches)
+            mismatchesByType[mismatch.type.ordinal()]++;
+        if (replay.isSubmittedScoreDifferent())
+            differentScoreNum++;
+
+        if (replay.isFlagged()) {
+            flaggedNum++;
+            if (shownFlagged.size() < showFlagged)
+                shownFlagged.add(replay);
+        }
+    }
+
+    public void report(PrintStream out) {
+        double seconds = nanos / 1000000000d;
+        out.println(String.format("%d replays in %.1f s: %.1f replays/s, %.0f drops/s",
+                replayNum, seconds, replayNum / seconds, drops / seconds));
+        out.println(String.format("verified %d, flagged %d, unsupported mode %d, invalid %d, errored %d",
+                verifiedNum, flaggedNum, unsupportedNum, invalidNum, erroredNum));
+
+        StringBuilder mismatches = new StringBuilder("mismatches:");
+        for (ReplayVerifier.MismatchType type : ReplayVerifier.MismatchType.values())
+            mismatches.append(' ').append(type).append(' ').append(mismatchesByType[type.ordinal()]);
+        out.println(mismatches.append(", submitted score ").append(differentScoreNum));
+
+        for (VerifiedReplay replay : shownFlagged) {
+            out.println(String.format("line %d (%s)%s", replay.lineNum, replay.gameMode,
+                    replay.isSubmittedScoreDifferent() ? String.format(": submitted score %d, replay ends with %d",
+                            replay.submittedScore, replay.replayScore) : ""));
+            for (int i = 0; i < Math.min(replay.mismatches.size, MAX_SHOWN_MISMATCHES); i++)
+                out.println("  " + replay.mismatches.get(i));
+            if (replay.mismatches.size > MAX_SHOWN_MISMATCHES)
+                out.println("  and " + (replay.mismatches.size - MAX_SHOWN_MISMATCHES) + " more");
+        }
+
+        for (VerifiedReplay replay : shownErrored)
+            out.println(String.format("line %d (%s): %s", replay.lineNum, replay.gameMode, replay.error));
+    }
+}
@@ -0,0 +1,91 @@
+package de.golfgl.lightblocks.replayverifier;
+
+import com.badlogic.gdx.utils.Array;
+
+import java.util.concurrent.Callable;
+
+import de.golfgl.lightblocks.model.ReplayVerifier;
+import de.golfgl.lightblocks.state.Replay;
+
+/**
+ * A single submitted score to verify: game mode, score and replay as sent to the backend, in one
+ * tab separated line. The results are read after {@link #call()} returned. A replay failing the
+ * verification with an exception is marked by {@link #error}, it does not abort the others.
+ */
+public class VerifiedReplay implements Callable<VerifiedReplay> {
+    private static final int NO_SCORE = -1;
+
+    final int lineNum;
+    private final int beginningLevel;
+    private String line;
+
+    String gameMode;
+    // the replay could be read, and its mode is supported
+    boolean valid;
+    boolean supported;
+    int drops;
+    int submittedScore = NO_SCORE;
+    int replayScore;
+    Array<ReplayVerifier.Mismatch> mismatches;
+    Throwable error;
+
+    /**
+     * @param beginningLevel beginning level of marathon games, negative to derive it from the replays
+     */
+    public VerifiedReplay(int lineNum, String line, int beginningLevel) {
+        this.lineNum = lineNum;
+        this.line = line;
+        this.beginningLevel = beginningLevel;
+    }
+
+    @Override
+    public VerifiedReplay call() {
+        String[] columns = line.split("\t", 3);
+        // the replay strings are big, don't keep them until the batch is reported
+        line = null;
+        if (columns.length < 3)
+            return this;
+
+        try {
+            verify(columns);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            // the memory of this replay is free again, the others can go on
+            error = e;
+            mismatches = null;
+        }
+        return this;
+    }
+
+    private void verify(String[] columns) {
+        gameMode = columns[0];
+        try {
+            if (!columns[1].isEmpty())
+                submittedScore = Integer.parseInt(columns[1]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        Replay replay = new Replay();
+        valid = replay.fromString(columns[2]);
+        ReplayVerifier verifier = ReplayVerifier.forGameMode(gameMode, beginningLevel);
+        supported = verifier != null;
+        if (!valid || !supported)
+            return;
+
+        // the verifier is used for this replay only, so the mismatches need not be copied
+        mismatches = verifier.verify(replay);
+        drops = verifier.getVerifiedDrops();
+        replayScore = verifier.getScore();
+    }
+
+    /**
+     * @return true if the replay breaks the rules, or if it does not end with the score submitted
+     */
+    public boolean isFlagged() {
+        return error == null && valid && supported && (mismatches.size > 0 || isSubmittedScoreDifferent());
+    }
+
+    public boolean isSubmittedScoreDifferent() {
+        return submittedScore != NO_SCORE && submittedScore != replayScore;
+    }
+}
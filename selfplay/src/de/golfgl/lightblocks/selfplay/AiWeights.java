@@ -0,0 +1,61 @@
+package de.golfgl.lightblocks.selfplay;
+
+import java.util.Random;
+
+import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer;
+
+/**
+ * The weights an {@link ArtificialPlayer} rates the board's dimensions with
+ */
+public class AiWeights {
+    public static final AiWeights DEFAULT = new AiWeights(ArtificialPlayer.DEFAULT_HEIGHT_FACTOR,
+            ArtificialPlayer.DEFAULT_COMPLETE_LINES_FACTOR, ArtificialPlayer.DEFAULT_HOLES_FACTOR,
+            ArtificialPlayer.DEFAULT_BUMPINESS_FACTOR);
+
+    public final float heightFactor;
+    public final float completeLinesFactor;
+    public final float holesFactor;
+    public final float bumpinessFactor;
+
+    public AiWeights(float heightFactor, float completeLinesFactor, float holesFactor, float bumpinessFactor) {
+        this.heightFactor = heightFactor;
+        this.completeLinesFactor = completeLinesFactor;
+        this.holesFactor = holesFactor;
+        this.bumpinessFactor = bumpinessFactor;
+    }
+
+    /**
+     * @param weights four comma separated numbers, in the order of the constructor
+     * @return the weights, or null if not parseable
+     */
+    public static AiWeights parse(String weights) {
+        String[] parts = weights.split(",");
+        if (parts.length != 4)
+            return null;
+
+        try {
+            return new AiWeights(Float.parseFloat(parts[0].trim()), Float.parseFloat(parts[1].trim()),
+                    Float.parseFloat(parts[2].trim()), Float.parseFloat(parts[3].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param step standard deviation of the factor each weight is multiplied with, on a log scale
+     * @return weights near these ones
+     */
+    public AiWeights mutate(Random random, float step) {
+        return new AiWeights(mutate(heightFactor, random, step), mutate(completeLinesFactor, random, step),
+                mutate(holesFactor, random, step), mutate(bumpinessFactor, random, step));
+    }
+
+    private static float mutate(float weight, Random random, float step) {
+        return (float) (weight * Math.exp(random.nextGaussian() * step));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.3f,%.3f,%.3f,%.3f", heightFactor, completeLinesFactor, holesFactor, bumpinessFactor);
+    }
+}
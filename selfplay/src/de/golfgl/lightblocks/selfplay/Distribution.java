@@ -0,0 +1,49 @@
+package de.golfgl.lightblocks.selfplay;
+
+import java.util.Arrays;
+
+/**
+ * Values of one kind over all games of a batch, like the lines cleared per game. Only used by the
+ * thread collecting the results. Percentiles are exact, they are computed by sorting the values
+ * when reporting.
+ */
+public class Distribution {
+    private final String name;
+    private int[] values = new int[1024];
+    private int valueNum;
+    private long sum;
+
+    public Distribution(String name) {
+        this.name = name;
+    }
+
+    public void record(int value) {
+        if (valueNum == values.length)
+            values = Arrays.copyOf(values, values.length * 2);
+        values[valueNum++] = value;
+        sum = sum + value;
+    }
+
+    public double getMean() {
+        return valueNum > 0 ? (double) sum / valueNum : 0;
+    }
+
+    /**
+     * @return a summary line of the values
+     */
+    public String report() {
+        if (valueNum == 0)
+            return String.format("%-16s n=0", name);
+
+        int[] sorted = Arrays.copyOf(values, valueNum);
+        Arrays.sort(sorted);
+        return String.format("%-16s n=%-7d mean=%8.1f min=%6d p10=%6d p50=%6d p90=%6d p99=%6d max=%6d",
+                name, valueNum, getMean(), sorted[0], percentile(sorted, .1), percentile(sorted, .5),
+                percentile(sorted, .9), percentile(sorted, .99), sorted[valueNum - 1]);
+    }
+
+    private static int percentile(int[] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+}
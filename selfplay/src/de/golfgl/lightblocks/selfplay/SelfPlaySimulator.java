@@ -0,0 +1,216 @@
+package de.golfgl.lightblocks.selfplay;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Headless self-play of artificial players against each other, without UI and without real-time
+ * pacing. The games of a batch are played in parallel on all cores, every game with its own seed.
+ * Reports throughput and the distributions of game length, lines and garbage.
+ * <p>
+ * With a search, the weights of the first player are tuned by a hill climb against the default
+ * AI: every iteration plays a batch with slightly changed weights and keeps them if they come
+ * closer to the target win rate. All batches are played with the same seeds, so the weights are
+ * compared on the same games.
+ * <p>
+ * Options: --games=1000 --threads=4 --seed=1 --mode=1 --level=0 --depth=2 --maxMinutes=30
+ * --weights=5.1,7.6,3.66,1.8 --search=0 --step=20 --targetWinRate=100 (step and target in percent)
+ */
+public class SelfPlaySimulator {
+    private final ForkJoinPool pool;
+    private final int gameNum;
+    private final long seed;
+    private final int modeType;
+    private final int beginningLevel;
+    private final int aiDepth;
+    private final int maxTicks;
+
+    public SelfPlaySimulator(int threadNum, int gameNum, long seed, int modeType, int beginningLevel,
+                             int aiDepth, int maxMinutes) {
+        this.pool = new ForkJoinPool(threadNum);
+        this.gameNum = gameNum;
+        this.seed = seed;
+        this.modeType = modeType;
+        this.beginningLevel = beginningLevel;
+        this.aiDepth = aiDepth;
+        this.maxTicks = (int) (maxMinutes * 60 / SimulatedGame.TICK_DELTA);
+    }
+
+    public static void main(String[] args) throws Exception {
+        AiWeights weights = AiWeights.parse(findString(args, "weights", AiWeights.DEFAULT.toString()));
+        if (weights == null) {
+            System.err.println("--weights needs four comma separated numbers");
+            System.exit(1);
+        }
+
+        initHeadlessApplication();
+        int threadNum = findInt(args, "threads", Runtime.getRuntime().availableProcessors());
+        SelfPlaySimulator simulator = new SelfPlaySimulator(threadNum,
+                Math.max(1, findInt(args, "games", 1000)),
+                findInt(args, "seed", 1),
+                findInt(args, "mode", 1),
+                findInt(args, "level", 0),
+                findInt(args, "depth", 2),
+                Math.max(1, findInt(args, "maxMinutes", 30)));
+        System.out.println("Playing " + simulator.gameNum + " games per batch on " + threadNum + " threads");
+
+        int searchIterations = findInt(args, "search", 0);
+        if (searchIterations <= 0) {
+            simulator.play(weights, AiWeights.DEFAULT).report(System.out);
+        } else {
+            simulator.search(weights, searchIterations, findInt(args, "step", 20) / 100f,
+                    findInt(args, "targetWinRate", 100) / 100f);
+        }
+        simulator.pool.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * the model logs via Gdx.app, so there must be an application
+     */
+    private static void initHeadlessApplication() {
+        HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+        // the application is only needed for logging, never render
+        config.updatesPerSecond = -1;
+        new HeadlessApplication(new ApplicationAdapter() {
+        }, config);
+        Gdx.app.setLogLevel(Application.LOG_ERROR);
+    }
+
+    private static String findString(String[] args, String name, String defaultVal) {
+        String retVal = defaultVal;
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) {
+                retVal = arg.substring(name.length() + 3);
+            }
+        }
+        return retVal;
+    }
+
+    private static int findInt(String[] args, String name, int defaultVal) {
+        try {
+            return Integer.parseInt(findString(args, name, String.valueOf(defaultVal)));
+        } catch (NumberFormatException e) {
+            return defaultVal;
+        }
+    }
+
+    /**
+     * plays a batch of games, the first player with the given weights
+     */
+    public Batch play(AiWeights firstWeights, AiWeights secondWeights) throws InterruptedException, ExecutionException {
+        // seeds of the games are derived from the base seed, 0 would mean random pieces
+        Random seeds = new Random(seed);
+        List<SimulatedGame> games = new ArrayList<>(gameNum);
+        for (int i = 0; i < gameNum; i++) {
+            long gameSeed = seeds.nextLong();
+            games.add(new SimulatedGame(gameSeed != 0 ? gameSeed : 1, modeType, beginningLevel, aiDepth,
+                    firstWeights, secondWeights, maxTicks));
+        }
+
+        Batch batch = new Batch(firstWeights);
+        long start = System.nanoTime();
+        for (Future<SimulatedGame> game : pool.invokeAll(games))
+            batch.add(game.get());
+        batch.nanos = System.nanoTime() - start;
+        return batch;
+    }
+
+    /**
+     * hill climb of the first player's weights towards the target win rate against the default AI
+     */
+    public AiWeights search(AiWeights weights, int iterations, float step, float targetWinRate)
+            throws InterruptedException, ExecutionException {
+        Random random = new Random(seed);
+        Batch best = play(weights, AiWeights.DEFAULT);
+        System.out.println(String.format("start     %s win rate %5.1f%%", weights, best.getWinRate() * 100));
+
+        for (int i = 1; i <= iterations; i++) {
+            AiWeights candidate = best.weights.mutate(random, step);
+            Batch batch = play(candidate, AiWeights.DEFAULT);
+            boolean better = Math.abs(batch.getWinRate() - targetWinRate) < Math.abs(best.getWinRate() - targetWinRate);
+            System.out.println(String.format("%4d/%-4d %s win rate %5.1f%%%s", i, iterations, candidate,
+                    batch.getWinRate() * 100, better ? " *" : ""));
+            if (better)
+                best = batch;
+        }
+
+        System.out.println();
+        System.out.println("Best weights: --weights=" + best.weights);
+        best.report(System.out);
+        return best.weights;
+    }
+
+    /**
+     * Results of the games of a batch
+     */
+    public static class Batch {
+        final AiWeights weights;
+        final Distribution gameSeconds = new Distribution("game seconds");
+        final Distribution firstPieces = new Distribution("pieces P1");
+        final Distribution secondPieces = new Distribution("pieces P2");
+        final Distribution firstLines = new Distribution("lines P1");
+        final Distribution secondLines = new Distribution("lines P2");
+        final Distribution firstGarbage = new Distribution("garbage P1");
+        final Distribution secondGarbage = new Distribution("garbage P2");
+        int gameNum;
+        int firstWins;
+        int secondWins;
+        long ticks;
+        long nanos;
+
+        Batch(AiWeights weights) {
+            this.weights = weights;
+        }
+
+        void add(SimulatedGame game) {
+            gameNum++;
+            if (game.winner == 1)
+                firstWins++;
+            else if (game.winner == 2)
+                secondWins++;
+            ticks = ticks + game.ticks;
+            gameSeconds.record(Math.round(game.ticks * SimulatedGame.TICK_DELTA));
+            firstPieces.record(game.pieces[0]);
+            secondPieces.record(game.pieces[1]);
+            firstLines.record(game.lines[0]);
+            secondLines.record(game.lines[1]);
+            firstGarbage.record(game.garbage[0]);
+            secondGarbage.record(game.garbage[1]);
+        }
+
+        /**
+         * @return share of the games won by the first player, undecided games count half
+         */
+        public float getWinRate() {
+            return gameNum > 0 ? (firstWins + (gameNum - firstWins - secondWins) / 2f) / gameNum : 0;
+        }
+
+        public void report(PrintStream out) {
+            double seconds = nanos / 1000000000d;
+            out.println(String.format("%d games in %.1f s: %.1f games/s, %.0f ticks/s, %.0f pieces/s",
+                    gameNum, seconds, gameNum / seconds, ticks / seconds,
+                    (firstPieces.getMean() + secondPieces.getMean()) * gameNum / seconds));
+            out.println(String.format("P1 (%s) won %d, P2 won %d, undecided %d", weights, firstWins, secondWins,
+                    gameNum - firstWins - secondWins));
+            out.println("  " + gameSeconds.report());
+            out.println("  " + firstPieces.report());
+            out.println("  " + secondPieces.report());
+            out.println("  " + firstLines.report());
+            out.println("  " + secondLines.report());
+            out.println("  " + firstGarbage.report());
+            out.println("  " + secondGarbage.report());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package de.golfgl.lightblocks.selfplay;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.concurrent.Callable;
+
+import de.golfgl.lightblocks.model.GameScore;
+import de.golfgl.lightblocks.model.IGameModelListener;
+import de.golfgl.lightblocks.model.ServerMultiplayerModel;
+import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer;
+import de.golfgl.lightblocks.state.InitGameParameters;
+
+/**
+ * A single game between two artificial players, ticked with a fixed step as fast as possible.
+ * Pieces, garbage gaps and the decisions of the players are seeded, so the same seed gives the
+ * same game. The results are read after {@link #call()} returned.
+ */
+public class SimulatedGame implements Callable<SimulatedGame> {
+    public static final float TICK_DELTA = 1 / 60f;
+
+    private final long seed;
+    private final int modeType;
+    private final int beginningLevel;
+    private final int aiDepth;
+    private final AiWeights firstWeights;
+    private final AiWeights secondWeights;
+    private final int maxTicks;
+
+    int ticks;
+    // 1 or 2, 0 if nobody won within the maximum game length
+    int winner;
+    final int[] pieces = new int[2];
+    final int[] lines = new int[2];
+    final int[] garbage = new int[2];
+
+    public SimulatedGame(long seed, int modeType, int beginningLevel, int aiDepth,
+                         AiWeights firstWeights, AiWeights secondWeights, int maxTicks) {
+        this.seed = seed;
+        this.modeType = modeType;
+        this.beginningLevel = beginningLevel;
+        this.aiDepth = aiDepth;
+        this.firstWeights = firstWeights;
+        this.secondWeights = secondWeights;
+        this.maxTicks = maxTicks;
+    }
+
+    @Override
+    public SimulatedGame call() {
+        InitGameParameters gameParams = new InitGameParameters();
+        gameParams.setModeType(modeType);
+        gameParams.setBeginningLevel(beginningLevel);
+        gameParams.setRandomSeed(seed);
+
+        ServerMultiplayerModel gameModel = new ServerMultiplayerModel();
+        gameModel.startNewGame(gameParams);
+        ServerMultiplayerModel secondGameModel = gameModel.getSecondGameModel();
+        gameModel.setAiPlayer(createAiPlayer(gameModel, secondGameModel, firstWeights, seed));
+        secondGameModel.setAiPlayer(createAiPlayer(secondGameModel, gameModel, secondWeights, ~seed));
+
+        GarbageCounter firstListener = new GarbageCounter();
+        GarbageCounter secondListener = new GarbageCounter();
+        gameModel.setUserInterface(firstListener);
+        secondGameModel.setUserInterface(secondListener);
+
+        while (!gameModel.isGameOver() && ticks < maxTicks) {
+            gameModel.update(TICK_DELTA);
+            ticks++;
+        }
+
+        if (gameModel.isGameOver())
+            winner = gameModel.isGameWon() ? 1 : 2;
+        pieces[0] = gameModel.getScore().getDrawnTetrominos();
+        pieces[1] = secondGameModel.getScore().getDrawnTetrominos();
+        lines[0] = gameModel.getScore().getClearedLines();
+        lines[1] = secondGameModel.getScore().getClearedLines();
+        garbage[0] = firstListener.garbageLines;
+        garbage[1] = secondListener.garbageLines;
+        return this;
+    }
+
+    private ArtificialPlayer createAiPlayer(ServerMultiplayerModel model, ServerMultiplayerModel opponent,
+                                            AiWeights weights, long seed) {
+        ArtificialPlayer aiPlayer = new ArtificialPlayer(model, opponent, weights.heightFactor,
+                weights.completeLinesFactor, weights.holesFactor, weights.bumpinessFactor);
+        aiPlayer.setRandomSeed(seed);
+        // the games are played in parallel already, so the lookahead searches on the game's thread
+        aiPlayer.setLookahead(aiDepth, 8, 0);
+        return aiPlayer;
+    }
+
+    /**
+     * Stands in for the match's listener and counts the garbage lines inserted
+     */
+    private static class GarbageCounter implements IGameModelListener {
+        int garbageLines;
+
+        @Override
+        public void insertNewBlock(int x, int y, int blockType) {
+        }
+
+        @Override
+        public void moveTetro(long piece, int dx, int dy, int ghostPieceDistance) {
+        }
+
+        @Override
+        public void rotateTetro(long oldPiece, long newPiece, int ghostPieceDistance) {
+        }
+
+        @Override
+        public void clearAndInsertLines(IntArray linesToRemove, boolean special, int[] garbageHolePosition) {
+            if (garbageHolePosition != null)
+                garbageLines = garbageLines + garbageHolePosition.length;
+        }
+
+        @Override
+        public void markAndMoveFreezedLines(boolean playSoundAndMove, IntArray removedLines, IntArray fullLines) {
+        }
+
+        @Override
+        public void setGameOver() {
+        }
+
+        @Override
+        public void showNextTetro(long relativePiece, int blockType) {
+        }
+
+        @Override
+        public void activateNextTetro(long piece, int blockType, int ghostPieceDistance) {
+        }
+
+        @Override
+        public void swapHoldAndActivePiece(long newHoldPiece, long oldActivePiece, long newActivePiece,
+                                           int ghostPieceDistance, int holdBlockType) {
+        }
+
+        @Override
+        public void pinTetromino(long piece) {
+        }
+
+        @Override
+        public void updateScore(GameScore score, int gainedScore) {
+        }
+
+        @Override
+        public void markConflict(int x, int y) {
+        }
+
+        @Override
+        public void showMotivation(MotivationTypes achievement, String extra) {
+        }
+
+        @Override
+        public void showGarbageAmount(int lines) {
+        }
+
+        @Override
+        public void showComboHeight(int comboHeight) {
+        }
+
+        @Override
+        public void emphasizeTimeLabel() {
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package de.golfgl.lightblocks.model;
 
-import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.RandomXS128;
 
 import de.golfgl.lightblocks.state.InitGameParameters;
 
@@ -46,18 +46,13 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
     protected void initDrawyer() {
         if (isFirstPlayer()) {
             super.initDrawyer();
-            modelConnector = new ModelConnector(modeType, drawyer);
+            modelConnector = new ModelConnector(modeType, randomSeed, drawyer);
         } else {
+            randomSeed = modelConnector.seed;
             drawyer = modelConnector.secondDrawer;
         }
     }
 
-    @Override
-    protected void activeTetrominoDropped() {
-        super.activeTetrominoDropped();
-        modelConnector.syncDrawers();
-    }
-
     protected boolean isFirstPlayer() {
         return secondGameModel != null;
     }
@@ -72,6 +67,10 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
         return secondGameModel;
     }
 
+    public boolean isGameWon() {
+        return modelConnector.isGameWon(isFirstPlayer());
+    }
+
     @Override
     public boolean isModernRotation() {
         return modeType == InitGameParameters.TYPE_MODERN;
@@ -131,6 +130,20 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
         super.setGameOverBoardFull();
     }
 
+    /**
+     * @return the squares of the gameboard (y/x), must not be modified
+     */
+    public int[][] getGameboardSquares() {
+        return getGameboard().getGameboardSquares();
+    }
+
+    /**
+     * @return state hash of the gameboard, see {@link Gameboard#getStateHash()}
+     */
+    public int getGameboardHash() {
+        return getGameboard().getStateHash();
+    }
+
     public String getSerializedGameboard() {
         int[][] gameboardSquares = getGameboard().getGameboardSquares();
         char[] gameboardChars = new char[Gameboard.GAMEBOARD_ALLROWS * Gameboard.GAMEBOARD_COLUMNS];
@@ -155,8 +168,11 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
      * sent lines and end of game
      */
     private static class ModelConnector {
+        // garbage gaps are drawn independently from the pieces of the same seed
+        private static final long GARBAGE_SEED = 0x6761726261676565L;
+
         private final int modeType;
-        private final TetrominoDrawyer firstDrawer;
+        private final long seed;
         private final TetrominoDrawyer secondDrawer;
         private final int[] garbageGapPos;
         private int secondPlayerWaitingGarbage = 0;
@@ -165,33 +181,19 @@ public abstract class AbstractMultiplayerModel<T extends AbstractMultiplayerMode
         private boolean isGameOver = false;
         private boolean firstPlayerWon = false;
 
-        public ModelConnector(int modeType, TetrominoDrawyer drawer) {
+        public ModelConnector(int modeType, long seed, TetrominoDrawyer drawer) {
             this.modeType = modeType;
-            this.firstDrawer = drawer;
+            this.seed = seed;
+
+            // both players draw the same pieces from the match's seed, so nothing has to be copied between them
+            drawer.setRandomSeed(seed);
             this.secondDrawer = new TetrominoDrawyer();
-            firstDrawer.determineNextTetrominos();
-            secondDrawer.queueNextTetrominos(firstDrawer.getDrawyerQueue().toArray());
+            secondDrawer.setRandomSeed(seed);
 
+            RandomXS128 garbageRandom = new RandomXS128(seed ^ GARBAGE_SEED);
             garbageGapPos = new int[10];
             for (byte i = 0; i < garbageGapPos.length; i++) {
-                garbageGapPos[i] = MathUtils.random(0, Gameboard.GAMEBOARD_COLUMNS - 1);
-            }
-        }
-
-        private void syncDrawers() {
-            if (firstDrawer.drawyer.size < 5 || secondDrawer.drawyer.size < 5) {
-                // time to get the next tetros. We always use the first drawer
-                int offset = firstDrawer.drawyer.size;
-                firstDrawer.determineNextTetrominos();
-                int drawnTetros = firstDrawer.drawyer.size - offset;
-
-                int[] nextTetrominos = new int[drawnTetros];
-
-                for (int i = 0; i < drawnTetros; i++) {
-                    nextTetrominos[i] = firstDrawer.drawyer.get(i + offset);
-                }
-
-                secondDrawer.queueNextTetrominos(nextTetrominos);
+                garbageGapPos[i] = garbageRandom.nextInt(Gameboard.GAMEBOARD_COLUMNS);
             }
         }
 
@@ -1,7 +1,7 @@
 package de.golfgl.lightblocks.model;
 
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.IntArray;
 
 import javax.annotation.Nullable;
@@ -34,10 +34,13 @@ public abstract class GameModel implements AiAcessibleGameModel {
     protected float currentSpeed;
     protected IGameModelListener uiGameboard;
     protected TetrominoDrawyer drawyer;
+    // 0 for drawing randomly
+    protected long randomSeed;
     private GameScore score;
     private boolean isBestScore = false;
     private Tetromino activeTetromino;
     private Tetromino nextTetromino;
+    private final Tetromino[] previewTetrominos = new Tetromino[Tetromino.TETROMINO_NUMBER];
     private int onHoldTetromino = -1;
     private boolean noDropSinceHoldMove;
     private Gameboard gameboard;
@@ -164,7 +167,7 @@ public abstract class GameModel implements AiAcessibleGameModel {
 
         if (maxDistance > 0) {
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-            uiGameboard.moveTetro(activeTetromino.getCurrentBlockPositions(), 0, -maxDistance,
+            uiGameboard.moveTetro(activeTetromino.getPackedBlockPositions(), 0, -maxDistance,
                     ghostPieceDistance);
             activeTetromino.getPosition().y -= maxDistance;
             activeTetromino.setLastMovementType(0);
@@ -193,7 +196,7 @@ public abstract class GameModel implements AiAcessibleGameModel {
 
         activeTetrominoWillDrop();
         gameboard.pinTetromino(activeTetromino);
-        uiGameboard.pinTetromino(activeTetromino.getCurrentBlockPositions());
+        uiGameboard.pinTetromino(activeTetromino.getPackedBlockPositions());
         noDropSinceHoldMove = false;
 
         // T-Spin? 1. T, 2. letzte Bewegung ist Drehung, 3. drei Felder um Rotationszentrum sind belegt
@@ -285,6 +288,18 @@ public abstract class GameModel implements AiAcessibleGameModel {
         return true;
     }
 
+    @Override
+    public Tetromino getPreviewTetromino(int index) {
+        int type = drawyer.peekTetromino(index);
+        if (type < 0)
+            return null;
+
+        // preview pieces are only looked at, so one instance per type is enough
+        if (previewTetrominos[type] == null)
+            previewTetrominos[type] = new Tetromino(type, isModernRotation());
+        return previewTetrominos[type];
+    }
+
     @Override
     public Tetromino getHoldTetromino() {
         return onHoldTetromino >= 0 ? new Tetromino(onHoldTetromino, isModernRotation()) : null;
@@ -428,7 +443,7 @@ public abstract class GameModel implements AiAcessibleGameModel {
 
         if (maxDistance != 0) {
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, maxDistance);
-            uiGameboard.moveTetro(activeTetromino.getCurrentBlockPositions(), maxDistance, 0,
+            uiGameboard.moveTetro(activeTetromino.getPackedBlockPositions(), maxDistance, 0,
                     ghostPieceDistance);
             activeTetromino.getPosition().x += maxDistance;
             activeTetromino.setLastMovementType(0);
@@ -439,9 +454,12 @@ public abstract class GameModel implements AiAcessibleGameModel {
         if (maxDistance != distance) {
             int signum = (distance > 0 ? 1 : -1);
 
-            for (Integer[] coord : activeTetromino.getCurrentBlockPositions()) {
-                if (gameboard.isValidCoordinate(coord[0] + signum, coord[1]) == 1)
-                    uiGameboard.markConflict(coord[0] + signum, coord[1]);
+            long piece = activeTetromino.getPackedBlockPositions();
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                int x = PackedPiece.getX(piece, i) + signum;
+                int y = PackedPiece.getY(piece, i);
+                if (gameboard.isValidCoordinate(x, y) == 1)
+                    uiGameboard.markConflict(x, y);
             }
         }
 
@@ -451,45 +469,37 @@ public abstract class GameModel implements AiAcessibleGameModel {
     protected void rotate(boolean clockwise) {
         int newRotation = activeTetromino.getCurrentRotation() + (clockwise ? 1 : -1);
 
-        boolean foundValidPosition = gameboard.isValidPosition(activeTetromino, activeTetromino.getPosition(),
-                newRotation);
-        Vector2 wallkickPos = null;
+        final int posX = activeTetromino.getPositionX();
+        final int posY = activeTetromino.getPositionY();
+        boolean foundValidPosition = gameboard.isValidPosition(activeTetromino, posX, posY, newRotation);
+        int wallkickX = 0;
+        int wallkickY = 0;
 
         if (!foundValidPosition && isModernRotation() && activeTetromino.getTetrominoType() != Tetromino.TETRO_IDX_O) {
             // Wallkicks testen
-            for (int i = 0; i <= 3 && !foundValidPosition; i++) {
-                wallkickPos = activeTetromino.getWallkickPosition(i, clockwise);
-                foundValidPosition = gameboard.isValidPosition(activeTetromino, wallkickPos, newRotation);
+            for (int i = 0; i < Tetromino.WALLKICK_TEST_COUNT && !foundValidPosition; i++) {
+                wallkickX = activeTetromino.getWallkickOffsetX(i, clockwise);
+                wallkickY = activeTetromino.getWallkickOffsetY(i, clockwise);
+                foundValidPosition = gameboard.isValidPosition(activeTetromino, posX + wallkickX,
+                        posY + wallkickY, newRotation);
             }
         }
 
         if (foundValidPosition) {
 
-            // Die Position und auch die Einzelteile darin muss geclonet werden, um nicht
-            // durch die Rotation verloren zu gehen
-            Integer[][] oldBlockPositionsNewArray = cloneDoubleIntegerArray(activeTetromino.getCurrentBlockPositions());
+            long oldPiece = activeTetromino.getPackedBlockPositions();
 
-            if (wallkickPos != null)
-                activeTetromino.getPosition().set(wallkickPos);
+            activeTetromino.getPosition().add(wallkickX, wallkickY);
             activeTetromino.setRotation(newRotation);
 
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-            uiGameboard.rotateTetro(oldBlockPositionsNewArray, activeTetromino.getCurrentBlockPositions(),
+            uiGameboard.rotateTetro(oldPiece, activeTetromino.getPackedBlockPositions(),
                     ghostPieceDistance);
             lastMovementMs = score.getTimeMs();
             activeTetromino.incLockDelayCount(1);
         }
     }
 
-    private Integer[][] cloneDoubleIntegerArray(Integer[][] arrayToClone) {
-        Integer[][] clonedArray = new Integer[arrayToClone.length][2];
-        for (int i = 0; i < arrayToClone.length; i++) {
-            clonedArray[i][0] = new Integer(arrayToClone[i][0]);
-            clonedArray[i][1] = new Integer(arrayToClone[i][1]);
-        }
-        return clonedArray;
-    }
-
     /**
      * setzt die Freeze-Zeit auf den angegebenen Wert, wenn er höher als der aktuelle ist.
      */
@@ -509,13 +519,13 @@ public abstract class GameModel implements AiAcessibleGameModel {
         if (!isHoldMoveAllowedByModel() || noDropSinceHoldMove || isGameOver)
             return false;
 
-        Integer[][] newHoldPositions = cloneDoubleIntegerArray(activeTetromino.getRelativeBlockPositions());
-        Integer[][] oldActivePositions = cloneDoubleIntegerArray(activeTetromino.getCurrentBlockPositions());
+        long newHoldPiece = activeTetromino.getPackedRelativeBlockPositions();
+        long oldActivePiece = activeTetromino.getPackedBlockPositions();
 
         if (onHoldTetromino < 0) {
             // Der erste durchgeführte Hold
             onHoldTetromino = activeTetromino.getTetrominoType();
-            uiGameboard.swapHoldAndActivePiece(newHoldPositions, oldActivePositions, null, 0,
+            uiGameboard.swapHoldAndActivePiece(newHoldPiece, oldActivePiece, PackedPiece.NONE, 0,
                     onHoldTetromino);
 
             activateNextTetromino();
@@ -526,8 +536,8 @@ public abstract class GameModel implements AiAcessibleGameModel {
             onHoldTetromino = tmp.getTetrominoType();
             checkActiveTetroPosBeforeUiInformed();
             int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-            uiGameboard.swapHoldAndActivePiece(newHoldPositions, oldActivePositions,
-                    activeTetromino.getCurrentBlockPositions(), ghostPieceDistance, onHoldTetromino);
+            uiGameboard.swapHoldAndActivePiece(newHoldPiece, oldActivePiece,
+                    activeTetromino.getPackedBlockPositions(), ghostPieceDistance, onHoldTetromino);
 
             resetMovementsAndCheckActiveTetroPos();
 
@@ -609,9 +619,9 @@ public abstract class GameModel implements AiAcessibleGameModel {
      */
     protected void fireUserInterfaceTetrominoSwap() {
         int ghostPieceDistance = gameboard.getGhostPieceDistance(activeTetromino, 0);
-        uiGameboard.activateNextTetro(activeTetromino.getCurrentBlockPositions(), activeTetromino.getTetrominoType(),
+        uiGameboard.activateNextTetro(activeTetromino.getPackedBlockPositions(), activeTetromino.getTetrominoType(),
                 ghostPieceDistance);
-        uiGameboard.showNextTetro(nextTetromino.getRelativeBlockPositions(), nextTetromino.getTetrominoType());
+        uiGameboard.showNextTetro(nextTetromino.getPackedRelativeBlockPositions(), nextTetromino.getTetrominoType());
     }
 
     @Override
@@ -671,6 +681,10 @@ public abstract class GameModel implements AiAcessibleGameModel {
         setCurrentSpeed();
 
         activeTetromino = null;
+        randomSeed = newGameParams.getRandomSeed();
+        // without a given seed the game gets a random one, so it can be played again all the same
+        while (randomSeed == 0)
+            randomSeed = MathUtils.random.nextLong();
         initDrawyer();
 
         initializeActiveAndNextTetromino();
@@ -679,6 +693,7 @@ public abstract class GameModel implements AiAcessibleGameModel {
 
     protected void initDrawyer() {
         drawyer = new TetrominoDrawyer();
+        drawyer.setRandomSeed(randomSeed);
     }
 
     protected void initGameScore(int beginningLevel) {
@@ -716,8 +731,8 @@ public abstract class GameModel implements AiAcessibleGameModel {
         // und auch die aktiven Tetrominos
         fireUserInterfaceTetrominoSwap();
         if (this.onHoldTetromino >= 0)
-            uiGameboard.swapHoldAndActivePiece(new Tetromino(onHoldTetromino, isModernRotation()).getRelativeBlockPositions(),
-                    null, null, 0, onHoldTetromino);
+            uiGameboard.swapHoldAndActivePiece(new Tetromino(onHoldTetromino, isModernRotation()).getPackedRelativeBlockPositions(),
+                    PackedPiece.NONE, PackedPiece.NONE, 0, onHoldTetromino);
 
         // Score
         uiGameboard.updateScore(score, 0);
@@ -792,6 +807,13 @@ public abstract class GameModel implements AiAcessibleGameModel {
         return gameboard;
     }
 
+    /**
+     * @return seed the pieces and garbage gaps of this game are drawn with, never 0
+     */
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
     public boolean beginPaused() {
         return true;
     }
@@ -6,6 +6,8 @@ import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Json;
 import com.badlogic.gdx.utils.JsonValue;
 
+import java.util.Arrays;
+
 /**
  * Created by Benjamin Schulte on 23.01.2017.
  */
@@ -18,20 +20,27 @@ public class Gameboard implements Json.Serializable {
     public static final int GAMEBOARD_COLUMNS = 10;
     public static final int SQUARE_EMPTY = -1;
     public static final int SQUARE_GARBAGE = 9;
+    // occupancy of a full row
+    public static final int ROW_FULL = (1 << GAMEBOARD_COLUMNS) - 1;
 
     // Der Tetromino-Index an dieser Position (y/x)
     private final int[][] gameboardSquare;
-    Vector2 tempPos;
+    // Belegung je Zeile, ein Bit je Spalte (Bit x gesetzt = belegt). Wird immer mit gameboardSquare
+    // synchron gehalten, damit Kollisionen und volle Zeilen ohne Schleife über die Felder geprüft werden
+    private final int[] occupiedRows;
+    // Zwischenspeicher für die beim Garbage einfügen oben herausgeschobenen Zeilen
+    private final int[][] rowBuffer;
 
     Gameboard() {
         gameboardSquare = new int[GAMEBOARD_ALLROWS][GAMEBOARD_COLUMNS];
+        occupiedRows = new int[GAMEBOARD_ALLROWS];
         for (int i = 0; i < GAMEBOARD_ALLROWS; i++) {
             for (int j = 0; j < GAMEBOARD_COLUMNS; j++) {
                 gameboardSquare[i][j] = SQUARE_EMPTY;
             }
         }
 
-        tempPos = new Vector2();
+        rowBuffer = new int[GAMEBOARD_ALLROWS][];
 
     }
 
@@ -49,16 +58,38 @@ public class Gameboard implements Json.Serializable {
             return ((int) block) - 65;
     }
 
+    /**
+     * @return the squares of the board (y/x), must not be modified
+     */
     public int[][] getGameboardSquares() {
         return gameboardSquare;
     }
 
+    /**
+     * @return occupancy of the given row, bit x is set if column x is occupied
+     */
+    public int getRowOccupancy(int row) {
+        return occupiedRows[row];
+    }
+
+    /**
+     * @return hash of the occupied squares, independent of the block types. Server and client compare
+     * it to find out if their gameboards drifted apart.
+     */
+    public int getStateHash() {
+        int hash = 1;
+        for (int row = 0; row < GAMEBOARD_ALLROWS; row++)
+            hash = 31 * hash + occupiedRows[row];
+        return hash;
+    }
+
     public int getGhostPieceDistance(Tetromino activeTetromino, int horizontalMove) {
         int i;
+        final int posX = activeTetromino.getPositionX() + horizontalMove;
+        final int posY = activeTetromino.getPositionY();
+        final int rotation = activeTetromino.getCurrentRotation();
         for (i = 1; i <= GAMEBOARD_ALLROWS; i++) {
-            tempPos.set(activeTetromino.getPosition().x + horizontalMove,
-                    activeTetromino.getPosition().y - i);
-            if (!isValidPosition(activeTetromino, tempPos, activeTetromino.getCurrentRotation())) {
+            if (!isValidPosition(activeTetromino, posX, posY - i, rotation)) {
                 break;
             }
         }
@@ -76,10 +107,13 @@ public class Gameboard implements Json.Serializable {
         int i;
         int signum = (distance < 0 ? -1 : 1);
 
+        final int posX = activeTetromino.getPositionX();
+        final int posY = activeTetromino.getPositionY();
+        final int rotation = activeTetromino.getCurrentRotation();
+
         for (i = 1; i <= Math.abs(distance); i++) {
-            tempPos.set(activeTetromino.getPosition().x + i * (horizontal ? signum : 0),
-                    activeTetromino.getPosition().y + i * (!horizontal ? signum : 0));
-            if (!isValidPosition(activeTetromino, tempPos, activeTetromino.getCurrentRotation())) {
+            if (!isValidPosition(activeTetromino, posX + i * (horizontal ? signum : 0),
+                    posY + i * (!horizontal ? signum : 0), rotation)) {
                 canMove = false;
                 break;
             }
@@ -95,8 +129,25 @@ public class Gameboard implements Json.Serializable {
      * mit der übergebenen Rotation eine valide Position hätte
      */
     public boolean isValidPosition(Tetromino tetromino, Vector2 testPosition, int testRotation) {
-        for (Integer[] coord : tetromino.getBlockPositions(testPosition, testRotation)) {
-            if (isValidCoordinate(coord[0], coord[1]) != 0) {
+        return isValidPosition(tetromino, (int) testPosition.x, (int) testPosition.y, testRotation);
+    }
+
+    /**
+     * wie {@link #isValidPosition(Tetromino, Vector2, int)}, ohne Vector2
+     */
+    public boolean isValidPosition(Tetromino tetromino, int posX, int posY, int testRotation) {
+        final int shape = tetromino.getShape(testRotation);
+        final int left = posX + Tetromino.getMinCellX(shape);
+        final int minCellY = Tetromino.getMinCellY(shape);
+        final int maxCellY = Tetromino.getMaxCellY(shape);
+        if (left < 0 || posX + Tetromino.getMaxCellX(shape) >= GAMEBOARD_COLUMNS
+                || posY + minCellY < 0 || posY + maxCellY >= GAMEBOARD_ALLROWS) {
+            return false;
+        }
+
+        // je Zeile der Form ein Vergleich mit der Belegung statt je Block
+        for (int row = minCellY; row <= maxCellY; row++) {
+            if ((occupiedRows[posY + row] & (Tetromino.getRowMask(shape, row) << left)) != 0) {
                 return false;
             }
         }
@@ -105,13 +156,7 @@ public class Gameboard implements Json.Serializable {
     }
 
     public boolean isRowFull(int row) {
-        for (int j = 0; j < GAMEBOARD_COLUMNS; j++) {
-            if (gameboardSquare[row][j] == SQUARE_EMPTY) {
-                return false;
-            }
-        }
-
-        return true;
+        return occupiedRows[row] == ROW_FULL;
     }
 
     /**
@@ -128,29 +173,55 @@ public class Gameboard implements Json.Serializable {
             return -1;
         }
 
-        return (gameboardSquare[y][x] == SQUARE_EMPTY ? 0 : 1);
+        return ((occupiedRows[y] & (1 << x)) == 0 ? 0 : 1);
+    }
+
+    private void setSquare(int x, int y, int square) {
+        gameboardSquare[y][x] = square;
+        if (square == SQUARE_EMPTY)
+            occupiedRows[y] &= ~(1 << x);
+        else
+            occupiedRows[y] |= 1 << x;
+    }
+
+    /**
+     * builds the occupancy of a row from its squares, after the squares were set directly
+     */
+    private void updateRowOccupancy(int y) {
+        int occupancy = 0;
+        for (int x = 0; x < GAMEBOARD_COLUMNS; x++) {
+            if (gameboardSquare[y][x] != SQUARE_EMPTY)
+                occupancy |= 1 << x;
+        }
+        occupiedRows[y] = occupancy;
+    }
+
+    void updateOccupancy() {
+        for (int y = 0; y < GAMEBOARD_ALLROWS; y++)
+            updateRowOccupancy(y);
     }
 
     public void pinTetromino(Tetromino activeTetromino) {
-        for (Vector2 coord : activeTetromino.getRotationVectors(activeTetromino.getCurrentRotation())) {
-            int x = (int) activeTetromino.getPosition().x + (int) coord.x;
-            int y = (int) activeTetromino.getPosition().y + (int) coord.y;
-            gameboardSquare[y][x] = activeTetromino.getTetrominoType();
+        final int shape = activeTetromino.getCurrentShape();
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            int x = activeTetromino.getPositionX() + Tetromino.getCellX(shape, i);
+            int y = activeTetromino.getPositionY() + Tetromino.getCellY(shape, i);
+            setSquare(x, y, activeTetromino.getTetrominoType());
         }
 
     }
 
     public void clearLines(IntArray linesToRemove) {
         for (int i = linesToRemove.size - 1; i >= 0; i--) {
-
-            for (int y = linesToRemove.get(i); y < GAMEBOARD_ALLROWS; y++) {
-                for (int x = 0; x < GAMEBOARD_COLUMNS; x++) {
-                    if (y == GAMEBOARD_ALLROWS - 1)
-                        gameboardSquare[y][x] = SQUARE_EMPTY;
-                    else
-                        gameboardSquare[y][x] = gameboardSquare[y + 1][x];
-                }
-            }
+            int line = linesToRemove.get(i);
+
+            // die Zeilen darüber rutschen nach, die entfernte Zeile wird oben leer wiederverwendet
+            int[] removedRow = gameboardSquare[line];
+            System.arraycopy(gameboardSquare, line + 1, gameboardSquare, line, GAMEBOARD_ALLROWS - 1 - line);
+            System.arraycopy(occupiedRows, line + 1, occupiedRows, line, GAMEBOARD_ALLROWS - 1 - line);
+            Arrays.fill(removedRow, SQUARE_EMPTY);
+            gameboardSquare[GAMEBOARD_ALLROWS - 1] = removedRow;
+            occupiedRows[GAMEBOARD_ALLROWS - 1] = 0;
         }
     }
 
@@ -161,17 +232,23 @@ public class Gameboard implements Json.Serializable {
     public void insertLines(int[] holePosition) {
         final int numberOfLines = holePosition.length;
 
-        // die Zeilen weiter oben hochziehen
-        for (int y = GAMEBOARD_ALLROWS - 1; y >= numberOfLines; y--) {
-            for (int x = 0; x < GAMEBOARD_COLUMNS; x++)
-                gameboardSquare[y][x] = gameboardSquare[y - numberOfLines][x];
-        }
+        // die Zeilen weiter oben hochziehen, die oben herausfallenden werden unten wiederverwendet
+        for (int i = 0; i < numberOfLines; i++)
+            rowBuffer[i] = gameboardSquare[GAMEBOARD_ALLROWS - numberOfLines + i];
+        System.arraycopy(gameboardSquare, 0, gameboardSquare, numberOfLines, GAMEBOARD_ALLROWS - numberOfLines);
+        System.arraycopy(occupiedRows, 0, occupiedRows, numberOfLines, GAMEBOARD_ALLROWS - numberOfLines);
 
         // und unten nun die neuen rein
         for (int y = numberOfLines - 1; y >= 0; y--) {
             int lineIndex = numberOfLines - 1 - y;
-            for (int x = 0; x < GAMEBOARD_COLUMNS; x++)
-                gameboardSquare[y][x] = (holePosition[lineIndex] == x ? SQUARE_EMPTY : SQUARE_GARBAGE);
+            int[] row = rowBuffer[y];
+            rowBuffer[y] = null;
+            Arrays.fill(row, SQUARE_GARBAGE);
+            int holeX = holePosition[lineIndex];
+            if (holeX >= 0 && holeX < GAMEBOARD_COLUMNS)
+                row[holeX] = SQUARE_EMPTY;
+            gameboardSquare[y] = row;
+            updateRowOccupancy(y);
         }
     }
 
@@ -180,14 +257,15 @@ public class Gameboard implements Json.Serializable {
      * Dabei gilt: Es sind nicht alle leeren Felder leer, sondern nur die, die direkt von oben sichtbar sind
      */
     public int calcGameboardFill() {
-        int retVal = GAMEBOARD_COLUMNS * GAMEBOARD_NORMALROWS;
-
-        for (int x = 0; x < GAMEBOARD_COLUMNS; x++) {
-            int y = GAMEBOARD_NORMALROWS - 1;
-
-            while (y >= 0 && gameboardSquare[y][x] == SQUARE_EMPTY) {
-                y--;
-                retVal--;
+        int retVal = 0;
+
+        // von oben nach unten: jede Spalte zählt bis zu ihrem höchsten belegten Feld
+        int columnsSeen = 0;
+        for (int y = GAMEBOARD_NORMALROWS - 1; y >= 0 && columnsSeen != ROW_FULL; y--) {
+            int newColumns = occupiedRows[y] & ~columnsSeen;
+            if (newColumns != 0) {
+                retVal = retVal + Integer.bitCount(newColumns) * (y + 1);
+                columnsSeen |= newColumns;
             }
         }
 
@@ -217,6 +295,7 @@ public class Gameboard implements Json.Serializable {
                 gameboardSquare[y][x] = gameboardCharToSquare(jsonString.charAt(y * GAMEBOARD_COLUMNS + x));
             }
         }
+        updateOccupancy();
 
     }
 
@@ -240,7 +319,7 @@ public class Gameboard implements Json.Serializable {
             boolean hasGap = false;
             for (int x = 0; x < GAMEBOARD_COLUMNS; x++) {
                 if (MathUtils.randomBoolean() && (hasGap || x < GAMEBOARD_COLUMNS - 1))
-                    gameboardSquare[y][x] = SQUARE_GARBAGE;
+                    setSquare(x, y, SQUARE_GARBAGE);
                 else
                     hasGap = true;
             }
@@ -8,14 +8,10 @@ import javax.annotation.Nullable;
  * Created by Benjamin Schulte on 23.01.2017.
  */
 
-public interface IGameModelListener {
+public interface IGameModelListener extends IPieceListener {
 
     void insertNewBlock(int x, int y, int blockType);
 
-    void moveTetro(Integer[][] v, int dx, int dy, int ghostPieceDistance);
-
-    void rotateTetro(Integer[][] vOld, Integer[][] vNew, int ghostPieceDistance);
-
     /**
      * entfernt die im Array angegebenen Zeilen mit Effekt
      *
@@ -31,16 +27,6 @@ public interface IGameModelListener {
 
     void setGameOver();
 
-    void showNextTetro(Integer[][] relativeBlockPositions, int blockType);
-
-    void activateNextTetro(Integer[][] boardBlockPositions, int blockType, int ghostPieceDistance);
-
-    void swapHoldAndActivePiece(Integer[][] newHoldPiecePositions, Integer[][] oldActivePiecePositions,
-                                Integer[][] newActivePiecePositions, int ghostPieceDistance,
-                                int holdBlockType);
-
-    void pinTetromino(Integer[][] currentBlockPositions);
-
     void updateScore(GameScore score, int gainedScore);
 
     void markConflict(int x, int y);
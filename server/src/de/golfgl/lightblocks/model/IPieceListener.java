@@ -0,0 +1,25 @@
+package de.golfgl.lightblocks.model;
+
+/**
+ * The events of the pieces, which make up most of the events of a game. Block positions are
+ * passed packed, see {@link PackedPiece}, so nothing is allocated for them.
+ */
+public interface IPieceListener {
+
+    void moveTetro(long piece, int dx, int dy, int ghostPieceDistance);
+
+    void rotateTetro(long oldPiece, long newPiece, int ghostPieceDistance);
+
+    void showNextTetro(long relativePiece, int blockType);
+
+    void activateNextTetro(long piece, int blockType, int ghostPieceDistance);
+
+    /**
+     * @param oldActivePiece {@link PackedPiece#NONE} if there was no active piece
+     * @param newActivePiece {@link PackedPiece#NONE} if the next piece becomes active instead
+     */
+    void swapHoldAndActivePiece(long newHoldPiece, long oldActivePiece, long newActivePiece,
+                                int ghostPieceDistance, int holdBlockType);
+
+    void pinTetromino(long piece);
+}
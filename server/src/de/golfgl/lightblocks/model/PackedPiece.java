@@ -0,0 +1,60 @@
+package de.golfgl.lightblocks.model;
+
+/**
+ * The block positions of a piece packed into a long, so the model can report piece events to its
+ * listeners without filling or copying arrays. Every block takes 16 bits: x in the low byte, y in
+ * the high byte, both signed. Being a value, a packed piece can be kept by a listener to compare it
+ * with the next one.
+ */
+public final class PackedPiece {
+    /**
+     * no piece. As all four blocks would be on the same position, it is never a real piece
+     */
+    public static final long NONE = -1L;
+
+    private PackedPiece() {
+    }
+
+    public static int getX(long piece, int block) {
+        return (byte) (piece >>> (block << 4));
+    }
+
+    public static int getY(long piece, int block) {
+        return (byte) (piece >>> ((block << 4) + 8));
+    }
+
+    public static long setBlock(long piece, int block, int x, int y) {
+        int shift = block << 4;
+        return piece & ~(0xFFFFL << shift) | (long) ((x & 0xFF) | (y & 0xFF) << 8) << shift;
+    }
+
+    /**
+     * @param shape see {@link Tetromino#getShape(int)}
+     * @return the blocks of the shape at the given position
+     */
+    public static long of(int shape, int x, int y) {
+        long piece = 0;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            piece = setBlock(piece, i, x + Tetromino.getCellX(shape, i), y + Tetromino.getCellY(shape, i));
+        return piece;
+    }
+
+    /**
+     * @param blockPositions 4x2 array as returned by {@link Tetromino#getCurrentBlockPositions()}, may be null
+     */
+    public static long of(Integer[][] blockPositions) {
+        if (blockPositions == null)
+            return NONE;
+
+        long piece = 0;
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            piece = setBlock(piece, i, blockPositions[i][0], blockPositions[i][1]);
+        return piece;
+    }
+
+    public static long move(long piece, int dx, int dy) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+            piece = setBlock(piece, i, getX(piece, i) + dx, getY(piece, i) + dy);
+        return piece;
+    }
+}
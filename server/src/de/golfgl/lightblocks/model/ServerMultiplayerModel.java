@@ -32,8 +32,9 @@ public class ServerMultiplayerModel extends AbstractMultiplayerModel<ServerMulti
     @Override
     protected void fireUserInterfaceTetrominoSwap() {
         super.fireUserInterfaceTetrominoSwap();
-        if (aiPlayer != null) {
+        if (aiPlayer != null && aiEnabled) {
             // calculate what's the best to do for the current active piece and save it
+            // (when the AI is enabled later on, it is done then)
             aiPlayer.onNextPiece(getGameboard(), getActiveTetromino());
         }
     }
@@ -1,81 +1,132 @@
 package de.golfgl.lightblocks.model;
 
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.RandomXS128;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.Json;
 import com.badlogic.gdx.utils.JsonValue;
 
+import java.util.Random;
+
 /**
  * This is the Tetromino draywer
  * <p>
+ * Draws the pieces in bags of seven. The queued pieces are held in a ring buffer, so drawing and
+ * queueing is O(1). The drawyer is not synchronized, it is only used by the thread of its game.
+ * <p>
  * Created by Benjamin Schulte on 27.01.2017.
  */
 
 class TetrominoDrawyer implements Json.Serializable {
-    protected final IntArray drawyer = new IntArray();
+    // Kapazität immer eine Zweierpotenz, damit der Index maskiert werden kann
+    private int[] queue = new int[32];
+    private int head;
+    private int size;
+    // shared by all games unless seeded
+    Random random = MathUtils.random;
+
+    /**
+     * draws the same pieces for the same seed from now on
+     */
+    void setRandomSeed(long seed) {
+        random = new RandomXS128(seed);
+    }
 
     /**
      * returns the next tetromino
      */
     public Tetromino getNextTetromino(boolean useSrs) {
+        return new Tetromino(drawTetromino(), useSrs);
+    }
 
-        Tetromino retVal;
-
-        synchronized (drawyer) {
-            if (drawyer.size < 1)
-                determineNextTetrominos();
+    /**
+     * @return type of the next tetromino, removed from the queue
+     */
+    protected int drawTetromino() {
+        if (size < 1)
+            determineNextTetrominos();
 
-            retVal = new Tetromino(drawyer.get(0), useSrs);
+        int retVal = queue[head];
 
-            // Position weiterschieben
-            drawyer.removeIndex(0);
-        }
+        // Position weiterschieben
+        head = (head + 1) & (queue.length - 1);
+        size--;
 
         return retVal;
     }
 
     protected void determineNextTetrominos() {
         // die sieben nächsten Steine bestimmen
-        synchronized (drawyer) {
-            int sizeBeforeAdding = drawyer.size;
+        int sizeBeforeAdding = size;
 
-            for (int i = 0; i < 7; i++)
-                drawyer.add(i);
+        for (int i = 0; i < 7; i++)
+            queueNextTetromino(i);
 
-            for (int i = sizeBeforeAdding; i < drawyer.size - 2; i++) {
-                int swapWith = MathUtils.random(i, drawyer.size - 1);
-                drawyer.swap(i, swapWith);
-            }
+        int mask = queue.length - 1;
+        for (int i = sizeBeforeAdding; i < size - 2; i++) {
+            int swapWith = i + random.nextInt(size - i);
+            int tetro = queue[(head + i) & mask];
+            queue[(head + i) & mask] = queue[(head + swapWith) & mask];
+            queue[(head + swapWith) & mask] = tetro;
         }
     }
 
     protected void queueNextTetrominos(int[] newTetros) {
-        synchronized (drawyer) {
-            for (int i = 0; i < newTetros.length; i++)
-                drawyer.add(newTetros[i]);
+        for (int i = 0; i < newTetros.length; i++)
+            queueNextTetromino(newTetros[i]);
+    }
+
+    protected void queueNextTetromino(int tetro) {
+        if (size == queue.length) {
+            int[] newQueue = new int[queue.length * 2];
+            for (int i = 0; i < size; i++)
+                newQueue[i] = queue[(head + i) & (queue.length - 1)];
+            queue = newQueue;
+            head = 0;
         }
+
+        queue[(head + size) & (queue.length - 1)] = tetro;
+        size++;
+    }
+
+    /**
+     * @return number of tetrominos queued
+     */
+    protected int getQueuedNum() {
+        return size;
+    }
+
+    /**
+     * @return type of the queued tetromino at the given index without drawing it, or -1 if not queued yet
+     */
+    protected int peekTetromino(int index) {
+        return index < size ? queue[(head + index) & (queue.length - 1)] : -1;
     }
 
     protected IntArray getDrawyerQueue() {
-        return new IntArray(drawyer);
+        IntArray retVal = new IntArray(size);
+        for (int i = 0; i < size; i++)
+            retVal.add(peekTetromino(i));
+        return retVal;
     }
 
     @Override
     public void write(Json json) {
         // da es nur von 0 bis 6 geht, einfach in einen String
-        String blocks = "";
-        for (int i = 0; i < drawyer.size; i++) {
-            blocks += (char) (65 + (drawyer.get(i)));
+        StringBuilder blocks = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            blocks.append((char) (65 + peekTetromino(i)));
         }
-        json.writeValue("onDrawyer", blocks);
+        json.writeValue("onDrawyer", blocks.toString());
     }
 
     @Override
     public void read(Json json, JsonValue jsonData) {
         String onDraywerString = jsonData.getString("onDrawyer");
-        drawyer.clear();
+        head = 0;
+        size = 0;
         for (int i = 0; i < onDraywerString.length(); i++) {
-            drawyer.add((int) (onDraywerString.charAt(i) - 65));
+            queueNextTetromino(onDraywerString.charAt(i) - 65);
         }
     }
 }
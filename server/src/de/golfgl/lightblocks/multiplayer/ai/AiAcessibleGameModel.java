@@ -7,6 +7,12 @@ import de.golfgl.lightblocks.model.Tetromino;
 public interface AiAcessibleGameModel {
     Tetromino getNextTetromino();
 
+    /**
+     * @return the piece following the next piece after index pieces, or null if not known yet. The
+     * returned piece is shared and must not be moved.
+     */
+    Tetromino getPreviewTetromino(int index);
+
     Tetromino getHoldTetromino();
 
     boolean isHoldMoveAllowedByModel();
@@ -1,11 +1,17 @@
 package de.golfgl.lightblocks.multiplayer.ai;
 
+import com.badlogic.gdx.Application;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.math.RandomXS128;
 import com.badlogic.gdx.utils.Queue;
 
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import de.golfgl.lightblocks.model.GameModel;
 import de.golfgl.lightblocks.model.Gameboard;
 import de.golfgl.lightblocks.model.Tetromino;
@@ -19,112 +25,344 @@ public class ArtificialPlayer {
     private final AiAcessibleGameModel aiGameModel;
     private final AiAcessibleGameModel opponentGameModel;
 
-    private final Vector2 tempPos = new Vector2();
-    private final Queue<Movement> movementArrayList = new Queue<>();
+    // pos weight 0123454321 => 1.0, 1.07, 1.14, ...
+    // the more the column is centered, the more it is avoided drop pieces
+    private static final float[] POS_WEIGHTS = new float[Gameboard.GAMEBOARD_COLUMNS];
+    // log2 of the number of blocks above a hole
+    private static final float[] LOG2 = new float[Gameboard.GAMEBOARD_ALLROWS + 1];
+
+    static {
+        for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+            POS_WEIGHTS[x] = 1f + Math.abs(Math.abs(x - (Gameboard.GAMEBOARD_COLUMNS / 2f)) - Gameboard.GAMEBOARD_COLUMNS / 2f) / 15f;
+        for (int i = 1; i < LOG2.length; i++)
+            LOG2[i] = MathUtils.log2(i);
+    }
+
+    public static final float DEFAULT_HEIGHT_FACTOR = 5.1f;
+    public static final float DEFAULT_COMPLETE_LINES_FACTOR = 7.6f;
+    public static final float DEFAULT_HOLES_FACTOR = 3.66f;
+    public static final float DEFAULT_BUMPINESS_FACTOR = 1.8f;
+
+    private static final int DECISION_IDLE = 0;
+    private static final int DECISION_RUNNING = 1;
+    private static final int DECISION_DONE = 2;
+
+    // what the decision is based on, taken on the tick thread before it is started
+    private final AiGameboard aiGameboard = new AiGameboard();
+    private PieceQueue pieces = new PieceQueue(2);
+    private PieceQueue holdPieces = new PieceQueue(2);
+    private boolean holdAllowed;
+    // movements found by the decision, taken over by the tick thread when it is done
+    private final Queue<Movement> plannedMovements = new Queue<>();
     private final Queue<Movement> holdArrayList = new Queue<>();
+    // movements done by update()
+    private final Queue<Movement> movementArrayList = new Queue<>();
     private final float heightFactor;
     private final float completeLinesFactor;
     private final float holesFactor;
     private final float bumpinessFactor;
+    // breaks ties between equal placements, only used by the decision running
+    private final RandomXS128 random = new RandomXS128(MathUtils.random.nextLong());
     private float slowDown;
     private int drawnTetrominoBaseDifference;
+    // null if only the active and the next piece are looked at
+    private LookaheadSearch lookaheadSearch;
+    // cache of the thread the current decision is made on
+    private EvaluationCache evaluationCache;
+
+    // null to decide on the thread calling onNextPiece()
+    private Executor executor;
+    private final AtomicInteger decisionState = new AtomicInteger(DECISION_IDLE);
+    private final Runnable decisionTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                planMovements();
+            } finally {
+                decisionState.set(DECISION_DONE);
+            }
+        }
+    };
+    // counts the pieces, so a decision made for a piece that is gone can be dropped
+    private int pieceSequence;
+    private int decisionSequence;
+    private Gameboard decisionGameboard;
+    private boolean decisionRequested;
 
     public ArtificialPlayer(AiAcessibleGameModel aiGameModel, AiAcessibleGameModel opponentGameModel) {
+        // 0.510066, 0.760666, 0.35663, 0.184483
+        this(aiGameModel, opponentGameModel, DEFAULT_HEIGHT_FACTOR, DEFAULT_COMPLETE_LINES_FACTOR,
+                DEFAULT_HOLES_FACTOR, DEFAULT_BUMPINESS_FACTOR);
+    }
+
+    /**
+     * AI with other weights of the board's dimensions than the default ones, for tuning
+     */
+    public ArtificialPlayer(AiAcessibleGameModel aiGameModel, AiAcessibleGameModel opponentGameModel,
+                            float heightFactor, float completeLinesFactor, float holesFactor, float bumpinessFactor) {
         this.aiGameModel = aiGameModel;
         this.opponentGameModel = opponentGameModel;
 
-        // 0.510066, 0.760666, 0.35663, 0.184483
-        heightFactor = 5.1f;
-        completeLinesFactor = 7.6f;
-        holesFactor = 3.66f;
-        bumpinessFactor = 1.8f;
+        this.heightFactor = heightFactor;
+        this.completeLinesFactor = completeLinesFactor;
+        this.holesFactor = holesFactor;
+        this.bumpinessFactor = bumpinessFactor;
 
         setDrawnTetrominoBaseDiff();
     }
 
+    /**
+     * makes the decisions repeatable, for the same game the same decisions are made
+     */
+    public void setRandomSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Makes the AI look further ahead than the active and the next piece, using the preview queue.
+     * Must be called before the first decision.
+     *
+     * @param depth         number of pieces to look at, including the active one. 2 or less is the default search
+     * @param beamWidth     number of best placements searched further on every level
+     * @param timeBudgetMs  time after which the best placement found so far is used, 0 for no limit
+     */
+    public void setLookahead(int depth, int beamWidth, int timeBudgetMs) {
+        setLookahead(depth, beamWidth, timeBudgetMs, null);
+    }
+
+    /**
+     * Same as {@link #setLookahead(int, int, int)}, but the best placements are searched further in
+     * parallel on the given pool.
+     *
+     * @param pool null to search them one after the other on the thread making the decision
+     */
+    public void setLookahead(int depth, int beamWidth, int timeBudgetMs, ForkJoinPool pool) {
+        if (depth <= 2) {
+            lookaheadSearch = null;
+            depth = 2;
+        } else {
+            lookaheadSearch = new LookaheadSearch(this, Math.max(1, beamWidth), timeBudgetMs * 1000000L, pool);
+        }
+        pieces = new PieceQueue(depth);
+        holdPieces = new PieceQueue(depth);
+    }
+
+    /**
+     * Makes the decisions on the given executor instead of the thread calling
+     * {@link #onNextPiece(Gameboard, Tetromino)}. The movements are taken over by the first call
+     * of {@link #update(float, Tetromino)} after the decision is done. If the executor rejects a
+     * decision, it is started again by the next call of update().
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     public void onNextPiece(Gameboard gameboard, Tetromino activePiece) {
         // we have a new active piece. check how to place it best and add the needed movements to
         // the movement queue
+        pieceSequence++;
+        movementArrayList.clear();
+        decisionGameboard = gameboard;
+        decisionRequested = true;
+
+        // if a decision for a former piece is still running, this one is started when it is done
+        if (decisionState.get() == DECISION_IDLE)
+            startDecision(activePiece);
+    }
+
+    /**
+     * takes the snapshot of the game the decision is based on and starts it
+     */
+    private void startDecision(Tetromino activePiece) {
+        decisionRequested = false;
+        decisionSequence = pieceSequence;
+
+        aiGameboard.set(decisionGameboard);
+        Tetromino nextPiece = aiGameModel.getNextTetromino();
+        collectPieces(pieces, activePiece, nextPiece);
+        holdAllowed = aiGameModel.isHoldMoveAllowedByModel();
+        if (holdAllowed) {
+            // compare found best movement with hold piece
+            Tetromino holdTetromino = aiGameModel.getHoldTetromino();
+            collectPieces(holdPieces, holdTetromino != null ? holdTetromino : nextPiece,
+                    holdTetromino != null ? nextPiece : null);
+        }
+
+        decisionState.set(DECISION_RUNNING);
+        if (executor != null) {
+            try {
+                executor.execute(decisionTask);
+            } catch (RejectedExecutionException e) {
+                // no search on this thread, the piece falls on until the next try
+                decisionState.set(DECISION_IDLE);
+                decisionRequested = true;
+            }
+        } else {
+            decisionTask.run();
+            takeOverDecision();
+        }
+    }
+
+    /**
+     * fills the queue with the given pieces, followed by the preview queue if looking further ahead
+     *
+     * @param secondPiece null to continue with the preview queue directly after the first piece
+     */
+    private void collectPieces(PieceQueue queue, Tetromino firstPiece, Tetromino secondPiece) {
+        queue.clear();
+        queue.add(firstPiece);
+        if (secondPiece != null)
+            queue.add(secondPiece);
+
+        if (lookaheadSearch == null)
+            return;
+
+        for (int i = 0; queue.size() < queue.capacity(); i++) {
+            Tetromino previewPiece = aiGameModel.getPreviewTetromino(i);
+            if (previewPiece == null)
+                break;
+            queue.add(previewPiece);
+        }
+    }
+
+    /**
+     * hands the movements of a done decision over to update(), if the piece is still the same
+     */
+    private void takeOverDecision() {
+        decisionState.set(DECISION_IDLE);
+        if (decisionSequence != pieceSequence)
+            return;
+
+        movementArrayList.clear();
+        while (plannedMovements.notEmpty())
+            movementArrayList.addLast(plannedMovements.removeFirst());
+        slowDown = .2f;
+    }
+
+    /**
+     * Decides where to put the active piece, based on the snapshot taken by the tick thread. Runs
+     * on the executor, if set.
+     */
+    protected void planMovements() {
+        evaluationCache = EvaluationCache.get();
+        plannedMovements.clear();
+        if (lookaheadSearch == null || !planMovementsLookahead())
+            planMovementsDefault();
+        evaluationCache.publishStats();
+    }
 
+    private void planMovementsDefault() {
         // future AI improvement possibilities:
         // - take waiting garbage into account by adding it to board for next piece, but not for clears (when modern)
         // - go for singles after a certain height is reached
         // - at the moment, line clears are not considered on their own but for all next pieces together - improve
 
-        float bestScore = Float.NEGATIVE_INFINITY;
-
-        Tetromino nextPiece = aiGameModel.getNextTetromino();
+        float bestScore = checkAllRotationsAndDropPlaces(aiGameboard, pieces, 0, Float.NEGATIVE_INFINITY, plannedMovements);
 
-        Array<Tetromino> nextPieces = new Array<>();
-        nextPieces.add(activePiece);
-        nextPieces.add(nextPiece);
+        if (holdAllowed) {
+            // the search leaves the board as it was, no need to set it again
+            float holdMoveScore = checkAllRotationsAndDropPlaces(aiGameboard, holdPieces, 0, bestScore, holdArrayList);
 
-        bestScore = checkAllRotationsAndDropPlaces(new AiGameboard(gameboard), nextPieces, 0, bestScore, movementArrayList);
+            if (holdMoveScore > bestScore) {
+                if (Gdx.app.getLogLevel() >= Application.LOG_DEBUG)
+                    Gdx.app.debug("AI", "Hold the piece");
+                plannedMovements.clear();
+                plannedMovements.addFirst(Movement.HOLD);
+                while (holdArrayList.notEmpty())
+                    plannedMovements.addLast(holdArrayList.removeFirst());
+            }
+        }
+    }
 
-        if (aiGameModel.isHoldMoveAllowedByModel()) {
-            // compare found best movement with hold piece
-            Tetromino holdTetromino = aiGameModel.getHoldTetromino();
+    /**
+     * @return false if the preview queue does not reach further than the next piece
+     */
+    private boolean planMovementsLookahead() {
+        if (pieces.size() <= 2)
+            return false;
 
-            nextPieces.clear();
-            if (holdTetromino != null) {
-                nextPieces.add(holdTetromino);
-            }
-            nextPieces.add(nextPiece);
+        // the time budget is for the whole decision, holding the piece included
+        long deadlineNs = lookaheadSearch.getDeadline();
+        float bestScore = lookaheadSearch.search(aiGameboard, pieces, deadlineNs);
+        if (bestScore > Float.NEGATIVE_INFINITY)
+            queueMovements(lookaheadSearch.getBestRotation(), lookaheadSearch.getBestHorizontalMove(), plannedMovements);
 
-            float holdMoveScore = checkAllRotationsAndDropPlaces(new AiGameboard(gameboard), nextPieces, 0, bestScore, holdArrayList);
+        if (holdAllowed) {
+            float holdMoveScore = lookaheadSearch.search(aiGameboard, holdPieces, deadlineNs);
 
             if (holdMoveScore > bestScore) {
-                Gdx.app.debug("AI", "Hold the piece");
-                movementArrayList.clear();
-                movementArrayList.addFirst(Movement.HOLD);
-                while (holdArrayList.notEmpty())
-                    movementArrayList.addLast(holdArrayList.removeFirst());
+                if (Gdx.app.getLogLevel() >= Application.LOG_DEBUG)
+                    Gdx.app.debug("AI", "Hold the piece");
+                plannedMovements.clear();
+                plannedMovements.addFirst(Movement.HOLD);
+                queueMovements(lookaheadSearch.getBestRotation(), lookaheadSearch.getBestHorizontalMove(), plannedMovements);
             }
         }
-        slowDown = .2f;
+        return true;
     }
 
-    private float checkAllRotationsAndDropPlaces(AiGameboard gameboard, Array<Tetromino> nextPieces, int depth, float overallBestScore, Queue<Movement> movementArrayList) {
+    private void queueMovements(int rotation, int horizontalMove, Queue<Movement> movementArrayList) {
+        switch (rotation) {
+            case 2:
+                movementArrayList.addLast(Movement.ROTATE_RIGHT);
+                movementArrayList.addLast(Movement.ROTATE_RIGHT);
+                break;
+            case 1:
+                movementArrayList.addLast(Movement.ROTATE_RIGHT);
+                break;
+            case 3:
+                movementArrayList.addLast(Movement.ROTATE_LEFT);
+                break;
+        }
+
+        for (int i = 0; i < Math.abs(horizontalMove); i++) {
+            movementArrayList.addLast(horizontalMove < 0 ? Movement.MOVE_LEFT : Movement.MOVE_RIGHT);
+        }
+
+        movementArrayList.addLast(Movement.DROP);
+    }
+
+    /**
+     * Tries every rotation and drop place of the piece at the given depth. The pieces are pinned
+     * to the board and removed again after evaluation, so the board is the same afterwards and
+     * nothing is allocated.
+     */
+    private float checkAllRotationsAndDropPlaces(AiGameboard gameboard, PieceQueue nextPieces, int depth, float overallBestScore, Queue<Movement> movementArrayList) {
         Tetromino activePiece = nextPieces.get(depth);
         int bestRotation = 0;
         int bestHorizontalMove = 0;
         float bestScore = Float.NEGATIVE_INFINITY;
+        int[] blockX = gameboard.getBlockX(depth);
+        int[] blockY = gameboard.getBlockY(depth);
+        int pieceX = nextPieces.getX(depth);
+        int pieceY = nextPieces.getY(depth);
 
         // check all rotations and all drop places
         for (int rotation = 0; rotation < 4; rotation++) {
             if (activePiece.hasRotation(rotation)) {
+                int shape = activePiece.getShape(rotation);
+
                 for (int horizontalMove = -Gameboard.GAMEBOARD_COLUMNS; horizontalMove <= Gameboard.GAMEBOARD_COLUMNS; horizontalMove++) {
-                    AiGameboard aiGameboard = new AiGameboard(gameboard);
-                    int dropVerticalMove = -1;
-
-                    for (int verticalMove = 0; verticalMove <= Gameboard.GAMEBOARD_ALLROWS &&
-                            dropVerticalMove + 1 == verticalMove; verticalMove++) {
-                        tempPos.set(activePiece.getPosition().x + horizontalMove,
-                                activePiece.getPosition().y - verticalMove);
-                        if (aiGameboard.isValidPosition(activePiece, tempPos, rotation)) {
-                            dropVerticalMove = verticalMove;
-                        }
-                    }
+                    int dropVerticalMove = gameboard.setBlocks(shape, pieceX + horizontalMove, pieceY, blockX, blockY)
+                            ? gameboard.getDropDistance(blockX, blockY) : -1;
 
                     if (dropVerticalMove >= 0) {
                         // we have found the drop position for the current rotation
                         // and pretend to pin the tetromino here
-                        for (Vector2 coord : activePiece.getRotationVectors(rotation)) {
-                            int x = (int) activePiece.getPosition().x + (int) coord.x + horizontalMove;
-                            int y = (int) activePiece.getPosition().y + (int) coord.y - dropVerticalMove;
-                            aiGameboard.setPosition(x, y, true);
-                        }
+                        gameboard.pin(blockX, blockY, dropVerticalMove);
 
                         float score;
-                        if (depth == nextPieces.size - 1) {
-                            score = calculateScoreOfPosition(aiGameboard);
+                        if (depth == nextPieces.size() - 1) {
+                            score = calculateScoreOfPosition(gameboard);
                         } else {
-                            score = checkAllRotationsAndDropPlaces(aiGameboard, nextPieces, depth + 1, 0, null);
+                            score = checkAllRotationsAndDropPlaces(gameboard, nextPieces, depth + 1, 0, null);
                         }
 
+                        gameboard.unpin(blockX, blockY, dropVerticalMove);
+
                         if (score > bestScore ||
                                 // if we found an equal score, use it to prevent a left-hang
-                                MathUtils.isEqual(score, bestScore) && MathUtils.randomBoolean()
+                                MathUtils.isEqual(score, bestScore) && random.nextBoolean()
                                         // but avoid unnecessary rotations
                                         && bestHorizontalMove != horizontalMove) {
                             bestRotation = rotation;
@@ -140,27 +378,10 @@ public class ArtificialPlayer {
 
         // now we found the best position, add the necessary movements to the queue
         if (movementArrayList != null && bestScore > overallBestScore) {
-            Gdx.app.debug("AI", "Move: h " + bestHorizontalMove + ", rotate " + bestRotation);
+            if (Gdx.app.getLogLevel() >= Application.LOG_DEBUG)
+                Gdx.app.debug("AI", "Move: h " + bestHorizontalMove + ", rotate " + bestRotation);
             movementArrayList.clear();
-
-            switch (bestRotation) {
-                case 2:
-                    movementArrayList.addLast(Movement.ROTATE_RIGHT);
-                    movementArrayList.addLast(Movement.ROTATE_RIGHT);
-                    break;
-                case 1:
-                    movementArrayList.addLast(Movement.ROTATE_RIGHT);
-                    break;
-                case 3:
-                    movementArrayList.addLast(Movement.ROTATE_LEFT);
-                    break;
-            }
-
-            for (int i = 0; i < Math.abs(bestHorizontalMove); i++) {
-                movementArrayList.addLast(bestHorizontalMove < 0 ? Movement.MOVE_LEFT : Movement.MOVE_RIGHT);
-            }
-
-            movementArrayList.addLast(Movement.DROP);
+            queueMovements(bestRotation, bestHorizontalMove, movementArrayList);
         }
 
         return bestScore;
@@ -171,6 +392,15 @@ public class ArtificialPlayer {
         // calculate the different dimensions
         int completedLines = gameboard.clearFullLines();
 
+        return evaluate(gameboard, completedLines, evaluationCache);
+    }
+
+    /**
+     * @param gameboard       with full lines cleared by {@link AiGameboard#clearFullLines()}
+     * @param completedLines  lines cleared by the pieces placed
+     * @param evaluationCache cache of the calling thread
+     */
+    float evaluate(AiGameboard gameboard, int completedLines, EvaluationCache evaluationCache) {
         float completedLinesVal;
         if (completedLines == 1) {
             // we don't want to go for single lines, but they are rewarded because of lower height
@@ -180,9 +410,21 @@ public class ArtificialPlayer {
             completedLinesVal = Math.max(0, (completedLines - 1) * (completedLines - 1));
         }
 
-        float aggregatedHeight = aggregateWeightedHeight(gameboard);
-        float countHoles = countHoles(gameboard);
-        int bumpiness = computeBumpiness(gameboard);
+        float aggregatedHeight;
+        float countHoles;
+        int bumpiness;
+        int cacheEntry = evaluationCache.lookup(gameboard.clearedRows);
+        if (cacheEntry >= 0) {
+            aggregatedHeight = evaluationCache.getAggregatedHeight(cacheEntry);
+            countHoles = evaluationCache.getHoles(cacheEntry);
+            bumpiness = evaluationCache.getBumpiness(cacheEntry);
+        } else {
+            gameboard.computeColumnHeights();
+            aggregatedHeight = aggregateWeightedHeight(gameboard);
+            countHoles = countHoles(gameboard);
+            bumpiness = computeBumpiness(gameboard);
+            evaluationCache.store(~cacheEntry, aggregatedHeight, countHoles, bumpiness);
+        }
 
         return -heightFactor * aggregatedHeight + completeLinesFactor * completedLinesVal - holesFactor * countHoles - bumpinessFactor * bumpiness;
     }
@@ -208,14 +450,15 @@ public class ArtificialPlayer {
         for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
             // multiply holes with the number of blocks above the holes
             // this takes into account that it is more difficult to fill them the more to clear there is
+            // above the column's highest block there are no holes
             int numFull = 0;
+            int columnBit = 1 << x;
 
-            for (int y = Gameboard.GAMEBOARD_ALLROWS - 1; y >= 0; y--) {
-                if (gameboard.isPositionFull(x, y))
+            for (int y = gameboard.getColumnHeight(x) - 1; y >= 0; y--) {
+                if (gameboard.isClearedRowFull(y, columnBit))
                     numFull++;
-
-                if (!gameboard.isPositionFull(x, y) && numFull > 0)
-                    holes = holes + 1 + (MathUtils.log2(numFull));
+                else
+                    holes = holes + 1 + LOG2[numFull];
             }
         }
 
@@ -237,18 +480,20 @@ public class ArtificialPlayer {
         float aggregateHeight = 0;
 
         for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
-            // pos weight 0123454321 => 1.0, 1.07, 1.14, ...
-            // the more the column is centered, the more it is avoided drop pieces
-            float posWeight = 1f + Math.abs(Math.abs(x - (Gameboard.GAMEBOARD_COLUMNS / 2f)) - Gameboard.GAMEBOARD_COLUMNS / 2f) / 15f;
             int y = gameboard.getColumnHeight(x);
 
-            aggregateHeight = aggregateHeight + y * posWeight;
+            aggregateHeight = aggregateHeight + y * POS_WEIGHTS[x];
         }
 
         return aggregateHeight;
     }
 
     public void update(float delta, Tetromino activePiece) {
+        if (decisionState.get() == DECISION_DONE)
+            takeOverDecision();
+        if (decisionRequested && decisionState.get() == DECISION_IDLE)
+            startDecision(activePiece);
+
         // process the queue, but slow down
 
         slowDown -= delta;
@@ -291,92 +536,165 @@ public class ArtificialPlayer {
 
     enum Movement {MOVE_LEFT, MOVE_RIGHT, ROTATE_LEFT, ROTATE_RIGHT, DROP, HOLD}
 
+    /**
+     * Occupancy of the board as one bit per column and row, like the occupancy plane of
+     * {@link Gameboard}. The search pins and removes pieces in place. Full lines are only cleared
+     * on a copy made for evaluation, the column heights are computed from that copy.
+     */
     static class AiGameboard {
-        final boolean[][] fullSquares = new boolean[Gameboard.GAMEBOARD_ALLROWS][Gameboard.GAMEBOARD_COLUMNS];
-
-        AiGameboard(Gameboard gameboard) {
-            int[][] gameboardSquares = gameboard.getGameboardSquares();
-            for (int i = 0; i < Gameboard.GAMEBOARD_ALLROWS; i++) {
-                for (int j = 0; j < Gameboard.GAMEBOARD_COLUMNS; j++) {
-                    fullSquares[i][j] = gameboardSquares[i][j] != Gameboard.SQUARE_EMPTY;
-                }
-            }
+        final int[] rows = new int[Gameboard.GAMEBOARD_ALLROWS];
+        // the rows without full lines of the last clearFullLines() call, and their column heights
+        final int[] clearedRows = new int[Gameboard.GAMEBOARD_ALLROWS];
+        private final int[] columnHeights = new int[Gameboard.GAMEBOARD_COLUMNS];
+        // block coordinates of the piece tested at each search depth
+        private int[][] blockX = new int[0][];
+        private int[][] blockY = new int[0][];
+
+        void set(Gameboard gameboard) {
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++)
+                rows[y] = gameboard.getRowOccupancy(y);
         }
 
-        AiGameboard(AiGameboard gameboard) {
-            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
-                for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
-                    fullSquares[y][x] = gameboard.isPositionFull(x, y);
-                }
-            }
+        void set(int[] rows) {
+            System.arraycopy(rows, 0, this.rows, 0, Gameboard.GAMEBOARD_ALLROWS);
         }
 
-        boolean isPositionFull(int x, int y) {
-            return fullSquares[y][x];
+        /**
+         * copies the rows of the last clearFullLines() call
+         */
+        void getClearedRows(int[] rows) {
+            System.arraycopy(clearedRows, 0, rows, 0, Gameboard.GAMEBOARD_ALLROWS);
         }
 
-        boolean isValidCoordinate(int x, int y) {
-            if (x < 0 || x >= Gameboard.GAMEBOARD_COLUMNS) {
+        /**
+         * sets the block coordinates of a piece at the given position
+         *
+         * @return false if a block is outside of the columns
+         */
+        boolean setBlocks(int shape, int x, int y, int[] blockX, int[] blockY) {
+            if (x + Tetromino.getMinCellX(shape) < 0 || x + Tetromino.getMaxCellX(shape) >= Gameboard.GAMEBOARD_COLUMNS)
                 return false;
+
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                blockX[i] = Tetromino.getCellX(shape, i) + x;
+                blockY[i] = Tetromino.getCellY(shape, i) + y;
             }
+            return true;
+        }
 
-            if (y < 0 || y >= Gameboard.GAMEBOARD_ALLROWS) {
-                return false;
+        /**
+         * @return how far the piece can be moved down, -1 if it does not fit at all
+         */
+        int getDropDistance(int[] blockX, int[] blockY) {
+            int dropVerticalMove = -1;
+            for (int verticalMove = 0; verticalMove <= Gameboard.GAMEBOARD_ALLROWS &&
+                    dropVerticalMove + 1 == verticalMove; verticalMove++) {
+                if (isValidPosition(blockX, blockY, verticalMove)) {
+                    dropVerticalMove = verticalMove;
+                }
             }
+            return dropVerticalMove;
+        }
 
-            return (!isPositionFull(x, y));
+        int[] getBlockX(int depth) {
+            ensureDepth(depth);
+            return blockX[depth];
         }
 
-        public boolean isValidPosition(Tetromino tetromino, Vector2 testPosition, int testRotation) {
-            for (Vector2 v : tetromino.getRotationVectors(testRotation)) {
-                int posX = ((int) v.x + (int) testPosition.x);
-                int posY = ((int) v.y + (int) testPosition.y);
+        int[] getBlockY(int depth) {
+            ensureDepth(depth);
+            return blockY[depth];
+        }
+
+        private void ensureDepth(int depth) {
+            if (depth < blockX.length)
+                return;
+
+            int[][] newBlockX = new int[depth + 1][];
+            int[][] newBlockY = new int[depth + 1][];
+            System.arraycopy(blockX, 0, newBlockX, 0, blockX.length);
+            System.arraycopy(blockY, 0, newBlockY, 0, blockY.length);
+            for (int i = blockX.length; i <= depth; i++) {
+                newBlockX[i] = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+                newBlockY[i] = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+            }
+            blockX = newBlockX;
+            blockY = newBlockY;
+        }
 
-                if (!isValidCoordinate(posX, posY)) {
+        /**
+         * @param blockX columns of the blocks, must be on the board
+         * @param blockY rows of the blocks before moving down
+         */
+        boolean isValidPosition(int[] blockX, int[] blockY, int verticalMove) {
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+                int y = blockY[i] - verticalMove;
+                if (y < 0 || y >= Gameboard.GAMEBOARD_ALLROWS || (rows[y] & (1 << blockX[i])) != 0)
                     return false;
-                }
             }
 
             return true;
         }
 
-        void setPosition(int x, int y, boolean full) {
-            fullSquares[y][x] = full;
+        void pin(int[] blockX, int[] blockY, int verticalMove) {
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+                rows[blockY[i] - verticalMove] |= 1 << blockX[i];
+        }
+
+        /**
+         * removes a piece pinned before, the blocks were free before pinning
+         */
+        void unpin(int[] blockX, int[] blockY, int verticalMove) {
+            for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++)
+                rows[blockY[i] - verticalMove] &= ~(1 << blockX[i]);
         }
 
+        /**
+         * copies the board without its full lines for evaluation
+         *
+         * @return number of full lines
+         */
         int clearFullLines() {
             int fullLines = 0;
-            for (int y = Gameboard.GAMEBOARD_ALLROWS - 1; y >= 0; y--) {
-                boolean hasBlank = false;
-                for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS && !hasBlank; x++) {
-                    if (!isPositionFull(x, y))
-                        hasBlank = true;
-                }
-                if (!hasBlank) {
+            int clearedY = 0;
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+                if (rows[y] == Gameboard.ROW_FULL)
                     fullLines++;
+                else
+                    clearedRows[clearedY++] = rows[y];
+            }
+            while (clearedY < Gameboard.GAMEBOARD_ALLROWS)
+                clearedRows[clearedY++] = 0;
 
-                    // move everything down
-                    for (int y2 = y; y2 < Gameboard.GAMEBOARD_ALLROWS; y2++) {
-                        for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++) {
-                            if (y2 < Gameboard.GAMEBOARD_ALLROWS - 1) {
-                                fullSquares[y2][x] = fullSquares[y2 + 1][x];
-                            } else {
-                                fullSquares[y2][x] = false;
+            return fullLines;
+        }
 
-                            }
-                        }
-                    }
+        /**
+         * computes the column heights of the rows of the last clearFullLines() call
+         */
+        void computeColumnHeights() {
+            // from top to bottom, the first row a column is seen in is its height
+            Arrays.fill(columnHeights, 0);
+            int columnsSeen = 0;
+            for (int y = Gameboard.GAMEBOARD_ALLROWS - 1; y >= 0 && columnsSeen != Gameboard.ROW_FULL; y--) {
+                int newColumns = clearedRows[y] & ~columnsSeen;
+                columnsSeen |= newColumns;
+                while (newColumns != 0) {
+                    columnHeights[Integer.numberOfTrailingZeros(newColumns)] = y + 1;
+                    newColumns &= newColumns - 1;
                 }
             }
+        }
 
-            return fullLines;
+        /**
+         * @return height of the column after clearing full lines
+         */
+        int getColumnHeight(int x) {
+            return columnHeights[x];
         }
 
-        public int getColumnHeight(int x) {
-            int y = Gameboard.GAMEBOARD_ALLROWS;
-            while (y > 0 && !isPositionFull(x, y - 1))
-                y--;
-            return y;
+        boolean isClearedRowFull(int y, int columnBit) {
+            return (clearedRows[y] & columnBit) != 0;
         }
     }
 }
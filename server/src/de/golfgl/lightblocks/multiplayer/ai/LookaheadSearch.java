@@ -0,0 +1,323 @@
+package de.golfgl.lightblocks.multiplayer.ai;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.Tetromino;
+import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer.AiGameboard;
+
+/**
+ * Search of {@link ArtificialPlayer} looking further ahead than the active and the next piece.
+ * <p>
+ * All placements of the first piece are rated by the board they leave. The best of them, as many
+ * as the beam width, are searched further in parallel on the given fork-join pool (the AI worker
+ * pool on the server), or one after the other without a pool. Each of these searches keeps only
+ * the beam width best boards on every level. When the time budget of the decision runs out,
+ * placements not searched to the end are left out, so the best placement found so far is used.
+ * <p>
+ * Other than the default search, lines are cleared after each piece and ties are not broken
+ * randomly, because the random generator can't be used from several threads.
+ */
+class LookaheadSearch {
+    private static final int MAX_PLACEMENTS = 4 * (2 * Gameboard.GAMEBOARD_COLUMNS + 1);
+
+    private final ArtificialPlayer player;
+    private final int beamWidth;
+    private final long timeBudgetNs;
+    // null to search the placements on the calling thread
+    private final ForkJoinPool pool;
+
+    private final AiGameboard rootGameboard = new AiGameboard();
+    private final int[] blockX = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+    private final int[] blockY = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+    // placements of the first piece, best first
+    private final Placement[] placements = new Placement[MAX_PLACEMENTS];
+    private int placementNum;
+    private final BeamSearch[] beamSearches;
+
+    private PieceQueue pieces;
+    private int pieceNum;
+    private long deadlineNs;
+    private int bestRotation;
+    private int bestHorizontalMove;
+
+    LookaheadSearch(ArtificialPlayer player, int beamWidth, long timeBudgetNs, ForkJoinPool pool) {
+        this.player = player;
+        this.beamWidth = beamWidth;
+        this.timeBudgetNs = timeBudgetNs;
+        this.pool = pool;
+
+        for (int i = 0; i < placements.length; i++)
+            placements[i] = new Placement();
+        beamSearches = new BeamSearch[Math.min(beamWidth, MAX_PLACEMENTS)];
+        for (int i = 0; i < beamSearches.length; i++)
+            beamSearches[i] = new BeamSearch();
+    }
+
+    /**
+     * @return the deadline of a decision starting now, to be passed to all its searches
+     */
+    long getDeadline() {
+        return timeBudgetNs > 0 ? System.nanoTime() + timeBudgetNs : Long.MAX_VALUE;
+    }
+
+    /**
+     * searches the best placement of the first piece. Must not be called concurrently.
+     *
+     * @param gameboard  is not changed
+     * @param deadlineNs see {@link #getDeadline()}
+     * @return the score of the best placement, negative infinity if no placement is possible
+     */
+    float search(AiGameboard gameboard, PieceQueue pieces, long deadlineNs) {
+        this.pieces = pieces;
+        this.pieceNum = pieces.size();
+        this.deadlineNs = deadlineNs;
+
+        ratePlacements(gameboard);
+        if (placementNum == 0)
+            return Float.NEGATIVE_INFINITY;
+
+        Placement best = placements[0];
+        float bestScore = best.score;
+
+        if (pieceNum > 1) {
+            int searchNum = Math.min(beamSearches.length, placementNum);
+            for (int i = 0; i < searchNum; i++)
+                beamSearches[i].prepare(placements[i]);
+
+            if (pool != null) {
+                // searching the best placement in this thread, the others in the pool
+                for (int i = 1; i < searchNum; i++)
+                    pool.execute(beamSearches[i]);
+                beamSearches[0].invoke();
+                for (int i = 1; i < searchNum; i++)
+                    beamSearches[i].join();
+            } else {
+                for (int i = 0; i < searchNum; i++)
+                    beamSearches[i].invoke();
+            }
+
+            // the placements are ordered by their rating, so on equal scores the better rated one stays
+            bestScore = Float.NEGATIVE_INFINITY;
+            best = null;
+            for (int i = 0; i < searchNum; i++) {
+                BeamSearch beamSearch = beamSearches[i];
+                if (beamSearch.complete && (best == null || beamSearch.bestScore > bestScore)) {
+                    best = beamSearch.placement;
+                    bestScore = beamSearch.bestScore;
+                }
+            }
+
+            // time ran out before any search completed, so go with the best rated placement
+            if (best == null) {
+                best = placements[0];
+                bestScore = best.score;
+            }
+        }
+
+        bestRotation = best.rotation;
+        bestHorizontalMove = best.horizontalMove;
+        return bestScore;
+    }
+
+    int getBestRotation() {
+        return bestRotation;
+    }
+
+    int getBestHorizontalMove() {
+        return bestHorizontalMove;
+    }
+
+    /**
+     * fills the placements of the first piece and orders them by the board they leave
+     */
+    private void ratePlacements(AiGameboard gameboard) {
+        EvaluationCache evaluationCache = EvaluationCache.get();
+        rootGameboard.set(gameboard.rows);
+        placementNum = 0;
+        Tetromino piece = pieces.get(0);
+        int pieceX = pieces.getX(0);
+        int pieceY = pieces.getY(0);
+
+        for (int rotation = 0; rotation < 4; rotation++) {
+            if (!piece.hasRotation(rotation))
+                continue;
+
+            int shape = piece.getShape(rotation);
+            for (int horizontalMove = -Gameboard.GAMEBOARD_COLUMNS; horizontalMove <= Gameboard.GAMEBOARD_COLUMNS; horizontalMove++) {
+                int dropVerticalMove = rootGameboard.setBlocks(shape, pieceX + horizontalMove, pieceY, blockX, blockY)
+                        ? rootGameboard.getDropDistance(blockX, blockY) : -1;
+                if (dropVerticalMove < 0)
+                    continue;
+
+                rootGameboard.pin(blockX, blockY, dropVerticalMove);
+                Placement placement = placements[placementNum++];
+                placement.rotation = rotation;
+                placement.horizontalMove = horizontalMove;
+                placement.completedLines = rootGameboard.clearFullLines();
+                placement.score = player.evaluate(rootGameboard, placement.completedLines, evaluationCache);
+                rootGameboard.getClearedRows(placement.rows);
+                rootGameboard.unpin(blockX, blockY, dropVerticalMove);
+            }
+        }
+
+        // insertion sort, best first. Stable, so the order of equal placements is kept
+        for (int i = 1; i < placementNum; i++) {
+            Placement placement = placements[i];
+            int j = i - 1;
+            while (j >= 0 && placements[j].score < placement.score) {
+                placements[j + 1] = placements[j];
+                j--;
+            }
+            placements[j + 1] = placement;
+        }
+    }
+
+    private static class Placement {
+        final int[] rows = new int[Gameboard.GAMEBOARD_ALLROWS];
+        int rotation;
+        int horizontalMove;
+        int completedLines;
+        float score;
+    }
+
+    /**
+     * Searches the pieces after the first one, starting from the board a placement of the first
+     * piece left. Reused for every decision, so all buffers are allocated once.
+     */
+    private class BeamSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AiGameboard gameboard = new AiGameboard();
+        private final int[] blockX = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        private final int[] blockY = new int[Tetromino.TETROMINO_BLOCKCOUNT];
+        // boards of the current and the next level
+        private int[][] beamRows;
+        private int[] beamLines;
+        private float[] beamScores;
+        private int beamNum;
+        private int[][] nextRows;
+        private int[] nextLines;
+        private float[] nextScores;
+        private int nextNum;
+
+        private EvaluationCache evaluationCache;
+
+        Placement placement;
+        boolean complete;
+        float bestScore;
+
+        BeamSearch() {
+            beamRows = new int[beamWidth][Gameboard.GAMEBOARD_ALLROWS];
+            beamLines = new int[beamWidth];
+            beamScores = new float[beamWidth];
+            nextRows = new int[beamWidth][Gameboard.GAMEBOARD_ALLROWS];
+            nextLines = new int[beamWidth];
+            nextScores = new float[beamWidth];
+        }
+
+        void prepare(Placement placement) {
+            reinitialize();
+            this.placement = placement;
+            complete = false;
+            bestScore = Float.NEGATIVE_INFINITY;
+        }
+
+        @Override
+        protected void compute() {
+            // searches handed to the pool run on any of its threads
+            evaluationCache = EvaluationCache.get();
+            search();
+            evaluationCache.publishStats();
+        }
+
+        private void search() {
+            System.arraycopy(placement.rows, 0, beamRows[0], 0, Gameboard.GAMEBOARD_ALLROWS);
+            beamLines[0] = placement.completedLines;
+            beamScores[0] = placement.score;
+            beamNum = 1;
+
+            for (int depth = 1; depth < pieceNum; depth++) {
+                nextNum = 0;
+                for (int i = 0; i < beamNum; i++) {
+                    if (System.nanoTime() > deadlineNs)
+                        return;
+                    expand(beamRows[i], beamLines[i], depth);
+                }
+
+                // swap the levels
+                int[][] rows = beamRows;
+                beamRows = nextRows;
+                nextRows = rows;
+                int[] lines = beamLines;
+                beamLines = nextLines;
+                nextLines = lines;
+                float[] scores = beamScores;
+                beamScores = nextScores;
+                nextScores = scores;
+                beamNum = nextNum;
+
+                // no placement possible, this would be game over
+                if (beamNum == 0)
+                    break;
+            }
+
+            for (int i = 0; i < beamNum; i++)
+                bestScore = Math.max(bestScore, beamScores[i]);
+            complete = true;
+        }
+
+        /**
+         * tries all placements of the piece on the given board and keeps the best in the next level
+         */
+        private void expand(int[] rows, int completedLines, int depth) {
+            gameboard.set(rows);
+            Tetromino piece = pieces.get(depth);
+            int pieceX = pieces.getX(depth);
+            int pieceY = pieces.getY(depth);
+
+            for (int rotation = 0; rotation < 4; rotation++) {
+                if (!piece.hasRotation(rotation))
+                    continue;
+
+                int shape = piece.getShape(rotation);
+                for (int horizontalMove = -Gameboard.GAMEBOARD_COLUMNS; horizontalMove <= Gameboard.GAMEBOARD_COLUMNS; horizontalMove++) {
+                    int dropVerticalMove = gameboard.setBlocks(shape, pieceX + horizontalMove, pieceY, blockX, blockY)
+                            ? gameboard.getDropDistance(blockX, blockY) : -1;
+                    if (dropVerticalMove < 0)
+                        continue;
+
+                    gameboard.pin(blockX, blockY, dropVerticalMove);
+                    int lines = completedLines + gameboard.clearFullLines();
+                    float score = player.evaluate(gameboard, lines, evaluationCache);
+                    keep(score, lines);
+                    gameboard.unpin(blockX, blockY, dropVerticalMove);
+                }
+            }
+        }
+
+        /**
+         * adds the last cleared board to the next level if it is among the best
+         */
+        private void keep(float score, int lines) {
+            int slot;
+            if (nextNum < beamWidth) {
+                slot = nextNum++;
+            } else {
+                // replace the worst one if this one is better
+                slot = 0;
+                for (int i = 1; i < nextNum; i++) {
+                    if (nextScores[i] < nextScores[slot])
+                        slot = i;
+                }
+                if (nextScores[slot] >= score)
+                    return;
+            }
+
+            gameboard.getClearedRows(nextRows[slot]);
+            nextLines[slot] = lines;
+            nextScores[slot] = score;
+        }
+    }
+}
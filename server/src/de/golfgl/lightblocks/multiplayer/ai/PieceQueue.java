@@ -0,0 +1,63 @@
+package de.golfgl.lightblocks.multiplayer.ai;
+
+import de.golfgl.lightblocks.model.Tetromino;
+
+/**
+ * The pieces a decision of {@link ArtificialPlayer} is based on, in the order they are placed.
+ * The positions are copied when a piece is added, because the active piece keeps falling while
+ * the decision is made on a worker thread. The shapes of a piece never change, so the pieces
+ * themselves are only referenced.
+ */
+class PieceQueue {
+    private final Tetromino[] pieces;
+    private final int[] pieceX;
+    private final int[] pieceY;
+    private int size;
+
+    PieceQueue(int capacity) {
+        pieces = new Tetromino[capacity];
+        pieceX = new int[capacity];
+        pieceY = new int[capacity];
+    }
+
+    void clear() {
+        // don't hold on to the pieces of past games
+        for (int i = 0; i < size; i++)
+            pieces[i] = null;
+        size = 0;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    boolean add(Tetromino piece) {
+        if (size == pieces.length)
+            return false;
+
+        pieces[size] = piece;
+        pieceX[size] = piece.getPositionX();
+        pieceY[size] = piece.getPositionY();
+        size++;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return pieces.length;
+    }
+
+    Tetromino get(int index) {
+        return pieces[index];
+    }
+
+    int getX(int index) {
+        return pieceX[index];
+    }
+
+    int getY(int index) {
+        return pieceY[index];
+    }
+}
@@ -0,0 +1,73 @@
+package de.golfgl.lightblocks.server;
+
+import com.badlogic.gdx.Gdx;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool the artificial players of all matches make their decisions on, so a slow decision does not
+ * hold up the tick of its match. It is a work-stealing pool, so the parallel parts of the
+ * lookahead search run on it as well.
+ * <p>
+ * The number of waiting decisions is bounded. When the pool is that far behind, a decision is
+ * rejected and the artificial player tries again on a later tick, so the ticks are never held up
+ * by a search.
+ */
+public class AiWorkerPool implements Executor {
+    private final ForkJoinPool pool;
+    private final ServerMetrics metrics;
+    private final int maxQueued;
+    private final AtomicInteger queued = new AtomicInteger();
+
+    public AiWorkerPool(ServerMetrics metrics, int threadNum, int maxQueued) {
+        this.metrics = metrics;
+        this.maxQueued = maxQueued;
+        pool = new ForkJoinPool(threadNum);
+    }
+
+    /**
+     * @throws RejectedExecutionException if too many decisions are waiting already
+     */
+    @Override
+    public void execute(final Runnable decision) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            metrics.aiDecisionsDeferred.incrementAndGet();
+            throw new RejectedExecutionException("AI pool is full");
+        }
+
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    decision.run();
+                } catch (Throwable t) {
+                    Gdx.app.error("AI", "Uncaught error ", t);
+                } finally {
+                    queued.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the pool the lookahead search runs its parallel parts on
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return decisions waiting or being made
+     */
+    public int getQueuedNum() {
+        return queued.get();
+    }
+
+    public void stop() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,143 @@
+package de.golfgl.lightblocks.server;
+
+import java.nio.ByteBuffer;
+
+import de.golfgl.lightblocks.model.Gameboard;
+import de.golfgl.lightblocks.model.PackedPiece;
+import de.golfgl.lightblocks.model.Tetromino;
+
+/**
+ * Binary frame protocol for in-game events. Clients announce the version they support in their
+ * PlayerInfo, the server falls back to the text protocol for clients that don't.
+ * <p>
+ * Every event starts with a single opcode byte. Its highest bit is set for events concerning the
+ * opponent's gameboard (the "O" prefix of the text protocol), otherwise it is the player's own
+ * gameboard ("Y"). Piece positions are packed into one byte per block (y * columns + x), all other
+ * numbers are written as varints. A copy of this class lives in the client.
+ * <p>
+ * All events for a player produced in one tick are sent together in a single batch frame: the
+ * batch opcode, followed by each event prefixed with its length as varint.
+ * <p>
+ * Version 2: the pin event carries the state hash of the gameboard after pinning, see
+ * Gameboard.getStateHash(). A client finding a different hash for its own gameboard sends a resync
+ * request with the last hash that matched. The server answers with a resync event holding the rows
+ * that changed since then, or all rows if it doesn't know that state anymore. Clients of version 1
+ * skip the hash, as events in a batch are length prefixed.
+ * <p>
+ * Version 3: a client may connect as spectator of a running match. It gets the match information
+ * of the first player and then the same batch frames as that player, except for resync events
+ * answering the player's own requests. Spectators may request resyncs, but must not send inputs.
+ */
+public class BinaryProtocol {
+    public static final int VERSION = 3;
+
+    public static final int FLAG_OPPONENT = 0x80;
+    public static final int MAX_EVENT_SIZE = 512;
+    public static final int MAX_BATCH_SIZE = 4096;
+
+    // server to client: in-game events
+    public static final byte EVT_MOVE = 1;
+    public static final byte EVT_ROTATE = 2;
+    public static final byte EVT_ACTIVATE_NEXT = 3;
+    public static final byte EVT_NEXT = 4;
+    public static final byte EVT_HOLD = 5;
+    public static final byte EVT_CLEAR = 6;
+    public static final byte EVT_CONFLICT = 7;
+    public static final byte EVT_GARBAGE = 8;
+    public static final byte EVT_PIN = 9;
+    public static final byte EVT_GAME_OVER = 10;
+    public static final byte EVT_SCORE = 11;
+    public static final byte EVT_MOTIVATION = 12;
+    public static final byte EVT_BATCH = 13;
+    public static final byte EVT_RESYNC = 14;
+
+    // client to server: inputs, one byte each
+    public static final byte IN_START_MOVE_LEFT = 1;
+    public static final byte IN_START_MOVE_RIGHT = 2;
+    public static final byte IN_STOP_MOVE = 3;
+    public static final byte IN_HOLD = 4;
+    public static final byte IN_ROTATE_RIGHT = 5;
+    public static final byte IN_ROTATE_LEFT = 6;
+    public static final byte IN_DROP_NONE = 7;
+    public static final byte IN_DROP_SOFT = 8;
+    public static final byte IN_DROP_HARD = 9;
+    // followed by a flags byte and the hash of the last matching state, see RESYNC_ flags
+    public static final byte IN_RESYNC = 10;
+    public static final int RESYNC_REQUEST_SIZE = 6;
+
+    // flags of resync request and event
+    public static final int RESYNC_OPPONENT = 1;
+    public static final int RESYNC_DELTA = 2;
+
+    public static boolean isValidInput(byte input) {
+        return input >= IN_START_MOVE_LEFT && input <= IN_DROP_HARD;
+    }
+
+    /**
+     * decodes the three letter in game message of the text protocol at the given offset in place
+     *
+     * @return the input opcode, or 0 if the message is unknown
+     */
+    public static byte textToInput(String message, int offset) {
+        if (message.length() != offset + 3)
+            return 0;
+
+        char c1 = message.charAt(offset);
+        char c2 = message.charAt(offset + 1);
+        char c3 = message.charAt(offset + 2);
+        if (c1 == 'S' && c2 == 'M') {
+            if (c3 == 'L')
+                return IN_START_MOVE_LEFT;
+            if (c3 == 'R')
+                return IN_START_MOVE_RIGHT;
+            if (c3 == 'H')
+                return IN_STOP_MOVE;
+        } else if (c1 == 'H' && c2 == 'A' && c3 == 'T') {
+            return IN_HOLD;
+        } else if (c1 == 'R' && c2 == 'O') {
+            if (c3 == 'R')
+                return IN_ROTATE_RIGHT;
+            if (c3 == 'L')
+                return IN_ROTATE_LEFT;
+        } else if (c1 == 'D' && c2 == 'R') {
+            if (c3 == 'N')
+                return IN_DROP_NONE;
+            if (c3 == 'S')
+                return IN_DROP_SOFT;
+            if (c3 == 'H')
+                return IN_DROP_HARD;
+        }
+        return 0;
+    }
+
+    public static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static void writeSignedVarInt(ByteBuffer buffer, int value) {
+        // zigzag encoding keeps small negative numbers small
+        writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    public static void writePiece(ByteBuffer buffer, long piece) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            buffer.put((byte) (PackedPiece.getY(piece, i) * Gameboard.GAMEBOARD_COLUMNS + PackedPiece.getX(piece, i)));
+        }
+    }
+
+    /**
+     * writes the string's chars as single bytes, only meant for the plain latin texts the server sends
+     */
+    public static void writeString(ByteBuffer buffer, String string) {
+        int length = Math.min(string.length(), buffer.remaining() - 5);
+        writeVarInt(buffer, length);
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            buffer.put((byte) (c < 256 ? c : '?'));
+        }
+    }
+}
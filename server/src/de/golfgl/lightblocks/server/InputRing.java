@@ -0,0 +1,72 @@
+package de.golfgl.lightblocks.server;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Preallocated ring of input opcodes a player sent since the last tick. Offering and polling
+ * does not allocate anything, so the input path produces no garbage no matter how many players
+ * are connected.
+ * <p>
+ * The ring is lock-free for a single producer, the player's WebSocket thread, and a single
+ * consumer, the match tick. Each side only writes its own index and publishes it with an ordered
+ * store, so neither of them ever waits for the other.
+ */
+public class InputRing {
+    // more inputs than this within a single tick are not humanly possible
+    public static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    private static final AtomicIntegerFieldUpdater<InputRing> HEAD =
+            AtomicIntegerFieldUpdater.newUpdater(InputRing.class, "head");
+    private static final AtomicIntegerFieldUpdater<InputRing> TAIL =
+            AtomicIntegerFieldUpdater.newUpdater(InputRing.class, "tail");
+
+    private final byte[] inputs = new byte[CAPACITY];
+    // only written by the consumer
+    private volatile int head;
+    // only written by the producer
+    private volatile int tail;
+
+    /**
+     * called by the producer
+     *
+     * @return false if the ring is full and the input was dropped
+     */
+    public boolean offer(byte input) {
+        int currentTail = tail;
+        if (currentTail - head >= CAPACITY)
+            return false;
+
+        inputs[currentTail & MASK] = input;
+        TAIL.lazySet(this, currentTail + 1);
+        return true;
+    }
+
+    /**
+     * called by the consumer
+     *
+     * @return the oldest input, or 0 if the ring is empty
+     */
+    public byte poll() {
+        int currentHead = head;
+        if (currentHead == tail)
+            return 0;
+
+        byte input = inputs[currentHead & MASK];
+        HEAD.lazySet(this, currentHead + 1);
+        return input;
+    }
+
+    /**
+     * @return a snapshot of the number of inputs waiting
+     */
+    public int size() {
+        return tail - head;
+    }
+
+    /**
+     * called by the consumer, drops all inputs offered so far
+     */
+    public void clear() {
+        HEAD.lazySet(this, tail);
+    }
+}
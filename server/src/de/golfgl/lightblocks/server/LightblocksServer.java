@@ -1,13 +1,11 @@
 package de.golfgl.lightblocks.server;
 
+import com.badlogic.gdx.Application;
 import com.badlogic.gdx.ApplicationListener;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.backends.headless.HeadlessApplication;
 import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
 import com.badlogic.gdx.backends.headless.mock.graphics.MockGraphics;
-import com.badlogic.gdx.utils.GdxRuntimeException;
-import com.badlogic.gdx.utils.Queue;
-import com.badlogic.gdx.utils.TimeUtils;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
@@ -17,6 +15,10 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.jmdns.JmDNS;
 import javax.jmdns.ServiceInfo;
@@ -26,21 +28,25 @@ import de.golfgl.lightblocks.server.model.ServerInfo;
 public class LightblocksServer extends WebSocketServer implements ApplicationListener {
     public static final int SERVER_VERSION = 2104; // reported to the clients, don't mess with it
     public static final int STATS_AGGREGATION_TIME_HRS = 24;
+    // fan-out tasks of all matches waiting at most, further ones are rejected
+    private static final int SPECTATOR_FAN_OUT_QUEUE_SIZE = 1024;
 
     final ServerConfiguration serverConfig;
     final Serializer serializer = new Serializer();
     final ServerStats serverStats = new ServerStats();
+    final ServerMetrics metrics = new ServerMetrics(this);
     private final ServerInfo serverInfo;
-    private final Match[] matches;
-    private final Queue<Player> playerToConnectQueue = new Queue<>();
-    private boolean running = true;
+    MatchScheduler scheduler;
+    AiWorkerPool aiWorkers;
+    Matchmaker matchmaker;
+    // sends the shared frames to the spectators of all matches, in order. Bounded, see Match#fanOut
+    ExecutorService spectatorFanOut;
     private JmDNS jmdns;
 
     public LightblocksServer(InetSocketAddress address, ServerConfiguration serverConfiguration) {
         super(address);
         this.serverConfig = serverConfiguration;
         this.serverInfo = serverConfiguration.getServerInfo();
-        this.matches = new Match[serverConfig.threadNum - 1];
     }
 
     public static void main(String[] arg) {
@@ -51,7 +57,13 @@ public class LightblocksServer extends WebSocketServer implements ApplicationLis
         new HeadlessApplication(server, config) {
             @Override
             public void exit() {
-                server.running = false;
+                if (server.scheduler != null)
+                    server.scheduler.stop();
+                if (server.aiWorkers != null)
+                    server.aiWorkers.stop();
+                if (server.spectatorFanOut != null)
+                    server.spectatorFanOut.shutdown();
+                server.metrics.stopEndpoint();
                 // Unregister all services
                 if (server.jmdns != null) {
                     server.jmdns.unregisterAllServices();
@@ -69,47 +81,16 @@ public class LightblocksServer extends WebSocketServer implements ApplicationLis
     }
 
     private void startThreads() {
-        // thread 1 was started by HeadlessApplication - start up the other threads
+        // thread 1 was started by HeadlessApplication - start up the match scheduler
         final long renderInterval = ((MockGraphics) Gdx.graphics).getTargetRenderInterval();
-        for (int i = 1; i < serverConfig.threadNum; i++) {
-            final int threadNum = i;
-            matches[i - 1] = new Match(this);
-            new Thread("Render" + i) {
-                @Override
-                public void run() {
-                    try {
-                        long lastTime = TimeUtils.nanoTime();
-                        long nextTime = TimeUtils.nanoTime() + renderInterval;
-                        if (renderInterval >= 0f) {
-                            while (running) {
-                                final long n = TimeUtils.nanoTime();
-                                if (nextTime > n) {
-                                    try {
-                                        long sleep = nextTime - n;
-                                        Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
-                                    } catch (InterruptedException ignored) {
-                                    }
-                                    nextTime = nextTime + renderInterval;
-                                } else {
-                                    nextTime = n + renderInterval;
-                                }
-
-                                long now = System.nanoTime();
-                                float deltaTime = (now - lastTime) / 1000000000.0f;
-                                lastTime = now;
-
-                                renderThread(threadNum, deltaTime);
-                            }
-                        }
-                    } catch (Throwable t) {
-                        if (t instanceof RuntimeException)
-                            throw (RuntimeException) t;
-                        else
-                            throw new GdxRuntimeException(t);
-                    }
-                }
-            }.start();
-        }
+        aiWorkers = new AiWorkerPool(metrics, serverConfig.aiThreadNum, serverConfig.aiMaxQueued);
+        spectatorFanOut = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(SPECTATOR_FAN_OUT_QUEUE_SIZE));
+        scheduler = new MatchScheduler(this, renderInterval);
+        matchmaker = new Matchmaker(this, scheduler);
+        scheduler.start();
+        if (serverConfig.metricsPort > 0)
+            metrics.startEndpoint(serverConfig.metricsPort);
     }
 
     @Override
@@ -145,50 +126,19 @@ public class LightblocksServer extends WebSocketServer implements ApplicationLis
     public void render() {
         // update game state here
         try {
-            connectWaitingPlayers();
+            if (matchmaker != null)
+                matchmaker.connectWaitingPlayers();
 
             serverStats.outputAndResetAfter(60 * 60 * STATS_AGGREGATION_TIME_HRS);
-        } catch (Throwable t) {
-            Gdx.app.error("Server", "Uncaught error ", t);
-        }
-    }
-
-    public void renderThread(int thread, float delta) {
-        try {
-            // update corresponding game model
-            // Gdx.app.debug("Match" + thread, "update with delta " + delta);
-            matches[thread - 1].update(delta);
+            metrics.rotateWindows();
         } catch (Throwable t) {
             Gdx.app.error("Server", "Uncaught error ", t);
         }
     }
 
     public void findMatchForPlayer(Player player) {
-        synchronized (playerToConnectQueue) {
-            // not found, enqueue the player to the waitlist
-            playerToConnectQueue.addLast(player);
-            player.sendMessageToPlayer("Matchmaking...");
-        }
-    }
-
-    public void connectWaitingPlayers() {
-        synchronized (playerToConnectQueue) {
-            if (playerToConnectQueue.isEmpty())
-                return;
-
-            Player first = playerToConnectQueue.first();
-            boolean connected = false;
-            for (int i = 1; i < serverConfig.threadNum; i++) {
-                if (!connected && matches[i - 1].connectPlayer(first)) {
-                    Gdx.app.debug("Server", "Connected player to match " + i);
-                    first.addPlayerToMatch(matches[i - 1]);
-                    connected = true;
-                }
-            }
-
-            if (connected)
-                playerToConnectQueue.removeFirst();
-        }
+        player.sendMessageToPlayer(player.spectator ? "Looking for a match to watch..." : "Matchmaking...");
+        matchmaker.addWaitingPlayer(player);
     }
 
     @Override
@@ -230,9 +180,17 @@ public class LightblocksServer extends WebSocketServer implements ApplicationLis
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        Gdx.app.debug("Server", "received message from " + conn.getRemoteSocketAddress() + ": " + message);
+        if (Gdx.app.getLogLevel() >= Application.LOG_DEBUG)
+            Gdx.app.debug("Server", "received message from " + conn.getRemoteSocketAddress() + ": " + message);
         if (message.equals("PING")) {
             conn.send("PONG");
+        } else if (conn.getAttachment() != null && message.startsWith(Serializer.ID_IN_GAME_MSG)) {
+            // in game messages are the most frequent ones, decode them in place
+            byte input = BinaryProtocol.textToInput(message, Serializer.ID_IN_GAME_MSG.length());
+            if (input == 0)
+                Gdx.app.log("Server", "Unrecognized game message: " + message);
+            else
+                onInput(conn, input);
         } else if (conn.getAttachment() != null) {
             Object object = serializer.deserialize(message);
             if (object != null) try {
@@ -249,7 +207,48 @@ public class LightblocksServer extends WebSocketServer implements ApplicationLis
 
     @Override
     public void onMessage(WebSocket conn, ByteBuffer message) {
-        Gdx.app.debug("Server", "received ByteBuffer from " + conn.getRemoteSocketAddress());
+        if (Gdx.app.getLogLevel() >= Application.LOG_DEBUG)
+            Gdx.app.debug("Server", "received ByteBuffer from " + conn.getRemoteSocketAddress());
+        if (conn.getAttachment() != null) {
+            // binary frames carry input opcodes, one byte each, and resync requests
+            while (message.hasRemaining()) {
+                byte input = message.get();
+                if (input == BinaryProtocol.IN_RESYNC && message.remaining() >= BinaryProtocol.RESYNC_REQUEST_SIZE - 1) {
+                    int flags = message.get() & 0xFF;
+                    if (!onResyncRequest(conn, flags, message.getInt()))
+                        return;
+                    continue;
+                }
+                if (!BinaryProtocol.isValidInput(input)) {
+                    conn.close(4101, "Message illegible.");
+                    return;
+                }
+                if (!onInput(conn, input))
+                    return;
+            }
+        }
+    }
+
+    private boolean onInput(WebSocket conn, byte input) {
+        try {
+            conn.<Player>getAttachment().onInput(input);
+            return true;
+        } catch (Player.UnexpectedException e) {
+            Gdx.app.error("Server", "Unexpected game input for player: " + input);
+            conn.close(4101, "Message unexpected.");
+            return false;
+        }
+    }
+
+    private boolean onResyncRequest(WebSocket conn, int flags, int baseHash) {
+        try {
+            conn.<Player>getAttachment().onResyncRequest(flags, baseHash);
+            return true;
+        } catch (Player.UnexpectedException e) {
+            Gdx.app.error("Server", "Unexpected resync request for player");
+            conn.close(4101, "Message unexpected.");
+            return false;
+        }
     }
 
     @Override
@@ -2,44 +2,92 @@ package de.golfgl.lightblocks.server;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
-import com.badlogic.gdx.utils.Queue;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
 import de.golfgl.lightblocks.model.GameModel;
 import de.golfgl.lightblocks.model.GameScore;
+import de.golfgl.lightblocks.model.Gameboard;
 import de.golfgl.lightblocks.model.IGameModelListener;
+import de.golfgl.lightblocks.model.PackedPiece;
 import de.golfgl.lightblocks.model.ServerMultiplayerModel;
 import de.golfgl.lightblocks.model.Tetromino;
 import de.golfgl.lightblocks.multiplayer.ai.ArtificialPlayer;
-import de.golfgl.lightblocks.server.model.InGameMessage;
 import de.golfgl.lightblocks.server.model.MatchInfo;
 import de.golfgl.lightblocks.state.InitGameParameters;
 
 /**
  * Manages match between to players: Links game model and Player classes and manages state of the
  * game model based on the connection states.
+ * <p>
+ * Players connect and disconnect on other threads than the one ticking the match. They only swap
+ * the atomic player slots, the tick picks the changes up on its next run. That way, neither side
+ * ever waits for the other.
+ * <p>
+ * Spectators watch the match from the first player's point of view. They join with the match
+ * information as snapshot and then get the binary events of every tick. The events are batched
+ * once per tick into a shared frame, which is handed to a single fan-out thread together with an
+ * immutable array of the spectators. So the tick's work does not depend on the number of
+ * spectators, only joins and leaves copy the array.
+ * <p>
+ * The fan-out's queue is bounded. When the fan-out is behind on a match's frames, further ones
+ * are dropped, and the spectators get the match information anew once it caught up.
  */
 public class Match {
     public static final float WAIT_TIME_GAME_OVER = 4f;
     public static final float WAIT_TIME_START_PLAYNG = 3f;
+    private static final float SPECTATOR_TIMEOUT_CHECK_INTERVAL = 1f;
+    private static final Player[] NO_SPECTATORS = new Player[0];
+    // fan-out tasks of a match waiting at most, before its frames are dropped
+    private static final int MAX_PENDING_FAN_OUTS = 16;
     private final InitGameParameters gameParams;
     private final LightblocksServer server;
-    private final Queue<InGameMessage> p1Queue = new Queue<>();
-    private final Queue<InGameMessage> p2Queue = new Queue<>();
+    private final int bucketKey;
+    private final AtomicReference<Player> player1Slot = new AtomicReference<>();
+    private final AtomicReference<Player> player2Slot = new AtomicReference<>();
+    // the players as seen by the tick, only accessed on the tick thread
     private Player player1;
     private float player1WaitTime;
     private Player player2;
     private float player2WaitTime;
     private ServerMultiplayerModel gameModel;
+    private Listener listener1;
+    private Listener listener2;
     private float waitGameOver = WAIT_TIME_GAME_OVER;
-
-    public Match(LightblocksServer server) {
+    // spectators join and leave on other threads, the tick picks the changes up like the player slots
+    private final ConcurrentLinkedQueue<Player> joiningSpectators = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Player> leavingSpectators = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Player> resyncingSpectators = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger spectatorNum = new AtomicInteger();
+    // the spectators as seen by the tick. Never changed, but replaced, as the fan-out still uses it
+    private Player[] spectators = NO_SPECTATORS;
+    // binary events of the current tick for the spectators, sent as one shared frame
+    private final ByteBuffer spectatorBatch = ByteBuffer.allocate(BinaryProtocol.MAX_BATCH_SIZE);
+    private float spectatorTimeoutCheck;
+    private final AtomicInteger pendingFanOuts = new AtomicInteger();
+    // frames were dropped, so the spectators need the match information again
+    private boolean spectatorsBehind;
+    // only accessed by the matchmaker
+    private boolean retired;
+    // the matchmaker's free slot stack the match is on and its index there, null if on none
+    Array<Match> freeSlotStack;
+    int freeSlotIndex;
+
+    public Match(LightblocksServer server, int bucketKey, int modeType, int beginningLevel) {
         this.server = server;
+        this.bucketKey = bucketKey;
         gameParams = new InitGameParameters();
-        gameParams.setBeginningLevel(server.serverConfig.beginningLevel);
-        int modeType = server.serverConfig.modeType;
+        gameParams.setBeginningLevel(beginningLevel);
         if (modeType == InitGameParameters.TYPE_MIX) {
             modeType = MathUtils.randomBoolean() ? InitGameParameters.TYPE_CLASSIC : InitGameParameters.TYPE_MODERN;
         }
@@ -47,11 +95,15 @@ public class Match {
     }
 
     public void update(float delta) {
-        if (getConnectedPlayerNum() == 0) {
+        takeOverPlayerSlots();
+
+        if (player1 == null && player2 == null) {
+            releaseSpectators();
             if (server.serverConfig.resetEmptyRooms)
                 gameModel = null;
             return;
         }
+        takeOverSpectators();
 
         boolean sendWaitMessageP1 = false;
         boolean sendWaitMessageP2 = false;
@@ -82,27 +134,24 @@ public class Match {
         gameModel.setAiEnabled(player1Disabled);
         gameModel.getSecondGameModel().setAiEnabled(player2Disabled);
 
-        // process the queues
-        synchronized (p1Queue) {
-            if (player1Disabled)
-                p1Queue.clear();
-            else
-                processQueue(gameModel, p1Queue);
-        }
-        synchronized (p2Queue) {
-            if (player2Disabled)
-                p2Queue.clear();
-            else
-                processQueue(gameModel.getSecondGameModel(), p2Queue);
-        }
+        // process the inputs
+        processInputs(gameModel, player1, player1Disabled);
+        processInputs(gameModel.getSecondGameModel(), player2, player2Disabled);
 
         gameModel.update(delta);
 
+        // answered with the state after this tick's events
+        processResyncRequests(player1, true);
+        processResyncRequests(player2, false);
+        processSpectatorResyncRequests();
+
         if (gameModel.isGameOver()) {
             boolean sendMessage;
             if (waitGameOver > 0) {
-                if (waitGameOver == WAIT_TIME_GAME_OVER)
+                if (waitGameOver == WAIT_TIME_GAME_OVER) {
                     server.serverStats.matchesEnded++;
+                    reportResult();
+                }
                 sendMessage = (MathUtils.floor(waitGameOver) != MathUtils.floor(waitGameOver - delta));
                 waitGameOver = waitGameOver - delta;
             } else {
@@ -120,6 +169,29 @@ public class Match {
 
         checkPlayerActivity(player1);
         checkPlayerActivity(player2);
+        checkSpectatorActivity(delta);
+
+        // send everything the players got during this tick
+        flushEvents(player1);
+        flushEvents(player2);
+        flushSpectatorEvents();
+    }
+
+    private void reportResult() {
+        if (player1 == null || player2 == null)
+            return;
+
+        if (gameModel.isGameWon())
+            server.matchmaker.reportResult(player1.userId, player2.userId);
+        else if (gameModel.getSecondGameModel().isGameWon())
+            server.matchmaker.reportResult(player2.userId, player1.userId);
+    }
+
+    private void flushEvents(Player player) {
+        if (player != null) {
+            player.flushEvents();
+            player.dismissWarningIfRequested();
+        }
     }
 
     /**
@@ -152,23 +224,33 @@ public class Match {
             player.sendMessageToPlayer(s);
     }
 
-    private void processQueue(ServerMultiplayerModel gameModel, Queue<InGameMessage> queue) {
+    private void processInputs(ServerMultiplayerModel gameModel, Player player, boolean disabled) {
+        if (player == null)
+            return;
+
+        InputRing inputs = player.getInputs();
+        if (disabled) {
+            inputs.clear();
+            return;
+        }
+        server.metrics.inputQueueDepth.record(inputs.size());
+
         // ensure to make a single column move for movements that ended in same processing cycle
         boolean rightMoveStartedBefore = false;
         boolean leftMoveStartedBefore = false;
 
-        while (!queue.isEmpty()) {
-            InGameMessage igm = queue.removeFirst();
-            switch (igm.message) {
-                case "SML":
+        byte input;
+        while ((input = inputs.poll()) != 0) {
+            switch (input) {
+                case BinaryProtocol.IN_START_MOVE_LEFT:
                     gameModel.inputStartMoveHorizontal(null, true);
                     leftMoveStartedBefore = true;
                     break;
-                case "SMR":
+                case BinaryProtocol.IN_START_MOVE_RIGHT:
                     gameModel.inputStartMoveHorizontal(null, false);
                     rightMoveStartedBefore = true;
                     break;
-                case "SMH":
+                case BinaryProtocol.IN_STOP_MOVE:
                     gameModel.inputEndMoveHorizontal(null, true);
                     gameModel.inputEndMoveHorizontal(null, false);
                     if (leftMoveStartedBefore) {
@@ -180,40 +262,77 @@ public class Match {
                         gameModel.inputDoOneHorizontalMove(null, false);
                     }
                     break;
-                case "HAT":
+                case BinaryProtocol.IN_HOLD:
                     gameModel.inputHoldActiveTetromino(null);
                     break;
-                case "ROR":
+                case BinaryProtocol.IN_ROTATE_RIGHT:
                     gameModel.inputRotate(null, true);
                     break;
-                case "ROL":
+                case BinaryProtocol.IN_ROTATE_LEFT:
                     gameModel.inputRotate(null, false);
                     break;
-                case "DRN":
+                case BinaryProtocol.IN_DROP_NONE:
                     gameModel.inputSetSoftDropFactor(null, GameModel.FACTOR_NO_DROP);
                     break;
-                case "DRS":
+                case BinaryProtocol.IN_DROP_SOFT:
                     gameModel.inputSetSoftDropFactor(null, GameModel.FACTOR_SOFT_DROP);
                     break;
-                case "DRH":
+                case BinaryProtocol.IN_DROP_HARD:
                     gameModel.inputSetSoftDropFactor(null, GameModel.FACTOR_HARD_DROP);
                     break;
                 default:
-                    Gdx.app.log("Match", "Unrecognized game message: " + igm.message);
+                    Gdx.app.log("Match", "Unrecognized game input: " + input);
             }
         }
     }
 
+    private void processResyncRequests(Player player, boolean first) {
+        if (player == null)
+            return;
+
+        for (int i = 0; i < 2; i++) {
+            boolean opponent = i == 1;
+            long request = player.takeResyncRequest(opponent);
+            if (request != 0) {
+                // player 1's own gameboard is the one of the first game model
+                Listener listener = first != opponent ? listener1 : listener2;
+                listener.sendResync(player, opponent, Player.getResyncFlags(request),
+                        Player.getResyncBaseHash(request));
+            }
+        }
+    }
+
+    /**
+     * all requests of spectators in this tick are answered with a single full resync per gameboard,
+     * sent to all spectators. A spectator that is in sync is not affected by it.
+     */
+    private void processSpectatorResyncRequests() {
+        boolean ownRequested = false;
+        boolean opponentRequested = false;
+        Player spectator;
+        while ((spectator = resyncingSpectators.poll()) != null) {
+            ownRequested = spectator.takeResyncRequest(false) != 0 || ownRequested;
+            opponentRequested = spectator.takeResyncRequest(true) != 0 || opponentRequested;
+        }
+
+        if (ownRequested)
+            listener1.sendResyncToSpectators();
+        if (opponentRequested)
+            listener2.sendResyncToSpectators();
+    }
+
     private void initGameModel() {
         gameModel = new ServerMultiplayerModel();
         gameModel.startNewGame(gameParams);
         ServerMultiplayerModel secondGameModel = gameModel.getSecondGameModel();
 
-        gameModel.setAiPlayer(new ArtificialPlayer(gameModel, secondGameModel));
-        secondGameModel.setAiPlayer(new ArtificialPlayer(secondGameModel, gameModel));
+        gameModel.setAiPlayer(createAiPlayer(gameModel, secondGameModel));
+        secondGameModel.setAiPlayer(createAiPlayer(secondGameModel, gameModel));
 
-        gameModel.setUserInterface(new Listener(true));
-        secondGameModel.setUserInterface(new Listener(false));
+        listener1 = new Listener(gameModel, true);
+        listener2 = new Listener(secondGameModel, false);
+        gameModel.setUserInterface(listener1);
+        secondGameModel.setUserInterface(listener2);
 
         gameModel.setFreezeInterval(WAIT_TIME_START_PLAYNG);
         secondGameModel.setFreezeInterval(WAIT_TIME_START_PLAYNG);
@@ -222,54 +341,299 @@ public class Match {
 
     }
 
-    public boolean connectPlayer(Player player) {
-        synchronized (this) {
-            if (player1 == null) {
-                player1 = player;
+    /**
+     * applies connects and disconnects that happened since the last tick
+     */
+    private void takeOverPlayerSlots() {
+        Player slot1 = player1Slot.get();
+        Player slot2 = player2Slot.get();
+        if (slot1 == player1 && slot2 == player2)
+            return;
+
+        if (slot1 != player1) {
+            player1 = slot1;
+            if (slot1 != null)
                 player1WaitTime = WAIT_TIME_START_PLAYNG;
-                return true;
-            }
-            if (player2 == null) {
-                player2 = player;
+        }
+        if (slot2 != player2) {
+            player2 = slot2;
+            if (slot2 != null)
                 player2WaitTime = WAIT_TIME_START_PLAYNG;
-                return true;
+        }
+        sendFullInformation();
+    }
+
+    private ArtificialPlayer createAiPlayer(ServerMultiplayerModel model, ServerMultiplayerModel opponent) {
+        ArtificialPlayer aiPlayer = new ArtificialPlayer(model, opponent) {
+            @Override
+            protected void planMovements() {
+                long start = TimeUtils.nanoTime();
+                super.planMovements();
+                server.metrics.aiDecision.record(TimeUtils.nanoTime() - start);
             }
-            return false;
+        };
+        ServerConfiguration config = server.serverConfig;
+        aiPlayer.setLookahead(config.aiDepth, config.aiBeamWidth, config.aiBudgetMs, server.aiWorkers.getPool());
+        // decisions must not hold up the tick of this match
+        aiPlayer.setExecutor(server.aiWorkers);
+        return aiPlayer;
+    }
+
+    /**
+     * applies spectators' joins and leaves that happened since the last tick. Joining spectators
+     * get the match information, the events follow with the tick's shared frame.
+     */
+    private void takeOverSpectators() {
+        if (joiningSpectators.isEmpty() && leavingSpectators.isEmpty())
+            return;
+
+        Array<Player> changed = new Array<>(false, spectators.length + 4, Player.class);
+        changed.addAll(spectators);
+        Player spectator;
+        while ((spectator = leavingSpectators.poll()) != null) {
+            if (changed.removeValue(spectator, true))
+                spectatorRemoved();
         }
+        int firstJoined = changed.size;
+        while ((spectator = joiningSpectators.poll()) != null) {
+            if (spectator.state == Player.ConnectionState.WATCHING)
+                changed.add(spectator);
+            else
+                spectatorRemoved();
+        }
+        spectators = changed.size > 0 ? changed.toArray() : NO_SPECTATORS;
+
+        // without game model, the match information follows when the game is initialized
+        if (spectators.length > firstJoined && gameModel != null)
+            fanOut(SharedFrame.text(server.serializer.serialize(getMatchInfo())),
+                    Arrays.copyOfRange(spectators, firstJoined, spectators.length));
     }
 
-    public void playerDisconnected(Player player) {
-        synchronized (this) {
-            if (player == player1) {
-                player1 = null;
-            } else if (player == player2) {
-                player2 = null;
+    /**
+     * sends the spectators back to the matchmaker, as nobody plays here anymore
+     */
+    private void releaseSpectators() {
+        if (spectators.length == 0 && joiningSpectators.isEmpty())
+            return;
+
+        Array<Player> released = new Array<>(false, spectators.length + 4, Player.class);
+        released.addAll(spectators);
+        Player spectator;
+        while ((spectator = joiningSpectators.poll()) != null)
+            released.add(spectator);
+        leavingSpectators.clear();
+        resyncingSpectators.clear();
+        spectatorBatch.clear();
+        spectators = NO_SPECTATORS;
+        for (int i = 0; i < released.size; i++)
+            spectatorRemoved();
+
+        spectatorsBehind = false;
+        final Player[] releasedSpectators = released.toArray();
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                for (Player spectator : releasedSpectators)
+                    spectator.leaveWatchedMatch();
             }
+        };
+        // the spectators must not be left behind, even if the fan-out is full
+        if (!executeFanOut(release))
+            release.run();
+        // the match can be retired now
+        server.matchmaker.matchFreed(this);
+    }
+
+    private void spectatorRemoved() {
+        spectatorNum.decrementAndGet();
+        server.metrics.spectators.decrementAndGet();
+    }
+
+    private void checkSpectatorActivity(float delta) {
+        spectatorTimeoutCheck = spectatorTimeoutCheck + delta;
+        if (spectatorTimeoutCheck < SPECTATOR_TIMEOUT_CHECK_INTERVAL || spectators.length == 0)
+            return;
+
+        spectatorTimeoutCheck = 0;
+        final Player[] recipients = spectators;
+        executeFanOut(new Runnable() {
+            @Override
+            public void run() {
+                for (Player spectator : recipients)
+                    spectator.checkTimeOuts();
+            }
+        });
+    }
+
+    private void queueSpectatorEvent(ByteBuffer event, byte eventType) {
+        int length = event.limit();
+        if (spectatorBatch.remaining() < length + 5)
+            flushSpectatorEvents();
+        if (spectatorBatch.position() == 0)
+            spectatorBatch.put(BinaryProtocol.EVT_BATCH);
+
+        BinaryProtocol.writeVarInt(spectatorBatch, length);
+        event.put(0, eventType);
+        event.position(0);
+        spectatorBatch.put(event);
+    }
+
+    private void flushSpectatorEvents() {
+        if (spectatorsBehind && pendingFanOuts.get() == 0 && gameModel != null) {
+            // the fan-out caught up. The match information covers the events of this tick as well
+            spectatorsBehind = false;
+            spectatorBatch.clear();
+            if (spectators.length > 0)
+                fanOut(SharedFrame.text(server.serializer.serialize(getMatchInfo())), spectators);
+            return;
         }
-        sendFullInformation();
+
+        if (spectatorBatch.position() == 0)
+            return;
+
+        spectatorBatch.flip();
+        if (spectators.length > 0)
+            fanOut(SharedFrame.binary(spectatorBatch), spectators);
+        spectatorBatch.clear();
+    }
+
+    /**
+     * sends the frame to the given spectators on the fan-out thread. Frames reach each spectator in
+     * the order they were given here, but are dropped while the fan-out is behind on this match.
+     */
+    private void fanOut(final SharedFrame frame, final Player[] recipients) {
+        Runnable send = new Runnable() {
+            @Override
+            public void run() {
+                for (Player recipient : recipients)
+                    recipient.sendShared(frame);
+            }
+        };
+
+        if (!spectatorsBehind && pendingFanOuts.get() < MAX_PENDING_FAN_OUTS && executeFanOut(send)) {
+            server.metrics.recordFramesSent(recipients.length, frame.getLength());
+        } else {
+            spectatorsBehind = true;
+            server.metrics.spectatorFramesDropped.addAndGet(recipients.length);
+        }
+    }
+
+    /**
+     * @return false if the fan-out rejected the task, because it is full or the server shuts down
+     */
+    private boolean executeFanOut(final Runnable task) {
+        pendingFanOuts.incrementAndGet();
+        try {
+            server.spectatorFanOut.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        pendingFanOuts.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingFanOuts.decrementAndGet();
+            return false;
+        }
+    }
+
+    public boolean connectPlayer(Player player) {
+        return player1Slot.compareAndSet(null, player) || player2Slot.compareAndSet(null, player);
+    }
+
+    public void playerDisconnected(Player player) {
+        if (player1Slot.compareAndSet(player, null) || player2Slot.compareAndSet(player, null))
+            server.matchmaker.matchFreed(this);
+    }
+
+    public int getBucketKey() {
+        return bucketKey;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    public void setRetired() {
+        retired = true;
     }
 
     public int getConnectedPlayerNum() {
-        return (player1 != null ? 1 : 0) + (player2 != null ? 1 : 0);
+        return (player1Slot.get() != null ? 1 : 0) + (player2Slot.get() != null ? 1 : 0);
     }
 
-    public void sendFullInformation() {
-        if (gameModel == null || getConnectedPlayerNum() == 0)
+    /**
+     * @param first the first or the second player's slot
+     * @return the player currently connected to the slot, or null
+     */
+    public Player getConnectedPlayer(boolean first) {
+        return first ? player1Slot.get() : player2Slot.get();
+    }
+
+    /**
+     * lets the spectator watch this match from the next tick on, thread safe
+     */
+    public void connectSpectator(Player spectator) {
+        spectatorNum.incrementAndGet();
+        server.metrics.spectators.incrementAndGet();
+        joiningSpectators.add(spectator);
+    }
+
+    public void spectatorDisconnected(Player spectator) {
+        leavingSpectators.add(spectator);
+    }
+
+    /**
+     * the spectator's resync request is answered on the next tick, thread safe
+     */
+    public void spectatorResyncRequested(Player spectator) {
+        resyncingSpectators.add(spectator);
+    }
+
+    /**
+     * @return if spectators watch this match or are about to, thread safe
+     */
+    public boolean hasSpectators() {
+        return spectatorNum.get() > 0;
+    }
+
+    private void sendFullInformation() {
+        if (gameModel == null || player1 == null && player2 == null)
             return;
 
         // send the full match information to the players after a connect or disconnect
         // gameboard, score, nick names, ...
-        MatchInfo matchInfo1 = new MatchInfo();
+        MatchInfo matchInfo1 = getMatchInfo();
         MatchInfo matchInfo2 = new MatchInfo();
+        matchInfo2.player1 = matchInfo1.player2;
+        matchInfo2.player2 = matchInfo1.player1;
+        matchInfo2.isModern = matchInfo1.isModern;
+
+        if (this.player1 != null)
+            this.player1.send(server.serializer.serialize(matchInfo1));
+        if (this.player2 != null)
+            this.player2.send(server.serializer.serialize(matchInfo2));
+        if (spectators.length > 0) {
+            // events queued before must reach the spectators first
+            flushSpectatorEvents();
+            fanOut(SharedFrame.text(server.serializer.serialize(matchInfo1)), spectators);
+        }
+    }
 
+    /**
+     * @return the match information from the first player's point of view
+     */
+    private MatchInfo getMatchInfo() {
+        MatchInfo matchInfo = new MatchInfo();
         MatchInfo.PlayerInfo player1 = new MatchInfo.PlayerInfo();
         MatchInfo.PlayerInfo player2 = new MatchInfo.PlayerInfo();
-        matchInfo1.player1 = player1;
-        matchInfo1.player2 = player2;
-        matchInfo1.isModern = gameModel.isModernRotation();
-        matchInfo2.player1 = player2;
-        matchInfo2.player2 = player1;
-        matchInfo2.isModern = gameModel.isModernRotation();
+        matchInfo.player1 = player1;
+        matchInfo.player2 = player2;
+        matchInfo.isModern = gameModel.isModernRotation();
 
         player1.score = new MatchInfo.ScoreInfo(gameModel.getScore());
         player2.score = new MatchInfo.ScoreInfo(gameModel.getSecondGameModel().getScore());
@@ -288,11 +652,7 @@ public class Match {
 
         player1.nextPiece = serializeTetromino(gameModel.getNextTetromino(), true);
         player2.nextPiece = serializeTetromino(gameModel.getSecondGameModel().getNextTetromino(), true);
-
-        if (this.player1 != null)
-            this.player1.send(server.serializer.serialize(matchInfo1));
-        if (this.player2 != null)
-            this.player2.send(server.serializer.serialize(matchInfo2));
+        return matchInfo;
     }
 
     protected String getPlayerNickname(Player p) {
@@ -304,54 +664,185 @@ public class Match {
             return null;
 
         StringBuilder builder = new StringBuilder();
-        sendPiecePositions(relative ? tetromino.getRelativeBlockPositions() : tetromino.getCurrentBlockPositions(), builder);
+        sendPiecePositions(relative ? tetromino.getPackedRelativeBlockPositions() : tetromino.getPackedBlockPositions(), builder);
         builder.append(tetromino.getTetrominoType());
         return builder.toString();
     }
 
-    protected void sendPiecePositions(Integer[][] piecePos, StringBuilder builder) {
-        for (Integer[] piece : piecePos) {
-            builder.append(piece[0]).append('-').append(piece[1]).append('-');
+    protected void sendPiecePositions(long piece, StringBuilder builder) {
+        for (int i = 0; i < Tetromino.TETROMINO_BLOCKCOUNT; i++) {
+            builder.append(PackedPiece.getX(piece, i)).append('-').append(PackedPiece.getY(piece, i)).append('-');
         }
     }
 
-    public void gotMessage(Player player, InGameMessage igm) {
-        if (player == player1)
-            synchronized (p1Queue) {
-                p1Queue.addLast(igm);
-            }
-        else if (player == player2)
-            synchronized (p2Queue) {
-                p2Queue.addLast(igm);
-            }
-    }
-
     private class Listener implements IGameModelListener {
+        private static final int RESYNC_HISTORY = 8;
+        private final ServerMultiplayerModel model;
         private final boolean first;
+        private final ByteBuffer eventBuffer = ByteBuffer.allocate(BinaryProtocol.MAX_EVENT_SIZE);
+        // gameboards at the last pins, the base for a delta resync of a client that matched one of them
+        private final int[] pinnedHashes = new int[RESYNC_HISTORY];
+        private final byte[][] pinnedBoards = new byte[RESYNC_HISTORY][Gameboard.GAMEBOARD_ALLROWS * Gameboard.GAMEBOARD_COLUMNS];
+        private int pinnedNum;
         private int lastGarbageAmountReported = 0;
-        private String lastSentScore;
+        private int lastSentScore = -1;
+        private int lastSentLevel = -1;
+        private int lastSentLines = -1;
         private boolean hasWon = false;
 
-        public Listener(boolean first) {
+        public Listener(ServerMultiplayerModel model, boolean first) {
+            this.model = model;
             this.first = first;
         }
 
         private void sendPlayer(String msg) {
             if (first) {
-                if (player1 != null)
+                if (player1 != null && !player1.usesBinaryProtocol())
                     player1.send("Y" + msg);
-                if (player2 != null)
+                if (player2 != null && !player2.usesBinaryProtocol())
                     player2.send("O" + msg);
             } else {
-                if (player1 != null)
+                if (player1 != null && !player1.usesBinaryProtocol())
                     player1.send("O" + msg);
-                if (player2 != null)
+                if (player2 != null && !player2.usesBinaryProtocol())
                     player2.send("Y" + msg);
             }
         }
 
+        private ByteBuffer beginEvent(byte eventType) {
+            eventBuffer.clear();
+            eventBuffer.put(eventType);
+            return eventBuffer;
+        }
+
+        private void sendEvent() {
+            eventBuffer.flip();
+            byte eventType = eventBuffer.get(0);
+            if (player1 != null && player1.usesBinaryProtocol()) {
+                eventBuffer.put(0, (byte) (first ? eventType : eventType | BinaryProtocol.FLAG_OPPONENT));
+                player1.queueEvent(eventBuffer);
+            }
+            if (player2 != null && player2.usesBinaryProtocol()) {
+                eventBuffer.put(0, (byte) (first ? eventType | BinaryProtocol.FLAG_OPPONENT : eventType));
+                player2.queueEvent(eventBuffer);
+            }
+            if (spectators.length > 0)
+                queueSpectatorEvent(eventBuffer, (byte) (first ? eventType : eventType | BinaryProtocol.FLAG_OPPONENT));
+        }
+
+        private void sendEventTo(Player player, boolean opponent) {
+            eventBuffer.flip();
+            if (opponent)
+                eventBuffer.put(0, (byte) (eventBuffer.get(0) | BinaryProtocol.FLAG_OPPONENT));
+            player.queueEvent(eventBuffer);
+        }
+
+        private void rememberPinnedBoard(int hash) {
+            int index = pinnedNum % RESYNC_HISTORY;
+            pinnedNum++;
+            pinnedHashes[index] = hash;
+            byte[] board = pinnedBoards[index];
+            int[][] squares = model.getGameboardSquares();
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++)
+                for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+                    board[y * Gameboard.GAMEBOARD_COLUMNS + x] = (byte) (squares[y][x] + 1);
+        }
+
+        private byte[] findPinnedBoard(int hash) {
+            // newest first
+            for (int i = 1; i <= Math.min(pinnedNum, RESYNC_HISTORY); i++) {
+                int index = (pinnedNum - i) % RESYNC_HISTORY;
+                if (pinnedHashes[index] == hash)
+                    return pinnedBoards[index];
+            }
+            return null;
+        }
+
+        /**
+         * sends the current state of this gameboard to the player. Only the rows differing from the
+         * base the player asked for are sent, if that base is still known.
+         */
+        void sendResync(Player player, boolean opponent, int requestFlags, int baseHash) {
+            byte[] base = (requestFlags & BinaryProtocol.RESYNC_DELTA) != 0 ? findPinnedBoard(baseHash) : null;
+            if (base != null)
+                server.metrics.resyncsDelta.incrementAndGet();
+            else
+                server.metrics.resyncsFull.incrementAndGet();
+
+            writeResync(base);
+            sendEventTo(player, opponent);
+        }
+
+        /**
+         * sends the current state of this gameboard to all spectators with the tick's shared frame
+         */
+        void sendResyncToSpectators() {
+            if (spectators.length == 0)
+                return;
+
+            server.metrics.resyncsFull.incrementAndGet();
+            writeResync(null);
+            eventBuffer.flip();
+            queueSpectatorEvent(eventBuffer, (byte) (first ? BinaryProtocol.EVT_RESYNC
+                    : BinaryProtocol.EVT_RESYNC | BinaryProtocol.FLAG_OPPONENT));
+        }
+
+        private void writeResync(byte[] base) {
+            ByteBuffer event = beginEvent(BinaryProtocol.EVT_RESYNC);
+            event.put((byte) (base != null ? BinaryProtocol.RESYNC_DELTA : 0));
+            event.putInt(model.getGameboardHash());
+
+            // changed rows, all non-empty rows without a base. There are less than 128, so the count is a single byte
+            int rowNumPos = event.position();
+            event.put((byte) 0);
+            int rowNum = 0;
+            int[][] squares = model.getGameboardSquares();
+            for (int y = 0; y < Gameboard.GAMEBOARD_ALLROWS; y++) {
+                boolean changed = false;
+                for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS && !changed; x++) {
+                    int baseSquare = base != null ? base[y * Gameboard.GAMEBOARD_COLUMNS + x] : 0;
+                    changed = baseSquare != squares[y][x] + 1;
+                }
+                if (changed) {
+                    rowNum++;
+                    event.put((byte) y);
+                    for (int x = 0; x < Gameboard.GAMEBOARD_COLUMNS; x++)
+                        event.put((byte) (squares[y][x] + 1));
+                }
+            }
+            event.put(rowNumPos, (byte) rowNum);
+
+            writeResyncPiece(event, model.getActiveTetromino(), false);
+            writeResyncPiece(event, model.getNextTetromino(), true);
+            writeResyncPiece(event, model.getHoldTetromino(), true);
+
+            GameScore score = model.getScore();
+            BinaryProtocol.writeVarInt(event, score.getScore());
+            BinaryProtocol.writeVarInt(event, score.getCurrentLevel());
+            BinaryProtocol.writeVarInt(event, score.getClearedLines());
+        }
+
+        private void writeResyncPiece(ByteBuffer event, Tetromino tetromino, boolean relative) {
+            event.put((byte) (tetromino != null ? 1 : 0));
+            if (tetromino != null) {
+                BinaryProtocol.writePiece(event, relative ? tetromino.getPackedRelativeBlockPositions()
+                        : tetromino.getPackedBlockPositions());
+                event.put((byte) tetromino.getTetrominoType());
+            }
+        }
+
         private boolean hasPlayer() {
-            return player1 != null || player2 != null;
+            return player1 != null || player2 != null || spectators.length > 0;
+        }
+
+        private boolean hasTextPlayer() {
+            return player1 != null && !player1.usesBinaryProtocol() || player2 != null && !player2.usesBinaryProtocol();
+        }
+
+        private boolean hasBinaryPlayer() {
+            // spectators always use the binary protocol
+            return player1 != null && player1.usesBinaryProtocol() || player2 != null && player2.usesBinaryProtocol()
+                    || spectators.length > 0;
         }
 
         @Override
@@ -360,21 +851,34 @@ public class Match {
         }
 
         @Override
-        public void moveTetro(Integer[][] v, int dx, int dy, int ghostPieceDistance) {
-            if (hasPlayer()) {
+        public void moveTetro(long piece, int dx, int dy, int ghostPieceDistance) {
+            if (hasTextPlayer()) {
                 sendPlayer("MOV|" + dx + "|" + dy + "|" + ghostPieceDistance);
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_MOVE);
+                BinaryProtocol.writeSignedVarInt(event, dx);
+                BinaryProtocol.writeSignedVarInt(event, dy);
+                BinaryProtocol.writeVarInt(event, ghostPieceDistance);
+                sendEvent();
+            }
         }
 
         @Override
-        public void rotateTetro(Integer[][] vOld, Integer[][] vNew, int ghostPieceDistance) {
-            if (hasPlayer()) {
+        public void rotateTetro(long oldPiece, long newPiece, int ghostPieceDistance) {
+            if (hasTextPlayer()) {
                 StringBuilder builder = new StringBuilder();
                 builder.append("ROT-");
-                sendPiecePositions(vNew, builder);
+                sendPiecePositions(newPiece, builder);
                 builder.append(ghostPieceDistance);
                 sendPlayer(builder.toString());
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_ROTATE);
+                BinaryProtocol.writePiece(event, newPiece);
+                BinaryProtocol.writeVarInt(event, ghostPieceDistance);
+                sendEvent();
+            }
         }
 
         @Override
@@ -383,7 +887,7 @@ public class Match {
             if (linesToRemove.size <= 0 && linesToInsert <= 0)
                 return;
 
-            if (hasPlayer()) {
+            if (hasTextPlayer()) {
                 StringBuilder builder = new StringBuilder();
                 builder.append("CLR-");
                 for (int i = 0; i < linesToRemove.size; i++) {
@@ -392,11 +896,22 @@ public class Match {
                         builder.append('|');
                 }
                 builder.append('-').append(special ? 'S' : 'N');
-                for (int gap : garbageHolePosition) {
-                    builder.append('|').append(gap);
+                for (int i = 0; i < linesToInsert; i++) {
+                    builder.append('|').append(garbageHolePosition[i]);
                 }
                 sendPlayer(builder.toString());
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_CLEAR);
+                BinaryProtocol.writeVarInt(event, linesToRemove.size);
+                for (int i = 0; i < linesToRemove.size; i++)
+                    event.put((byte) linesToRemove.get(i));
+                event.put((byte) (special ? 1 : 0));
+                BinaryProtocol.writeVarInt(event, linesToInsert);
+                for (int i = 0; i < linesToInsert; i++)
+                    event.put((byte) garbageHolePosition[i]);
+                sendEvent();
+            }
         }
 
         @Override
@@ -406,71 +921,123 @@ public class Match {
 
         @Override
         public void setGameOver() {
-            if (hasPlayer()) {
+            if (hasTextPlayer()) {
                 sendPlayer("GOV-" + (hasWon ? "1" : "0"));
             }
+            if (hasBinaryPlayer()) {
+                beginEvent(BinaryProtocol.EVT_GAME_OVER).put((byte) (hasWon ? 1 : 0));
+                sendEvent();
+            }
         }
 
         @Override
-        public void showNextTetro(Integer[][] relativeBlockPositions, int blockType) {
-            if (hasPlayer()) {
+        public void showNextTetro(long relativePiece, int blockType) {
+            if (hasTextPlayer()) {
                 StringBuilder builder = new StringBuilder();
                 builder.append("NXT-");
-                sendPiecePositions(relativeBlockPositions, builder);
+                sendPiecePositions(relativePiece, builder);
                 builder.append(blockType);
                 sendPlayer(builder.toString());
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_NEXT);
+                BinaryProtocol.writePiece(event, relativePiece);
+                event.put((byte) blockType);
+                sendEvent();
+            }
         }
 
         @Override
-        public void activateNextTetro(Integer[][] boardBlockPositions, int blockType, int ghostPieceDistance) {
-            if (hasPlayer()) {
+        public void activateNextTetro(long piece, int blockType, int ghostPieceDistance) {
+            if (hasTextPlayer()) {
                 StringBuilder builder = new StringBuilder();
                 builder.append("ANT-");
-                sendPiecePositions(boardBlockPositions, builder);
+                sendPiecePositions(piece, builder);
                 builder.append(blockType).append('-').append(ghostPieceDistance);
                 sendPlayer(builder.toString());
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_ACTIVATE_NEXT);
+                BinaryProtocol.writePiece(event, piece);
+                event.put((byte) blockType);
+                BinaryProtocol.writeVarInt(event, ghostPieceDistance);
+                sendEvent();
+            }
         }
 
         @Override
-        public void swapHoldAndActivePiece(Integer[][] newHoldPiecePositions, Integer[][] oldActivePiecePositions, Integer[][] newActivePiecePositions, int ghostPieceDistance, int holdBlockType) {
-            if (hasPlayer()) {
+        public void swapHoldAndActivePiece(long newHoldPiece, long oldActivePiece, long newActivePiece, int ghostPieceDistance, int holdBlockType) {
+            if (hasTextPlayer()) {
                 StringBuilder builder = new StringBuilder();
                 builder.append("HLD-");
-                sendPiecePositions(newHoldPiecePositions, builder);
+                sendPiecePositions(newHoldPiece, builder);
                 builder.append(ghostPieceDistance).append('-');
-                if (newActivePiecePositions != null) {
-                    sendPiecePositions(newActivePiecePositions, builder);
+                if (newActivePiece != PackedPiece.NONE) {
+                    sendPiecePositions(newActivePiece, builder);
                 }
                 sendPlayer(builder.toString());
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_HOLD);
+                BinaryProtocol.writePiece(event, newHoldPiece);
+                BinaryProtocol.writeVarInt(event, ghostPieceDistance);
+                event.put((byte) (newActivePiece != PackedPiece.NONE ? 1 : 0));
+                if (newActivePiece != PackedPiece.NONE)
+                    BinaryProtocol.writePiece(event, newActivePiece);
+                sendEvent();
+            }
         }
 
         @Override
-        public void pinTetromino(Integer[][] currentBlockPositions) {
-            if (hasPlayer()) {
+        public void pinTetromino(long piece) {
+            if (hasTextPlayer()) {
                 sendPlayer("PIN");
             }
+            if (hasBinaryPlayer()) {
+                // the board's state after pinning, before lines are cleared
+                int hash = model.getGameboardHash();
+                rememberPinnedBoard(hash);
+                beginEvent(BinaryProtocol.EVT_PIN).putInt(hash);
+                sendEvent();
+            }
         }
 
         @Override
         public void updateScore(GameScore score, int gainedScore) {
             if (hasPlayer()) {
-                MatchInfo.ScoreInfo scoreInfo = new MatchInfo.ScoreInfo(score);
-                String serialized = server.serializer.serialize(scoreInfo);
-                if (!serialized.equals(lastSentScore)) {
-                    lastSentScore = serialized;
-                    sendPlayer(serialized);
+                if (score.getScore() == lastSentScore && score.getCurrentLevel() == lastSentLevel
+                        && score.getClearedLines() == lastSentLines)
+                    return;
+
+                lastSentScore = score.getScore();
+                lastSentLevel = score.getCurrentLevel();
+                lastSentLines = score.getClearedLines();
+
+                if (hasTextPlayer()) {
+                    MatchInfo.ScoreInfo scoreInfo = new MatchInfo.ScoreInfo(score);
+                    sendPlayer(server.serializer.serialize(scoreInfo));
+                }
+                if (hasBinaryPlayer()) {
+                    ByteBuffer event = beginEvent(BinaryProtocol.EVT_SCORE);
+                    BinaryProtocol.writeVarInt(event, lastSentScore);
+                    BinaryProtocol.writeVarInt(event, lastSentLevel);
+                    BinaryProtocol.writeVarInt(event, lastSentLines);
+                    sendEvent();
                 }
             }
         }
 
         @Override
         public void markConflict(int x, int y) {
-            if (hasPlayer()) {
+            if (hasTextPlayer()) {
                 sendPlayer("CNF-" + x + "-" + y);
             }
+            if (hasBinaryPlayer()) {
+                ByteBuffer event = beginEvent(BinaryProtocol.EVT_CONFLICT);
+                event.put((byte) x);
+                event.put((byte) y);
+                sendEvent();
+            }
         }
 
         @Override
@@ -497,15 +1064,26 @@ public class Match {
                 default:
                     motivationMessage = null;
             }
-            if (motivationMessage != null)
-                sendPlayer("MTV-" + motivationMessage);
+            if (motivationMessage != null) {
+                if (hasTextPlayer())
+                    sendPlayer("MTV-" + motivationMessage);
+                if (hasBinaryPlayer()) {
+                    BinaryProtocol.writeString(beginEvent(BinaryProtocol.EVT_MOTIVATION), motivationMessage);
+                    sendEvent();
+                }
+            }
         }
 
         @Override
         public void showGarbageAmount(int lines) {
             if (hasPlayer()) {
                 if (lines != lastGarbageAmountReported) {
-                    sendPlayer("GBG-" + lines);
+                    if (hasTextPlayer())
+                        sendPlayer("GBG-" + lines);
+                    if (hasBinaryPlayer()) {
+                        BinaryProtocol.writeVarInt(beginEvent(BinaryProtocol.EVT_GARBAGE), lines);
+                        sendEvent();
+                    }
                     lastGarbageAmountReported = lines;
                 }
             } else {
@@ -0,0 +1,150 @@
+package de.golfgl.lightblocks.server;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ticks all running matches. Instead of a thread per match, a single clock thread wakes up every
+ * render interval and spreads the match updates over a work-stealing pool sized to the configured
+ * thread number. Matches are added and removed by the {@link Matchmaker}.
+ */
+public class MatchScheduler {
+    // below this number of matches, a tick task does the work itself instead of splitting up
+    private static final int MATCHES_PER_TASK = 4;
+
+    private final LightblocksServer server;
+    private final ForkJoinPool pool;
+    private final long renderInterval;
+    private final Array<Match> matches = new Array<>(true, 16, Match.class);
+    private Match[] tickMatches = new Match[16];
+    private volatile boolean running;
+
+    public MatchScheduler(LightblocksServer server, long renderInterval) {
+        this.server = server;
+        this.renderInterval = renderInterval;
+        this.pool = new ForkJoinPool(server.serverConfig.threadNum);
+    }
+
+    public void start() {
+        running = true;
+        new Thread("MatchScheduler") {
+            @Override
+            public void run() {
+                long lastTime = TimeUtils.nanoTime();
+                long nextTime = TimeUtils.nanoTime() + renderInterval;
+                if (renderInterval >= 0f) {
+                    while (running) {
+                        final long n = TimeUtils.nanoTime();
+                        final long targetTime = nextTime;
+                        if (nextTime > n) {
+                            try {
+                                long sleep = nextTime - n;
+                                Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                            } catch (InterruptedException ignored) {
+                            }
+                            nextTime = nextTime + renderInterval;
+                        } else {
+                            nextTime = n + renderInterval;
+                        }
+
+                        long now = System.nanoTime();
+                        float deltaTime = (now - lastTime) / 1000000000.0f;
+                        lastTime = now;
+                        server.metrics.schedulerLag.record(Math.max(0, now - targetTime));
+
+                        tick(deltaTime);
+                        server.metrics.schedulerTick.record(System.nanoTime() - now);
+                    }
+                }
+            }
+        }.start();
+    }
+
+    public void stop() {
+        running = false;
+        pool.shutdown();
+    }
+
+    public void addMatch(Match match) {
+        synchronized (matches) {
+            matches.add(match);
+            Gdx.app.debug("Scheduler", "Opened match, " + matches.size + " running");
+        }
+    }
+
+    public void removeMatch(Match match) {
+        synchronized (matches) {
+            if (matches.removeValue(match, true))
+                Gdx.app.debug("Scheduler", "Retired match, " + matches.size + " running");
+        }
+    }
+
+    /**
+     * @param out filled with the running matches
+     */
+    public void getMatches(Array<Match> out) {
+        synchronized (matches) {
+            out.addAll(matches);
+        }
+    }
+
+    public int getMatchNum() {
+        synchronized (matches) {
+            return matches.size;
+        }
+    }
+
+    private void tick(float delta) {
+        int matchNum;
+        synchronized (matches) {
+            matchNum = matches.size;
+            if (tickMatches.length < matchNum)
+                tickMatches = new Match[matches.items.length];
+            System.arraycopy(matches.items, 0, tickMatches, 0, matchNum);
+        }
+
+        if (matchNum > 0)
+            pool.invoke(new TickTask(server.metrics, tickMatches, 0, matchNum, delta));
+    }
+
+    private static class TickTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ServerMetrics metrics;
+        private final Match[] matches;
+        private final int from;
+        private final int to;
+        private final float delta;
+
+        TickTask(ServerMetrics metrics, Match[] matches, int from, int to, float delta) {
+            this.metrics = metrics;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+            this.delta = delta;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MATCHES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        long start = System.nanoTime();
+                        matches[i].update(delta);
+                        metrics.matchTick.record(System.nanoTime() - start);
+                    } catch (Throwable t) {
+                        Gdx.app.error("Server", "Uncaught error ", t);
+                    }
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TickTask(metrics, matches, from, middle, delta),
+                        new TickTask(metrics, matches, middle, to, delta));
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package de.golfgl.lightblocks.server;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.golfgl.lightblocks.state.InitGameParameters;
+
+/**
+ * Places waiting players into matches. All players waiting are assigned in a single pass on the
+ * main thread.
+ * <p>
+ * Matches with free slots are kept in stacks per bucket, so finding a slot does not depend on the
+ * number of running matches. Matches waiting for an opponent are preferred over empty ones. When
+ * a player leaves a match, the match reports itself here and is put back on the stacks, or retired
+ * if it is empty. A match is on one stack at most: it is moved when it is put back on another one,
+ * and removed when it is full or retired.
+ * <p>
+ * Optionally, players are bucketed by their preferred mode type and beginning level and by a skill
+ * rating kept per user id, so they only meet players of the same bucket.
+ * <p>
+ * Spectators are placed in the top match running: the one with most players connected, and of
+ * those the one with the highest rating sum. The top match is determined once per pass.
+ */
+public class Matchmaker {
+    public static final int INITIAL_RATING = 1000;
+    private static final int RATING_K_FACTOR = 32;
+
+    private final LightblocksServer server;
+    private final MatchScheduler scheduler;
+    private final Array<Player> waitingPlayers = new Array<>();
+    private final Array<Player> assigningPlayers = new Array<>();
+    private final Array<Player> waitingSpectators = new Array<>();
+    private final Array<Match> runningMatches = new Array<>(false, 16, Match.class);
+    private final ConcurrentLinkedQueue<Match> freedMatches = new ConcurrentLinkedQueue<>();
+    private final IntMap<Bucket> buckets = new IntMap<>();
+    private final ObjectIntMap<String> ratings = new ObjectIntMap<>();
+
+    public Matchmaker(LightblocksServer server, MatchScheduler scheduler) {
+        this.server = server;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * enqueues the player to the waitlist, the player is placed on the next call of
+     * {@link #connectWaitingPlayers()}
+     */
+    public void addWaitingPlayer(Player player) {
+        synchronized (waitingPlayers) {
+            waitingPlayers.add(player);
+        }
+    }
+
+    public int getWaitingPlayerNum() {
+        synchronized (waitingPlayers) {
+            return waitingPlayers.size;
+        }
+    }
+
+    /**
+     * called by a match when a player left it, thread safe
+     */
+    public void matchFreed(Match match) {
+        freedMatches.add(match);
+    }
+
+    /**
+     * places all waiting players. Must only be called from the main thread.
+     */
+    public void connectWaitingPlayers() {
+        Match freed;
+        while ((freed = freedMatches.poll()) != null) {
+            reindexMatch(freed);
+        }
+
+        synchronized (waitingPlayers) {
+            if (waitingPlayers.size == 0)
+                return;
+            assigningPlayers.addAll(waitingPlayers);
+            waitingPlayers.clear();
+        }
+
+        int placed = 0;
+        Match topMatch = null;
+        for (int i = 0; i < assigningPlayers.size; i++) {
+            Player player = assigningPlayers.get(i);
+            if (player.state != Player.ConnectionState.WAITING)
+                continue;
+
+            if (player.spectator) {
+                if (topMatch == null)
+                    topMatch = findTopMatch();
+                // without anything to watch yet, the spectator waits for the next pass
+                if (topMatch != null)
+                    player.addSpectatorToMatch(topMatch);
+                else
+                    waitingSpectators.add(player);
+                continue;
+            }
+
+            Match match = findMatch(player);
+            if (match == null) {
+                // match limit reached, the remaining players wait for the next pass in their order
+                synchronized (waitingPlayers) {
+                    for (int j = assigningPlayers.size - 1; j >= i; j--) {
+                        waitingPlayers.insert(0, assigningPlayers.get(j));
+                    }
+                }
+                break;
+            }
+            player.addPlayerToMatch(match);
+            placed++;
+        }
+        assigningPlayers.clear();
+        if (waitingSpectators.size > 0) {
+            synchronized (waitingPlayers) {
+                waitingPlayers.addAll(waitingSpectators);
+            }
+            waitingSpectators.clear();
+        }
+
+        if (placed > 1)
+            Gdx.app.debug("Matchmaker", "Placed " + placed + " players in one pass");
+    }
+
+    private Match findMatch(Player player) {
+        Bucket bucket = getBucket(getBucketKey(player));
+
+        Match match = popMatchForPlayer(bucket.waitingForOpponent, player);
+        if (match == null)
+            match = popMatchForPlayer(bucket.empty, player);
+
+        if (match == null) {
+            if (server.serverConfig.maxMatches > 0 && scheduler.getMatchNum() >= server.serverConfig.maxMatches)
+                return null;
+
+            match = new Match(server, bucket.key, bucket.modeType, bucket.beginningLevel);
+            match.connectPlayer(player);
+            scheduler.addMatch(match);
+        }
+
+        if (match.getConnectedPlayerNum() < 2)
+            pushFreeSlot(bucket.waitingForOpponent, match);
+
+        return match;
+    }
+
+    /**
+     * @return the running match with most players and the highest rating sum, null if no player plays
+     */
+    private Match findTopMatch() {
+        scheduler.getMatches(runningMatches);
+        Match topMatch = null;
+        int topPlayerNum = 0;
+        int topRatingSum = 0;
+        for (int i = 0; i < runningMatches.size; i++) {
+            Match match = runningMatches.get(i);
+            if (match.isRetired())
+                continue;
+
+            Player player1 = match.getConnectedPlayer(true);
+            Player player2 = match.getConnectedPlayer(false);
+            int playerNum = (player1 != null ? 1 : 0) + (player2 != null ? 1 : 0);
+            int ratingSum = (player1 != null ? getRating(player1.userId) : 0)
+                    + (player2 != null ? getRating(player2.userId) : 0);
+            if (playerNum > topPlayerNum || playerNum == topPlayerNum && playerNum > 0 && ratingSum > topRatingSum) {
+                topMatch = match;
+                topPlayerNum = playerNum;
+                topRatingSum = ratingSum;
+            }
+        }
+        runningMatches.clear();
+        return topMatch;
+    }
+
+    private Match popMatchForPlayer(Array<Match> stack, Player player) {
+        while (stack.size > 0) {
+            Match match = stack.pop();
+            match.freeSlotStack = null;
+            if (!match.isRetired() && match.connectPlayer(player))
+                return match;
+        }
+        return null;
+    }
+
+    private void reindexMatch(Match match) {
+        if (match.isRetired())
+            return;
+
+        int connectedPlayers = match.getConnectedPlayerNum();
+        // spectators are sent back here by the match's tick first, it reports itself again then
+        if (connectedPlayers == 0 && server.serverConfig.resetEmptyRooms && !match.hasSpectators()) {
+            removeFreeSlot(match);
+            match.setRetired();
+            scheduler.removeMatch(match);
+            return;
+        }
+
+        Bucket bucket = getBucket(match.getBucketKey());
+        if (connectedPlayers == 0)
+            pushFreeSlot(bucket.empty, match);
+        else if (connectedPlayers == 1)
+            pushFreeSlot(bucket.waitingForOpponent, match);
+        else
+            removeFreeSlot(match);
+    }
+
+    /**
+     * puts the match on the stack, taking it from the one it was on before
+     */
+    private void pushFreeSlot(Array<Match> stack, Match match) {
+        if (match.freeSlotStack == stack)
+            return;
+
+        removeFreeSlot(match);
+        match.freeSlotStack = stack;
+        match.freeSlotIndex = stack.size;
+        stack.add(match);
+    }
+
+    /**
+     * takes the match from its stack in O(1): the last entry fills its place
+     */
+    private void removeFreeSlot(Match match) {
+        Array<Match> stack = match.freeSlotStack;
+        if (stack == null)
+            return;
+
+        Match last = stack.pop();
+        if (last != match) {
+            stack.set(match.freeSlotIndex, last);
+            last.freeSlotIndex = match.freeSlotIndex;
+        }
+        match.freeSlotStack = null;
+    }
+
+    private Bucket getBucket(int key) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(key);
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * bucket key: skill tier, beginning level and mode type packed into an int. Without bucketing,
+     * all players share key 0.
+     */
+    private int getBucketKey(Player player) {
+        ServerConfiguration config = server.serverConfig;
+
+        int modeType = 0;
+        if (config.bucketByMode && config.modeType == InitGameParameters.TYPE_MIX
+                && (player.preferredModeType == InitGameParameters.TYPE_CLASSIC
+                || player.preferredModeType == InitGameParameters.TYPE_MODERN))
+            modeType = player.preferredModeType + 1;
+
+        int beginningLevel = 0;
+        if (config.bucketByLevel && player.preferredBeginningLevel >= 0)
+            beginningLevel = MathUtils.clamp(player.preferredBeginningLevel, 0, 9) + 1;
+
+        int skillTier = 0;
+        if (config.bucketBySkill)
+            skillTier = getRating(player.userId) / config.skillTierWidth + 1;
+
+        return (skillTier << 8) | (beginningLevel << 4) | modeType;
+    }
+
+    /**
+     * @return the skill rating of the given user, or the initial rating for unknown or anonymous users
+     */
+    public int getRating(String userId) {
+        if (userId == null)
+            return INITIAL_RATING;
+
+        synchronized (ratings) {
+            return ratings.get(userId, INITIAL_RATING);
+        }
+    }
+
+    /**
+     * updates the skill ratings of two users after a match between them ended, thread safe
+     */
+    public void reportResult(String winnerUserId, String loserUserId) {
+        if (winnerUserId == null || loserUserId == null || winnerUserId.equals(loserUserId))
+            return;
+
+        synchronized (ratings) {
+            int winnerRating = ratings.get(winnerUserId, INITIAL_RATING);
+            int loserRating = ratings.get(loserUserId, INITIAL_RATING);
+            // Elo: expected score of the winner
+            double expected = 1 / (1 + Math.pow(10, (loserRating - winnerRating) / 400d));
+            int change = (int) Math.round(RATING_K_FACTOR * (1 - expected));
+            ratings.put(winnerUserId, winnerRating + change);
+            ratings.put(loserUserId, loserRating - change);
+        }
+    }
+
+    private class Bucket {
+        final int key;
+        final int modeType;
+        final int beginningLevel;
+        // stacks of matches with free slots
+        final Array<Match> waitingForOpponent = new Array<>(false, 16, Match.class);
+        final Array<Match> empty = new Array<>(false, 16, Match.class);
+
+        Bucket(int key) {
+            this.key = key;
+            int bucketMode = key & 0xF;
+            int bucketLevel = (key >> 4) & 0xF;
+            modeType = bucketMode != 0 ? bucketMode - 1 : server.serverConfig.modeType;
+            beginningLevel = bucketLevel != 0 ? bucketLevel - 1 : server.serverConfig.beginningLevel;
+        }
+    }
+}
@@ -5,24 +5,44 @@ import com.badlogic.gdx.utils.TimeUtils;
 
 import org.java_websocket.WebSocket;
 
-import de.golfgl.lightblocks.server.model.InGameMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import de.golfgl.lightblocks.server.model.KeepAliveMessage;
 import de.golfgl.lightblocks.server.model.PlayerInfo;
 
 public class Player {
     private static final int SECONDS_INACTIVITY_WARNING = 10;
     private static final String GAME_TIMEOUT_WARNING = "Inactive players will be disconnected";
+    private static final long RESYNC_REQUESTED = 1L << 40;
+    private static final int SPECTATOR_PROTOCOL_VERSION = 3;
+    // spectators with more shared payload than this waiting to be written are too slow to watch
+    private static final int MAX_UNWRITTEN_SHARED_BYTES = 64 * 1024;
     private final LightblocksServer server;
     private final WebSocket conn;
+    private final InputRing inputs = new InputRing();
+    // resync requests for the own and the opponent's gameboard, flags and base hash packed, 0 if none
+    private final AtomicLongArray resyncRequests = new AtomicLongArray(2);
     public String nickName;
     public String userId;
     public String token;
+    public int binaryProtocol;
+    public int preferredModeType;
+    public int preferredBeginningLevel;
+    public boolean spectator;
     public ConnectionState state = ConnectionState.CONNECTED;
     private Match match;
     private long startedPlayingMs;
+    private long startedWaitingNs;
     private long lastMessageReceived;
     private long lastGameMessageReceived;
     private String lastMessageToPlayer;
+    // shared payload sent since the connection's buffer was last seen empty, only accessed by the fan-out
+    private int unwrittenSharedBytes;
+    // set by an input on the IO thread, the warning is dismissed by the match's tick
+    private volatile boolean dismissWarningRequested;
+    // binary events of the current tick, sent as one frame by flushEvents
+    private final ByteBuffer eventBatch = ByteBuffer.allocate(BinaryProtocol.MAX_BATCH_SIZE);
 
     public Player(LightblocksServer server, WebSocket conn) {
         this.server = server;
@@ -38,9 +58,19 @@ public class Player {
         nickName = playerInfo.nickName;
         userId = playerInfo.userId;
         token = playerInfo.authToken;
+        binaryProtocol = Math.min(playerInfo.binaryProtocol, BinaryProtocol.VERSION);
+        preferredModeType = playerInfo.modeType;
+        preferredBeginningLevel = playerInfo.beginningLevel;
+        spectator = playerInfo.spectate;
+
+        if (spectator && binaryProtocol < SPECTATOR_PROTOCOL_VERSION) {
+            // spectators get the shared binary frames only
+            return;
+        }
 
         state = ConnectionState.WAITING;
-        // this will call addPlayerToMatch eventually
+        startedWaitingNs = TimeUtils.nanoTime();
+        // this will call addPlayerToMatch or addSpectatorToMatch eventually
         server.findMatchForPlayer(this);
     }
 
@@ -49,12 +79,39 @@ public class Player {
             this.match = match;
             state = ConnectionState.PLAYING;
             server.serverStats.playerConnected();
+            server.metrics.matchmakingWait.record(TimeUtils.nanoTime() - startedWaitingNs);
             startedPlayingMs = TimeUtils.millis();
             lastMessageReceived = startedPlayingMs;
             lastGameMessageReceived = startedPlayingMs;
             Gdx.app.log("Player", "Successfully connected " + nickName + "/" + userId
                     + " - " + server.serverStats.getPlayersCurrentlyConnected() + " connected overall");
-            match.sendFullInformation();
+        }
+    }
+
+    /**
+     * lets the spectator watch the match, called by the matchmaker
+     */
+    void addSpectatorToMatch(Match match) {
+        if (match != null && this.match == null) {
+            this.match = match;
+            state = ConnectionState.WATCHING;
+            lastMessageReceived = TimeUtils.millis();
+            // dismiss the matchmaking message before the match's frames follow
+            sendMessageToPlayer("");
+            match.connectSpectator(this);
+            Gdx.app.debug("Player", "Spectator " + nickName + " watches a match");
+        }
+    }
+
+    /**
+     * the watched match has no players anymore, so the spectator goes back to the matchmaker.
+     * Called by the match's tick
+     */
+    void leaveWatchedMatch() {
+        if (state == ConnectionState.WATCHING) {
+            match = null;
+            state = ConnectionState.WAITING;
+            server.findMatchForPlayer(this);
         }
     }
 
@@ -62,9 +119,14 @@ public class Player {
         if (state != ConnectionState.CONNECTED) {
             Gdx.app.log("Player", "Disconnect: " + nickName + "/" + userId);
         }
+        boolean watching = state == ConnectionState.WATCHING;
+        Match watchedMatch = match;
         state = ConnectionState.DISCONNECTED;
         // dispose everything here
-        if (match != null) {
+        if (spectator) {
+            if (watching && watchedMatch != null)
+                watchedMatch.spectatorDisconnected(this);
+        } else if (match != null) {
             match.playerDisconnected(this);
             server.serverStats.playerDisconnected((TimeUtils.millis() - startedPlayingMs) / 1000);
         }
@@ -75,23 +137,133 @@ public class Player {
         if (object instanceof PlayerInfo && state == ConnectionState.CONNECTED) {
             doConnect((PlayerInfo) object);
 
-            if (state != ConnectionState.PLAYING && state != ConnectionState.WAITING && conn.isOpen()) {
+            if (state != ConnectionState.PLAYING && state != ConnectionState.WAITING
+                    && state != ConnectionState.WATCHING && conn.isOpen()) {
                 // if connection was not successfully established and player does not wait, disconnect the player
                 conn.close(4101, "Could not add you to a match");
             }
-        } else if (object instanceof InGameMessage && state == ConnectionState.PLAYING) {
-            lastGameMessageReceived = System.currentTimeMillis();
-            if (GAME_TIMEOUT_WARNING.equals(lastMessageToPlayer)) {
-                sendMessageToPlayer("");
-            }
-            match.gotMessage(this, (InGameMessage) object);
         } else if (!(object instanceof KeepAliveMessage))
             throw new UnexpectedException();
     }
 
+    /**
+     * @param input one of the input opcodes defined in {@link BinaryProtocol}
+     */
+    public void onInput(byte input) throws UnexpectedException {
+        if (state != ConnectionState.PLAYING)
+            throw new UnexpectedException();
+
+        lastMessageReceived = System.currentTimeMillis();
+        lastGameMessageReceived = lastMessageReceived;
+        if (GAME_TIMEOUT_WARNING.equals(lastMessageToPlayer)) {
+            dismissWarningRequested = true;
+        }
+        if (!inputs.offer(input))
+            Gdx.app.debug("Player", "Input dropped for " + nickName);
+    }
+
+    /**
+     * @param flags    RESYNC_ flags defined in {@link BinaryProtocol}
+     * @param baseHash state hash of the last pin the client's gameboard matched
+     */
+    public void onResyncRequest(int flags, int baseHash) throws UnexpectedException {
+        if (state != ConnectionState.PLAYING && state != ConnectionState.WATCHING)
+            throw new UnexpectedException();
+
+        lastMessageReceived = System.currentTimeMillis();
+        // a newer request replaces one the match did not take yet
+        resyncRequests.set(flags & BinaryProtocol.RESYNC_OPPONENT,
+                RESYNC_REQUESTED | ((long) flags << 32) | (baseHash & 0xFFFFFFFFL));
+        // the match does not look at every spectator on every tick
+        Match watchedMatch = match;
+        if (state == ConnectionState.WATCHING && watchedMatch != null)
+            watchedMatch.spectatorResyncRequested(this);
+    }
+
+    /**
+     * @return the resync request for the given gameboard received since the last tick, 0 if none.
+     * Only to be consumed by the match
+     */
+    long takeResyncRequest(boolean opponent) {
+        return resyncRequests.getAndSet(opponent ? BinaryProtocol.RESYNC_OPPONENT : 0, 0);
+    }
+
+    static int getResyncFlags(long resyncRequest) {
+        return (int) (resyncRequest >>> 32) & 0xFF;
+    }
+
+    static int getResyncBaseHash(long resyncRequest) {
+        return (int) resyncRequest;
+    }
+
+    /**
+     * @return the inputs received since the last tick, only to be consumed by the match
+     */
+    InputRing getInputs() {
+        return inputs;
+    }
+
     public void send(String string) {
-        if (conn.isOpen())
+        // events queued before must reach the client first
+        flushEvents();
+        if (conn.isOpen()) {
             conn.send(string);
+            server.metrics.recordFrameSent(string.length());
+        }
+    }
+
+    /**
+     * queues the event from position 0 to its limit for the next batch frame. The event buffer can
+     * be reused afterwards.
+     */
+    public void queueEvent(ByteBuffer event) {
+        int length = event.limit();
+        if (eventBatch.remaining() < length + 5)
+            flushEvents();
+        if (eventBatch.position() == 0)
+            eventBatch.put(BinaryProtocol.EVT_BATCH);
+
+        BinaryProtocol.writeVarInt(eventBatch, length);
+        event.position(0);
+        eventBatch.put(event);
+    }
+
+    /**
+     * sends all queued events in a single binary frame. Only to be called by the match's tick, like
+     * {@link #queueEvent(ByteBuffer)}
+     */
+    public void flushEvents() {
+        if (eventBatch.position() == 0)
+            return;
+
+        eventBatch.flip();
+        if (conn.isOpen()) {
+            server.metrics.recordFrameSent(eventBatch.limit());
+            conn.send(eventBatch);
+        }
+        eventBatch.clear();
+    }
+
+    /**
+     * sends a frame shared with other connections. Events queued before must have been flushed.
+     * Called by the fan-out, which closes the connection if the spectator does not keep up
+     */
+    void sendShared(SharedFrame frame) {
+        if (!conn.isOpen())
+            return;
+
+        // at least as much is waiting to be written as was sent since the buffer was empty
+        unwrittenSharedBytes = (conn.hasBufferedData() ? unwrittenSharedBytes : 0) + frame.getLength();
+        if (unwrittenSharedBytes > MAX_UNWRITTEN_SHARED_BYTES) {
+            Gdx.app.log("Player", "Spectator " + nickName + " does not keep up");
+            conn.close(4103, "Connection too slow");
+            return;
+        }
+        frame.sendTo(conn);
+    }
+
+    public boolean usesBinaryProtocol() {
+        return binaryProtocol > 0;
     }
 
     public void sendMessageToPlayer(String s) {
@@ -101,9 +273,30 @@ public class Player {
         }
     }
 
+    /**
+     * dismisses the inactivity warning if an input was received since it was shown. Called by the
+     * match's tick after the tick's events were flushed
+     */
+    void dismissWarningIfRequested() {
+        if (dismissWarningRequested) {
+            dismissWarningRequested = false;
+            if (GAME_TIMEOUT_WARNING.equals(lastMessageToPlayer))
+                sendMessageToPlayer("");
+        }
+    }
+
     public boolean checkTimeOuts() {
         long time = System.currentTimeMillis();
 
+        if (state == ConnectionState.WATCHING) {
+            // spectators don't play, they only need to keep the connection alive
+            if (time - lastMessageReceived > server.serverConfig.secondsTimeout * 1000L) {
+                Gdx.app.log("Player", "Spectator timeout: " + (time - lastMessageReceived));
+                conn.close(4102, "Timeout");
+            }
+            return false;
+        }
+
         if (time - lastGameMessageReceived > (server.serverConfig.secondsInactivity - SECONDS_INACTIVITY_WARNING) * 1000L) {
             sendMessageToPlayer(GAME_TIMEOUT_WARNING);
         }
@@ -121,7 +314,7 @@ public class Player {
         return false;
     }
 
-    enum ConnectionState {CONNECTED, WAITING, PLAYING, DISCONNECTED}
+    enum ConnectionState {CONNECTED, WAITING, PLAYING, WATCHING, DISCONNECTED}
 
     static class UnexpectedException extends Exception {
 
@@ -4,7 +4,6 @@ import com.badlogic.gdx.Gdx;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import de.golfgl.lightblocks.server.model.InGameMessage;
 import de.golfgl.lightblocks.server.model.KeepAliveMessage;
 import de.golfgl.lightblocks.server.model.MatchInfo;
 import de.golfgl.lightblocks.server.model.PlayerInfo;
@@ -35,8 +34,6 @@ public class Serializer {
                     case ID_PLAYERINFO:
                         return json.readValue(message.substring(3), PlayerInfo.class);
                 }
-            } else if (message.startsWith(ID_IN_GAME_MSG)) {
-                return new InGameMessage(message.substring(ID_IN_GAME_MSG.length()));
             } else if (message.isEmpty()) {
                 return new KeepAliveMessage();
             }
@@ -22,7 +22,18 @@ public class ServerConfiguration {
 
     private final String[] args;
     private final Logger logger;
-    public int threadNum = 10;
+    public int threadNum = Runtime.getRuntime().availableProcessors();
+    public int maxMatches = 0;
+    public int metricsPort = 0;
+    public boolean bucketByMode;
+    public boolean bucketByLevel;
+    public boolean bucketBySkill;
+    public int skillTierWidth = 200;
+    public int aiDepth = 2;
+    public int aiBeamWidth = 8;
+    public int aiBudgetMs = 5;
+    public int aiThreadNum = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public int aiMaxQueued = 0;
     public int port = 8887;
     public int loglevel = Application.LOG_INFO;
     public int beginningLevel = 0;
@@ -75,12 +86,40 @@ public class ServerConfiguration {
 
         int threadNum = findInt("server.threads", 0);
         if (threadNum > 0) {
-            this.threadNum = Math.max(2, threadNum);
-            logger.info("Using " + this.threadNum + " thread(s).");
+            this.threadNum = threadNum;
+            logger.info("Using " + this.threadNum + " match thread(s).");
         } else {
-            logger.info("Using " + this.threadNum + " threads. Configure with --server.threads=xxxx");
+            logger.info("Using " + this.threadNum + " match threads. Configure with --server.threads=xxxx");
         }
 
+        maxMatches = Math.max(0, findInt("server.maxMatches", maxMatches));
+        if (maxMatches > 0)
+            logger.info("Limiting to " + maxMatches + " concurrent matches.");
+
+        metricsPort = findInt("metrics.port", 0);
+        if (metricsPort <= 0)
+            logger.info("Metrics endpoint disabled. Enable with --metrics.port=xxxx");
+
+        bucketByMode = 0 != findInt("matchmaking.bucketByMode", 0);
+        bucketByLevel = 0 != findInt("matchmaking.bucketByLevel", 0);
+        bucketBySkill = 0 != findInt("matchmaking.bucketBySkill", 0);
+        skillTierWidth = Math.max(1, findInt("matchmaking.skillTierWidth", skillTierWidth));
+        if (bucketByMode || bucketByLevel || bucketBySkill)
+            logger.info("Matchmaking buckets by" + (bucketByMode ? " mode" : "") + (bucketByLevel ? " level" : "")
+                    + (bucketBySkill ? " skill" : "") + ".");
+
+        aiDepth = Math.max(1, findInt("ai.depth", aiDepth));
+        aiBeamWidth = Math.max(1, findInt("ai.beamWidth", aiBeamWidth));
+        aiBudgetMs = Math.max(0, findInt("ai.budgetMs", aiBudgetMs));
+        if (aiDepth > 2)
+            logger.info("AI looks " + aiDepth + " pieces ahead, beam width " + aiBeamWidth + ", "
+                    + (aiBudgetMs > 0 ? aiBudgetMs + "ms per decision." : "no time limit."));
+        aiThreadNum = Math.max(1, findInt("ai.threads", aiThreadNum));
+        // by default, every AI thread may fall behind by a few decisions before the ticks wait
+        aiMaxQueued = Math.max(1, findInt("ai.maxQueued", 16 * aiThreadNum));
+        logger.info("Using " + aiThreadNum + " AI thread(s), at most " + aiMaxQueued
+                + " waiting decisions. Configure with --ai.threads=xxxx and --ai.maxQueued=xxxx");
+
         enableNsd = 0 != findInt("enableNsd", 1);
 
         readXml();
@@ -121,6 +160,7 @@ public class ServerConfiguration {
         serverInfo.owner = prefs.getString(KEY_XML_SERVER_OWNER, "undefined");
         serverInfo.description = prefs.getString(KEY_XML_SERVER_DESC, "No server description given.");
         serverInfo.version = LightblocksServer.SERVER_VERSION;
+        serverInfo.binaryProtocol = BinaryProtocol.VERSION;
 
         modeType = prefs.getInteger(KEY_XML_GAMEMODES, InitGameParameters.TYPE_MIX);
         secondsTimeout = Math.max(secondsTimeout, prefs.getInteger("disconnectTimeoutSeconds", secondsTimeout));
@@ -0,0 +1,278 @@
+package de.golfgl.lightblocks.server;
+
+import com.badlogic.gdx.Gdx;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.golfgl.lightblocks.multiplayer.ai.EvaluationCache;
+
+/**
+ * Live server metrics. Recording is lock-free and allocation-free, so it can be done on every tick
+ * and every frame sent. The metrics are served in Prometheus text format on a local HTTP endpoint
+ * when a metrics port is configured.
+ * <p>
+ * In contrast to {@link ServerStats}, nothing is ever reset: histograms and counters are
+ * cumulative. Additionally, quantiles and maximum of each histogram are reported for the last full
+ * minute. The minutes are rotated by the main thread, so every scraper sees the same values no
+ * matter how many there are and how often they scrape.
+ */
+public class ServerMetrics {
+    public static final String PATH = "/metrics";
+    private static final long WINDOW_NS = 60 * 1000000000L;
+
+    public final Histogram matchTick = new Histogram("lightblocks_match_tick_seconds",
+            "Time needed to update a single match");
+    public final Histogram schedulerTick = new Histogram("lightblocks_scheduler_tick_seconds",
+            "Time needed to update all matches in one tick");
+    public final Histogram schedulerLag = new Histogram("lightblocks_scheduler_lag_seconds",
+            "Delay of a tick against the target render interval");
+    public final Histogram aiDecision = new Histogram("lightblocks_ai_decision_seconds",
+            "Time needed by an artificial player to decide where to put the next piece");
+    public final Histogram matchmakingWait = new Histogram("lightblocks_matchmaking_wait_seconds",
+            "Time a player waited for a match");
+    public final Histogram inputQueueDepth = new Histogram("lightblocks_input_queue_depth",
+            "Inputs waiting for a player when processed by the tick", 1);
+    public final AtomicLong aiDecisionsDeferred = new AtomicLong();
+    public final AtomicLong resyncsFull = new AtomicLong();
+    public final AtomicLong resyncsDelta = new AtomicLong();
+    public final AtomicLong spectators = new AtomicLong();
+    public final AtomicLong spectatorFramesDropped = new AtomicLong();
+    public final AtomicLong framesSent = new AtomicLong();
+    public final AtomicLong bytesSent = new AtomicLong();
+
+    private final LightblocksServer server;
+    private HttpServer httpServer;
+    private long windowStartNs = System.nanoTime();
+
+    public ServerMetrics(LightblocksServer server) {
+        this.server = server;
+    }
+
+    public void recordFrameSent(int bytes) {
+        framesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * records a frame sent to several connections
+     */
+    public void recordFramesSent(int connections, int bytes) {
+        framesSent.addAndGet(connections);
+        bytesSent.addAndGet((long) connections * bytes);
+    }
+
+    /**
+     * starts the HTTP endpoint on the loopback interface
+     */
+    public void startEndpoint(int port) {
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            httpServer.createContext(PATH, new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] response = scrape().getBytes(Charset.forName("UTF-8"));
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, response.length);
+                    OutputStream body = exchange.getResponseBody();
+                    body.write(response);
+                    body.close();
+                }
+            });
+            httpServer.start();
+            Gdx.app.log("Metrics", "Serving metrics on http://localhost:" + port + PATH);
+        } catch (IOException e) {
+            Gdx.app.error("Metrics", "Could not start metrics endpoint on port " + port, e);
+        }
+    }
+
+    public void stopEndpoint() {
+        if (httpServer != null)
+            httpServer.stop(0);
+    }
+
+    /**
+     * starts the next window of the histograms' quantiles and maximum once a minute is over. Called
+     * by the main thread on every frame
+     */
+    public synchronized void rotateWindows() {
+        long now = System.nanoTime();
+        if (now - windowStartNs < WINDOW_NS)
+            return;
+
+        windowStartNs = now;
+        matchTick.rotateWindow();
+        schedulerTick.rotateWindow();
+        schedulerLag.rotateWindow();
+        aiDecision.rotateWindow();
+        matchmakingWait.rotateWindow();
+        inputQueueDepth.rotateWindow();
+    }
+
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        matchTick.write(out);
+        schedulerTick.write(out);
+        schedulerLag.write(out);
+        aiDecision.write(out);
+        matchmakingWait.write(out);
+        inputQueueDepth.write(out);
+        writeValue(out, "lightblocks_frames_sent_total", "counter", "WebSocket frames sent to players",
+                framesSent.get());
+        writeValue(out, "lightblocks_bytes_sent_total", "counter", "Payload bytes sent to players",
+                bytesSent.get());
+        writeValue(out, "lightblocks_resyncs_full_total", "counter",
+                "Gameboards resent completely to clients that drifted apart", resyncsFull.get());
+        writeValue(out, "lightblocks_resyncs_delta_total", "counter",
+                "Gameboards resent as delta to clients that drifted apart", resyncsDelta.get());
+        writeValue(out, "lightblocks_ai_decisions_queued", "gauge", "AI decisions waiting or being made on the AI pool",
+                server.aiWorkers != null ? server.aiWorkers.getQueuedNum() : 0);
+        writeValue(out, "lightblocks_ai_decisions_deferred_total", "counter",
+                "AI decisions put off to a later tick because the AI pool was full", aiDecisionsDeferred.get());
+        writeValue(out, "lightblocks_ai_eval_cache_lookups_total", "counter",
+                "Board evaluations of the AI looked up in the evaluation cache", EvaluationCache.getTotalLookups());
+        writeValue(out, "lightblocks_ai_eval_cache_hits_total", "counter",
+                "Board evaluations of the AI found in the evaluation cache", EvaluationCache.getTotalHits());
+        writeValue(out, "lightblocks_players_connected", "gauge", "Players currently playing",
+                server.serverStats.getPlayersCurrentlyConnected());
+        writeValue(out, "lightblocks_spectator_frames_dropped_total", "counter",
+                "Frames not sent to the spectators of a match because the fan-out was behind",
+                spectatorFramesDropped.get());
+        writeValue(out, "lightblocks_spectators_watching", "gauge", "Spectators currently watching a match",
+                spectators.get());
+        writeValue(out, "lightblocks_matchmaking_waiting_players", "gauge", "Players waiting for a match",
+                server.matchmaker != null ? server.matchmaker.getWaitingPlayerNum() : 0);
+        writeValue(out, "lightblocks_matches_running", "gauge", "Matches currently ticked",
+                server.scheduler != null ? server.scheduler.getMatchNum() : 0);
+        return out.toString();
+    }
+
+    private static void writeValue(StringBuilder out, String name, String type, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Histogram with fixed exponential buckets (1, 2, 5, 10, 20, 50, ...). Values are recorded as
+     * long, the unit is nanoseconds for all timings, reported in seconds.
+     */
+    public static class Histogram {
+        private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500,
+                1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000,
+                1000000, 2000000, 5000000, 10000000, 20000000, 50000000, 100000000, 200000000, 500000000,
+                1000000000L, 2000000000L, 5000000000L, 10000000000L};
+
+        private final String name;
+        private final String help;
+        private final double scale;
+        private final int bucketNum;
+        // the last bucket counts everything above the highest bound
+        private final AtomicLongArray counts;
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong windowMax = new AtomicLong();
+        // counts when the current window started, and counts and maximum of the last full window
+        private final long[] windowStartCounts;
+        private final long[] lastWindowCounts;
+        private long lastWindowMax;
+
+        /**
+         * histogram for timings in nanoseconds
+         */
+        public Histogram(String name, String help) {
+            this(name, help, 1000000000d);
+        }
+
+        /**
+         * @param scale recorded values are divided by it for output
+         */
+        public Histogram(String name, String help, double scale) {
+            this.name = name;
+            this.help = help;
+            this.scale = scale;
+            bucketNum = BOUNDS.length;
+            counts = new AtomicLongArray(bucketNum + 1);
+            windowStartCounts = new long[bucketNum + 1];
+            lastWindowCounts = new long[bucketNum + 1];
+        }
+
+        public void record(long value) {
+            int bucket = 0;
+            while (bucket < bucketNum && value > BOUNDS[bucket])
+                bucket++;
+            counts.incrementAndGet(bucket);
+            sum.addAndGet(value);
+
+            long max = windowMax.get();
+            while (value > max && !windowMax.compareAndSet(max, value))
+                max = windowMax.get();
+        }
+
+        void rotateWindow() {
+            for (int i = 0; i <= bucketNum; i++) {
+                long count = counts.get(i);
+                lastWindowCounts[i] = count - windowStartCounts[i];
+                windowStartCounts[i] = count;
+            }
+            lastWindowMax = windowMax.getAndSet(0);
+        }
+
+        /**
+         * writes the cumulative histogram, and quantiles and maximum of the last full window
+         */
+        void write(StringBuilder out) {
+            long intervalCount = 0;
+            long cumulative = 0;
+
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            for (int i = 0; i <= bucketNum; i++) {
+                intervalCount += lastWindowCounts[i];
+                cumulative += counts.get(i);
+                out.append(name).append("_bucket{le=\"")
+                        .append(i < bucketNum ? format(BOUNDS[i]) : "+Inf").append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum ").append(format(sum.get())).append('\n');
+            out.append(name).append("_count ").append(cumulative).append('\n');
+
+            long max = lastWindowMax;
+            String intervalName = name + "_interval";
+            out.append("# HELP ").append(intervalName).append(' ').append(help)
+                    .append(", over the last full minute (upper bucket bounds)\n");
+            out.append("# TYPE ").append(intervalName).append(" gauge\n");
+            out.append(intervalName).append("{quantile=\"0.5\"} ")
+                    .append(quantile(lastWindowCounts, intervalCount, max, .5)).append('\n');
+            out.append(intervalName).append("{quantile=\"0.99\"} ")
+                    .append(quantile(lastWindowCounts, intervalCount, max, .99)).append('\n');
+            out.append(intervalName).append("{quantile=\"1\"} ")
+                    .append(format(max)).append('\n');
+        }
+
+        private String quantile(long[] interval, long intervalCount, long max, double quantile) {
+            if (intervalCount == 0)
+                return "NaN";
+
+            long rank = (long) Math.ceil(intervalCount * quantile);
+            long seen = 0;
+            for (int i = 0; i < bucketNum; i++) {
+                seen += interval[i];
+                if (seen >= rank)
+                    return format(Math.min(BOUNDS[i], max));
+            }
+            return format(max);
+        }
+
+        private String format(long value) {
+            return scale == 1 ? String.valueOf(value) : String.valueOf(value / scale);
+        }
+    }
+}
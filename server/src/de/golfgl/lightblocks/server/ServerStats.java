@@ -5,6 +5,8 @@ import com.badlogic.gdx.utils.TimeUtils;
 
 import java.util.concurrent.TimeUnit;
 
+import de.golfgl.lightblocks.multiplayer.ai.EvaluationCache;
+
 public class ServerStats {
     public static final String TAG_LOG = "STATS";
     public int matchesStarted;
@@ -13,6 +15,8 @@ public class ServerStats {
     private int playersCurrentlyConnected;
     private long secondsConnectedOverall;
     private long resetMs;
+    private long aiCacheLookupsAtReset;
+    private long aiCacheHitsAtReset;
 
     public ServerStats() {
         reset();
@@ -35,6 +39,8 @@ public class ServerStats {
         playersConnectedOverall = 0;
         secondsConnectedOverall = 0;
         resetMs = TimeUtils.millis();
+        aiCacheLookupsAtReset = EvaluationCache.getTotalLookups();
+        aiCacheHitsAtReset = EvaluationCache.getTotalHits();
     }
 
     public void playerConnected() {
@@ -66,5 +72,8 @@ public class ServerStats {
         int playersOverallNotConnectedAnymore = playersConnectedOverall - playersCurrentlyConnected;
         if (playersOverallNotConnectedAnymore > 0)
             Gdx.app.log(TAG_LOG, "Player average connection time (sec): " + (secondsConnectedOverall / playersOverallNotConnectedAnymore));
+        long aiCacheLookups = EvaluationCache.getTotalLookups() - aiCacheLookupsAtReset;
+        if (aiCacheLookups > 0)
+            Gdx.app.log(TAG_LOG, "AI evaluation cache hit rate: " + (EvaluationCache.getTotalHits() - aiCacheHitsAtReset) * 100 / aiCacheLookups + "%");
     }
 }
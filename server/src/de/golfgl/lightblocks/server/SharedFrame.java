@@ -0,0 +1,63 @@
+package de.golfgl.lightblocks.server;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.framing.BinaryFrame;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.TextFrame;
+import org.java_websocket.util.Charsetfunctions;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A WebSocket frame sent unchanged to many connections, like the event stream of a match to its
+ * spectators. The payload is built once and shared read-only by all connections, each one only
+ * wraps it into a frame of its own, which the connection encodes when sending.
+ */
+class SharedFrame {
+    private final ByteBuffer payload;
+    private final boolean binary;
+
+    private SharedFrame(ByteBuffer payload, boolean binary) {
+        this.payload = payload.asReadOnlyBuffer();
+        this.binary = binary;
+    }
+
+    /**
+     * @param payload the payload from its position to its limit, copied so the caller can reuse it
+     */
+    static SharedFrame binary(ByteBuffer payload) {
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+        copy.put(payload.duplicate());
+        copy.flip();
+        return new SharedFrame(copy, true);
+    }
+
+    static SharedFrame text(String text) {
+        return new SharedFrame(ByteBuffer.wrap(Charsetfunctions.utf8Bytes(text)), false);
+    }
+
+    /**
+     * @return size of the payload
+     */
+    int getLength() {
+        return payload.limit();
+    }
+
+    /**
+     * queues the frame for the connection, thread safe
+     */
+    void sendTo(WebSocket conn) {
+        if (!conn.isOpen())
+            return;
+
+        // the connection moves the payload's position while encoding, so every frame gets a view of its own
+        DataFrame frame = binary ? new BinaryFrame() : new TextFrame();
+        frame.setPayload(payload.duplicate());
+        try {
+            conn.sendFrame(frame);
+        } catch (WebsocketNotConnectedException e) {
+            // closed since the check above
+        }
+    }
+}
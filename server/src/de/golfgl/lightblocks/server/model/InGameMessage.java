@@ -1,9 +0,0 @@
-package de.golfgl.lightblocks.server.model;
-
-public class InGameMessage {
-    public final String message;
-
-    public InGameMessage(String message) {
-        this.message = message;
-    }
-}
@@ -4,5 +4,11 @@ public class PlayerInfo {
     public String nickName;
     public String userId;
     public String authToken;
+    public int binaryProtocol;
+    // optional matchmaking preferences, -1 for none
+    public int modeType = -1;
+    public int beginningLevel = -1;
+    // watch a running match instead of playing, needs binary protocol version 3
+    public boolean spectate;
 
 }
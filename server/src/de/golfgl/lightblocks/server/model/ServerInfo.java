@@ -6,4 +6,5 @@ public class ServerInfo {
     public String owner;
     public String description;
     public boolean authRequired;
+    public int binaryProtocol;
 }
@@ -13,6 +13,7 @@ public class InitGameParameters {
 
     private int beginningLevel;
     private int modeType;
+    private long randomSeed;
 
     public int getBeginningLevel() {
         return beginningLevel;
@@ -29,4 +30,16 @@ public class InitGameParameters {
     public void setModeType(int modeType) {
         this.modeType = modeType;
     }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    /**
+     * @param randomSeed seed for drawing the pieces and garbage gaps, so a game can be played again.
+     *                   0 for a random game
+     */
+    public void setRandomSeed(long randomSeed) {
+        this.randomSeed = randomSeed;
+    }
 }